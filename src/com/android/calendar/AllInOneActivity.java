@@ -82,6 +82,7 @@ import com.android.calendar.CalendarController.ViewType;
 import com.android.calendar.DynamicTheme;
 import com.android.calendar.agenda.AgendaFragment;
 import com.android.calendar.month.MonthByWeekFragment;
+import com.android.calendar.month.MonthWeekViewPool;
 import com.android.calendar.selectcalendars.SelectVisibleCalendarsFragment;
 import com.android.datetimepicker.date.DatePickerDialog;
 
@@ -670,6 +671,7 @@ public class AllInOneActivity extends AbstractCalendarActivity implements EventH
         mController.deregisterAllEventHandlers();
 
         CalendarController.removeInstance(this);
+        MonthWeekViewPool.release(this);
 
         // Clean up cached ics and vcs files
         cleanupCachedEventFiles();
@@ -898,6 +900,8 @@ public class AllInOneActivity extends AbstractCalendarActivity implements EventH
             return false;
         } else if (itemId == R.id.action_import) {
             ImportActivity.pickImportFile(this);
+        } else if (itemId == R.id.action_export) {
+            new ExportCalendarTask(this).execute();
         } else {
             return mExtensions.handleItemSelected(item, this);
         }
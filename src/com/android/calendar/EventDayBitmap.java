@@ -0,0 +1,451 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.provider.CalendarContract;
+import android.provider.CalendarContract.EventDays;
+import android.text.format.Time;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A persistent "has events" bitmap, one bit per Julian day, covering a rolling
+ * window around today. The bits live in a small memory-mapped file so they survive
+ * process death. Readers such as the mini-month can then fill their event dots without
+ * querying the provider.
+ *
+ * The whole window is only read from the provider when the bitmap is invalidated: on
+ * first use in a process, when the window moves, or when the time zone changes. Until
+ * then readers fall back to the provider, and a read that failed is retried when they
+ * ask again, waiting longer after every failure. A change reported by the provider
+ * marks every word stale, and only the stale words readers have asked for since the
+ * last refresh are read again. Other words stay stale, and readers asking for them fall
+ * back to the provider until they are refreshed.
+ */
+public class EventDayBitmap {
+    private static final String TAG = "EventDayBitmap";
+    private static final boolean DEBUG = false;
+
+    private static final String FILE_NAME = "event_days.bitmap";
+
+    private static final int MAGIC = 0x45444231; // "EDB1"
+    private static final int VERSION = 2;
+
+    // Header layout, in ints
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 1;
+    private static final int HEADER_WINDOW_START = 2;
+    private static final int HEADER_TIMEZONE_HASH = 3;
+    private static final int HEADER_VALID = 4;
+    // One bit per word that may be out of date
+    private static final int HEADER_STALE = 5;
+    private static final int HEADER_INTS = 6;
+    private static final int HEADER_BYTES = HEADER_INTS * 4;
+
+    // Roughly two years on either side of today, rounded to whole longs
+    private static final int WORDS_BEFORE_TODAY = 12;
+    private static final int WORDS = 24;
+    private static final int ALL_WORDS = (1 << WORDS) - 1;
+    static final int WINDOW_DAYS = WORDS * 64;
+
+    // How long to wait for a burst of provider notifications to settle
+    private static final long REBUILD_DELAY_MS = 1000;
+    // The longest wait before retrying a rebuild that failed
+    private static final long MAX_RETRY_DELAY_MS = 5 * 60 * 1000;
+
+    private static final String[] PROJECTION = {
+            EventDays.STARTDAY, EventDays.ENDDAY
+    };
+
+    private static EventDayBitmap sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final IntBuffer mHeader;
+    private final LongBuffer mBits;
+
+    // The words of the last request, and of all requests since the last refresh. Guarded
+    // by mBits.
+    private int mLastWords;
+    private int mRequestedWords;
+    // Counts the provider changes, so a refresh doesn't clear one reported while it ran.
+    // Guarded by mBits.
+    private int mChanges;
+    // Whether mRebuild is posted, and how long readers wait before retrying it after it
+    // failed, doubled on every failure. Guarded by mBits.
+    private boolean mRebuildPending;
+    private long mRetryDelayMs = REBUILD_DELAY_MS;
+
+    private final Runnable mRebuild = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mBits) {
+                mRebuildPending = false;
+            }
+            rebuild();
+        }
+    };
+
+    private final Runnable mRefresh = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+        }
+    };
+
+    private final ContentObserver mObserver;
+
+    private EventDayBitmap(Context context, MappedByteBuffer buffer) {
+        mContext = context;
+        buffer.order(ByteOrder.nativeOrder());
+        buffer.position(0);
+        mHeader = buffer.asIntBuffer();
+        buffer.position(HEADER_BYTES);
+        mBits = buffer.slice().order(ByteOrder.nativeOrder()).asLongBuffer();
+
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        mObserver = new ContentObserver(mHandler) {
+            @Override
+            public boolean deliverSelfNotifications() {
+                return true;
+            }
+
+            @Override
+            public void onChange(boolean selfChange) {
+                markStale();
+            }
+        };
+
+        if (mHeader.get(HEADER_MAGIC) != MAGIC || mHeader.get(HEADER_VERSION) != VERSION) {
+            mHeader.put(HEADER_MAGIC, MAGIC);
+            mHeader.put(HEADER_VERSION, VERSION);
+            mHeader.put(HEADER_VALID, 0);
+        }
+        // The file may miss changes made while the app wasn't observing, so readers fall
+        // back to the provider until the first rebuild has checked it
+        mHeader.put(HEADER_STALE, ALL_WORDS);
+        context.getContentResolver().registerContentObserver(CalendarContract.CONTENT_URI,
+                true, mObserver);
+    }
+
+    /**
+     * Returns the process wide bitmap, mapping its backing file on first use. Returns
+     * null if the file could not be mapped, in which case callers should query the
+     * provider directly.
+     */
+    public static synchronized EventDayBitmap getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            File file = new File(appContext.getFilesDir(), FILE_NAME);
+            RandomAccessFile raf = null;
+            try {
+                raf = new RandomAccessFile(file, "rw");
+                MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                        0, HEADER_BYTES + WORDS * 8);
+                sInstance = new EventDayBitmap(appContext, buffer);
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to map " + file, e);
+                return null;
+            } finally {
+                if (raf != null) {
+                    try {
+                        // The mapping stays valid after the channel is closed
+                        raf.close();
+                    } catch (IOException e) {
+                        // Ignore
+                    }
+                }
+            }
+            // Catch up with anything that changed while we weren't observing
+            sInstance.scheduleRebuild(0);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Fills in eventDays for numDays days starting at startDay from the bitmap.
+     *
+     * @return false if the bitmap is stale or does not cover the requested range, in
+     *         which case eventDays is left untouched.
+     */
+    public boolean fillEventDays(int startDay, int numDays, boolean[] eventDays) {
+        synchronized (mBits) {
+            if (mHeader.get(HEADER_VALID) == 0) {
+                // Not built yet, or the last rebuild failed, e.g. before the calendar
+                // permission was granted
+                if (!mRebuildPending) {
+                    scheduleRebuild(mRetryDelayMs);
+                }
+                return false;
+            }
+            if (!isCurrent()) {
+                // The window moved or the time zone changed
+                mHandler.removeCallbacks(mRefresh);
+                mHandler.post(mRefresh);
+                return false;
+            }
+            int offset = startDay - mHeader.get(HEADER_WINDOW_START);
+            int words = requestMask(offset, numDays);
+            if (words == 0) {
+                return false;
+            }
+            mLastWords = words;
+            mRequestedWords |= words;
+            if ((mHeader.get(HEADER_STALE) & words) != 0) {
+                mHandler.removeCallbacks(mRefresh);
+                mHandler.post(mRefresh);
+                return false;
+            }
+            for (int i = 0; i < numDays; i++) {
+                int bit = offset + i;
+                eventDays[i] = (mBits.get(bit >> 6) & (1L << (bit & 63))) != 0;
+            }
+            return true;
+        }
+    }
+
+    private void scheduleRebuild(long delayMs) {
+        synchronized (mBits) {
+            mRebuildPending = true;
+        }
+        mHandler.postDelayed(mRebuild, delayMs);
+    }
+
+    /**
+     * Marks every word stale after a provider change, which doesn't tell which days
+     * changed, and schedules a refresh of the words readers use. Bursts of calls are
+     * coalesced into a single refresh.
+     */
+    private void markStale() {
+        synchronized (mBits) {
+            mHeader.put(HEADER_STALE, ALL_WORDS);
+            mChanges++;
+        }
+        mHandler.removeCallbacks(mRefresh);
+        mHandler.postDelayed(mRefresh, REBUILD_DELAY_MS);
+    }
+
+    /**
+     * Returns the mask of the words first to last, inclusive
+     */
+    /* @VisibleForTesting */
+    static int wordMask(int first, int last) {
+        return (ALL_WORDS >>> (WORDS - 1 - last)) & ~((1 << first) - 1);
+    }
+
+    /**
+     * Returns the mask of the words holding numDays days from offset days into the
+     * window, or 0 if they are not all in the window
+     */
+    /* @VisibleForTesting */
+    static int requestMask(int offset, int numDays) {
+        if (offset < 0 || numDays <= 0 || offset + numDays > WINDOW_DAYS) {
+            return 0;
+        }
+        return wordMask(offset >> 6, (offset + numDays - 1) >> 6);
+    }
+
+    /**
+     * Returns the window start for a Julian day, aligned to a word so the window only
+     * moves every 64 days
+     */
+    /* @VisibleForTesting */
+    static int windowStart(int today) {
+        return ((today >> 6) - WORDS_BEFORE_TODAY) << 6;
+    }
+
+    /**
+     * Returns the stale words after the queried words were read. They stay stale if a
+     * change was reported during the query.
+     */
+    /* @VisibleForTesting */
+    static int staleAfterQuery(int stale, int queried, boolean changed) {
+        return changed ? stale : stale & ~queried;
+    }
+
+    /**
+     * Writes the words read from first on into bits, only where they differ unless all
+     * are to be written.
+     *
+     * @return the number of words written
+     */
+    /* @VisibleForTesting */
+    static int patchWords(LongBuffer bits, long[] words, int first, boolean all) {
+        int patched = 0;
+        for (int i = 0; i < words.length; i++) {
+            if (all || bits.get(first + i) != words[i]) {
+                bits.put(first + i, words[i]);
+                patched++;
+            }
+        }
+        return patched;
+    }
+
+    private boolean isCurrent() {
+        return mHeader.get(HEADER_VALID) != 0
+                && mHeader.get(HEADER_WINDOW_START) == computeWindowStart()
+                && mHeader.get(HEADER_TIMEZONE_HASH) == currentTimeZoneHash();
+    }
+
+    private int computeWindowStart() {
+        Time time = new Time(Utils.getTimeZone(mContext, null));
+        time.setToNow();
+        return windowStart(Time.getJulianDay(time.toMillis(true), time.gmtoff));
+    }
+
+    private int currentTimeZoneHash() {
+        return Utils.getTimeZone(mContext, null).hashCode();
+    }
+
+    /**
+     * Re-reads the whole window from the provider and patches only the words that
+     * changed. Runs on the bitmap's background thread.
+     */
+    private void rebuild() {
+        int windowStart = computeWindowStart();
+        int tzHash = currentTimeZoneHash();
+        int changes;
+        synchronized (mBits) {
+            changes = mChanges;
+        }
+        long[] words = queryWords(windowStart, 0, WORDS);
+        if (words == null) {
+            // Stay invalid, readers retry later
+            synchronized (mBits) {
+                mHeader.put(HEADER_VALID, 0);
+                mRetryDelayMs = Math.min(2 * mRetryDelayMs, MAX_RETRY_DELAY_MS);
+            }
+            return;
+        }
+
+        int patched;
+        synchronized (mBits) {
+            boolean moved = mHeader.get(HEADER_WINDOW_START) != windowStart;
+            patched = patchWords(mBits, words, 0, moved);
+            mHeader.put(HEADER_WINDOW_START, windowStart);
+            mHeader.put(HEADER_TIMEZONE_HASH, tzHash);
+            mHeader.put(HEADER_STALE, staleAfterQuery(mHeader.get(HEADER_STALE), ALL_WORDS,
+                    changes != mChanges));
+            mHeader.put(HEADER_VALID, 1);
+            mRetryDelayMs = REBUILD_DELAY_MS;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Rebuilt window starting at " + windowStart + ", patched " + patched
+                    + " of " + WORDS + " words");
+        }
+    }
+
+    /**
+     * Re-reads the stale words readers asked for, from the first to the last of them in
+     * one query, or the whole window if the bitmap is no longer current. Runs on the
+     * bitmap's background thread.
+     */
+    private void refresh() {
+        int windowStart;
+        int words;
+        int changes;
+        synchronized (mBits) {
+            if (!isCurrent()) {
+                words = -1;
+            } else {
+                words = mHeader.get(HEADER_STALE) & (mLastWords | mRequestedWords);
+            }
+            mRequestedWords = 0;
+            windowStart = mHeader.get(HEADER_WINDOW_START);
+            changes = mChanges;
+        }
+        if (words == -1) {
+            rebuild();
+            return;
+        }
+        if (words == 0) {
+            return;
+        }
+        int first = Integer.numberOfTrailingZeros(words);
+        int last = Integer.SIZE - 1 - Integer.numberOfLeadingZeros(words);
+        int count = last - first + 1;
+        long[] bits = queryWords(windowStart, first, count);
+        if (bits == null) {
+            return;
+        }
+        // Only this thread moves the window, so it is still at windowStart
+        synchronized (mBits) {
+            patchWords(mBits, bits, first, false);
+            mHeader.put(HEADER_STALE, staleAfterQuery(mHeader.get(HEADER_STALE),
+                    wordMask(first, last), changes != mChanges));
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Refreshed " + count + " words from word " + first);
+        }
+    }
+
+    /**
+     * Reads count words of the window from the provider, starting at word first.
+     *
+     * @return null if the provider could not be queried
+     */
+    private long[] queryWords(int windowStart, int first, int count) {
+        int startDay = windowStart + (first << 6);
+        int numDays = count << 6;
+        long[] words = new long[count];
+
+        ContentResolver cr = mContext.getContentResolver();
+        Cursor cursor = null;
+        try {
+            cursor = EventDays.query(cr, startDay, numDays, PROJECTION);
+            if (cursor == null) {
+                return null;
+            }
+            int startDayColumnIndex = cursor.getColumnIndexOrThrow(EventDays.STARTDAY);
+            int endDayColumnIndex = cursor.getColumnIndexOrThrow(EventDays.ENDDAY);
+            while (cursor.moveToNext()) {
+                int firstBit = Math.max(cursor.getInt(startDayColumnIndex) - startDay, 0);
+                int lastBit = Math.min(cursor.getInt(endDayColumnIndex) - startDay,
+                        numDays - 1);
+                for (int bit = firstBit; bit <= lastBit; bit++) {
+                    words[bit >> 6] |= 1L << (bit & 63);
+                }
+            }
+        } catch (SecurityException e) {
+            // Calendar permission not granted yet
+            Log.w(TAG, "Unable to query event days", e);
+            return null;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return words;
+    }
+}
@@ -163,6 +163,13 @@ public class EventLoader {
             final Handler handler = eventLoader.mHandler;
             ContentResolver cr = eventLoader.mResolver;
 
+            // Answer from the persistent bitmap when it covers this range
+            EventDayBitmap bitmap = EventDayBitmap.getInstance(eventLoader.mContext);
+            if (bitmap != null && bitmap.fillEventDays(startDay, numDays, eventDays)) {
+                handler.post(uiCallback);
+                return;
+            }
+
             // Clear the event days
             Arrays.fill(eventDays, false);
 
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.text.format.Time;
+import android.util.Log;
+import android.widget.Toast;
+
+import com.android.calendar.icalendar.IcalendarExporter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import ws.xsoh.etar.R;
+
+/**
+ * Exports the events of all visible calendars to an .ics file in
+ * {@link EventInfoFragment#EXPORT_SDCARD_DIRECTORY}.
+ */
+public class ExportCalendarTask extends AsyncTask<Void, Void, File> {
+    private static final String TAG = "ExportCalendarTask";
+
+    private final Context mContext;
+
+    public ExportCalendarTask(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    @Override
+    protected File doInBackground(Void... params) {
+        File dir = EventInfoFragment.EXPORT_SDCARD_DIRECTORY;
+        if (!dir.exists() && !dir.mkdirs()) {
+            return null;
+        }
+        Time now = new Time();
+        now.setToNow();
+        File file = new File(dir, "calendar-" + now.format("%Y%m%d-%H%M%S") + ".ics");
+
+        Writer out = null;
+        try {
+            out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            IcalendarExporter exporter = new IcalendarExporter(mContext.getContentResolver());
+            int count = exporter.exportCalendar(-1, out);
+            Log.i(TAG, "Exported " + count + " events to " + file);
+            return file;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to export to " + file, e);
+            file.delete();
+            return null;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void onPostExecute(File file) {
+        if (file == null) {
+            Toast.makeText(mContext, R.string.cal_export_error_msg, Toast.LENGTH_SHORT).show();
+        } else {
+            String msg = mContext.getString(R.string.cal_export_succ_msg);
+            Toast.makeText(mContext, String.format(msg, file), Toast.LENGTH_SHORT).show();
+        }
+    }
+}
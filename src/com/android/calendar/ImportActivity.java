@@ -2,32 +2,58 @@ package com.android.calendar;
 
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.app.Notification;
+import android.app.NotificationManager;
 import android.content.ActivityNotFoundException;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
+import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.provider.CalendarContract;
+import android.provider.CalendarContract.Calendars;
 import android.text.TextUtils;
+import android.text.format.DateUtils;
+import android.util.Log;
 import android.widget.Toast;
 import com.android.calendar.event.EditEventActivity;
 import com.android.calendar.icalendar.Attendee;
+import com.android.calendar.icalendar.IcalendarDateTime;
+import com.android.calendar.icalendar.IcalendarImportIndex;
+import com.android.calendar.icalendar.IcalendarImporter;
+import com.android.calendar.icalendar.IcalendarParser;
+import com.android.calendar.icalendar.IcalendarSummary;
 import com.android.calendar.icalendar.IcalendarUtils;
-import com.android.calendar.icalendar.VCalendar;
 import com.android.calendar.icalendar.VEvent;
 
 import java.io.File;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.LinkedList;
-import java.util.TimeZone;
+import java.io.IOException;
 
 import ws.xsoh.etar.R;
 
 public class ImportActivity extends Activity {
+    private static final String TAG = "ImportActivity";
+
+    private static final String[] CALENDARS_PROJECTION = new String[] {
+            Calendars._ID, // 0
+            Calendars.CALENDAR_DISPLAY_NAME, // 1
+            Calendars.OWNER_ACCOUNT, // 2
+            Calendars.ACCOUNT_NAME, // 3
+            Calendars.ACCOUNT_TYPE, // 4
+    };
+    private static final int CALENDARS_INDEX_ID = 0;
+    private static final int CALENDARS_INDEX_DISPLAY_NAME = 1;
+    private static final int CALENDARS_INDEX_OWNER_ACCOUNT = 2;
+    private static final int CALENDARS_INDEX_ACCOUNT_NAME = 3;
+    private static final int CALENDARS_INDEX_ACCOUNT_TYPE = 4;
+    private static final String CALENDARS_WHERE_WRITEABLE_VISIBLE = Calendars.CALENDAR_ACCESS_LEVEL
+            + ">=" + Calendars.CAL_ACCESS_CONTRIBUTOR + " AND " + Calendars.VISIBLE + "=1";
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -40,19 +66,58 @@ public class ImportActivity extends Activity {
         }
     }
 
-    private long getLocalTimeFromString(String iCalDate) {
-        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
-        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    /**
+     * Returns an intent showing a single event in the read-only editor. Times are
+     * converted the way the importer stores them, DATE-TIME values in their TZID or else
+     * in defaultTimeZone and DATE values as all-day.
+     */
+    static Intent buildInsertIntent(VEvent event, String defaultTimeZone) {
+        Intent calIntent = new Intent(Intent.ACTION_INSERT);
+        calIntent.setType("vnd.android.cursor.item/event");
 
-        try {
-            format.parse(iCalDate);
-            format.setTimeZone(TimeZone.getDefault());
-            return format.getCalendar().getTimeInMillis();
-        } catch (ParseException e) {
-            e.printStackTrace();
+        calIntent.putExtra(CalendarContract.Events.TITLE,
+                IcalendarUtils.uncleanseString(event.getProperty(VEvent.SUMMARY)));
+        calIntent.putExtra(CalendarContract.Events.EVENT_LOCATION,
+                IcalendarUtils.uncleanseString(event.getProperty(VEvent.LOCATION)));
+        calIntent.putExtra(CalendarContract.Events.DESCRIPTION,
+                IcalendarUtils.uncleanseString(event.getProperty(VEvent.DESCRIPTION)));
+        if (event.mOrganizer != null) {
+            calIntent.putExtra(CalendarContract.Events.ORGANIZER, event.mOrganizer.mEmail);
+        }
+
+        if (event.mAttendees.size() > 0) {
+            StringBuilder builder = new StringBuilder();
+            for (Attendee attendee : event.mAttendees) {
+                builder.append(attendee.mEmail);
+                builder.append(",");
+            }
+            calIntent.putExtra(Intent.EXTRA_EMAIL, builder.toString());
         }
 
-        return System.currentTimeMillis();
+        if (!TextUtils.isEmpty(event.getProperty(VEvent.DTSTART))) {
+            try {
+                boolean allDay = IcalendarImporter.isDate(event, VEvent.DTSTART);
+                long begin = IcalendarImporter.parseDateTime(event, VEvent.DTSTART, allDay,
+                        defaultTimeZone);
+                calIntent.putExtra(CalendarContract.EXTRA_EVENT_ALL_DAY, allDay);
+                calIntent.putExtra(CalendarContract.EXTRA_EVENT_BEGIN_TIME, begin);
+
+                String duration = event.getProperty(VEvent.DURATION);
+                if (!TextUtils.isEmpty(event.getProperty(VEvent.DTEND))) {
+                    calIntent.putExtra(CalendarContract.EXTRA_EVENT_END_TIME,
+                            IcalendarImporter.parseDateTime(event, VEvent.DTEND, allDay,
+                                    defaultTimeZone));
+                } else if (!TextUtils.isEmpty(duration)) {
+                    calIntent.putExtra(CalendarContract.EXTRA_EVENT_END_TIME,
+                            begin + IcalendarDateTime.parseDuration(duration));
+                }
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Bad date-time in " + event.getProperty(VEvent.UID), e);
+            }
+        }
+
+        calIntent.putExtra(EditEventActivity.EXTRA_READ_ONLY, true);
+        return calIntent;
     }
 
     private void showErrorToast() {
@@ -62,55 +127,40 @@ public class ImportActivity extends Activity {
 
     private void parseCalFile() {
         Uri uri = getIntent().getData();
-        VCalendar calendar = IcalendarUtils.readCalendarFromFile(this, uri);
-
-        if (calendar == null) {
+        IcalendarParser parser = IcalendarUtils.openCalendarParser(this, uri);
+        if (parser == null) {
             showErrorToast();
             return;
         }
 
-        Intent calIntent = new Intent(Intent.ACTION_INSERT);
-        calIntent.setType("vnd.android.cursor.item/event");
-
-        LinkedList<VEvent> events = calendar.getAllEvents();
-        if (events == null) {
-            showErrorToast();
-            return;
-        }
-
-        VEvent firstEvent = calendar.getAllEvents().getFirst();
-        calIntent.putExtra(CalendarContract.Events.TITLE,
-                IcalendarUtils.uncleanseString(firstEvent.getProperty(VEvent.SUMMARY)));
-        calIntent.putExtra(CalendarContract.Events.EVENT_LOCATION,
-                IcalendarUtils.uncleanseString(firstEvent.getProperty(VEvent.LOCATION)));
-        calIntent.putExtra(CalendarContract.Events.DESCRIPTION,
-                IcalendarUtils.uncleanseString(firstEvent.getProperty(VEvent.DESCRIPTION)));
-        calIntent.putExtra(CalendarContract.Events.ORGANIZER,
-                IcalendarUtils.uncleanseString(firstEvent.getProperty(VEvent.ORGANIZER)));
-
-        if (firstEvent.mAttendees.size() > 0) {
-            StringBuilder builder = new StringBuilder();
-            for (Attendee attendee : firstEvent.mAttendees) {
-                builder.append(attendee.mEmail);
-                builder.append(",");
+        // Only read as far as needed to tell a single event from a calendar
+        VEvent firstEvent;
+        boolean hasMoreEvents;
+        try {
+            firstEvent = parser.nextEvent();
+            hasMoreEvents = firstEvent != null && parser.nextEvent() != null;
+        } catch (IOException e) {
+            firstEvent = null;
+            hasMoreEvents = false;
+        } finally {
+            try {
+                parser.close();
+            } catch (IOException e) {
+                // Ignore
             }
-            calIntent.putExtra(Intent.EXTRA_EMAIL, builder.toString());
         }
 
-        String dtStart = firstEvent.getProperty(VEvent.DTSTART);
-        if (!TextUtils.isEmpty(dtStart)) {
-            calIntent.putExtra(CalendarContract.EXTRA_EVENT_BEGIN_TIME,
-                    getLocalTimeFromString(dtStart));
+        if (firstEvent == null) {
+            showErrorToast();
+            return;
         }
-
-        String dtEnd = firstEvent.getProperty(VEvent.DTEND);
-        if (!TextUtils.isEmpty(dtEnd)) {
-            calIntent.putExtra(CalendarContract.EXTRA_EVENT_END_TIME,
-                    getLocalTimeFromString(dtEnd));
+        if (hasMoreEvents) {
+            new ImportEventsTask(this, uri).execute();
+            finish();
+            return;
         }
 
-        calIntent.putExtra(EditEventActivity.EXTRA_READ_ONLY, true);
-
+        Intent calIntent = buildInsertIntent(firstEvent, Utils.getTimeZone(this, null));
         try {
             startActivity(calIntent);
         } catch (ActivityNotFoundException e) {
@@ -134,6 +184,193 @@ public class ImportActivity extends Activity {
                 || ContentResolver.SCHEME_FILE.equals(scheme);
     }
 
+    /**
+     * Imports every event of a calendar file into the default calendar, reporting the
+     * progress in a notification. Keeps running after the activity has finished, and
+     * resumes where it stopped if the same file is imported again after an interruption.
+     * Events imported from the same file before are updated rather than duplicated.
+     */
+    private static class ImportEventsTask extends AsyncTask<Void, Integer, Integer> {
+        private static final String PROGRESS_PREFERENCES = "import_progress";
+        private static final String INDEX_FILE_PREFIX = "import-index-";
+        private static final String NOTIFICATION_TAG = "import";
+        private static final int NOTIFICATION_ID = 0;
+
+        private final Context mContext;
+        private final Uri mUri;
+        private final String mProgressKey;
+        // The number of events in the file, 0 if it isn't known
+        private int mEventCount;
+        // The days the events of the file start on, null if they aren't known
+        private String mDateRange;
+
+        public ImportEventsTask(Context context, Uri uri) {
+            mContext = context.getApplicationContext();
+            mUri = uri;
+            mProgressKey = uri.toString();
+        }
+
+        @Override
+        protected void onPreExecute() {
+            showProgress(0);
+        }
+
+        @Override
+        protected Integer doInBackground(Void... params) {
+            long calendarId = findDefaultCalendar(mContext);
+            if (calendarId == -1) {
+                return -1;
+            }
+            // A quick pass over local files to show how far along the import is, and
+            // which days it covers
+            IcalendarSummary summary = IcalendarUtils.scanCalendar(mUri);
+            if (summary != null) {
+                mEventCount = summary.getEventCount();
+                mDateRange = formatDateRange(summary);
+            }
+            IcalendarParser parser = IcalendarUtils.openCalendarParser(mContext, mUri);
+            if (parser == null) {
+                return -1;
+            }
+
+            final SharedPreferences progress = mContext.getSharedPreferences(
+                    PROGRESS_PREFERENCES, Context.MODE_PRIVATE);
+            IcalendarImporter importer = new IcalendarImporter(mContext.getContentResolver(),
+                    calendarId, Utils.getTimeZone(mContext, null));
+            // Importing the same file again only touches the events that changed
+            IcalendarImportIndex index = new IcalendarImportIndex(new File(
+                    mContext.getFilesDir(), INDEX_FILE_PREFIX + calendarId + "-"
+                            + Integer.toHexString(mProgressKey.hashCode())));
+            try {
+                index.load();
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to read the import index, starting over", e);
+            }
+            importer.setIndex(index, false);
+            importer.setProgressListener(new IcalendarImporter.ProgressListener() {
+                @Override
+                public void onProgress(int handled) {
+                    progress.edit().putInt(mProgressKey, handled).apply();
+                    publishProgress(handled);
+                }
+            });
+            try {
+                int imported = importer.importEvents(parser,
+                        progress.getInt(mProgressKey, 0));
+                progress.edit().remove(mProgressKey).apply();
+                return imported;
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to read " + mUri, e);
+            } catch (RemoteException e) {
+                Log.e(TAG, "Failed to import " + mUri, e);
+            } catch (OperationApplicationException e) {
+                Log.e(TAG, "Failed to import " + mUri, e);
+            } finally {
+                try {
+                    parser.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... values) {
+            showProgress(values[0]);
+        }
+
+        @Override
+        protected void onPostExecute(Integer imported) {
+            NotificationManager nm = (NotificationManager) mContext.getSystemService(
+                    Context.NOTIFICATION_SERVICE);
+            nm.cancel(NOTIFICATION_TAG, NOTIFICATION_ID);
+            if (imported < 0) {
+                Toast.makeText(mContext, R.string.cal_import_error_msg,
+                        Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(mContext, mContext.getString(R.string.cal_import_done, imported),
+                        Toast.LENGTH_SHORT).show();
+            }
+        }
+
+        /**
+         * Formats the days the events of a file start on, or returns null if none has a
+         * start date
+         */
+        private String formatDateRange(IcalendarSummary summary) {
+            if (summary.getFirstDay() == 0) {
+                return null;
+            }
+            try {
+                long first = IcalendarDateTime.parse(Integer.toString(summary.getFirstDay()),
+                        null);
+                long last = IcalendarDateTime.parse(Integer.toString(summary.getLastDay()),
+                        null);
+                // The days are dates at midnight UTC, the range ends after the last one
+                return DateUtils.formatDateRange(mContext, first, last + DateUtils.DAY_IN_MILLIS,
+                        DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_YEAR
+                                | DateUtils.FORMAT_UTC);
+            } catch (IllegalArgumentException e) {
+                // A year before 1000 or an impossible date
+                return null;
+            }
+        }
+
+        private void showProgress(int handled) {
+            Notification notification = new Notification.Builder(mContext)
+                    .setSmallIcon(R.drawable.stat_notify_calendar)
+                    .setContentTitle(mContext.getString(R.string.cal_import_title))
+                    .setContentText(mContext.getString(R.string.cal_import_progress, handled))
+                    .setSubText(mDateRange)
+                    .setProgress(mEventCount, handled, mEventCount == 0)
+                    .setOngoing(true)
+                    .build();
+            NotificationManager nm = (NotificationManager) mContext.getSystemService(
+                    Context.NOTIFICATION_SERVICE);
+            nm.notify(NOTIFICATION_TAG, NOTIFICATION_ID, notification);
+        }
+    }
+
+    /**
+     * Returns the calendar new events go to by default: the one picked in the
+     * preferences, else a primary calendar, else any writable one. Returns -1 if there
+     * is no writable calendar.
+     */
+    private static long findDefaultCalendar(Context context) {
+        String defaultCalendar = Utils.getSharedPreference(context,
+                GeneralPreferences.KEY_DEFAULT_CALENDAR, (String) null);
+        Cursor cursor = context.getContentResolver().query(Calendars.CONTENT_URI,
+                CALENDARS_PROJECTION, CALENDARS_WHERE_WRITEABLE_VISIBLE, null, null);
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            long calendarId = -1;
+            while (cursor.moveToNext()) {
+                String owner = cursor.getString(CALENDARS_INDEX_OWNER_ACCOUNT);
+                String currentCalendar = owner + "/" + cursor.getString(
+                        CALENDARS_INDEX_DISPLAY_NAME);
+                if (defaultCalendar != null) {
+                    if (defaultCalendar.equals(currentCalendar)) {
+                        return cursor.getLong(CALENDARS_INDEX_ID);
+                    }
+                } else if (owner != null
+                        && owner.equals(cursor.getString(CALENDARS_INDEX_ACCOUNT_NAME))
+                        && !CalendarContract.ACCOUNT_TYPE_LOCAL.equals(
+                                cursor.getString(CALENDARS_INDEX_ACCOUNT_TYPE))) {
+                    return cursor.getLong(CALENDARS_INDEX_ID);
+                }
+                if (calendarId == -1) {
+                    calendarId = cursor.getLong(CALENDARS_INDEX_ID);
+                }
+            }
+            return calendarId;
+        } finally {
+            cursor.close();
+        }
+    }
+
     private static class ListFilesTask extends AsyncTask<Void, Void, String[]> {
 
         private final Activity mActivity;
@@ -31,7 +31,7 @@ import android.widget.TextView;
 import com.android.calendar.Utils;
 import com.android.calendar.agenda.AgendaWindowAdapter.DayAdapterInfo;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Formatter;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -49,8 +49,11 @@ public class AgendaByDayAdapter extends BaseAdapter {
     // Note: Formatter is not thread safe. Fine for now as it is only used by the main thread.
     private final Formatter mFormatter;
     private final StringBuilder mStringBuilder;
-    private ArrayList<RowInfo> mRowInfo;
+    // Swapped in whole once it has been computed off the UI thread
+    private volatile RowTable mRowInfo;
     private int mTodayJulianDay;
+    // The position of the first day header after yesterday, or -1 if none
+    private int mFirstDayAfterYesterday = -1;
     private Time mTmpTime;
     private String mTimeZone;
     private final Runnable mTZUpdater = new Runnable() {
@@ -73,64 +76,63 @@ public class AgendaByDayAdapter extends BaseAdapter {
     }
 
     public long getInstanceId(int position) {
-        if (mRowInfo == null || position >= mRowInfo.size()) {
+        RowTable rows = mRowInfo;
+        if (rows == null || position >= rows.count) {
             return -1;
         }
-        return mRowInfo.get(position).mInstanceId;
+        return rows.instanceIds[position];
     }
 
     public long getStartTime(int position) {
-        if (mRowInfo == null || position >= mRowInfo.size()) {
+        RowTable rows = mRowInfo;
+        if (rows == null || position >= rows.count) {
             return -1;
         }
-        return mRowInfo.get(position).mEventStartTimeMilli;
+        return rows.startTimes[position];
     }
 
     // Returns the position of a header of a specific item
     public int getHeaderPosition(int position) {
-        if (mRowInfo == null || position >= mRowInfo.size()) {
+        RowTable rows = mRowInfo;
+        if (rows == null || position < 0 || position >= rows.count) {
             return -1;
         }
-
-        for (int i = position; i >=0; i --) {
-            RowInfo row = mRowInfo.get(i);
-            if (row != null && row.mType == TYPE_DAY)
-                return i;
-        }
-        return -1;
+        int index = rows.headerIndexAt(position);
+        return index >= 0 ? rows.headers[index] : -1;
     }
 
     // Returns the number of items in a section defined by a specific header location
     public int getHeaderItemsCount(int position) {
-        if (mRowInfo == null) {
+        RowTable rows = mRowInfo;
+        if (rows == null) {
             return -1;
         }
-        int count = 0;
-        for (int i = position +1; i < mRowInfo.size(); i++) {
-            if (mRowInfo.get(i).mType != TYPE_MEETING) {
-                return count;
-            }
-            count ++;
+        if (position < 0 || position >= rows.count) {
+            return 0;
         }
-        return count;
+        // Every row up to the next header is an event
+        int next = rows.headerIndexAt(position) + 1;
+        int end = next < rows.headers.length ? rows.headers[next] : rows.count;
+        return end - position - 1;
     }
 
     @Override
     public int getCount() {
-        if (mRowInfo != null) {
-            return mRowInfo.size();
+        RowTable rows = mRowInfo;
+        if (rows != null) {
+            return rows.count;
         }
         return mAgendaAdapter.getCount();
     }
 
     @Override
     public Object getItem(int position) {
-        if (mRowInfo != null) {
-            RowInfo row = mRowInfo.get(position);
-            if (row.mType == TYPE_DAY) {
-                return row;
+        RowTable rows = mRowInfo;
+        if (rows != null) {
+            if (rows.types[position] == TYPE_DAY) {
+                return rows.days[position];
             } else {
-                return mAgendaAdapter.getItem(row.mPosition);
+                return mAgendaAdapter.getItem(rows.positions[position]);
             }
         }
         return mAgendaAdapter.getItem(position);
@@ -138,12 +140,12 @@ public class AgendaByDayAdapter extends BaseAdapter {
 
     @Override
     public long getItemId(int position) {
-        if (mRowInfo != null) {
-            RowInfo row = mRowInfo.get(position);
-            if (row.mType == TYPE_DAY) {
+        RowTable rows = mRowInfo;
+        if (rows != null) {
+            if (rows.types[position] == TYPE_DAY) {
                 return -position;
             } else {
-                return mAgendaAdapter.getItemId(row.mPosition);
+                return mAgendaAdapter.getItemId(rows.positions[position]);
             }
         }
         return mAgendaAdapter.getItemId(position);
@@ -156,8 +158,9 @@ public class AgendaByDayAdapter extends BaseAdapter {
 
     @Override
     public int getItemViewType(int position) {
-        return mRowInfo != null && mRowInfo.size() > position ?
-                mRowInfo.get(position).mType : TYPE_DAY;
+        RowTable rows = mRowInfo;
+        return rows != null && rows.count > position ?
+                rows.types[position] : TYPE_DAY;
     }
 
     public boolean isDayHeaderView(int position) {
@@ -166,14 +169,16 @@ public class AgendaByDayAdapter extends BaseAdapter {
 
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
-        if ((mRowInfo == null) || (position > mRowInfo.size())) {
+        RowTable rows = mRowInfo;
+        if ((rows == null) || (position > rows.count)) {
             // If we have no row info, mAgendaAdapter returns the view.
             return mAgendaAdapter.getView(position, convertView, parent);
         }
 
         String theme = Utils.getTheme(mContext);
-        RowInfo row = mRowInfo.get(position);
-        if (row.mType == TYPE_DAY) {
+        int rowType = rows.types[position];
+        int rowDay = rows.days[position];
+        if (rowType == TYPE_DAY) {
             ViewHolder holder = null;
             View agendaDayView = null;
             if ((convertView != null) && (convertView.getTag() != null)) {
@@ -183,7 +188,7 @@ public class AgendaByDayAdapter extends BaseAdapter {
                 if (tag instanceof ViewHolder) {
                     agendaDayView = convertView;
                     holder = (ViewHolder) tag;
-                    holder.julianDay = row.mDay;
+                    holder.julianDay = rowDay;
                 }
             }
 
@@ -194,7 +199,7 @@ public class AgendaByDayAdapter extends BaseAdapter {
                 agendaDayView = mInflater.inflate(R.layout.agenda_day, parent, false);
                 holder.dayView = (TextView) agendaDayView.findViewById(R.id.day);
                 holder.dateView = (TextView) agendaDayView.findViewById(R.id.date);
-                holder.julianDay = row.mDay;
+                holder.julianDay = rowDay;
                 holder.grayed = false;
                 agendaDayView.setTag(holder);
             }
@@ -213,11 +218,11 @@ public class AgendaByDayAdapter extends BaseAdapter {
             // Should be yesterday/today/tomorrow (if applicable) + day of the week
 
             Time date = mTmpTime;
-            long millis = date.setJulianDay(row.mDay);
+            long millis = date.setJulianDay(rowDay);
             int flags = DateUtils.FORMAT_SHOW_WEEKDAY;
             mStringBuilder.setLength(0);
 
-            String dayViewText = Utils.getDayOfWeekString(row.mDay, mTodayJulianDay, millis,
+            String dayViewText = Utils.getDayOfWeekString(rowDay, mTodayJulianDay, millis,
                     mContext);
 
             // Build text for the date
@@ -236,7 +241,7 @@ public class AgendaByDayAdapter extends BaseAdapter {
             holder.dateView.setText(dateViewText);
 
             // Set the background of the view, it is grayed for day that are in the past and today
-            if (row.mDay > mTodayJulianDay) {
+            if (rowDay > mTodayJulianDay) {
                 agendaDayView.setBackgroundResource(theme.equals("dark") ?
                         R.drawable.agenda_item_bg_primary_dark : R.drawable.agenda_item_bg_primary);
                 holder.grayed = false;
@@ -246,14 +251,15 @@ public class AgendaByDayAdapter extends BaseAdapter {
                 holder.grayed = true;
             }
             return agendaDayView;
-        } else if (row.mType == TYPE_MEETING) {
-            View itemView = mAgendaAdapter.getView(row.mPosition, convertView, parent);
+        } else if (rowType == TYPE_MEETING) {
+            long rowStartTime = rows.startTimes[position];
+            View itemView = mAgendaAdapter.getView(rows.positions[position], convertView, parent);
             AgendaAdapter.ViewHolder holder = ((AgendaAdapter.ViewHolder) itemView.getTag());
             TextView title = holder.title;
             // The holder in the view stores information from the cursor, but the cursor has no
             // notion of multi-day event and the start time of each instance of a multi-day event
             // is the same.  RowInfo has the correct info , so take it from there.
-            holder.startTimeMilli = row.mEventStartTimeMilli;
+            holder.startTimeMilli = rowStartTime;
             boolean allDay = holder.allDay;
             if (AgendaWindowAdapter.BASICLOG) {
                 title.setText(title.getText() + " P:" + position);
@@ -262,8 +268,8 @@ public class AgendaByDayAdapter extends BaseAdapter {
             }
 
             // if event in the past or started already, un-bold the title and set the background
-            if ((!allDay && row.mEventStartTimeMilli <= System.currentTimeMillis()) ||
-                    (allDay && row.mDay <= mTodayJulianDay)) {
+            if ((!allDay && rowStartTime <= System.currentTimeMillis()) ||
+                    (allDay && rowDay <= mTodayJulianDay)) {
                 itemView.setBackgroundResource(theme.equals("dark") ?
                         R.drawable.agenda_item_bg_secondary_dark : R.drawable.agenda_item_bg_secondary);
                 title.setTypeface(Typeface.DEFAULT);
@@ -274,62 +280,77 @@ public class AgendaByDayAdapter extends BaseAdapter {
                 title.setTypeface(Typeface.DEFAULT_BOLD);
                 holder.grayed = false;
             }
-            holder.julianDay = row.mDay;
+            holder.julianDay = rowDay;
             return itemView;
         } else {
             // Error
-            throw new IllegalStateException("Unknown event type:" + row.mType);
+            throw new IllegalStateException("Unknown event type:" + rowType);
         }
     }
 
     public void clearDayHeaderInfo() {
         mRowInfo = null;
+        mFirstDayAfterYesterday = -1;
     }
 
-    public void changeCursor(DayAdapterInfo info) {
-        calculateDays(info);
+    /**
+     * Swaps in the cursor of the given adapter info along with the rows that were
+     * computed for it by {@link #calculateDays}.
+     */
+    public void changeCursor(DayAdapterInfo info, RowTable rows) {
+        mRowInfo = rows;
+        mTodayJulianDay = rows.todayJulianDay;
+        mFirstDayAfterYesterday = -1;
         mAgendaAdapter.changeCursor(info.cursor);
     }
 
-    public void calculateDays(DayAdapterInfo dayAdapterInfo) {
-        Cursor cursor = dayAdapterInfo.cursor;
-        ArrayList<RowInfo> rowInfo = new ArrayList<RowInfo>();
+    /**
+     * Computes the day headers and event rows for a cursor covering the Julian days
+     * startDay through endDay. This walks the whole cursor and does not touch the
+     * adapter, so it is meant to be run off the UI thread; the result is swapped in
+     * with {@link #changeCursor(DayAdapterInfo, RowTable)}.
+     */
+    public static RowTable calculateDays(Cursor cursor, int startDay, int endDay,
+            String timeZone) {
+        RowTable.Builder rowInfo = new RowTable.Builder(cursor.getCount());
         int prevStartDay = -1;
 
-        Time tempTime = new Time(mTimeZone);
+        Time tempTime = new Time(timeZone);
         long now = System.currentTimeMillis();
         tempTime.set(now);
-        mTodayJulianDay = Time.getJulianDay(now, tempTime.gmtoff);
+        rowInfo.todayJulianDay = Time.getJulianDay(now, tempTime.gmtoff);
 
         LinkedList<MultipleDayInfo> multipleDayList = new LinkedList<MultipleDayInfo>();
+        cursor.moveToPosition(-1);
         for (int position = 0; cursor.moveToNext(); position++) {
-            int startDay = cursor.getInt(AgendaWindowAdapter.INDEX_START_DAY);
+            int eventStartDay = cursor.getInt(AgendaWindowAdapter.INDEX_START_DAY);
             long id = cursor.getLong(AgendaWindowAdapter.INDEX_EVENT_ID);
             long startTime =  cursor.getLong(AgendaWindowAdapter.INDEX_BEGIN);
             long endTime =  cursor.getLong(AgendaWindowAdapter.INDEX_END);
             long instanceId = cursor.getLong(AgendaWindowAdapter.INDEX_INSTANCE_ID);
             boolean allDay = cursor.getInt(AgendaWindowAdapter.INDEX_ALL_DAY) != 0;
             if (allDay) {
-                startTime = Utils.convertAlldayUtcToLocal(tempTime, startTime, mTimeZone);
-                endTime = Utils.convertAlldayUtcToLocal(tempTime, endTime, mTimeZone);
+                startTime = Utils.convertAlldayUtcToLocal(tempTime, startTime, timeZone);
+                endTime = Utils.convertAlldayUtcToLocal(tempTime, endTime, timeZone);
             }
             // Skip over the days outside of the adapter's range
-            startDay = Math.max(startDay, dayAdapterInfo.start);
+            eventStartDay = Math.max(eventStartDay, startDay);
             // Make sure event's start time is not before the start of the day
             // (setJulianDay sets the time to 12:00am)
-            long adapterStartTime = tempTime.setJulianDay(startDay);
+            long adapterStartTime = tempTime.setJulianDay(eventStartDay);
             startTime = Math.max(startTime, adapterStartTime);
 
-            if (startDay != prevStartDay) {
+            if (eventStartDay != prevStartDay) {
                 // Check if we skipped over any empty days
                 if (prevStartDay == -1) {
-                    rowInfo.add(new RowInfo(TYPE_DAY, startDay));
+                    rowInfo.addDay(eventStartDay);
                 } else {
                     // If there are any multiple-day events that span the empty
                     // range of days, then create day headers and events for
                     // those multiple-day events.
                     boolean dayHeaderAdded = false;
-                    for (int currentDay = prevStartDay + 1; currentDay <= startDay; currentDay++) {
+                    for (int currentDay = prevStartDay + 1; currentDay <= eventStartDay;
+                            currentDay++) {
                         dayHeaderAdded = false;
                         Iterator<MultipleDayInfo> iter = multipleDayList.iterator();
                         while (iter.hasNext()) {
@@ -344,17 +365,17 @@ public class AgendaByDayAdapter extends BaseAdapter {
                             // If this is the first event for the day, then
                             // insert a day header.
                             if (!dayHeaderAdded) {
-                                rowInfo.add(new RowInfo(TYPE_DAY, currentDay));
+                                rowInfo.addDay(currentDay);
                                 dayHeaderAdded = true;
                             }
                             long nextMidnight = Utils.getNextMidnight(tempTime,
-                                    info.mEventStartTimeMilli, mTimeZone);
+                                    info.mEventStartTimeMilli, timeZone);
 
                             long infoEndTime = (info.mEndDay == currentDay) ?
                                     info.mEventEndTimeMilli : nextMidnight;
-                            rowInfo.add(new RowInfo(TYPE_MEETING, currentDay, info.mPosition,
+                            rowInfo.add(TYPE_MEETING, currentDay, info.mPosition,
                                     info.mEventId, info.mEventStartTimeMilli,
-                                    infoEndTime, info.mInstanceId, info.mAllDay));
+                                    infoEndTime, info.mInstanceId, info.mAllDay);
 
                             info.mEventStartTimeMilli = nextMidnight;
                         }
@@ -363,37 +384,37 @@ public class AgendaByDayAdapter extends BaseAdapter {
                     // If the day header was not added for the start day, then
                     // add it now.
                     if (!dayHeaderAdded) {
-                        rowInfo.add(new RowInfo(TYPE_DAY, startDay));
+                        rowInfo.addDay(eventStartDay);
                     }
                 }
-                prevStartDay = startDay;
+                prevStartDay = eventStartDay;
             }
 
             // If this event spans multiple days, then add it to the multipleDay
             // list.
-            int endDay = cursor.getInt(AgendaWindowAdapter.INDEX_END_DAY);
+            int eventEndDay = cursor.getInt(AgendaWindowAdapter.INDEX_END_DAY);
 
             // Skip over the days outside of the adapter's range
-            endDay = Math.min(endDay, dayAdapterInfo.end);
-            if (endDay > startDay) {
-                long nextMidnight = Utils.getNextMidnight(tempTime, startTime, mTimeZone);
-                multipleDayList.add(new MultipleDayInfo(position, endDay, id, nextMidnight,
+            eventEndDay = Math.min(eventEndDay, endDay);
+            if (eventEndDay > eventStartDay) {
+                long nextMidnight = Utils.getNextMidnight(tempTime, startTime, timeZone);
+                multipleDayList.add(new MultipleDayInfo(position, eventEndDay, id, nextMidnight,
                         endTime, instanceId, allDay));
                 // Add in the event for this cursor position - since it is the start of a multi-day
                 // event, the end time is midnight
-                rowInfo.add(new RowInfo(TYPE_MEETING, startDay, position, id, startTime,
-                        nextMidnight, instanceId, allDay));
+                rowInfo.add(TYPE_MEETING, eventStartDay, position, id, startTime,
+                        nextMidnight, instanceId, allDay);
             } else {
                 // Add in the event for this cursor position
-                rowInfo.add(new RowInfo(TYPE_MEETING, startDay, position, id, startTime, endTime,
-                        instanceId, allDay));
+                rowInfo.add(TYPE_MEETING, eventStartDay, position, id, startTime, endTime,
+                        instanceId, allDay);
             }
         }
 
         // There are no more cursor events but we might still have multiple-day
         // events left.  So create day headers and events for those.
         if (prevStartDay > 0) {
-            for (int currentDay = prevStartDay + 1; currentDay <= dayAdapterInfo.end;
+            for (int currentDay = prevStartDay + 1; currentDay <= endDay;
                     currentDay++) {
                 boolean dayHeaderAdded = false;
                 Iterator<MultipleDayInfo> iter = multipleDayList.iterator();
@@ -409,22 +430,22 @@ public class AgendaByDayAdapter extends BaseAdapter {
                     // If this is the first event for the day, then
                     // insert a day header.
                     if (!dayHeaderAdded) {
-                        rowInfo.add(new RowInfo(TYPE_DAY, currentDay));
+                        rowInfo.addDay(currentDay);
                         dayHeaderAdded = true;
                     }
                     long nextMidnight = Utils.getNextMidnight(tempTime, info.mEventStartTimeMilli,
-                            mTimeZone);
+                            timeZone);
                     long infoEndTime =
                             (info.mEndDay == currentDay) ? info.mEventEndTimeMilli : nextMidnight;
-                    rowInfo.add(new RowInfo(TYPE_MEETING, currentDay, info.mPosition,
+                    rowInfo.add(TYPE_MEETING, currentDay, info.mPosition,
                             info.mEventId, info.mEventStartTimeMilli, infoEndTime,
-                            info.mInstanceId, info.mAllDay));
+                            info.mInstanceId, info.mAllDay);
 
                     info.mEventStartTimeMilli = nextMidnight;
                 }
             }
         }
-        mRowInfo = rowInfo;
+        return rowInfo.build();
     }
 
     /**
@@ -439,7 +460,8 @@ public class AgendaByDayAdapter extends BaseAdapter {
      *         Zero if no event found
      */
     public int findEventPositionNearestTime(Time time, long id) {
-        if (mRowInfo == null) {
+        RowTable rows = mRowInfo;
+        if (rows == null) {
             return 0;
         }
         long millis = time.toMillis(false /* use isDst */);
@@ -452,7 +474,7 @@ public class AgendaByDayAdapter extends BaseAdapter {
         int allDayEventDay = 0;
         int minDay = 0;
         boolean idFound = false;
-        int len = mRowInfo.size();
+        int len = rows.count;
 
         // Loop through the events and find the best match
         // 1. Event id and start time matches requested id and time
@@ -463,19 +485,19 @@ public class AgendaByDayAdapter extends BaseAdapter {
         // 6. The closest event to the requested time
 
         for (int index = 0; index < len; index++) {
-            RowInfo row = mRowInfo.get(index);
-            if (row.mType == TYPE_DAY) {
+            if (rows.types[index] == TYPE_DAY) {
                 continue;
             }
+            long startTime = rows.startTimes[index];
 
             // Found exact match - done
-            if (row.mEventId == id) {
-                if (row.mEventStartTimeMilli == millis) {
+            if (rows.eventIds[index] == id) {
+                if (startTime == millis) {
                     return index;
                 }
 
                 // Not an exact match, Save event index if it is the closest to time so far
-                long distance = Math.abs(millis - row.mEventStartTimeMilli);
+                long distance = Math.abs(millis - startTime);
                 if (distance < idFoundMinDistance) {
                     idFoundMinDistance = distance;
                     idFoundMinIndex = index;
@@ -484,22 +506,22 @@ public class AgendaByDayAdapter extends BaseAdapter {
             }
             if (!idFound) {
                 // Found an event that contains the requested time
-                if (millis >= row.mEventStartTimeMilli && millis <= row.mEventEndTimeMilli) {
-                    if (row.mAllDay) {
+                if (millis >= startTime && millis <= rows.endTimes[index]) {
+                    if (rows.allDays[index]) {
                         if (allDayEventInTimeIndex == -1) {
                             allDayEventInTimeIndex = index;
-                            allDayEventDay = row.mDay;
+                            allDayEventDay = rows.days[index];
                         }
                     } else if (eventInTimeIndex == -1){
                         eventInTimeIndex = index;
                     }
                 } else if (eventInTimeIndex == -1){
                     // Save event index if it is the closest to time so far
-                    long distance = Math.abs(millis - row.mEventStartTimeMilli);
+                    long distance = Math.abs(millis - startTime);
                     if (distance < minDistance) {
                         minDistance = distance;
                         minIndex = index;
-                        minDay = row.mDay;
+                        minDay = rows.days[index];
                     }
                 }
             }
@@ -529,11 +551,7 @@ public class AgendaByDayAdapter extends BaseAdapter {
      */
     public boolean isFirstDayAfterYesterday(int position) {
         int headerPos = getHeaderPosition(position);
-        RowInfo row = mRowInfo.get(headerPos);
-        if (row != null) {
-            return row.mFirstDayAfterYesterday;
-        }
-        return false;
+        return headerPos != -1 && headerPos == mFirstDayAfterYesterday;
     }
 
     /**
@@ -543,20 +561,16 @@ public class AgendaByDayAdapter extends BaseAdapter {
      * @return the Julian day containing that event
      */
     public int findJulianDayFromPosition(int position) {
-        if (mRowInfo == null || position < 0) {
+        RowTable rows = mRowInfo;
+        if (rows == null || position < 0) {
             return 0;
         }
 
-        int len = mRowInfo.size();
+        int len = rows.count;
         if (position >= len) return 0;  // no row info at this position
 
-        for (int index = position; index >= 0; index--) {
-            RowInfo row = mRowInfo.get(index);
-            if (row.mType == TYPE_DAY) {
-                return row.mDay;
-            }
-        }
-        return 0;
+        int index = rows.headerIndexAt(position);
+        return index >= 0 ? rows.days[rows.headers[index]] : 0;
     }
 
     /**
@@ -566,11 +580,11 @@ public class AgendaByDayAdapter extends BaseAdapter {
      * @param position in the adapter
      */
     public void setAsFirstDayAfterYesterday(int position) {
-        if (mRowInfo == null || position < 0 || position > mRowInfo.size()) {
+        RowTable rows = mRowInfo;
+        if (rows == null || position < 0 || position > rows.count) {
             return;
         }
-        RowInfo row = mRowInfo.get(position);
-        row.mFirstDayAfterYesterday = true;
+        mFirstDayAfterYesterday = position;
     }
 
     /**
@@ -583,13 +597,13 @@ public class AgendaByDayAdapter extends BaseAdapter {
      *         negated.
      */
     public int getCursorPosition(int listPos) {
-        if (mRowInfo != null && listPos >= 0) {
-            RowInfo row = mRowInfo.get(listPos);
-            if (row.mType == TYPE_MEETING) {
-                return row.mPosition;
+        RowTable rows = mRowInfo;
+        if (rows != null && listPos >= 0) {
+            if (rows.types[listPos] == TYPE_MEETING) {
+                return rows.positions[listPos];
             } else {
                 int nextPos = listPos + 1;
-                if (nextPos < mRowInfo.size()) {
+                if (nextPos < rows.count) {
                     nextPos = getCursorPosition(nextPos);
                     if (nextPos >= 0) {
                         return -nextPos;
@@ -607,9 +621,9 @@ public class AgendaByDayAdapter extends BaseAdapter {
 
     @Override
     public boolean isEnabled(int position) {
-        if (mRowInfo != null && position < mRowInfo.size()) {
-            RowInfo row = mRowInfo.get(position);
-            return row.mType == TYPE_MEETING;
+        RowTable rows = mRowInfo;
+        if (rows != null && position < rows.count) {
+            return rows.types[position] == TYPE_MEETING;
         }
         return true;
     }
@@ -621,45 +635,115 @@ public class AgendaByDayAdapter extends BaseAdapter {
         boolean grayed;
     }
 
-    private static class RowInfo {
-        // mType is either a day header (TYPE_DAY) or an event (TYPE_MEETING)
-        final int mType;
+    /**
+     * The day headers and event rows of one adapter, stored column-wise. A table is
+     * built once by {@link #calculateDays} and never changed afterwards, so it can be
+     * built on one thread and read on another.
+     */
+    static final class RowTable {
+        final int count;
+        // Either a day header (TYPE_DAY) or an event (TYPE_MEETING)
+        final int[] types;
+        // Julian day
+        final int[] days;
+        // Cursor position (not used for TYPE_DAY)
+        final int[] positions;
+        final long[] eventIds;
+        final long[] startTimes;
+        final long[] endTimes;
+        final long[] instanceIds;
+        final boolean[] allDays;
+        // The positions of the day headers, in ascending order
+        final int[] headers;
+        // The Julian day that was today when the table was built
+        final int todayJulianDay;
+
+        private RowTable(Builder builder) {
+            count = builder.count;
+            types = Arrays.copyOf(builder.types, count);
+            days = Arrays.copyOf(builder.days, count);
+            positions = Arrays.copyOf(builder.positions, count);
+            eventIds = Arrays.copyOf(builder.eventIds, count);
+            startTimes = Arrays.copyOf(builder.startTimes, count);
+            endTimes = Arrays.copyOf(builder.endTimes, count);
+            instanceIds = Arrays.copyOf(builder.instanceIds, count);
+            allDays = Arrays.copyOf(builder.allDays, count);
+            headers = Arrays.copyOf(builder.headers, builder.headerCount);
+            todayJulianDay = builder.todayJulianDay;
+        }
 
-        final int mDay;          // Julian day
-        final int mPosition;     // cursor position (not used for TYPE_DAY)
-        final long mEventId;
-        final long mEventStartTimeMilli;
-        final long mEventEndTimeMilli;
-        final long mInstanceId;
-        final boolean mAllDay;
-        // This is used to mark a day header as the first day with events that is "today"
-        // or later. This flag is used by the adapter to create a view with a visual separator
-        // between the past and the present/future
-        boolean mFirstDayAfterYesterday;
-
-        RowInfo(int type, int julianDay, int position, long id, long startTime, long endTime,
-                long instanceId, boolean allDay) {
-            mType = type;
-            mDay = julianDay;
-            mPosition = position;
-            mEventId = id;
-            mEventStartTimeMilli = startTime;
-            mEventEndTimeMilli = endTime;
-            mFirstDayAfterYesterday = false;
-            mInstanceId = instanceId;
-            mAllDay = allDay;
+        /**
+         * Returns the index in {@link #headers} of the last day header at or before
+         * position, or -1 if there is none.
+         */
+        int headerIndexAt(int position) {
+            int index = Arrays.binarySearch(headers, position);
+            return index >= 0 ? index : -index - 2;
         }
 
-        RowInfo(int type, int julianDay) {
-            mType = type;
-            mDay = julianDay;
-            mPosition = 0;
-            mEventId = 0;
-            mEventStartTimeMilli = 0;
-            mEventEndTimeMilli = 0;
-            mFirstDayAfterYesterday = false;
-            mInstanceId = -1;
-            mAllDay = false;
+        static final class Builder {
+            int count;
+            int[] types;
+            int[] days;
+            int[] positions;
+            long[] eventIds;
+            long[] startTimes;
+            long[] endTimes;
+            long[] instanceIds;
+            boolean[] allDays;
+            int[] headers;
+            int headerCount;
+            int todayJulianDay;
+
+            Builder(int events) {
+                // Every event takes a row, and usually there are fewer day headers
+                int capacity = Math.max(16, events * 2);
+                types = new int[capacity];
+                days = new int[capacity];
+                positions = new int[capacity];
+                eventIds = new long[capacity];
+                startTimes = new long[capacity];
+                endTimes = new long[capacity];
+                instanceIds = new long[capacity];
+                allDays = new boolean[capacity];
+                headers = new int[16];
+            }
+
+            void addDay(int julianDay) {
+                if (headerCount == headers.length) {
+                    headers = Arrays.copyOf(headers, headerCount * 2);
+                }
+                headers[headerCount++] = count;
+                add(TYPE_DAY, julianDay, 0, 0, 0, 0, -1, false);
+            }
+
+            void add(int type, int julianDay, int position, long id, long startTime,
+                    long endTime, long instanceId, boolean allDay) {
+                if (count == types.length) {
+                    int capacity = count * 2;
+                    types = Arrays.copyOf(types, capacity);
+                    days = Arrays.copyOf(days, capacity);
+                    positions = Arrays.copyOf(positions, capacity);
+                    eventIds = Arrays.copyOf(eventIds, capacity);
+                    startTimes = Arrays.copyOf(startTimes, capacity);
+                    endTimes = Arrays.copyOf(endTimes, capacity);
+                    instanceIds = Arrays.copyOf(instanceIds, capacity);
+                    allDays = Arrays.copyOf(allDays, capacity);
+                }
+                types[count] = type;
+                days[count] = julianDay;
+                positions[count] = position;
+                eventIds[count] = id;
+                startTimes[count] = startTime;
+                endTimes[count] = endTime;
+                instanceIds[count] = instanceId;
+                allDays[count] = allDay;
+                count++;
+            }
+
+            RowTable build() {
+                return new RowTable(this);
+            }
         }
     }
 
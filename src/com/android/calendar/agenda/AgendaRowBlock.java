@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.agenda;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import java.util.HashMap;
+
+/**
+ * A compact, in-memory copy of the instance rows returned by one agenda query, so
+ * that the provider cursor (and its CursorWindow) can be closed as soon as the query
+ * completes. Rows are stored column-wise in primitive arrays, and repeated strings
+ * such as organizer, owner account and time zone are shared between rows.
+ *
+ * The rows are read back through {@link #newCursor()}, which lets the existing
+ * cursor based adapters bind from the copy unchanged.
+ */
+class AgendaRowBlock {
+    private final String[] mColumnNames;
+    private final int mCount;
+
+    private final long[] mInstanceIds;
+    private final long[] mBegins;
+    private final long[] mEnds;
+    private final long[] mEventIds;
+    private final int[] mStartDays;
+    private final int[] mEndDays;
+    private final int[] mColors;
+    private final int[] mSelfAttendeeStatuses;
+    // ALL_DAY, HAS_ALARM and CAN_ORGANIZER_RESPOND packed as bits
+    private final byte[] mFlags;
+    private final String[] mTitles;
+    private final String[] mLocations;
+    private final String[] mRrules;
+    private final String[] mOrganizers;
+    private final String[] mOwnerAccounts;
+    private final String[] mTimeZones;
+
+    private static final int FLAG_ALL_DAY = 1;
+    private static final int FLAG_HAS_ALARM = 1 << 1;
+    private static final int FLAG_CAN_ORGANIZER_RESPOND = 1 << 2;
+
+    /**
+     * The first and last Julian day whose rows are complete in this block. These only
+     * differ from the queried range when the query returned more rows than fit. Every
+     * day in the block is complete, even when it alone has more rows than fit.
+     */
+    int firstCompleteDay;
+    int lastCompleteDay;
+
+    private AgendaRowBlock(String[] columnNames, int count) {
+        mColumnNames = columnNames;
+        mCount = count;
+        mInstanceIds = new long[count];
+        mBegins = new long[count];
+        mEnds = new long[count];
+        mEventIds = new long[count];
+        mStartDays = new int[count];
+        mEndDays = new int[count];
+        mColors = new int[count];
+        mSelfAttendeeStatuses = new int[count];
+        mFlags = new byte[count];
+        mTitles = new String[count];
+        mLocations = new String[count];
+        mRrules = new String[count];
+        mOrganizers = new String[count];
+        mOwnerAccounts = new String[count];
+        mTimeZones = new String[count];
+    }
+
+    /**
+     * Copies at most maxRows rows out of an agenda query cursor. When there are more
+     * rows, whole days are dropped from the end that is furthest from the rows already
+     * shown: the start for queries of older events, the end otherwise. A day is never
+     * kept partially, one with more than maxRows rows is kept whole. The cursor is not
+     * closed.
+     *
+     * @param cursor a cursor over the agenda projection, sorted by start day
+     * @param startDay the first Julian day that was queried
+     * @param endDay the last Julian day that was queried
+     * @param maxRows the most rows to keep
+     * @param keepLast true to keep the last rows of the cursor rather than the first
+     */
+    static AgendaRowBlock copyOf(Cursor cursor, int startDay, int endDay, int maxRows,
+            boolean keepLast) {
+        int total = cursor.getCount();
+        int from = 0;
+        int to = total;
+        int firstCompleteDay = startDay;
+        int lastCompleteDay = endDay;
+        if (total > maxRows) {
+            if (keepLast) {
+                from = total - maxRows;
+                int partialDay = startDayAt(cursor, from - 1);
+                int next = from;
+                while (next < total && startDayAt(cursor, next) == partialDay) {
+                    next++;
+                }
+                if (next < total) {
+                    from = next;
+                    firstCompleteDay = partialDay + 1;
+                } else {
+                    // A single day has more rows than fit, keep all of them as the rest
+                    // of the day would never be queried again
+                    while (from > 0 && startDayAt(cursor, from - 1) == partialDay) {
+                        from--;
+                    }
+                    firstCompleteDay = partialDay;
+                }
+            } else {
+                to = maxRows;
+                int partialDay = startDayAt(cursor, to);
+                int prev = to;
+                while (prev > 0 && startDayAt(cursor, prev - 1) == partialDay) {
+                    prev--;
+                }
+                if (prev > 0) {
+                    to = prev;
+                    lastCompleteDay = partialDay - 1;
+                } else {
+                    // A single day has more rows than fit, keep all of them as the rest
+                    // of the day would never be queried again
+                    while (to < total && startDayAt(cursor, to) == partialDay) {
+                        to++;
+                    }
+                    lastCompleteDay = partialDay;
+                }
+            }
+        }
+
+        AgendaRowBlock block = new AgendaRowBlock(cursor.getColumnNames(), to - from);
+        block.firstCompleteDay = firstCompleteDay;
+        block.lastCompleteDay = lastCompleteDay;
+        HashMap<String, String> strings = new HashMap<String, String>();
+        cursor.moveToPosition(from - 1);
+        for (int row = 0; row < block.mCount && cursor.moveToNext(); row++) {
+            block.mInstanceIds[row] = cursor.getLong(AgendaWindowAdapter.INDEX_INSTANCE_ID);
+            block.mBegins[row] = cursor.getLong(AgendaWindowAdapter.INDEX_BEGIN);
+            block.mEnds[row] = cursor.getLong(AgendaWindowAdapter.INDEX_END);
+            block.mEventIds[row] = cursor.getLong(AgendaWindowAdapter.INDEX_EVENT_ID);
+            block.mStartDays[row] = cursor.getInt(AgendaWindowAdapter.INDEX_START_DAY);
+            block.mEndDays[row] = cursor.getInt(AgendaWindowAdapter.INDEX_END_DAY);
+            block.mColors[row] = cursor.getInt(AgendaWindowAdapter.INDEX_COLOR);
+            block.mSelfAttendeeStatuses[row] =
+                    cursor.getInt(AgendaWindowAdapter.INDEX_SELF_ATTENDEE_STATUS);
+            int flags = 0;
+            if (cursor.getInt(AgendaWindowAdapter.INDEX_ALL_DAY) != 0) {
+                flags |= FLAG_ALL_DAY;
+            }
+            if (cursor.getInt(AgendaWindowAdapter.INDEX_HAS_ALARM) != 0) {
+                flags |= FLAG_HAS_ALARM;
+            }
+            if (cursor.getInt(AgendaWindowAdapter.INDEX_CAN_ORGANIZER_RESPOND) != 0) {
+                flags |= FLAG_CAN_ORGANIZER_RESPOND;
+            }
+            block.mFlags[row] = (byte) flags;
+            block.mTitles[row] = cursor.getString(AgendaWindowAdapter.INDEX_TITLE);
+            block.mLocations[row] = cursor.getString(AgendaWindowAdapter.INDEX_EVENT_LOCATION);
+            block.mRrules[row] = share(strings,
+                    cursor.getString(AgendaWindowAdapter.INDEX_RRULE));
+            block.mOrganizers[row] = share(strings,
+                    cursor.getString(AgendaWindowAdapter.INDEX_ORGANIZER));
+            block.mOwnerAccounts[row] = share(strings,
+                    cursor.getString(AgendaWindowAdapter.INDEX_OWNER_ACCOUNT));
+            block.mTimeZones[row] = share(strings,
+                    cursor.getString(AgendaWindowAdapter.INDEX_TIME_ZONE));
+        }
+        return block;
+    }
+
+    private static int startDayAt(Cursor cursor, int position) {
+        cursor.moveToPosition(position);
+        return cursor.getInt(AgendaWindowAdapter.INDEX_START_DAY);
+    }
+
+    private static String share(HashMap<String, String> strings, String value) {
+        if (value == null) {
+            return null;
+        }
+        String shared = strings.get(value);
+        if (shared == null) {
+            strings.put(value, value);
+            shared = value;
+        }
+        return shared;
+    }
+
+    int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns a new cursor over the rows of this block. Closing it does not release
+     * the rows, they stay alive for as long as the block is referenced.
+     */
+    Cursor newCursor() {
+        return new BlockCursor();
+    }
+
+    private class BlockCursor extends AbstractCursor {
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mColumnNames;
+        }
+
+        @Override
+        public String getString(int column) {
+            int row = getPosition();
+            switch (column) {
+                case AgendaWindowAdapter.INDEX_TITLE:
+                    return mTitles[row];
+                case AgendaWindowAdapter.INDEX_EVENT_LOCATION:
+                    return mLocations[row];
+                case AgendaWindowAdapter.INDEX_RRULE:
+                    return mRrules[row];
+                case AgendaWindowAdapter.INDEX_ORGANIZER:
+                    return mOrganizers[row];
+                case AgendaWindowAdapter.INDEX_OWNER_ACCOUNT:
+                    return mOwnerAccounts[row];
+                case AgendaWindowAdapter.INDEX_TIME_ZONE:
+                    return mTimeZones[row];
+                default:
+                    return Long.toString(getLong(column));
+            }
+        }
+
+        @Override
+        public long getLong(int column) {
+            int row = getPosition();
+            switch (column) {
+                case AgendaWindowAdapter.INDEX_INSTANCE_ID:
+                    return mInstanceIds[row];
+                case AgendaWindowAdapter.INDEX_BEGIN:
+                    return mBegins[row];
+                case AgendaWindowAdapter.INDEX_END:
+                    return mEnds[row];
+                case AgendaWindowAdapter.INDEX_EVENT_ID:
+                    return mEventIds[row];
+                case AgendaWindowAdapter.INDEX_START_DAY:
+                    return mStartDays[row];
+                case AgendaWindowAdapter.INDEX_END_DAY:
+                    return mEndDays[row];
+                case AgendaWindowAdapter.INDEX_COLOR:
+                    return mColors[row];
+                case AgendaWindowAdapter.INDEX_SELF_ATTENDEE_STATUS:
+                    return mSelfAttendeeStatuses[row];
+                case AgendaWindowAdapter.INDEX_ALL_DAY:
+                    return (mFlags[row] & FLAG_ALL_DAY) != 0 ? 1 : 0;
+                case AgendaWindowAdapter.INDEX_HAS_ALARM:
+                    return (mFlags[row] & FLAG_HAS_ALARM) != 0 ? 1 : 0;
+                case AgendaWindowAdapter.INDEX_CAN_ORGANIZER_RESPOND:
+                    return (mFlags[row] & FLAG_CAN_ORGANIZER_RESPOND) != 0 ? 1 : 0;
+                default:
+                    throw new IllegalArgumentException("Not a numeric column: " + column);
+            }
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return getLong(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return getLong(column);
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            switch (column) {
+                case AgendaWindowAdapter.INDEX_TITLE:
+                case AgendaWindowAdapter.INDEX_EVENT_LOCATION:
+                case AgendaWindowAdapter.INDEX_RRULE:
+                case AgendaWindowAdapter.INDEX_ORGANIZER:
+                case AgendaWindowAdapter.INDEX_OWNER_ACCOUNT:
+                case AgendaWindowAdapter.INDEX_TIME_ZONE:
+                    return getString(column) == null;
+                default:
+                    return false;
+            }
+        }
+    }
+}
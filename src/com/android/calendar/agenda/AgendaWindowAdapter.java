@@ -47,12 +47,15 @@ import com.android.calendar.CalendarController.ViewType;
 import com.android.calendar.StickyHeaderListView;
 import com.android.calendar.Utils;
 
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Formatter;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Locale;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import ws.xsoh.etar.R;
 
@@ -124,9 +127,15 @@ public class AgendaWindowAdapter extends BaseAdapter
     // position == positionInListView - OFF_BY_ONE_BUG
     // TODO Need to look into this.
     private static final int OFF_BY_ONE_BUG = 1;
-    private static final int MAX_NUM_OF_ADAPTERS = 5;
+    // The most rows, day headers included, kept in memory across all adapters. Adapters
+    // at the far end of the window are dropped to make room for new rows, except for the
+    // ones on screen. A query copies at most this many instances.
+    static final int MAX_CACHED_ROWS = 500;
     private static final int IDEAL_NUM_OF_EVENTS = 50;
-    private static final int MIN_QUERY_DURATION = 7; // days
+    // Copies and lays out the rows of completed queries off the UI thread
+    private static final ExecutorService sRowExecutor = Executors.newSingleThreadExecutor();
+    private static final int INITIAL_QUERY_DURATION = 7; // days
+    private static final int MIN_QUERY_DURATION = 1; // days
     private static final int MAX_QUERY_DURATION = 60; // days
     private static final int PREFETCH_BOUNDARY = 1;
     /** Times to auto-expand/retry query after getting no data */
@@ -183,6 +192,12 @@ public class AgendaWindowAdapter extends BaseAdapter
      * Cached value of the last used adapter
      */
     private DayAdapterInfo mLastUsedInfo;
+    /**
+     * The adapters in list order and the list position each one starts at, so the
+     * adapter for a position can be found with a binary search
+     */
+    private DayAdapterInfo[] mInfoIndex = new DayAdapterInfo[0];
+    private int[] mInfoOffsets = new int[0];
     private boolean mDoneSettingUpHeaderFooter = false;
     private int mStickyHeaderSize = 44; // Initial size big enough for it to work
     /**
@@ -444,9 +459,18 @@ public class AgendaWindowAdapter extends BaseAdapter
                     && position < (mLastUsedInfo.offset + mLastUsedInfo.size)) {
                 return mLastUsedInfo;
             }
-            for (DayAdapterInfo info : mAdapterInfos) {
-                if (info.offset <= position
-                        && position < (info.offset + info.size)) {
+            int[] offsets = mInfoOffsets;
+            int index = Arrays.binarySearch(offsets, position);
+            if (index < 0) {
+                index = -index - 2;
+            }
+            // Skip past empty adapters that start at the same position
+            while (index >= 0 && index + 1 < offsets.length && offsets[index + 1] <= position) {
+                index++;
+            }
+            if (index >= 0) {
+                DayAdapterInfo info = mInfoIndex[index];
+                if (position < (info.offset + info.size)) {
                     mLastUsedInfo = info;
                     return info;
                 }
@@ -633,8 +657,8 @@ public class AgendaWindowAdapter extends BaseAdapter
 
         // If AllInOneActivity is sending a second GOTO event(in OnResume), ignore it.
         if (!mCleanQueryInitiated || searchQuery != null) {
-            // Query for a total of MIN_QUERY_DURATION days
-            int endDay = startDay + MIN_QUERY_DURATION;
+            // Query for a total of INITIAL_QUERY_DURATION days
+            int endDay = startDay + INITIAL_QUERY_DURATION;
 
             mSelectedInstanceId = -1;
             mCleanQueryInitiated = true;
@@ -652,28 +676,55 @@ public class AgendaWindowAdapter extends BaseAdapter
 
     public void close() {
         mShuttingDown = true;
-        pruneAdapterInfo(QUERY_TYPE_CLEAN);
+        pruneAdapterInfo(QUERY_TYPE_CLEAN, 0, -1);
+        synchronized (mAdapterInfos) {
+            mInfoIndex = new DayAdapterInfo[0];
+            mInfoOffsets = new int[0];
+            mLastUsedInfo = null;
+        }
         if (mQueryHandler != null) {
             mQueryHandler.cancelOperation(0);
         }
     }
 
-    private DayAdapterInfo pruneAdapterInfo(int queryType) {
+    /**
+     * Removes adapters as needed before the rows of a new query are added.
+     *
+     * @param newRows the number of adapter rows, day headers included, about to be added
+     * @param keepPosition the position on screen, whose adapter and its neighbour are
+     *        kept even if the window then holds more than {@link #MAX_CACHED_ROWS} rows
+     */
+    private DayAdapterInfo pruneAdapterInfo(int queryType, int newRows, int keepPosition) {
         synchronized (mAdapterInfos) {
             DayAdapterInfo recycleMe = null;
             if (!mAdapterInfos.isEmpty()) {
-                if (mAdapterInfos.size() >= MAX_NUM_OF_ADAPTERS) {
-                    if (queryType == QUERY_TYPE_NEWER) {
-                        recycleMe = mAdapterInfos.removeFirst();
-                    } else if (queryType == QUERY_TYPE_OLDER) {
-                        recycleMe = mAdapterInfos.removeLast();
-                        // Keep the size only if the oldest items are removed.
-                        recycleMe.size = 0;
+                if (queryType == QUERY_TYPE_NEWER || queryType == QUERY_TYPE_OLDER) {
+                    // Drop adapters from the far end of the window until the new rows fit
+                    int[] sizes = new int[mAdapterInfos.size()];
+                    int i = 0;
+                    for (DayAdapterInfo info : mAdapterInfos) {
+                        sizes[i++] = info.size;
                     }
-                    if (recycleMe != null) {
-                        if (recycleMe.cursor != null) {
-                            recycleMe.cursor.close();
+                    boolean fromStart = queryType == QUERY_TYPE_NEWER;
+                    int prune = countAdaptersToPrune(sizes, fromStart, newRows, keepPosition,
+                            MAX_CACHED_ROWS);
+                    int removedFromStart = 0;
+                    for (i = 0; i < prune; i++) {
+                        DayAdapterInfo info;
+                        if (fromStart) {
+                            info = mAdapterInfos.removeFirst();
+                            removedFromStart += info.size;
+                        } else {
+                            info = mAdapterInfos.removeLast();
+                        }
+                        if (info.cursor != null) {
+                            info.cursor.close();
                         }
+                        recycleMe = info;
+                    }
+                    if (recycleMe != null) {
+                        // Keep the size only if the oldest items are removed.
+                        recycleMe.size = removedFromStart;
                         return recycleMe;
                     }
                 }
@@ -702,6 +753,45 @@ public class AgendaWindowAdapter extends BaseAdapter
         }
     }
 
+    /**
+     * Returns how many adapters to drop from one end of the window so that newRows more
+     * rows fit in maxRows. The adapter holding keepPosition and the one next to it
+     * towards that end are never dropped, so the rows on screen stay put.
+     *
+     * @param sizes the number of rows of each adapter, in list order
+     * @param fromStart whether to drop adapters from the start rather than the end
+     * @param keepPosition a list position, or -1 if none needs to be kept
+     */
+    static int countAdaptersToPrune(int[] sizes, boolean fromStart, int newRows,
+            int keepPosition, int maxRows) {
+        int rowCount = 0;
+        int keepIndex = -1;
+        for (int i = 0; i < sizes.length; i++) {
+            if (keepPosition >= rowCount && keepPosition < rowCount + sizes[i]) {
+                keepIndex = i;
+            }
+            rowCount += sizes[i];
+        }
+        if (keepIndex == -1 && keepPosition >= rowCount && sizes.length > 0) {
+            // Past the end, e.g. on the footer
+            keepIndex = sizes.length - 1;
+        }
+        int prunable;
+        if (keepIndex == -1) {
+            prunable = sizes.length;
+        } else if (fromStart) {
+            prunable = Math.max(0, keepIndex - 1);
+        } else {
+            prunable = Math.max(0, sizes.length - keepIndex - 2);
+        }
+        int prune = 0;
+        while (prune < prunable && rowCount + newRows > maxRows) {
+            rowCount -= sizes[fromStart ? prune : sizes.length - 1 - prune];
+            prune++;
+        }
+        return prune;
+    }
+
     private String buildQuerySelection() {
         // Respect the preference to show/hide declined events
 
@@ -1102,10 +1192,50 @@ public class AgendaWindowAdapter extends BaseAdapter
                 return;
             }
 
+            // Copy the rows out and lay out the day headers in the background so the
+            // UI thread only has to swap in the result. Queries are run one at a time,
+            // so results still arrive in order.
+            final QuerySpec spec = data;
+            final Cursor queryCursor = cursor;
+            final String timeZone = mTimeZone;
+            sRowExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // If there are too many rows the copy covers fewer days than were
+                    // queried.
+                    final AgendaRowBlock rows = AgendaRowBlock.copyOf(queryCursor, spec.start,
+                            spec.end, MAX_CACHED_ROWS, spec.queryType == QUERY_TYPE_OLDER);
+                    queryCursor.close();
+                    final AgendaByDayAdapter.RowTable table = AgendaByDayAdapter.calculateDays(
+                            rows.newCursor(), rows.firstCompleteDay, rows.lastCompleteDay,
+                            timeZone);
+                    mDataChangedHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onRowsReady(spec, rows, table);
+                        }
+                    });
+                }
+            });
+        }
+
+        /**
+         * Finishes a completed query on the UI thread, once its rows have been copied
+         * and laid out by {@link #onQueryComplete}.
+         */
+        private void onRowsReady(QuerySpec data, AgendaRowBlock rows,
+                AgendaByDayAdapter.RowTable table) {
+            if (mShuttingDown) {
+                return;
+            }
+            data.start = rows.firstCompleteDay;
+            data.end = rows.lastCompleteDay;
+            Cursor cursor = rows.newCursor();
+
             // Notify Listview of changes and update position
             int cursorSize = cursor.getCount();
             if (cursorSize > 0 || mAdapterInfos.isEmpty() || data.queryType == QUERY_TYPE_CLEAN) {
-                final int listPositionOffset = processNewCursor(data, cursor);
+                final int listPositionOffset = processNewCursor(data, cursor, table);
                 int newPosition = -1;
                 if (data.goToTime == null) { // Typical Scrolling type query
                     notifyDataSetChanged();
@@ -1342,10 +1472,15 @@ public class AgendaWindowAdapter extends BaseAdapter
          *
          * @return number of rows removed from the beginning
          */
-        private int processNewCursor(QuerySpec data, Cursor cursor) {
+        private int processNewCursor(QuerySpec data, Cursor cursor,
+                AgendaByDayAdapter.RowTable table) {
             synchronized (mAdapterInfos) {
-                // Remove adapter info's from adapterInfos as needed
-                DayAdapterInfo info = pruneAdapterInfo(data.queryType);
+                // Remove adapter info's from adapterInfos as needed, comparing adapter
+                // rows with adapter rows
+                int visiblePosition = Math.max(0,
+                        mAgendaListView.getFirstVisiblePosition() - OFF_BY_ONE_BUG);
+                DayAdapterInfo info = pruneAdapterInfo(data.queryType, table.count,
+                        visiblePosition);
                 int listPositionOffset = 0;
                 if (info == null) {
                     info = new DayAdapterInfo(mContext);
@@ -1360,7 +1495,7 @@ public class AgendaWindowAdapter extends BaseAdapter
                 info.start = data.start;
                 info.end = data.end;
                 info.cursor = cursor;
-                info.dayAdapter.changeCursor(info);
+                info.dayAdapter.changeCursor(info, table);
                 info.size = info.dayAdapter.getCount();
 
                 // Insert into adapterInfos
@@ -1377,12 +1512,19 @@ public class AgendaWindowAdapter extends BaseAdapter
                     mAdapterInfos.addLast(info);
                 }
 
-                // Update offsets in adapterInfos
+                // Update offsets in adapterInfos and rebuild the position index
                 mRowCount = 0;
+                DayAdapterInfo[] index = new DayAdapterInfo[mAdapterInfos.size()];
+                int[] offsets = new int[index.length];
+                int i = 0;
                 for (DayAdapterInfo info3 : mAdapterInfos) {
                     info3.offset = mRowCount;
+                    index[i] = info3;
+                    offsets[i++] = mRowCount;
                     mRowCount += info3.size;
                 }
+                mInfoIndex = index;
+                mInfoOffsets = offsets;
                 mLastUsedInfo = null;
 
                 return listPositionOffset;
@@ -92,6 +92,12 @@ public class AlarmScheduler {
     private static final long EVENT_LOOKAHEAD_WINDOW_MS = DateUtils.WEEK_IN_MILLIS;
     private static final long MAX_ALARM_ELAPSED_MS = DateUtils.DAY_IN_MILLIS;
 
+    // The reminders found by the last query, reused until the provider reports a change.
+    // A timeline is only trusted for MAX_ALARM_ELAPSED_MS after it was built, which
+    // keeps the same "at most 1 day late" bound for events that enter the lookahead
+    // window in the meantime.
+    private static final ReminderTimeline sTimeline = new ReminderTimeline();
+
     /**
      * Schedules the nearest upcoming alarm, to refresh notifications.
      *
@@ -103,23 +109,54 @@ public class AlarmScheduler {
      */
     public static void scheduleNextAlarm(Context context) {
         scheduleNextAlarm(context, AlertUtils.createAlarmManager(context),
-                REMINDER_QUERY_BATCH_SIZE, System.currentTimeMillis());
+                REMINDER_QUERY_BATCH_SIZE, System.currentTimeMillis(), sTimeline);
+    }
+
+    /**
+     * Drops the cached reminders, so the next call to {@link #scheduleNextAlarm(Context)}
+     * queries the provider again. Call this whenever events or reminders may have
+     * changed.
+     */
+    public static void invalidateTimeline() {
+        synchronized (sTimeline) {
+            sTimeline.invalidate();
+        }
     }
 
     // VisibleForTesting
     static void scheduleNextAlarm(Context context, AlarmManagerInterface alarmManager,
             int batchSize, long currentMillis) {
-        Cursor instancesCursor = null;
-        try {
-            instancesCursor = queryUpcomingEvents(context, context.getContentResolver(),
-                    currentMillis);
-            if (instancesCursor != null) {
-                queryNextReminderAndSchedule(instancesCursor, context,
-                        context.getContentResolver(), alarmManager, batchSize, currentMillis);
+        scheduleNextAlarm(context, alarmManager, batchSize, currentMillis,
+                new ReminderTimeline());
+    }
+
+    // VisibleForTesting
+    static void scheduleNextAlarm(Context context, AlarmManagerInterface alarmManager,
+            int batchSize, long currentMillis, ReminderTimeline timeline) {
+        synchronized (timeline) {
+            if (!timeline.isCurrent(currentMillis)) {
+                Cursor instancesCursor = null;
+                try {
+                    instancesCursor = queryUpcomingEvents(context, context.getContentResolver(),
+                            currentMillis);
+                    if (instancesCursor == null) {
+                        return;
+                    }
+                    timeline.reset(currentMillis, currentMillis + MAX_ALARM_ELAPSED_MS);
+                    queryReminders(instancesCursor, context.getContentResolver(), batchSize,
+                            currentMillis, timeline);
+                } finally {
+                    if (instancesCursor != null) {
+                        instancesCursor.close();
+                    }
+                }
             }
-        } finally {
-            if (instancesCursor != null) {
-                instancesCursor.close();
+
+            // Drop the reminders that already fired and schedule the next one
+            timeline.removeUntil(currentMillis);
+            if (!timeline.isEmpty()) {
+                scheduleAlarm(context, timeline.peekEventId(), timeline.peekAlarmTime(),
+                        currentMillis, alarmManager);
             }
         }
     }
@@ -178,12 +215,12 @@ public class AlarmScheduler {
     }
 
     /**
-     * Queries for all the reminders of the events in the instancesCursor, and schedules
-     * the alarm for the next upcoming reminder.
+     * Queries for all the reminders of the events in the instancesCursor, and adds the
+     * ones that are still to come to the timeline.
      */
-    private static void queryNextReminderAndSchedule(Cursor instancesCursor, Context context,
-            ContentResolver contentResolver, AlarmManagerInterface alarmManager,
-            int batchSize, long currentMillis) {
+    private static void queryReminders(Cursor instancesCursor,
+            ContentResolver contentResolver, int batchSize, long currentMillis,
+            ReminderTimeline timeline) {
         if (AlertService.DEBUG) {
             int eventCount = instancesCursor.getCount();
             if (eventCount == 0) {
@@ -197,8 +234,6 @@ public class AlarmScheduler {
         // local start time.
         Map<Integer, List<Long>> eventMap = new HashMap<Integer, List<Long>>();
         Time timeObj = new Time();
-        long nextAlarmTime = Long.MAX_VALUE;
-        int nextAlarmEventId = 0;
         instancesCursor.moveToPosition(-1);
         while (!instancesCursor.isAfterLast()) {
             int index = 0;
@@ -258,9 +293,8 @@ public class AlarmScheduler {
                         for (Long startTime : startTimes) {
                             long alarmTime = startTime -
                                     reminderMinutes * DateUtils.MINUTE_IN_MILLIS;
-                            if (alarmTime > currentMillis && alarmTime < nextAlarmTime) {
-                                nextAlarmTime = alarmTime;
-                                nextAlarmEventId = eventId;
+                            if (alarmTime > currentMillis) {
+                                timeline.add(alarmTime, eventId);
                             }
 
                             if (Log.isLoggable(TAG, Log.DEBUG)) {
@@ -283,11 +317,6 @@ public class AlarmScheduler {
                 }
             }
         }
-
-        // Schedule the alarm for the next reminder time.
-        if (nextAlarmTime < Long.MAX_VALUE) {
-            scheduleAlarm(context, nextAlarmEventId, nextAlarmTime, currentMillis, alarmManager);
-        }
     }
 
     /**
@@ -223,7 +223,7 @@ public class AlertActivity extends Activity implements OnClickListener {
     @Override
     protected void onStop() {
         super.onStop();
-        AlertService.updateAlertNotification(this);
+        AlertWorkExecutor.getInstance().requestRefresh(this);
 
         if (mCursor != null) {
             mCursor.deactivate();
@@ -244,6 +244,7 @@ public class AlertActivity extends Activity implements OnClickListener {
             NotificationManager nm =
                 (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
             nm.cancelAll();
+            AlertService.onAllNotificationsCancelled();
 
             dismissFiredAlarms();
 
@@ -853,7 +853,7 @@ public class AlertReceiver extends BroadcastReceiver {
                     // No location was found, so update all notifications.
                     // Our alert service does not currently allow us to specify only one
                     // specific notification to refresh.
-                    AlertService.updateAlertNotification(context);
+                    AlertWorkExecutor.getInstance().requestRefresh(context);
                 }
             }
         } else if (CALL_ACTION.equals(intent.getAction())) {
@@ -872,7 +872,7 @@ public class AlertReceiver extends BroadcastReceiver {
                     // No call location was found, so update all notifications.
                     // Our alert service does not currently allow us to specify only one
                     // specific notification to refresh.
-                    AlertService.updateAlertNotification(context);
+                    AlertWorkExecutor.getInstance().requestRefresh(context);
                 }
             }
         } else if (MAIL_ACTION.equals(intent.getAction())) {
@@ -42,6 +42,7 @@ import android.provider.CalendarContract.Attendees;
 import android.provider.CalendarContract.CalendarAlerts;
 import android.support.v4.content.ContextCompat;
 import android.text.TextUtils;
+import android.text.format.DateFormat;
 import android.text.format.DateUtils;
 import android.text.format.Time;
 import android.util.Log;
@@ -53,6 +54,7 @@ import com.android.calendar.Utils;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.TimeZone;
 
 import ws.xsoh.etar.R;
@@ -125,6 +127,8 @@ public class AlertService extends Service {
                     + " AND "
                     + CalendarContract.CalendarAlerts.END + ">=?";
     private static Boolean sReceivedProviderReminderBroadcast = null;
+    // What the last refresh posted, so the next one only posts and cancels the changes
+    private static final PostedNotifications sPostedNotifications = new PostedNotifications();
     private volatile Looper mServiceLooper;
     private volatile ServiceHandler mServiceHandler;
 
@@ -165,7 +169,7 @@ public class AlertService extends Service {
 
             // If we shouldn't be showing notifications cancel any existing ones
             // and return.
-            nm.cancelAll();
+            sPostedNotifications.cancel(nm, 0, MAX_NOTIFICATIONS);
             return true;
         }
 
@@ -179,17 +183,45 @@ public class AlertService extends Service {
             }
 
             if (DEBUG) Log.d(TAG, "No fired or scheduled alerts");
-            nm.cancelAll();
+            sPostedNotifications.cancel(nm, 0, MAX_NOTIFICATIONS);
             return false;
         }
 
         return generateAlerts(context, nm, AlertUtils.createAlarmManager(context), prefs,
-                alertCursor, currentTime, MAX_NOTIFICATIONS);
+                alertCursor, currentTime, MAX_NOTIFICATIONS, sPostedNotifications);
+    }
+
+    /**
+     * Forgets what was posted under the given notification id, after it was cancelled
+     * outside of a refresh.
+     */
+    static void onNotificationCancelled(int notificationId) {
+        sPostedNotifications.forget(notificationId, notificationId);
+    }
+
+    /**
+     * Forgets everything that was posted, after all notifications were cancelled
+     * outside of a refresh.
+     */
+    static void onAllNotificationsCancelled() {
+        sPostedNotifications.forget(0, MAX_NOTIFICATIONS);
     }
 
     public static boolean generateAlerts(Context context, NotificationMgr nm,
             AlarmManagerInterface alarmMgr, SharedPreferences prefs, Cursor alertCursor,
             final long currentTime, final int maxNotifications) {
+        return generateAlerts(context, nm, alarmMgr, prefs, alertCursor, currentTime,
+                maxNotifications, null);
+    }
+
+    /**
+     * Posts notifications for the alerts in alertCursor. If posted is given, only the
+     * notifications that differ from what it recorded are posted or cancelled, and it is
+     * updated to match; otherwise everything is posted and all unused ids are cancelled.
+     */
+    static boolean generateAlerts(Context context, NotificationMgr nm,
+            AlarmManagerInterface alarmMgr, SharedPreferences prefs, Cursor alertCursor,
+            final long currentTime, final int maxNotifications, PostedNotifications posted) {
         if (DEBUG) {
             Log.d(TAG, "alertCursor count:" + alertCursor.getCount());
         }
@@ -203,7 +235,7 @@ public class AlertService extends Service {
 
         if (highPriorityEvents.size() + mediumPriorityEvents.size()
                 + lowPriorityEvents.size() == 0) {
-            nm.cancelAll();
+            cancelBetween(nm, posted, 0, MAX_NOTIFICATIONS);
             return true;
         }
 
@@ -217,15 +249,17 @@ public class AlertService extends Service {
         redistributeBuckets(highPriorityEvents, mediumPriorityEvents, lowPriorityEvents,
                 maxNotifications);
 
+        // The summaries depend on the current day and the time format, so notifications
+        // are only reused while those stay the same
+        String formatKey = posted != null ? getFormatKey(context, currentTime) : null;
+
         // Post the individual higher priority events (future and recently started
         // concurrent events).  Order these so that earlier start times appear higher in
         // the notification list.
         for (int i = 0; i < highPriorityEvents.size(); i++) {
             NotificationInfo info = highPriorityEvents.get(i);
-            String summaryText = AlertUtils.formatTimeLocation(context, info.startMillis,
-                    info.allDay, info.location);
-            postNotification(info, summaryText, context, true, notificationPrefs, nm,
-                    currentNotificationId++);
+            postNotificationIfChanged(info, formatKey, context, true, notificationPrefs, nm,
+                    posted, currentNotificationId++);
 
             // Keep concurrent events high priority (to appear higher in the notification list)
             // until 15 minutes into the event.
@@ -241,10 +275,8 @@ public class AlertService extends Service {
             NotificationInfo info = mediumPriorityEvents.get(i);
             // TODO: Change to a relative time description like: "Started 40 minutes ago".
             // This requires constant refreshing to the message as time goes.
-            String summaryText = AlertUtils.formatTimeLocation(context, info.startMillis,
-                    info.allDay, info.location);
-            postNotification(info, summaryText, context, false, notificationPrefs, nm,
-                    currentNotificationId++);
+            postNotificationIfChanged(info, formatKey, context, false, notificationPrefs, nm,
+                    posted, currentNotificationId++);
 
             // Refresh when concurrent event ends so it will drop into the expired digest.
             nextRefreshTime = Math.min(nextRefreshTime, getNextRefreshTime(info, currentTime));
@@ -252,8 +284,21 @@ public class AlertService extends Service {
 
         // Post the low priority events as 1 combined notification.
         int numLowPriority = lowPriorityEvents.size();
-        if (numLowPriority > 0) {
-            String expiredDigestTitle = getDigestTitle(lowPriorityEvents);
+        Digest digest = new Digest();
+        for (int i = 0; i < numLowPriority; i++) {
+            digest.add(lowPriorityEvents.get(i));
+        }
+        String digestKey = null;
+        if (numLowPriority > 0 && posted != null) {
+            digestKey = digest.getKey(formatKey);
+        }
+        if (digestKey != null && posted.isPosted(AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID,
+                digestKey)) {
+            if (DEBUG) {
+                Log.d(TAG, "Digest notification unchanged, numEvents:" + numLowPriority);
+            }
+        } else if (numLowPriority > 0) {
+            String expiredDigestTitle = digest.getTitle();
             NotificationWrapper notification;
             if (numLowPriority == 1) {
                 // If only 1 expired event, display an "old-style" basic alert.
@@ -283,8 +328,12 @@ public class AlertService extends Service {
 
             // Post the new notification for the group.
             nm.notify(AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID, notification);
+            if (posted != null) {
+                posted.setPosted(AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID, digestKey);
+            }
         } else {
-            nm.cancel(AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID);
+            cancelBetween(nm, posted, AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID,
+                    AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID);
             if (DEBUG) {
                 Log.d(TAG, "No low priority events, canceling the digest notification.");
             }
@@ -292,12 +341,16 @@ public class AlertService extends Service {
 
         // Remove the notifications that are hanging around from the previous refresh.
         if (currentNotificationId <= maxNotifications) {
-            nm.cancelAllBetween(currentNotificationId, maxNotifications);
+            cancelBetween(nm, posted, currentNotificationId, maxNotifications);
             if (DEBUG) {
                 Log.d(TAG, "Canceling leftover notification IDs " + currentNotificationId + "-"
                         + maxNotifications);
             }
         }
+        if (posted != null) {
+            // Every id has now been either posted or cancelled
+            posted.setKnown();
+        }
 
         // Schedule the next silent refresh time so notifications will change
         // buckets (eg. drop into expired digest, etc).
@@ -323,50 +376,45 @@ public class AlertService extends Service {
 
     /**
      * Redistributes events in the priority lists based on the max # of notifications we
-     * can show.
+     * can show. The bumped events are moved to the low priority list in one pass.
      */
     static void redistributeBuckets(ArrayList<NotificationInfo> highPriorityEvents,
             ArrayList<NotificationInfo> mediumPriorityEvents,
             ArrayList<NotificationInfo> lowPriorityEvents, int maxNotifications) {
 
         // If too many high priority alerts, shift the remaining high priority and all the
-        // medium priority ones to the low priority bucket.  Note that order is important
-        // here; these lists are sorted by descending start time.  Maintain that ordering
-        // so posted notifications are in the expected order.
-        if (highPriorityEvents.size() > maxNotifications) {
-            // Move mid-priority to the digest.
-            lowPriorityEvents.addAll(0, mediumPriorityEvents);
-
-            // Move the rest of the high priority ones (latest ones) to the digest.
-            List<NotificationInfo> itemsToMoveSublist = highPriorityEvents.subList(
-                    0, highPriorityEvents.size() - maxNotifications);
-            // TODO: What order for high priority in the digest?
-            lowPriorityEvents.addAll(0, itemsToMoveSublist);
-            if (DEBUG) {
-                logEventIdsBumped(mediumPriorityEvents, itemsToMoveSublist);
-            }
-            mediumPriorityEvents.clear();
-            // Clearing the sublist view removes the items from the highPriorityEvents list.
-            itemsToMoveSublist.clear();
+        // medium priority ones to the low priority bucket.  Otherwise bump the medium
+        // priority events that don't fit.  Since these are concurrent events, we move the
+        // ones with the earlier start time first since they are further in the past and
+        // less important.
+        int numHigh = highPriorityEvents.size();
+        int numMedium = mediumPriorityEvents.size();
+        int highToMove = Math.max(0, numHigh - maxNotifications);
+        int mediumToKeep = Math.max(0, Math.min(numMedium, maxNotifications - numHigh));
+        if (highToMove == 0 && mediumToKeep == numMedium) {
+            return;
         }
 
-        // Bump the medium priority events if necessary.
-        if (mediumPriorityEvents.size() + highPriorityEvents.size() > maxNotifications) {
-            int spaceRemaining = maxNotifications - highPriorityEvents.size();
-
-            // Reached our max, move the rest to the digest.  Since these are concurrent
-            // events, we move the ones with the earlier start time first since they are
-            // further in the past and less important.
-            List<NotificationInfo> itemsToMoveSublist = mediumPriorityEvents.subList(
-                    spaceRemaining, mediumPriorityEvents.size());
-            lowPriorityEvents.addAll(0, itemsToMoveSublist);
-            if (DEBUG) {
-                logEventIdsBumped(itemsToMoveSublist, null);
-            }
-
-            // Clearing the sublist view removes the items from the mediumPriorityEvents list.
-            itemsToMoveSublist.clear();
+        // Note that order is important here; these lists are sorted by descending start
+        // time.  Maintain that ordering so posted notifications are in the expected order.
+        List<NotificationInfo> highToMoveSublist = highPriorityEvents.subList(0, highToMove);
+        List<NotificationInfo> mediumToMoveSublist = mediumPriorityEvents.subList(
+                mediumToKeep, numMedium);
+        if (DEBUG) {
+            logEventIdsBumped(mediumToMoveSublist, highToMoveSublist);
         }
+        // TODO: What order for high priority in the digest?
+        ArrayList<NotificationInfo> bumped = new ArrayList<NotificationInfo>(
+                highToMove + numMedium - mediumToKeep + lowPriorityEvents.size());
+        bumped.addAll(highToMoveSublist);
+        bumped.addAll(mediumToMoveSublist);
+        bumped.addAll(lowPriorityEvents);
+        lowPriorityEvents.clear();
+        lowPriorityEvents.addAll(bumped);
+
+        // Clearing the sublist views removes the items from the backing lists.
+        highToMoveSublist.clear();
+        mediumToMoveSublist.clear();
     }
 
     private static void logEventIdsBumped(List<NotificationInfo> list1,
@@ -541,10 +589,11 @@ public class AlertService extends Service {
                 boolean newAlertOverride = false;
                 if (AlertUtils.BYPASS_DB && ((currentTime - alarmTime) / MINUTE_MS < 1)) {
                     // To avoid re-firing alerts, only fire if alarmTime is very recent.  Otherwise
-                    // we can get refires for non-dismissed alerts after app installation, or if the
-                    // SharedPrefs was cleared too early.  This means alerts that were timed while
-                    // the phone was off may show up silently in the notification bar.
-                    boolean alreadyFired = AlertUtils.hasAlertFiredInSharedPrefs(context, eventId,
+                    // we can get refires for non-dismissed alerts after app installation, or if
+                    // the fired alert ledger dropped their records too early.  This means alerts
+                    // that were timed while the phone was off may show up silently in the
+                    // notification bar.
+                    boolean alreadyFired = AlertUtils.hasAlertFired(context, eventId,
                             beginTime, alarmTime);
                     if (!alreadyFired) {
                         newAlertOverride = true;
@@ -615,7 +664,7 @@ public class AlertService extends Service {
                     state = newState;
 
                     if (AlertUtils.BYPASS_DB) {
-                        AlertUtils.setAlertFiredInSharedPrefs(context, eventId, beginTime,
+                        AlertUtils.setAlertFired(context, eventId, beginTime,
                                 alarmTime);
                     }
                 }
@@ -729,17 +778,58 @@ public class AlertService extends Service {
         }
     }
 
-    private static String getDigestTitle(ArrayList<NotificationInfo> events) {
-        StringBuilder digestTitle = new StringBuilder();
-        for (NotificationInfo eventInfo : events) {
-            if (!TextUtils.isEmpty(eventInfo.eventName)) {
-                if (digestTitle.length() > 0) {
-                    digestTitle.append(", ");
+    private static void cancelBetween(NotificationMgr nm, PostedNotifications posted, int from,
+            int to) {
+        if (posted != null) {
+            posted.cancel(nm, from, to);
+        } else {
+            nm.cancelAllBetween(from, to);
+        }
+    }
+
+    private static String getFormatKey(Context context, long currentTime) {
+        String tz = Utils.getTimeZone(context, null);
+        Time time = new Time(tz);
+        time.set(currentTime);
+        return tz + '|' + Time.getJulianDay(currentTime, time.gmtoff) + '|'
+                + DateFormat.is24HourFormat(context) + '|' + Locale.getDefault();
+    }
+
+    private static void appendInfoKey(StringBuilder key, NotificationInfo info) {
+        key.append(info.eventId).append('|').append(info.startMillis).append('|')
+                .append(info.endMillis).append('|').append(info.allDay).append('|')
+                .append(info.eventName).append('|').append(info.location).append('|');
+    }
+
+    /**
+     * Posts the notification for info, unless the same notification was already posted
+     * under notificationId and there is nothing new to alert about.
+     */
+    private static void postNotificationIfChanged(NotificationInfo info, String formatKey,
+            Context context, boolean highPriority, NotificationPrefs prefs,
+            NotificationMgr notificationMgr, PostedNotifications posted, int notificationId) {
+        String key = null;
+        if (posted != null) {
+            StringBuilder sb = new StringBuilder(formatKey).append('|');
+            appendInfoKey(sb, info);
+            sb.append(info.description).append('|').append(highPriority).append('|')
+                    .append(prefs.getDoPopup());
+            key = sb.toString();
+            if (!info.newAlert && posted.isPosted(notificationId, key)) {
+                if (DEBUG) {
+                    Log.d(TAG, "Notification unchanged, eventId:" + info.eventId
+                            + ", notificationId:" + notificationId);
                 }
-                digestTitle.append(eventInfo.eventName);
+                return;
             }
         }
-        return digestTitle.toString();
+        String summaryText = AlertUtils.formatTimeLocation(context, info.startMillis,
+                info.allDay, info.location);
+        postNotification(info, summaryText, context, highPriority, prefs, notificationMgr,
+                notificationId);
+        if (posted != null) {
+            posted.setPosted(notificationId, key);
+        }
     }
 
     private static void postNotification(NotificationInfo info, String summaryText,
@@ -918,6 +1008,8 @@ public class AlertService extends Service {
             // notifications to help issue with the unbundled app installed on HTC having
             // stale notifications.
             if (action.equals(Intent.ACTION_PROVIDER_CHANGED)) {
+                // Events or reminders may have changed, the cached ones are stale
+                AlarmScheduler.invalidateTimeline();
                 try {
                     Thread.sleep(5000);
                 } catch (Exception e) {
@@ -939,6 +1031,7 @@ public class AlertService extends Service {
             intent.setClass(this, InitAlarmsService.class);
             startService(intent);
         } else if (action.equals(Intent.ACTION_TIME_CHANGED)) {
+            AlarmScheduler.invalidateTimeline();
             doTimeChanged();
         } else if (action.equals(AlertReceiver.ACTION_DISMISS_OLD_REMINDERS)) {
             dismissOldAlerts(this);
@@ -1068,6 +1161,99 @@ public class AlertService extends Service {
         }
     }
 
+    /**
+     * Builds the expired events digest as the events are added: the title, and a key
+     * that changes with any event shown in it. The key hashes the events rather than
+     * listing them, so it stays small with hundreds of expired alerts.
+     */
+    static class Digest {
+        // The title is shown on a single line, longer ones are never seen in full
+        static final int MAX_TITLE_LENGTH = 256;
+
+        private final StringBuilder mTitle = new StringBuilder();
+        private long mHash = 17;
+        private int mCount;
+
+        void add(NotificationInfo info) {
+            mCount++;
+            mHash = mix(mHash, info.eventId);
+            mHash = mix(mHash, info.startMillis);
+            mHash = mix(mHash, info.endMillis);
+            mHash = mix(mHash, info.allDay ? 1 : 0);
+            mHash = mix(mHash, info.eventName == null ? 0 : info.eventName.hashCode());
+            mHash = mix(mHash, info.location == null ? 0 : info.location.hashCode());
+            if (!TextUtils.isEmpty(info.eventName) && mTitle.length() < MAX_TITLE_LENGTH) {
+                if (mTitle.length() > 0) {
+                    mTitle.append(", ");
+                }
+                mTitle.append(info.eventName);
+            }
+        }
+
+        String getTitle() {
+            return mTitle.toString();
+        }
+
+        String getKey(String formatKey) {
+            return formatKey + '|' + mCount + '|' + Long.toHexString(mHash);
+        }
+
+        private static long mix(long hash, long value) {
+            long h = (hash ^ value) * 0x9E3779B97F4A7C15L;
+            return h ^ (h >>> 31);
+        }
+    }
+
+    /**
+     * Remembers a key describing the notification last posted under each id. Until the
+     * first full cancel it does not know what is showing (e.g. after the process was
+     * restarted), so it cancels every requested id.
+     */
+    static class PostedNotifications {
+        // Null for ids that are not in use
+        private final String[] mKeys = new String[MAX_NOTIFICATIONS + 1];
+        private boolean mKnown;
+
+        synchronized boolean isPosted(int id, String key) {
+            return mKnown && id < mKeys.length && key.equals(mKeys[id]);
+        }
+
+        synchronized void setKnown() {
+            mKnown = true;
+        }
+
+        synchronized void setPosted(int id, String key) {
+            if (id < mKeys.length) {
+                mKeys[id] = key;
+            }
+        }
+
+        /**
+         * Cancels the ids between from and to, inclusively, that are in use.
+         */
+        synchronized void cancel(NotificationMgr nm, int from, int to) {
+            if (!mKnown) {
+                nm.cancelAllBetween(from, to);
+                if (from == 0 && to >= MAX_NOTIFICATIONS) {
+                    mKnown = true;
+                }
+            } else {
+                for (int id = from; id <= to && id < mKeys.length; id++) {
+                    if (mKeys[id] != null) {
+                        nm.cancel(id);
+                    }
+                }
+            }
+            forget(from, to);
+        }
+
+        synchronized void forget(int from, int to) {
+            for (int id = from; id <= to && id < mKeys.length; id++) {
+                mKeys[id] = null;
+            }
+        }
+    }
+
     /* package */ static class NotificationPrefs {
         private static final String EMPTY_RINGTONE = "";
         boolean quietUpdate;
@@ -1122,8 +1308,14 @@ public class AlertService extends Service {
         }
 
         @Override
-        public void handleMessage(Message msg) {
-            processMessage(msg);
+        public void handleMessage(final Message msg) {
+            // Snoozes and dismissals change the same alerts, so wait for them to finish
+            AlertWorkExecutor.getInstance().runExclusive(new Runnable() {
+                @Override
+                public void run() {
+                    processMessage(msg);
+                }
+            });
             // NOTE: We MUST not call stopSelf() directly, since we need to
             // make sure the wake lock acquired by AlertReceiver is released.
             AlertReceiver.finishStartingService(AlertService.this, msg.arg1);
@@ -36,7 +36,6 @@ import com.android.calendar.EventInfoActivity;
 import com.android.calendar.Utils;
 
 import java.util.Locale;
-import java.util.Map;
 import java.util.TimeZone;
 
 import ws.xsoh.etar.R;
@@ -55,15 +54,13 @@ public class AlertUtils {
     public static final String EVENT_STARTS_KEY = "starts";
     static final boolean DEBUG = true;
     private static final String TAG = "AlertUtils";
-    // SharedPrefs table name for storing fired alerts.  This prevents other installed
-    // Calendar apps from eating the alerts.
+    // SharedPrefs table name that older versions used for storing fired alerts.  Its
+    // contents are moved to the FiredAlertLedger.
     private static final String ALERTS_SHARED_PREFS_NAME = "calendar_alerts";
     // Keyname prefix for the alerts data in SharedPrefs.  The key will contain a combo
     // of event ID, begin time, and alarm time.  The value will be the fired time.
-    private static final String KEY_FIRED_ALERT_PREFIX = "preference_alert_";
-    // The last time the SharedPrefs was scanned and flushed of old alerts data.
-    private static final String KEY_LAST_FLUSH_TIME_MS = "preference_flushTimeMs";
-    // The # of days to save alert states in the shared prefs table, before flushing.  This
+    static final String KEY_FIRED_ALERT_PREFIX = "preference_alert_";
+    // The # of days to save alert states in the fired alerts ledger, before flushing.  This
     // can be any value, since AlertService will also check for a recent alertTime before
     // ringing the alert.
     private static final int FLUSH_INTERVAL_DAYS = 1;
@@ -224,98 +221,37 @@ public class AlertUtils {
         return context.getSharedPreferences(ALERTS_SHARED_PREFS_NAME, Context.MODE_PRIVATE);
     }
 
-    private static String getFiredAlertsKey(long eventId, long beginTime,
-            long alarmTime) {
-        StringBuilder sb = new StringBuilder(KEY_FIRED_ALERT_PREFIX);
-        sb.append(eventId);
-        sb.append("_");
-        sb.append(beginTime);
-        sb.append("_");
-        sb.append(alarmTime);
-        return sb.toString();
-    }
-
     /**
-     * Returns whether the SharedPrefs storage indicates we have fired the alert before.
+     * Returns whether the fired alerts ledger indicates we have fired the alert before.
      */
-    static boolean hasAlertFiredInSharedPrefs(Context context, long eventId, long beginTime,
+    static boolean hasAlertFired(Context context, long eventId, long beginTime,
             long alarmTime) {
-        SharedPreferences prefs = getFiredAlertsTable(context);
-        return prefs.contains(getFiredAlertsKey(eventId, beginTime, alarmTime));
+        return FiredAlertLedger.getInstance(context).contains(eventId, beginTime, alarmTime);
     }
 
     /**
-     * Store fired alert info in the SharedPrefs.
+     * Store fired alert info in the fired alerts ledger.
      */
-    static void setAlertFiredInSharedPrefs(Context context, long eventId, long beginTime,
+    static void setAlertFired(Context context, long eventId, long beginTime,
             long alarmTime) {
-        // Store alarm time as the value too so we don't have to parse all the keys to flush
-        // old alarms out of the table later.
-        SharedPreferences prefs = getFiredAlertsTable(context);
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.putLong(getFiredAlertsKey(eventId, beginTime, alarmTime), alarmTime);
-        editor.apply();
+        FiredAlertLedger.getInstance(context).add(eventId, beginTime, alarmTime);
     }
 
     /**
-     * Scans and flushes the internal storage of old alerts.  Looks up the previous flush
-     * time in SharedPrefs, and performs the flush if overdue.  Otherwise, no-op.
+     * Flushes old alerts from the fired alerts ledger, if that hasn't been done in a
+     * while.  Otherwise, no-op.
      */
     static void flushOldAlertsFromInternalStorage(Context context) {
         if (BYPASS_DB) {
-            SharedPreferences prefs = getFiredAlertsTable(context);
-
             // Only flush if it hasn't been done in a while.
             long nowTime = System.currentTimeMillis();
-            long lastFlushTimeMs = prefs.getLong(KEY_LAST_FLUSH_TIME_MS, 0);
-            if (nowTime - lastFlushTimeMs > FLUSH_INTERVAL_MS) {
+            FiredAlertLedger ledger = FiredAlertLedger.getInstance(context);
+            if (nowTime - ledger.getLastCompactTime() > FLUSH_INTERVAL_MS) {
                 if (DEBUG) {
-                    Log.d(TAG, "Flushing old alerts from shared prefs table");
+                    Log.d(TAG, "Flushing old alerts from the fired alerts ledger");
                 }
-
-                // Scan through all fired alert entries, removing old ones.
-                SharedPreferences.Editor editor = prefs.edit();
-                Time timeObj = new Time();
-                for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
-                    String key = entry.getKey();
-                    Object value = entry.getValue();
-                    if (key.startsWith(KEY_FIRED_ALERT_PREFIX)) {
-                        long alertTime;
-                        if (value instanceof Long) {
-                            alertTime = (Long) value;
-                        } else {
-                            // Should never occur.
-                            Log.e(TAG,"SharedPrefs key " + key + " did not have Long value: " +
-                                    value);
-                            continue;
-                        }
-
-                        if (nowTime - alertTime >= FLUSH_INTERVAL_MS) {
-                            editor.remove(key);
-                            if (DEBUG) {
-                                int ageInDays = getIntervalInDays(alertTime, nowTime, timeObj);
-                                Log.d(TAG, "SharedPrefs key " + key + ": removed (" + ageInDays +
-                                        " days old)");
-                            }
-                        } else {
-                            if (DEBUG) {
-                                int ageInDays = getIntervalInDays(alertTime, nowTime, timeObj);
-                                Log.d(TAG, "SharedPrefs key " + key + ": keep (" + ageInDays +
-                                        " days old)");
-                            }
-                        }
-                    }
-                }
-                editor.putLong(KEY_LAST_FLUSH_TIME_MS, nowTime);
-                editor.apply();
+                ledger.compact(nowTime - FLUSH_INTERVAL_MS, nowTime);
             }
         }
     }
-
-    private static int getIntervalInDays(long startMillis, long endMillis, Time timeObj) {
-        timeObj.set(startMillis);
-        int startDay = Time.getJulianDay(startMillis, timeObj.gmtoff);
-        timeObj.set(endMillis);
-        return Time.getJulianDay(endMillis, timeObj.gmtoff) - startDay;
-    }
 }
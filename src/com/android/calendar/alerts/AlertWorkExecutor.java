@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.alerts;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Runs the work that changes the state of alerts, e.g. snoozing or dismissing them.
+ *
+ * Work for a single event is striped by event id: work for the same event runs in the
+ * order it was submitted, while work for different events runs in parallel. Work that
+ * touches the alerts of every event, such as refreshing the notifications, runs
+ * exclusively, after the per-event work already running and before any that starts
+ * later.
+ */
+class AlertWorkExecutor {
+    private static final String TAG = "AlertWorkExecutor";
+    private static final boolean DEBUG = false;
+
+    // How long an idle stripe keeps its thread
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static AlertWorkExecutor sInstance;
+
+    private final ExecutorService[] mStripes;
+    private final ExecutorService mExclusive;
+    // Held shared by per-event work and exclusively by work on every event
+    private final ReadWriteLock mLock = new ReentrantReadWriteLock(true);
+    private final AtomicBoolean mRefreshPending = new AtomicBoolean();
+
+    AlertWorkExecutor(int stripes) {
+        mStripes = new ExecutorService[stripes];
+        for (int i = 0; i < stripes; i++) {
+            mStripes[i] = newSerialExecutor(TAG + " " + i);
+        }
+        mExclusive = newSerialExecutor(TAG + " exclusive");
+    }
+
+    static synchronized AlertWorkExecutor getInstance() {
+        if (sInstance == null) {
+            int cpus = Runtime.getRuntime().availableProcessors();
+            sInstance = new AlertWorkExecutor(Math.max(2, Math.min(4, cpus)));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Runs work for a single event in the background.
+     */
+    void execute(long eventId, final Runnable work) {
+        mStripes[stripeOf(eventId)].execute(new Runnable() {
+            @Override
+            public void run() {
+                mLock.readLock().lock();
+                try {
+                    work.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Alert work failed", e);
+                } finally {
+                    mLock.readLock().unlock();
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs work that may touch the alerts of any event in the background.
+     */
+    void executeExclusive(final Runnable work) {
+        mExclusive.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runExclusive(work);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Alert work failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs work that may touch the alerts of any event on the calling thread, once no
+     * other alert work is running.
+     */
+    void runExclusive(Runnable work) {
+        mLock.writeLock().lock();
+        try {
+            work.run();
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Refreshes the alert notifications in the background. Requests made before a
+     * pending refresh starts are served by that refresh.
+     */
+    void requestRefresh(Context context) {
+        if (!mRefreshPending.compareAndSet(false, true)) {
+            if (DEBUG) {
+                Log.d(TAG, "Refresh already pending");
+            }
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        executeExclusive(new Runnable() {
+            @Override
+            public void run() {
+                // Cleared first, so changes made during the refresh are picked up again
+                mRefreshPending.set(false);
+                AlertService.updateAlertNotification(appContext);
+            }
+        });
+    }
+
+    int stripeOf(long eventId) {
+        long h = eventId * 0x9E3779B97F4A7C15L;
+        return (int) ((h >>> 32) % mStripes.length);
+    }
+
+    private static ExecutorService newSerialExecutor(final String name) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        }, name);
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.alerts;
+
+import android.app.Service;
+import android.content.Intent;
+import android.os.IBinder;
+
+/**
+ * A service that handles each intent on the {@link AlertWorkExecutor}, like an
+ * IntentService but with intents for different events handled in parallel. It stops
+ * itself once every intent has been handled.
+ */
+abstract class AlertWorkService extends Service {
+    private int mPending;
+    private int mLastStartId;
+
+    /**
+     * Returns the event the intent is about, or -1 if it may touch the alerts of any
+     * event.
+     */
+    protected abstract long getEventId(Intent intent);
+
+    /**
+     * Handles an intent on a background thread.
+     */
+    protected abstract void onHandleIntent(Intent intent);
+
+    @Override
+    public int onStartCommand(final Intent intent, int flags, int startId) {
+        synchronized (this) {
+            mPending++;
+            mLastStartId = startId;
+        }
+        Runnable work = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (intent != null) {
+                        onHandleIntent(intent);
+                    }
+                } finally {
+                    finishIntent();
+                }
+            }
+        };
+        long eventId = intent != null ? getEventId(intent) : -1;
+        AlertWorkExecutor executor = AlertWorkExecutor.getInstance();
+        if (eventId != -1) {
+            executor.execute(eventId, work);
+        } else {
+            executor.executeExclusive(work);
+        }
+        return START_NOT_STICKY;
+    }
+
+    private synchronized void finishIntent() {
+        if (--mPending == 0) {
+            // Does nothing if another intent was started since
+            stopSelf(mLastStartId);
+        }
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+}
@@ -16,14 +16,12 @@
 
 package com.android.calendar.alerts;
 
-import android.app.IntentService;
 import android.app.NotificationManager;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
-import android.os.IBinder;
 import android.provider.CalendarContract.CalendarAlerts;
 import android.support.v4.app.TaskStackBuilder;
 
@@ -34,25 +32,22 @@ import java.util.LinkedList;
 import java.util.List;
 
 /**
- * Service for asynchronously marking fired alarms as dismissed.
+ * Service for asynchronously marking fired alarms as dismissed. Dismissals of
+ * different events are handled in parallel.
  */
-public class DismissAlarmsService extends IntentService {
+public class DismissAlarmsService extends AlertWorkService {
     private static final String[] PROJECTION = new String[] {
             CalendarAlerts.STATE,
     };
     private static final int COLUMN_INDEX_STATE = 0;
 
-    public DismissAlarmsService() {
-        super("DismissAlarmsService");
-    }
-
     @Override
-    public IBinder onBind(Intent intent) {
-        return null;
+    protected long getEventId(Intent intent) {
+        return intent.getLongExtra(AlertUtils.EVENT_ID_KEY, -1);
     }
 
     @Override
-    public void onHandleIntent(Intent intent) {
+    protected void onHandleIntent(Intent intent) {
 
         long eventId = intent.getLongExtra(AlertUtils.EVENT_ID_KEY, -1);
         long eventStart = intent.getLongExtra(AlertUtils.EVENT_START_KEY, -1);
@@ -94,6 +89,7 @@ public class DismissAlarmsService extends IntentService {
             NotificationManager nm =
                     (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
             nm.cancel(notificationId);
+            AlertService.onNotificationCancelled(notificationId);
         }
 
         if (showEvent) {
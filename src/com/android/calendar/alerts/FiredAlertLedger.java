@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.alerts;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Records which alerts have been fired, so an alert is only rung once even if several
+ * calendar apps are installed. Each fired alert is an (eventId, begin, alarmTime)
+ * record appended to a small binary file, and the records are kept in memory as a
+ * hash set of packed longs, so checking and recording an alert doesn't rewrite or
+ * parse anything.
+ *
+ * Records are appended in the order alerts fire, so old ones collect at the start of
+ * the file and are dropped by rewriting the file once they have aged out. The file
+ * starts with a header record holding the time of the last compaction, so alert
+ * processes, which are short lived, don't compact on every start.
+ */
+class FiredAlertLedger {
+    private static final String TAG = "FiredAlertLedger";
+    private static final boolean DEBUG = false;
+
+    private static final String FILE_NAME = "fired_alerts.ledger";
+    private static final int RECORD_BYTES = 3 * 8;
+    // Starts the header record. Negative, so no record of an event can start with it.
+    private static final long MAGIC = 0x8A4C454447455231L; // "\x8aLEDGER1"
+    // Where the last compaction time is in the header record
+    private static final int COMPACT_TIME_OFFSET = 2 * 8;
+
+    private static FiredAlertLedger sInstance;
+
+    private final File mFile;
+    // The records in file order
+    private long[] mEventIds = new long[16];
+    private long[] mBegins = new long[16];
+    private long[] mAlarmTimes = new long[16];
+    private int mCount;
+    private final LongHashSet mKeys = new LongHashSet();
+    // Files written before the header was added start with a record
+    private boolean mHasHeader;
+    private long mLastCompactTime;
+
+    private FiredAlertLedger(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Returns the process wide ledger, loading it on first use. Alerts recorded by
+     * older versions in SharedPreferences are moved into the ledger.
+     */
+    static synchronized FiredAlertLedger getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            FiredAlertLedger ledger = open(new File(appContext.getFilesDir(), FILE_NAME));
+            ledger.migrate(AlertUtils.getFiredAlertsTable(appContext));
+            sInstance = ledger;
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns a ledger backed by a file, with the records already in it.
+     */
+    /* @VisibleForTesting */
+    static FiredAlertLedger open(File file) {
+        FiredAlertLedger ledger = new FiredAlertLedger(file);
+        ledger.load();
+        return ledger;
+    }
+
+    synchronized boolean contains(long eventId, long beginTime, long alarmTime) {
+        return mKeys.contains(pack(eventId, beginTime, alarmTime));
+    }
+
+    /**
+     * Records a fired alert, appending it to the file.
+     */
+    synchronized void add(long eventId, long beginTime, long alarmTime) {
+        if (!mKeys.add(pack(eventId, beginTime, alarmTime))) {
+            return;
+        }
+        addRecord(eventId, beginTime, alarmTime);
+        DataOutputStream out = null;
+        try {
+            boolean header = !mHasHeader && mFile.length() == 0;
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(mFile, true), (header ? 2 : 1) * RECORD_BYTES));
+            if (header) {
+                writeRecord(out, MAGIC, 0, mLastCompactTime);
+                mHasHeader = true;
+            }
+            writeRecord(out, eventId, beginTime, alarmTime);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to append to " + mFile, e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Returns when the ledger was last compacted, 0 if never
+     */
+    synchronized long getLastCompactTime() {
+        return mLastCompactTime;
+    }
+
+    /**
+     * Drops the records of alerts that fired before minAlarmTime, rewriting the file,
+     * and records now as the last compaction time. Only the header is updated if there
+     * are no records to drop.
+     */
+    synchronized void compact(long minAlarmTime, long now) {
+        mLastCompactTime = now;
+        int keep = 0;
+        for (int i = 0; i < mCount; i++) {
+            if (mAlarmTimes[i] >= minAlarmTime) {
+                mEventIds[keep] = mEventIds[i];
+                mBegins[keep] = mBegins[i];
+                mAlarmTimes[keep] = mAlarmTimes[i];
+                keep++;
+            }
+        }
+        if (keep == mCount && mHasHeader) {
+            writeCompactTime();
+            return;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Compacting, dropped " + (mCount - keep) + " of " + mCount);
+        }
+        mCount = keep;
+        mKeys.clear();
+        for (int i = 0; i < mCount; i++) {
+            mKeys.add(pack(mEventIds[i], mBegins[i], mAlarmTimes[i]));
+        }
+
+        File tmp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            writeRecord(out, MAGIC, 0, mLastCompactTime);
+            for (int i = 0; i < mCount; i++) {
+                writeRecord(out, mEventIds[i], mBegins[i], mAlarmTimes[i]);
+            }
+            out.close();
+            out = null;
+            if (tmp.renameTo(mFile)) {
+                mHasHeader = true;
+            } else {
+                Log.e(TAG, "Unable to replace " + mFile);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to compact " + mFile, e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private void writeCompactTime() {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(mFile, "rw");
+            raf.seek(COMPACT_TIME_OFFSET);
+            raf.writeLong(mLastCompactTime);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to update " + mFile, e);
+        } finally {
+            closeQuietly(raf);
+        }
+    }
+
+    private void load() {
+        DataInputStream in = null;
+        long validBytes = 0;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            while (true) {
+                long eventId = in.readLong();
+                long beginTime = in.readLong();
+                long alarmTime = in.readLong();
+                validBytes += RECORD_BYTES;
+                if (validBytes == RECORD_BYTES && eventId == MAGIC) {
+                    mHasHeader = true;
+                    mLastCompactTime = alarmTime;
+                    continue;
+                }
+                if (mKeys.add(pack(eventId, beginTime, alarmTime))) {
+                    addRecord(eventId, beginTime, alarmTime);
+                }
+            }
+        } catch (EOFException e) {
+            // Done
+        } catch (FileNotFoundException e) {
+            return;
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read " + mFile, e);
+        } finally {
+            closeQuietly(in);
+        }
+
+        // Drop a record that was only partially written
+        if (mFile.length() != validBytes) {
+            RandomAccessFile raf = null;
+            try {
+                raf = new RandomAccessFile(mFile, "rw");
+                raf.setLength(validBytes);
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to truncate " + mFile, e);
+            } finally {
+                closeQuietly(raf);
+            }
+        }
+    }
+
+    /**
+     * Moves the alerts that older versions kept as "preference_alert_<eventId>_<begin>_
+     * <alarmTime>" keys into the ledger, and empties the preferences.
+     */
+    private void migrate(SharedPreferences prefs) {
+        Map<String, ?> all = prefs.getAll();
+        if (all.isEmpty()) {
+            return;
+        }
+        for (String key : all.keySet()) {
+            if (!key.startsWith(AlertUtils.KEY_FIRED_ALERT_PREFIX)) {
+                continue;
+            }
+            String[] parts = key.substring(AlertUtils.KEY_FIRED_ALERT_PREFIX.length())
+                    .split("_");
+            if (parts.length != 3) {
+                continue;
+            }
+            try {
+                add(Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+                        Long.parseLong(parts[2]));
+            } catch (NumberFormatException e) {
+                Log.e(TAG, "Skipping malformed key " + key);
+            }
+        }
+        prefs.edit().clear().apply();
+    }
+
+    private void addRecord(long eventId, long beginTime, long alarmTime) {
+        if (mCount == mEventIds.length) {
+            int capacity = mCount * 2;
+            mEventIds = Arrays.copyOf(mEventIds, capacity);
+            mBegins = Arrays.copyOf(mBegins, capacity);
+            mAlarmTimes = Arrays.copyOf(mAlarmTimes, capacity);
+        }
+        mEventIds[mCount] = eventId;
+        mBegins[mCount] = beginTime;
+        mAlarmTimes[mCount] = alarmTime;
+        mCount++;
+    }
+
+    private static void writeRecord(DataOutputStream out, long eventId, long beginTime,
+            long alarmTime) throws IOException {
+        out.writeLong(eventId);
+        out.writeLong(beginTime);
+        out.writeLong(alarmTime);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    /**
+     * Mixes a record into a single long. Two records packing to the same value would
+     * make the second alert fire silently, which at 64 bits is not a practical concern.
+     */
+    static long pack(long eventId, long beginTime, long alarmTime) {
+        long h = eventId * 0x9E3779B97F4A7C15L;
+        h = (h ^ (h >>> 29) ^ beginTime) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 32) ^ alarmTime) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+
+    /**
+     * An open addressing hash set of longs.
+     */
+    static class LongHashSet {
+        // Marks an empty slot; a key equal to it is tracked separately
+        private static final long EMPTY = 0;
+
+        private long[] mSlots = new long[64];
+        private int mSize;
+        private boolean mHasEmptyKey;
+
+        boolean contains(long key) {
+            if (key == EMPTY) {
+                return mHasEmptyKey;
+            }
+            int mask = mSlots.length - 1;
+            for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+                long slot = mSlots[i];
+                if (slot == key) {
+                    return true;
+                }
+                if (slot == EMPTY) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Adds the key, returning false if it was already present.
+         */
+        boolean add(long key) {
+            if (key == EMPTY) {
+                boolean added = !mHasEmptyKey;
+                mHasEmptyKey = true;
+                return added;
+            }
+            if ((mSize + 1) * 2 > mSlots.length) {
+                grow();
+            }
+            if (!insert(mSlots, key)) {
+                return false;
+            }
+            mSize++;
+            return true;
+        }
+
+        void clear() {
+            Arrays.fill(mSlots, EMPTY);
+            mSize = 0;
+            mHasEmptyKey = false;
+        }
+
+        private void grow() {
+            long[] slots = new long[mSlots.length * 2];
+            for (long key : mSlots) {
+                if (key != EMPTY) {
+                    insert(slots, key);
+                }
+            }
+            mSlots = slots;
+        }
+
+        private static boolean insert(long[] slots, long key) {
+            int mask = slots.length - 1;
+            for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+                long slot = slots[i];
+                if (slot == key) {
+                    return false;
+                }
+                if (slot == EMPTY) {
+                    slots[i] = key;
+                    return true;
+                }
+            }
+        }
+
+        private static int mix(long key) {
+            return (int) (key ^ (key >>> 32));
+        }
+    }
+}
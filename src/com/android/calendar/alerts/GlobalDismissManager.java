@@ -17,15 +17,23 @@
 package com.android.calendar.alerts;
 
 import android.content.BroadcastReceiver;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.os.RemoteException;
+import android.provider.CalendarContract;
 import android.provider.CalendarContract.CalendarAlerts;
 import android.provider.CalendarContract.Calendars;
 import android.provider.CalendarContract.Events;
@@ -36,6 +44,7 @@ import com.android.calendar.CloudNotificationBackplane;
 import com.android.calendar.ExtensionsFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -72,6 +81,23 @@ public class GlobalDismissManager extends BroadcastReceiver {
     private static final String GOOGLE_ACCOUNT_TYPE = "com.google";
     private static final String GLOBAL_DISMISS_MANAGER_PREFS = "com.android.calendar.alerts.GDM";
     private static final String ACCOUNT_KEY = "known_accounts";
+    // How long to wait for more dismissals before sending or applying a burst
+    private static final long DEBOUNCE_MS = 500;
+    private static final int FLUSH_DISMISSALS = 1;
+    private static final int FLUSH_RECEIVED = 2;
+    // Cleared rather than trimmed when full, it only saves queries
+    private static final int MAX_CACHED_EVENTS = 500;
+
+    // Lookups that are reused across dismissals
+    private static final Map<Long, Long> sEventToCalendar = new HashMap<Long, Long>();
+    private static final Map<Long, Pair<String, String>> sCalendarToAccount =
+            new HashMap<Long, Pair<String, String>>();
+
+    // Dismissals waiting to be sent, and ones received from other devices waiting to be
+    // applied as (account name, sync ID, start time)
+    private static final List<AlarmId> sPendingDismissals = new ArrayList<AlarmId>();
+    private static final List<String[]> sReceivedDismissals = new ArrayList<String[]>();
+    private static Handler sHandler;
 
     /**
      * Look for unknown accounts in a set of events and associate with them.
@@ -145,11 +171,12 @@ public class GlobalDismissManager extends BroadcastReceiver {
     }
 
     /**
-     * Globally dismiss notifications that are backed by the same events.
+     * Globally dismiss notifications that are backed by the same events. Returns
+     * immediately; dismissals that arrive within {@link #DEBOUNCE_MS} of each other are
+     * sent together in the background.
      *
      * @param context application context
      * @param alarmIds Unique identifiers for events that have been dismissed by the user.
-     * @return true if notification_sender_id is available
      */
     public static void dismissGlobally(final Context context, final List<AlarmId> alarmIds) {
         final String senderId = context.getResources().getString(R.string.notification_sender_id);
@@ -157,6 +184,61 @@ public class GlobalDismissManager extends BroadcastReceiver {
             Log.i(TAG, "no sender configured");
             return;
         }
+        queueDismissals(alarmIds);
+        schedule(context.getApplicationContext(), FLUSH_DISMISSALS);
+    }
+
+    /* @VisibleForTesting */
+    static void queueDismissals(List<AlarmId> alarmIds) {
+        synchronized (sPendingDismissals) {
+            sPendingDismissals.addAll(alarmIds);
+        }
+    }
+
+    /**
+     * Takes the queued dismissals, each alarm once, in the order they were first queued.
+     */
+    /* @VisibleForTesting */
+    static Set<AlarmId> takeQueuedDismissals() {
+        synchronized (sPendingDismissals) {
+            Set<AlarmId> alarmIds = new LinkedHashSet<AlarmId>(sPendingDismissals);
+            sPendingDismissals.clear();
+            return alarmIds;
+        }
+    }
+
+    private static void schedule(Context context, int what) {
+        synchronized (GlobalDismissManager.class) {
+            if (sHandler == null) {
+                HandlerThread thread = new HandlerThread(TAG,
+                        Process.THREAD_PRIORITY_BACKGROUND);
+                thread.start();
+                sHandler = new Handler(thread.getLooper()) {
+                    @Override
+                    public void handleMessage(Message msg) {
+                        if (msg.what == FLUSH_DISMISSALS) {
+                            sendDismissals((Context) msg.obj);
+                        } else if (msg.what == FLUSH_RECEIVED) {
+                            applyReceivedDismissals((Context) msg.obj);
+                        }
+                    }
+                };
+            }
+            if (!sHandler.hasMessages(what)) {
+                sHandler.sendMessageDelayed(sHandler.obtainMessage(what, context), DEBOUNCE_MS);
+            }
+        }
+    }
+
+    /**
+     * Sends the pending dismissals to the other devices, using a single connection for
+     * the whole burst.
+     */
+    private static void sendDismissals(Context context) {
+        Set<AlarmId> alarmIds = takeQueuedDismissals();
+        if (alarmIds.isEmpty()) {
+            return;
+        }
         Set<Long> eventIds = new HashSet<Long>(alarmIds.size());
         for (AlarmId alarmId: alarmIds) {
             eventIds.add(alarmId.mEventId);
@@ -181,30 +263,33 @@ public class GlobalDismissManager extends BroadcastReceiver {
             return;
         }
 
-        // TODO group by account to reduce queries
+        // Group the events by account, so there is one sync ID query per account
+        Map<String, Set<Long>> accountToEvents = groupEventsByAccount(eventsToCalendars,
+                calendarsToAccounts);
+
         Map<String, String> syncIdToAccount = new HashMap<String, String>();
         Map<Long, String> eventIdToSyncId = new HashMap<Long, String>();
         ContentResolver resolver = context.getContentResolver();
-        for (Long eventId : eventsToCalendars.keySet()) {
-            Long calendar = eventsToCalendars.get(eventId);
-            Pair<String, String> account = calendarsToAccounts.get(calendar);
-            if (GOOGLE_ACCOUNT_TYPE.equals(account.first)) {
-                Uri uri = asSync(Events.CONTENT_URI, account.first, account.second);
-                Cursor cursor = resolver.query(uri, EVENT_SYNC_PROJECTION,
-                        Events._ID + " = " + eventId, null, null);
-                try {
-                    cursor.moveToPosition(-1);
-                    int sync_id_idx = cursor.getColumnIndex(Events._SYNC_ID);
-                    if (sync_id_idx != -1) {
-                        while (cursor.moveToNext()) {
-                            String syncId = cursor.getString(sync_id_idx);
-                            syncIdToAccount.put(syncId, account.second);
-                            eventIdToSyncId.put(eventId, syncId);
-                        }
+        for (Map.Entry<String, Set<Long>> entry : accountToEvents.entrySet()) {
+            String account = entry.getKey();
+            Uri uri = asSync(Events.CONTENT_URI, GOOGLE_ACCOUNT_TYPE, account);
+            Cursor cursor = resolver.query(uri, EVENT_SYNC_PROJECTION,
+                    buildMultipleIdQuery(entry.getValue(), Events._ID), null, null);
+            if (cursor == null) {
+                continue;
+            }
+            try {
+                int event_id_idx = cursor.getColumnIndex(Events._ID);
+                int sync_id_idx = cursor.getColumnIndex(Events._SYNC_ID);
+                if (event_id_idx != -1 && sync_id_idx != -1) {
+                    while (cursor.moveToNext()) {
+                        String syncId = cursor.getString(sync_id_idx);
+                        syncIdToAccount.put(syncId, account);
+                        eventIdToSyncId.put(cursor.getLong(event_id_idx), syncId);
                     }
-                } finally {
-                    cursor.close();
                 }
+            } finally {
+                cursor.close();
             }
         }
 
@@ -213,11 +298,13 @@ public class GlobalDismissManager extends BroadcastReceiver {
             return;
         }
 
-        // TODO group by account to reduce packets
         CloudNotificationBackplane cnb = ExtensionsFactory.getCloudNotificationBackplane();
         if (cnb.open(context)) {
             for (AlarmId alarmId: alarmIds) {
                 String syncId = eventIdToSyncId.get(alarmId.mEventId);
+                if (syncId == null) {
+                    continue;
+                }
                 String account = syncIdToAccount.get(syncId);
                 Bundle data = new Bundle();
                 data.putString(SYNC_ID, syncId);
@@ -233,6 +320,28 @@ public class GlobalDismissManager extends BroadcastReceiver {
         }
     }
 
+    /**
+     * Groups events by the name of their Google account. Events of other accounts are
+     * left out.
+     */
+    /* @VisibleForTesting */
+    static Map<String, Set<Long>> groupEventsByAccount(Map<Long, Long> eventsToCalendars,
+            Map<Long, Pair<String, String>> calendarsToAccounts) {
+        Map<String, Set<Long>> accountToEvents = new HashMap<String, Set<Long>>();
+        for (Map.Entry<Long, Long> entry : eventsToCalendars.entrySet()) {
+            Pair<String, String> account = calendarsToAccounts.get(entry.getValue());
+            if (account != null && GOOGLE_ACCOUNT_TYPE.equals(account.first)) {
+                Set<Long> events = accountToEvents.get(account.second);
+                if (events == null) {
+                    events = new HashSet<Long>();
+                    accountToEvents.put(account.second, events);
+                }
+                events.add(entry.getKey());
+            }
+        }
+        return accountToEvents;
+    }
+
     private static Uri asSync(Uri uri, String accountType, String account) {
         return uri
                 .buildUpon()
@@ -270,13 +379,32 @@ public class GlobalDismissManager extends BroadcastReceiver {
      * @param eventIds Event row IDs to query.
      * @return a map from event to calendar
      */
-    private static Map<Long, Long> lookupEventToCalendarMap(final Context context,
+    /* @VisibleForTesting */
+    static Map<Long, Long> lookupEventToCalendarMap(final Context context,
             final Set<Long> eventIds) {
         Map<Long, Long> eventsToCalendars = new HashMap<Long, Long>();
+        Set<Long> missing = new HashSet<Long>();
+        synchronized (sEventToCalendar) {
+            for (Long eventId : eventIds) {
+                Long calendar = sEventToCalendar.get(eventId);
+                if (calendar != null) {
+                    eventsToCalendars.put(eventId, calendar);
+                } else {
+                    missing.add(eventId);
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            return eventsToCalendars;
+        }
+
         ContentResolver resolver = context.getContentResolver();
-        String eventSelection = buildMultipleIdQuery(eventIds, Events._ID);
+        String eventSelection = buildMultipleIdQuery(missing, Events._ID);
         Cursor eventCursor = resolver.query(Events.CONTENT_URI, EVENT_PROJECTION,
                 eventSelection, null, null);
+        if (eventCursor == null) {
+            return eventsToCalendars;
+        }
         try {
             eventCursor.moveToPosition(-1);
             int calendar_id_idx = eventCursor.getColumnIndex(Events.CALENDAR_ID);
@@ -290,6 +418,12 @@ public class GlobalDismissManager extends BroadcastReceiver {
         } finally {
             eventCursor.close();
         }
+        synchronized (sEventToCalendar) {
+            if (sEventToCalendar.size() + eventsToCalendars.size() > MAX_CACHED_EVENTS) {
+                sEventToCalendar.clear();
+            }
+            sEventToCalendar.putAll(eventsToCalendars);
+        }
         return eventsToCalendars;
     }
 
@@ -302,11 +436,28 @@ public class GlobalDismissManager extends BroadcastReceiver {
             Set<Long> calendars) {
         Map<Long, Pair<String, String>> calendarsToAccounts =
                 new HashMap<Long, Pair<String, String>>();
-        ;
+        Set<Long> missing = new HashSet<Long>();
+        synchronized (sCalendarToAccount) {
+            for (Long calendar : calendars) {
+                Pair<String, String> account = sCalendarToAccount.get(calendar);
+                if (account != null) {
+                    calendarsToAccounts.put(calendar, account);
+                } else {
+                    missing.add(calendar);
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            return calendarsToAccounts;
+        }
+
         ContentResolver resolver = context.getContentResolver();
-        String calendarSelection = buildMultipleIdQuery(calendars, Calendars._ID);
+        String calendarSelection = buildMultipleIdQuery(missing, Calendars._ID);
         Cursor calendarCursor = resolver.query(Calendars.CONTENT_URI, CALENDARS_PROJECTION,
                 calendarSelection, null, null);
+        if (calendarCursor == null) {
+            return calendarsToAccounts;
+        }
         try {
             calendarCursor.moveToPosition(-1);
             int calendar_id_idx = calendarCursor.getColumnIndex(Calendars._ID);
@@ -323,54 +474,158 @@ public class GlobalDismissManager extends BroadcastReceiver {
         } finally {
             calendarCursor.close();
         }
+        // A calendar never moves to another account, so these stay valid
+        synchronized (sCalendarToAccount) {
+            sCalendarToAccount.putAll(calendarsToAccounts);
+        }
         return calendarsToAccounts;
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public void onReceive(Context context, Intent intent) {
-        new AsyncTask<Pair<Context, Intent>, Void, Void>() {
-            @Override
-            protected Void doInBackground(Pair<Context, Intent>... params) {
-                Context context = params[0].first;
-                Intent intent = params[0].second;
-                boolean updated = false;
-                if (intent.hasExtra(SYNC_ID) && intent.hasExtra(ACCOUNT_NAME)) {
-                    String syncId = intent.getStringExtra(SYNC_ID);
-                    long startTime = Long.parseLong(intent.getStringExtra(START_TIME));
-                    ContentResolver resolver = context.getContentResolver();
-
-                    Uri uri = asSync(Events.CONTENT_URI, GOOGLE_ACCOUNT_TYPE,
-                            intent.getStringExtra(ACCOUNT_NAME));
-                    Cursor cursor = resolver.query(uri, EVENT_SYNC_PROJECTION,
-                            Events._SYNC_ID + " = '" + syncId + "'", null, null);
-                    try {
-                        int event_id_idx = cursor.getColumnIndex(Events._ID);
-                        cursor.moveToFirst();
-                        if (event_id_idx != -1 && !cursor.isAfterLast()) {
-                            long eventId = cursor.getLong(event_id_idx);
-                            ContentValues values = new ContentValues();
-                            String selection = CalendarAlerts.STATE + "=" +
-                                    CalendarAlerts.STATE_FIRED + " AND " +
-                                    CalendarAlerts.EVENT_ID + "=" + eventId + " AND " +
-                                    CalendarAlerts.BEGIN + "=" + startTime;
-                            values.put(CalendarAlerts.STATE, CalendarAlerts.STATE_DISMISSED);
-                            int rows = resolver.update(CalendarAlerts.CONTENT_URI, values,
-                                    selection, null);
-                            updated = rows > 0;
-                        }
-                    } finally {
-                        cursor.close();
+        if (intent.hasExtra(SYNC_ID) && intent.hasExtra(ACCOUNT_NAME)
+                && intent.hasExtra(START_TIME)) {
+            synchronized (sReceivedDismissals) {
+                sReceivedDismissals.add(new String[] {
+                        intent.getStringExtra(ACCOUNT_NAME),
+                        intent.getStringExtra(SYNC_ID),
+                        intent.getStringExtra(START_TIME)
+                });
+            }
+            schedule(context.getApplicationContext(), FLUSH_RECEIVED);
+        }
+    }
+
+    /**
+     * Marks the alerts dismissed on other devices as dismissed here too, in a single
+     * provider transaction for the whole burst.
+     */
+    private static void applyReceivedDismissals(Context context) {
+        List<String[]> received;
+        synchronized (sReceivedDismissals) {
+            received = new ArrayList<String[]>(sReceivedDismissals);
+            sReceivedDismissals.clear();
+        }
+        if (received.isEmpty()) {
+            return;
+        }
+
+        // Resolve the sync IDs to event IDs with one query per account
+        Map<String, Set<String>> accountToSyncIds = groupSyncIdsByAccount(received);
+        ContentResolver resolver = context.getContentResolver();
+        Map<String, Long> syncIdToEventId = new HashMap<String, Long>();
+        for (Map.Entry<String, Set<String>> entry : accountToSyncIds.entrySet()) {
+            Uri uri = asSync(Events.CONTENT_URI, GOOGLE_ACCOUNT_TYPE, entry.getKey());
+            StringBuilder selection = new StringBuilder();
+            for (String syncId : entry.getValue()) {
+                if (selection.length() > 0) {
+                    selection.append(" OR ");
+                }
+                selection.append(Events._SYNC_ID).append("=")
+                        .append(DatabaseUtils.sqlEscapeString(syncId));
+            }
+            Cursor cursor = resolver.query(uri, EVENT_SYNC_PROJECTION, selection.toString(),
+                    null, null);
+            if (cursor == null) {
+                continue;
+            }
+            try {
+                int event_id_idx = cursor.getColumnIndex(Events._ID);
+                int sync_id_idx = cursor.getColumnIndex(Events._SYNC_ID);
+                if (event_id_idx != -1 && sync_id_idx != -1) {
+                    while (cursor.moveToNext()) {
+                        syncIdToEventId.put(entry.getKey() + '\n' + cursor.getString(sync_id_idx),
+                                cursor.getLong(event_id_idx));
                     }
                 }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        ArrayList<ContentProviderOperation> ops = buildDismissOperations(received,
+                syncIdToEventId);
+        if (ops.isEmpty()) {
+            return;
+        }
 
-                if (updated) {
-                    Log.d(TAG, "updating alarm state");
-                    AlertService.updateAlertNotification(context);
+        boolean updated = false;
+        try {
+            ContentProviderResult[] results = resolver.applyBatch(CalendarContract.AUTHORITY,
+                    ops);
+            for (ContentProviderResult result : results) {
+                if (result.count != null && result.count > 0) {
+                    updated = true;
+                    break;
                 }
-                return null;
             }
-        }.execute(new Pair<Context, Intent>(context, intent));
+        } catch (RemoteException e) {
+            Log.e(TAG, "Unable to apply dismissals", e);
+        } catch (OperationApplicationException e) {
+            Log.e(TAG, "Unable to apply dismissals", e);
+        }
+
+        if (updated) {
+            Log.d(TAG, "updating alarm state");
+            AlertWorkExecutor.getInstance().requestRefresh(context);
+        }
+    }
+
+    /**
+     * Groups received dismissals, as (account name, sync ID, start time), into the sync
+     * IDs of each account
+     */
+    /* @VisibleForTesting */
+    static Map<String, Set<String>> groupSyncIdsByAccount(List<String[]> received) {
+        Map<String, Set<String>> accountToSyncIds = new HashMap<String, Set<String>>();
+        for (String[] dismissal : received) {
+            Set<String> syncIds = accountToSyncIds.get(dismissal[0]);
+            if (syncIds == null) {
+                syncIds = new HashSet<String>();
+                accountToSyncIds.put(dismissal[0], syncIds);
+            }
+            syncIds.add(dismissal[1]);
+        }
+        return accountToSyncIds;
+    }
+
+    /**
+     * Builds the updates marking received dismissals as dismissed, one per alarm even if
+     * it was received several times. Dismissals of unknown events or with a malformed
+     * start time are dropped.
+     *
+     * @param syncIdToEventId event IDs by account name and sync ID, separated by a newline
+     */
+    /* @VisibleForTesting */
+    static ArrayList<ContentProviderOperation> buildDismissOperations(List<String[]> received,
+            Map<String, Long> syncIdToEventId) {
+        ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+        Set<AlarmId> alarmIds = new HashSet<AlarmId>();
+        for (String[] dismissal : received) {
+            Long eventId = syncIdToEventId.get(dismissal[0] + '\n' + dismissal[1]);
+            if (eventId == null) {
+                continue;
+            }
+            long startTime;
+            try {
+                startTime = Long.parseLong(dismissal[2]);
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Ignoring dismissal with bad start time " + dismissal[2]);
+                continue;
+            }
+            if (!alarmIds.add(new AlarmId(eventId, startTime))) {
+                continue;
+            }
+            String selection = CalendarAlerts.STATE + "=" +
+                    CalendarAlerts.STATE_FIRED + " AND " +
+                    CalendarAlerts.EVENT_ID + "=" + eventId + " AND " +
+                    CalendarAlerts.BEGIN + "=" + startTime;
+            ops.add(ContentProviderOperation.newUpdate(CalendarAlerts.CONTENT_URI)
+                    .withSelection(selection, null)
+                    .withValue(CalendarAlerts.STATE, CalendarAlerts.STATE_DISMISSED)
+                    .build());
+        }
+        return ops;
     }
 
     public static class AlarmId {
@@ -381,5 +636,19 @@ public class GlobalDismissManager extends BroadcastReceiver {
             mEventId = id;
             mStart = start;
         }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof AlarmId)) {
+                return false;
+            }
+            AlarmId other = (AlarmId) o;
+            return mEventId == other.mEventId && mStart == other.mStart;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (mEventId ^ (mEventId >>> 32)) * 31 + (int) (mStart ^ (mStart >>> 32));
+        }
     }
 }
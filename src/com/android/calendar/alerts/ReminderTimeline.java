@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.alerts;
+
+import android.text.format.Time;
+
+import java.util.Arrays;
+
+/**
+ * The upcoming reminders found by {@link AlarmScheduler}, kept as a min-heap of
+ * (alarmTime, eventId) ordered by alarm time. The heap is stored in parallel
+ * primitive arrays so it can hold a week of reminders without boxing.
+ *
+ * A timeline remembers when and in which time zone it was built, so the scheduler
+ * can keep popping reminders from it as they fire and only go back to the provider
+ * when the calendar data changed or the timeline no longer covers the next alarm.
+ */
+class ReminderTimeline {
+    private long[] mAlarmTimes;
+    private long[] mEventIds;
+    private int mSize;
+
+    private boolean mValid;
+    private long mBuiltMillis;
+    private long mValidUntilMillis;
+    private String mTimeZone;
+
+    ReminderTimeline() {
+        mAlarmTimes = new long[16];
+        mEventIds = new long[16];
+    }
+
+    /**
+     * Returns whether the timeline can still answer for the given time, i.e. it was
+     * built, has not been invalidated, still covers currentMillis and was built in
+     * the current time zone.
+     */
+    boolean isCurrent(long currentMillis) {
+        return mValid && currentMillis >= mBuiltMillis && currentMillis < mValidUntilMillis
+                && Time.getCurrentTimezone().equals(mTimeZone);
+    }
+
+    /**
+     * Empties the timeline before it is refilled for a build at currentMillis. The
+     * timeline is considered current until validUntilMillis.
+     */
+    void reset(long currentMillis, long validUntilMillis) {
+        mSize = 0;
+        mValid = true;
+        mBuiltMillis = currentMillis;
+        mValidUntilMillis = validUntilMillis;
+        mTimeZone = Time.getCurrentTimezone();
+    }
+
+    /**
+     * Marks the timeline stale, so the next lookup rebuilds it.
+     */
+    void invalidate() {
+        mValid = false;
+    }
+
+    void add(long alarmTime, long eventId) {
+        if (mSize == mAlarmTimes.length) {
+            int capacity = mSize * 2;
+            mAlarmTimes = Arrays.copyOf(mAlarmTimes, capacity);
+            mEventIds = Arrays.copyOf(mEventIds, capacity);
+        }
+        siftUp(mSize++, alarmTime, eventId);
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    long peekAlarmTime() {
+        return mAlarmTimes[0];
+    }
+
+    long peekEventId() {
+        return mEventIds[0];
+    }
+
+    /**
+     * Removes every reminder whose alarm time is at or before currentMillis.
+     */
+    void removeUntil(long currentMillis) {
+        while (mSize > 0 && mAlarmTimes[0] <= currentMillis) {
+            removeAt(0);
+        }
+    }
+
+    private void removeAt(int index) {
+        int last = --mSize;
+        if (index == last) {
+            return;
+        }
+        long alarmTime = mAlarmTimes[last];
+        long eventId = mEventIds[last];
+        // The moved entry may need to go either way
+        if (index > 0 && mAlarmTimes[(index - 1) >>> 1] > alarmTime) {
+            siftUp(index, alarmTime, eventId);
+        } else {
+            siftDown(index, alarmTime, eventId);
+        }
+    }
+
+    private void siftUp(int index, long alarmTime, long eventId) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (mAlarmTimes[parent] <= alarmTime) {
+                break;
+            }
+            set(index, mAlarmTimes[parent], mEventIds[parent]);
+            index = parent;
+        }
+        set(index, alarmTime, eventId);
+    }
+
+    private void siftDown(int index, long alarmTime, long eventId) {
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= mSize) {
+                break;
+            }
+            if (child + 1 < mSize && mAlarmTimes[child + 1] < mAlarmTimes[child]) {
+                child++;
+            }
+            if (alarmTime <= mAlarmTimes[child]) {
+                break;
+            }
+            set(index, mAlarmTimes[child], mEventIds[child]);
+            index = child;
+        }
+        set(index, alarmTime, eventId);
+    }
+
+    private void set(int index, long alarmTime, long eventId) {
+        mAlarmTimes[index] = alarmTime;
+        mEventIds[index] = eventId;
+    }
+}
@@ -16,39 +16,33 @@
 
 package com.android.calendar.alerts;
 
-import android.app.IntentService;
 import android.app.NotificationManager;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
-import android.os.IBinder;
 import android.provider.CalendarContract.CalendarAlerts;
 
 import com.android.calendar.Utils;
 
 /**
  * Service for asynchronously marking a fired alarm as dismissed and scheduling
- * a new alarm in the future.
+ * a new alarm in the future. Snoozes of different events are handled in parallel.
  */
-public class SnoozeAlarmsService extends IntentService {
+public class SnoozeAlarmsService extends AlertWorkService {
     private static final String[] PROJECTION = new String[] {
             CalendarAlerts.STATE,
     };
     private static final int COLUMN_INDEX_STATE = 0;
 
-    public SnoozeAlarmsService() {
-        super("SnoozeAlarmsService");
-    }
-
     @Override
-    public IBinder onBind(Intent intent) {
-        return null;
+    protected long getEventId(Intent intent) {
+        return intent.getLongExtra(AlertUtils.EVENT_ID_KEY, -1);
     }
 
     @Override
-    public void onHandleIntent(Intent intent) {
+    protected void onHandleIntent(Intent intent) {
 
         long eventId = intent.getLongExtra(AlertUtils.EVENT_ID_KEY, -1);
         long eventStart = intent.getLongExtra(AlertUtils.EVENT_START_KEY, -1);
@@ -69,6 +63,7 @@ public class SnoozeAlarmsService extends IntentService {
                 NotificationManager nm =
                     (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
                 nm.cancel(notificationId);
+                AlertService.onNotificationCancelled(notificationId);
             }
 
             // Dismiss current alarm
@@ -87,7 +82,6 @@ public class SnoozeAlarmsService extends IntentService {
             AlertUtils.scheduleAlarm(SnoozeAlarmsService.this, AlertUtils.createAlarmManager(this),
                     alarmTime);
         }
-        AlertService.updateAlertNotification(this);
-        stopSelf();
+        AlertWorkExecutor.getInstance().requestRefresh(this);
     }
 }
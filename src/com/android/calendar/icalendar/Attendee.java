@@ -16,56 +16,51 @@
 
 package com.android.calendar.icalendar;
 
-import java.util.HashMap;
-import java.util.ListIterator;
 
 /**
  * Models the Attendee component of a calendar event
  */
 public class Attendee {
 
-    // Property strings
+    // Parameter names
     // TODO: only a partial list of attributes have been implemented, implement the rest
-    public static String CN = "CN";                 // Attendee Name
-    public static String PARTSTAT = "PARTSTAT";     // Participant Status (Attending , Declined .. )
-    public static String RSVP = "RSVP";
-    public static String ROLE = "ROLE";
-    public static String CUTYPE = "CUTYPE";
+    public static final String CN = "CN";               // Attendee Name
+    public static final String PARTSTAT = "PARTSTAT";   // Participant Status (Attending , Declined .. )
+    public static final String RSVP = "RSVP";
+    public static final String ROLE = "ROLE";
+    public static final String CUTYPE = "CUTYPE";
 
+    private static final String NUM_GUESTS = "X-NUM-GUESTS";
+    private static final String MAILTO = "mailto:";
 
-    private static HashMap<String, Integer> sPropertyList = new HashMap<String, Integer>();
-    // Initialize the approved list of mProperties for a calendar event
-    static {
-        sPropertyList.put(CN,1);
-        sPropertyList.put(PARTSTAT, 1);
-        sPropertyList.put(RSVP, 1);
-        sPropertyList.put(ROLE, 1);
-        sPropertyList.put(CUTYPE, 1);
-    }
-
-    public HashMap<String, String> mProperties;     // Stores (property, value) pairs
+    public IcalendarParameters mParameters;
     public String mEmail;
 
     public Attendee() {
-        mProperties = new HashMap<String, String>();
+        mParameters = new IcalendarParameters();
     }
 
     /**
-     * Add Attendee properties
+     * Add Attendee parameters
      * @param property
      * @param value
      * @return
      */
     public boolean addProperty(String property, String value) {
-        // only unary properties for now
-        if (sPropertyList.containsKey(property) && sPropertyList.get(property) == 1 &&
-                value != null) {
-            mProperties.put(property, value);
+        if (property != null && value != null) {
+            mParameters.put(property, value);
             return true;
         }
         return false;
     }
 
+    /**
+     * Returns the value of a parameter of the attendee, e.g. {@link #CN}, or null
+     */
+    public String getProperty(String property) {
+        return mParameters.get(property);
+    }
+
     /**
      * Returns an iCal formatted string of the Attendee component
      * @return
@@ -73,13 +68,13 @@ public class Attendee {
     public String getICalFormattedString() {
         StringBuilder output = new StringBuilder();
 
-        // Add Event mProperties
-        output.append("ATTENDEE;");
-        for (String property : mProperties.keySet()) {
-            // Append properties in the following format: attribute=value;
-            output.append(property + "=" + mProperties.get(property) + ";");
+        // Add Event parameters in the following format: ;attribute=value
+        output.append("ATTENDEE");
+        mParameters.appendTo(output);
+        if (mParameters.get(NUM_GUESTS) == null) {
+            output.append(';').append(NUM_GUESTS).append("=0");
         }
-        output.append("X-NUM-GUESTS=0:mailto:" + mEmail);
+        output.append(":mailto:" + mEmail);
 
         output = IcalendarUtils.enforceICalLineLength(output);
 
@@ -87,12 +82,23 @@ public class Attendee {
         return output.toString();
     }
 
-    public void populateFromEntries(ListIterator<String> iter) {
-        String line = iter.next();
-        if (line.contains("ATTENDEE")) {
-            String entry = VEvent.parseTillNextAttribute(iter, line);
-            String[] entries = entry.split("X-NUM-GUESTS=0:mailto:");
-            mEmail = entries[1];
+    /**
+     * Reads the parameters and the email of the attendee from an unfolded ATTENDEE
+     * content line
+     */
+    void populateFromEntry(String entry) {
+        int valueStart = IcalendarParameters.findValueStart(entry);
+        IcalendarParameters parameters = IcalendarParameters.parse(entry,
+                IcalendarParameters.findNameEnd(entry),
+                valueStart != -1 ? valueStart : entry.length());
+        if (parameters != null) {
+            mParameters = parameters;
+        }
+        String value = entry.substring(valueStart + 1);
+        if (value.regionMatches(true, 0, MAILTO, 0, MAILTO.length())) {
+            mEmail = value.substring(MAILTO.length());
+        } else {
+            mEmail = value;
         }
     }
 }
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.icalendar;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Reads the physical lines of an iCalendar stream as bytes, either from a buffer holding
+ * the whole stream, such as a memory mapped file, or from an input stream a chunk at a
+ * time. Lines are only decoded from UTF-8 when asked for, so lines that are skipped are
+ * never turned into strings.
+ */
+class IcalendarByteReader implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int CHUNK_BYTES = 8192;
+
+    // Null if the whole stream is in the buffer
+    private final InputStream mInput;
+    private ByteBuffer mBuffer;
+    private boolean mEndOfInput;
+
+    // The current line, without its line break, and the start of the next one
+    private int mLineStart;
+    private int mLineEnd;
+    private int mNext;
+    private boolean mHasLine;
+    private boolean mStarted;
+
+    // Reused to decode lines
+    private char[] mChars = new char[256];
+    private byte[] mBytes;
+
+    /**
+     * Reads the bytes of a buffer from its position to its limit
+     */
+    IcalendarByteReader(ByteBuffer buffer) {
+        mInput = null;
+        mBuffer = buffer;
+        mNext = buffer.position();
+        mEndOfInput = true;
+    }
+
+    IcalendarByteReader(InputStream input) {
+        this(input, CHUNK_BYTES);
+    }
+
+    IcalendarByteReader(InputStream input, int chunkBytes) {
+        mInput = input;
+        mBuffer = ByteBuffer.wrap(new byte[chunkBytes]);
+        mBuffer.limit(0);
+    }
+
+    /**
+     * Moves to the next line.
+     *
+     * @return false at the end of the stream
+     */
+    boolean next() throws IOException {
+        int start = mNext;
+        int scanned = start;
+        int end;
+        while ((end = findLineBreak(scanned)) == -1 && !mEndOfInput) {
+            // Everything but a trailing CR has been scanned
+            scanned = Math.max(start, mBuffer.limit() - 1);
+            int moved = fill(start);
+            start -= moved;
+            scanned -= moved;
+        }
+        int limit = mBuffer.limit();
+        if (end == -1) {
+            if (start == limit) {
+                mHasLine = false;
+                mNext = start;
+                return false;
+            }
+            // The last line doesn't have a line break
+            end = limit;
+            mNext = limit;
+        } else if (mBuffer.get(end) == '\r' && end + 1 < limit && mBuffer.get(end + 1) == '\n') {
+            mNext = end + 2;
+        } else {
+            mNext = end + 1;
+        }
+        // Skip a byte order mark
+        if (!mStarted && end - start >= 3 && mBuffer.get(start) == (byte) 0xef
+                && mBuffer.get(start + 1) == (byte) 0xbb && mBuffer.get(start + 2) == (byte) 0xbf) {
+            start += 3;
+        }
+        mStarted = true;
+        mLineStart = start;
+        mLineEnd = end;
+        mHasLine = true;
+        return true;
+    }
+
+    /**
+     * Returns the index of the next CR or LF, or -1 if there is none in the buffer. A CR
+     * at the end of the buffer only counts once it is known whether a LF follows.
+     */
+    private int findLineBreak(int from) {
+        int limit = mBuffer.limit();
+        for (int i = from; i < limit; i++) {
+            byte b = mBuffer.get(i);
+            if (b == '\n') {
+                return i;
+            } else if (b == '\r') {
+                return i + 1 < limit || mEndOfInput ? i : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Moves the bytes from start to the front of the buffer, growing it if they fill it,
+     * and reads more after them.
+     *
+     * @return how far the bytes were moved back
+     */
+    private int fill(int start) throws IOException {
+        byte[] bytes = mBuffer.array();
+        int remaining = mBuffer.limit() - start;
+        byte[] target = remaining < bytes.length ? bytes : new byte[2 * bytes.length];
+        System.arraycopy(bytes, start, target, 0, remaining);
+        int read = mInput.read(target, remaining, target.length - remaining);
+        if (target != bytes) {
+            mBuffer = ByteBuffer.wrap(target);
+        }
+        if (read == -1) {
+            mEndOfInput = true;
+            read = 0;
+        }
+        mBuffer.limit(remaining + read);
+        return start;
+    }
+
+    /**
+     * Returns true if there is a current line, i.e. {@link #next()} returned true
+     */
+    boolean hasLine() {
+        return mHasLine;
+    }
+
+    int length() {
+        return mLineEnd - mLineStart;
+    }
+
+    byte byteAt(int index) {
+        return mBuffer.get(mLineStart + index);
+    }
+
+    boolean startsWith(byte[] prefix) {
+        if (length() < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (mBuffer.get(mLineStart + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the current line continues the previous one, i.e. it was folded
+     */
+    boolean isContinuation() {
+        if (length() == 0) {
+            return false;
+        }
+        byte b = mBuffer.get(mLineStart);
+        return b == ' ' || b == '\t';
+    }
+
+    /**
+     * Decodes the current line
+     */
+    String getLine() {
+        int length = decodeAscii(mLineStart, mLineEnd);
+        return length != -1 ? new String(mChars, 0, length) : decode(mLineStart, mLineEnd);
+    }
+
+    /**
+     * Decodes the current line from an offset and appends it
+     */
+    void appendLine(StringBuilder out, int offset) {
+        int start = mLineStart + offset;
+        int length = decodeAscii(start, mLineEnd);
+        if (length != -1) {
+            out.append(mChars, 0, length);
+        } else {
+            out.append(decode(start, mLineEnd));
+        }
+    }
+
+    /**
+     * Copies a range made of ASCII bytes into mChars, which is most lines.
+     *
+     * @return the number of chars, or -1 if there is another byte
+     */
+    private int decodeAscii(int start, int end) {
+        int length = end - start;
+        if (mChars.length < length) {
+            mChars = new char[Math.max(length, 2 * mChars.length)];
+        }
+        for (int i = 0; i < length; i++) {
+            byte b = mBuffer.get(start + i);
+            if (b < 0) {
+                return -1;
+            }
+            mChars[i] = (char) b;
+        }
+        return length;
+    }
+
+    private String decode(int start, int end) {
+        int length = end - start;
+        if (mBuffer.hasArray()) {
+            return new String(mBuffer.array(), mBuffer.arrayOffset() + start, length, UTF_8);
+        }
+        if (mBytes == null || mBytes.length < length) {
+            mBytes = new byte[Math.max(length, 256)];
+        }
+        for (int i = 0; i < length; i++) {
+            mBytes[i] = mBuffer.get(start + i);
+        }
+        return new String(mBytes, 0, length, UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mInput != null) {
+            mInput.close();
+        }
+    }
+}
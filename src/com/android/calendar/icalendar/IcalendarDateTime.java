@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.icalendar;
+
+import java.util.HashMap;
+import java.util.TimeZone;
+
+/**
+ * Parses and formats iCalendar DATE, DATE-TIME and DURATION values without going through
+ * Calendar, SimpleDateFormat or Time objects.
+ *
+ * Dates are converted with plain arithmetic on the proleptic Gregorian calendar. UTC
+ * offsets of time zones are cached per day, so converting the times of many events in
+ * the same zone only asks the TimeZone once per day.
+ */
+public class IcalendarDateTime {
+
+    public static final String UTC = "UTC";
+
+    private static final long SECOND = 1000;
+    private static final long MINUTE = 60 * SECOND;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+    private static final long WEEK = 7 * DAY;
+
+    private static final HashMap<String, ZoneCache> sZones = new HashMap<String, ZoneCache>();
+
+    private IcalendarDateTime() {
+    }
+
+    /**
+     * Returns whether a value is a DATE rather than a DATE-TIME
+     */
+    public static boolean isDate(CharSequence value) {
+        return value.length() == 8;
+    }
+
+    /**
+     * Parses a DATE or DATE-TIME value. DATE values are returned at midnight UTC, like
+     * all-day events are stored. UTC times end with Z, other times are in the given
+     * time zone.
+     *
+     * @param timeZone the time zone of floating times, UTC if null or unknown
+     * @throws IllegalArgumentException if the value is malformed
+     */
+    public static long parse(CharSequence value, String timeZone) {
+        int length = value.length();
+        if (length != 8 && length != 15 && length != 16) {
+            throw new IllegalArgumentException("Bad date-time " + value);
+        }
+        int year = digits(value, 0, 4);
+        int month = digits(value, 4, 2);
+        int day = digits(value, 6, 2);
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+            throw new IllegalArgumentException("Bad date-time " + value);
+        }
+        long millis = daysFromCivil(year, month, day) * DAY;
+        if (length == 8) {
+            return millis;
+        }
+
+        if (value.charAt(8) != 'T' || (length == 16 && value.charAt(15) != 'Z')) {
+            throw new IllegalArgumentException("Bad date-time " + value);
+        }
+        int hour = digits(value, 9, 2);
+        int minute = digits(value, 11, 2);
+        // Leap seconds are allowed
+        int second = digits(value, 13, 2);
+        if (hour > 23 || minute > 59 || second > 60) {
+            throw new IllegalArgumentException("Bad date-time " + value);
+        }
+        millis += hour * HOUR + minute * MINUTE + second * SECOND;
+        if (length == 16 || timeZone == null || UTC.equals(timeZone)) {
+            return millis;
+        }
+        return getZone(timeZone).toUtc(millis);
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static int digits(CharSequence value, int start, int count) {
+        int result = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("Bad date-time " + value);
+            }
+            result = result * 10 + c - '0';
+        }
+        return result;
+    }
+
+    /**
+     * Appends a UTC DATE-TIME, e.g. 20141120T120000Z
+     */
+    public static void formatUtc(long millis, StringBuilder out) {
+        appendDateTime(millis, out);
+        out.append('Z');
+    }
+
+    public static String formatUtc(long millis) {
+        StringBuilder out = new StringBuilder(16);
+        formatUtc(millis, out);
+        return out.toString();
+    }
+
+    /**
+     * Appends the local DATE-TIME of a time in a time zone, without a Z, e.g.
+     * 20141120T070000 for noon on Nov 20, 2014 UTC in America/New_York
+     */
+    public static void formatLocal(long millis, String timeZone, StringBuilder out) {
+        appendDateTime(toLocal(millis, timeZone), out);
+    }
+
+    private static void appendDateTime(long millis, StringBuilder out) {
+        long days = floorDiv(millis, DAY);
+        appendDate(days, out);
+        int time = (int) ((millis - days * DAY) / SECOND);
+        out.append('T');
+        appendTwoDigits(time / 3600, out);
+        appendTwoDigits(time / 60 % 60, out);
+        appendTwoDigits(time % 60, out);
+    }
+
+    /**
+     * Appends the UTC DATE of a time, e.g. 20141120
+     */
+    public static void formatDate(long millis, StringBuilder out) {
+        appendDate(floorDiv(millis, DAY), out);
+    }
+
+    public static String formatDate(long millis) {
+        StringBuilder out = new StringBuilder(8);
+        formatDate(millis, out);
+        return out.toString();
+    }
+
+    private static void appendDate(long days, StringBuilder out) {
+        int date = toYearMonthDay(days);
+        int year = date / 10000;
+        appendTwoDigits(year / 100, out);
+        appendTwoDigits(year % 100, out);
+        appendTwoDigits(date / 100 % 100, out);
+        appendTwoDigits(date % 100, out);
+    }
+
+    /**
+     * Returns the date of the days since the epoch as yyyyMMdd, the inverse of
+     * {@link #daysFromCivil(int, int, int)}
+     */
+    static int toYearMonthDay(long days) {
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yoe + era * 400 + (month <= 2 ? 1 : 0));
+        return year * 10000 + month * 100 + day;
+    }
+
+    private static void appendTwoDigits(int value, StringBuilder out) {
+        out.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    /**
+     * Returns the days since the epoch of a date
+     */
+    static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = floorDiv(year, 400);
+        long yoe = year - era * 400;
+        long doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && ((x ^ y) < 0)) ? q - 1 : q;
+    }
+
+    /**
+     * Parses a DURATION, e.g. -PT15M or P1W, into millis
+     *
+     * @throws IllegalArgumentException if the value is malformed
+     */
+    public static long parseDuration(CharSequence duration) {
+        int i = 0;
+        int length = duration.length();
+        int sign = 1;
+        if (i < length && (duration.charAt(i) == '-' || duration.charAt(i) == '+')) {
+            sign = duration.charAt(i) == '-' ? -1 : 1;
+            i++;
+        }
+        if (i >= length || duration.charAt(i) != 'P') {
+            throw new IllegalArgumentException("Bad duration " + duration);
+        }
+        i++;
+        long millis = 0;
+        long number = -1;
+        boolean hasValue = false;
+        for (; i < length; i++) {
+            char c = duration.charAt(i);
+            if (c >= '0' && c <= '9') {
+                number = (number == -1 ? 0 : number * 10) + c - '0';
+                continue;
+            } else if (c == 'T') {
+                continue;
+            }
+            if (number == -1) {
+                throw new IllegalArgumentException("Bad duration " + duration);
+            }
+            switch (c) {
+                case 'W':
+                    millis += number * WEEK;
+                    break;
+                case 'D':
+                    millis += number * DAY;
+                    break;
+                case 'H':
+                    millis += number * HOUR;
+                    break;
+                case 'M':
+                    millis += number * MINUTE;
+                    break;
+                case 'S':
+                    millis += number * SECOND;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Bad duration " + duration);
+            }
+            number = -1;
+            hasValue = true;
+        }
+        if (number != -1 || !hasValue) {
+            throw new IllegalArgumentException("Bad duration " + duration);
+        }
+        return sign * millis;
+    }
+
+    /**
+     * Appends a DURATION, in days if it is a whole number of days, else in seconds
+     */
+    public static void formatDuration(long millis, StringBuilder out) {
+        if (millis < 0) {
+            out.append('-');
+            millis = -millis;
+        }
+        if (millis % DAY == 0) {
+            out.append('P').append(millis / DAY).append('D');
+        } else {
+            out.append("PT").append(millis / SECOND).append('S');
+        }
+    }
+
+    /**
+     * Converts a UTC time to the local time in a time zone
+     */
+    public static long toLocal(long utcMillis, String timeZone) {
+        return utcMillis + getZone(timeZone).getOffset(utcMillis);
+    }
+
+    /**
+     * Converts a local time in a time zone to UTC. Local times skipped by a daylight
+     * saving change are moved forward, repeated ones resolve to standard time, like
+     * {@link java.util.Calendar} does.
+     */
+    public static long toUtc(long localMillis, String timeZone) {
+        return getZone(timeZone).toUtc(localMillis);
+    }
+
+    /**
+     * Returns the raw offset of a time zone from UTC, without daylight saving
+     */
+    public static int getRawOffset(String timeZone) {
+        return getZone(timeZone).mZone.getRawOffset();
+    }
+
+    private static ZoneCache getZone(String timeZone) {
+        synchronized (sZones) {
+            ZoneCache zone = sZones.get(timeZone);
+            if (zone == null) {
+                zone = new ZoneCache(TimeZone.getTimeZone(timeZone));
+                sZones.put(timeZone, zone);
+            }
+            return zone;
+        }
+    }
+
+    /**
+     * Caches the UTC offsets of a time zone for each day. A day whose offset is the
+     * same at its start and its end is assumed to have no transition.
+     */
+    private static class ZoneCache {
+        private static final int SIZE = 1024;
+
+        final TimeZone mZone;
+        private final long[] mDays = new long[SIZE];
+        private final int[] mStartOffsets = new int[SIZE];
+        private final int[] mEndOffsets = new int[SIZE];
+
+        ZoneCache(TimeZone zone) {
+            mZone = zone;
+            for (int i = 0; i < SIZE; i++) {
+                mDays[i] = Long.MIN_VALUE;
+            }
+        }
+
+        synchronized int getOffset(long utcMillis) {
+            long day = floorDiv(utcMillis, DAY);
+            int slot = (int) (day & (SIZE - 1));
+            if (mDays[slot] != day) {
+                mDays[slot] = day;
+                mStartOffsets[slot] = mZone.getOffset(day * DAY);
+                mEndOffsets[slot] = mZone.getOffset(day * DAY + DAY - 1);
+            }
+            if (mStartOffsets[slot] == mEndOffsets[slot]) {
+                return mStartOffsets[slot];
+            }
+            // The offset changes on that day
+            return mZone.getOffset(utcMillis);
+        }
+
+        long toUtc(long localMillis) {
+            int offset = getOffset(localMillis - mZone.getRawOffset());
+            long utc = localMillis - offset;
+            int actual = getOffset(utc);
+            if (actual != offset) {
+                // Close to a transition, either the other offset applies or the local
+                // time is skipped and is moved forward
+                long other = localMillis - actual;
+                utc = getOffset(other) == actual ? other : Math.max(utc, other);
+            }
+            return utc;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.icalendar;
+
+/**
+ * Escapes and folds iCalendar content lines. Every method makes a single pass over its
+ * input and appends to a caller supplied buffer, so buffers can be reused across lines.
+ */
+public class IcalendarEncoder {
+
+    /** Maximum length of a content line in octets, not counting the line break */
+    public static final int MAX_LINE_OCTETS = 75;
+
+    private IcalendarEncoder() {
+    }
+
+    /**
+     * Appends a TEXT value with backslashes, semicolons, commas and line breaks escaped
+     */
+    public static void escape(CharSequence in, StringBuilder out) {
+        int length = in.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = in.charAt(i);
+            String escaped;
+            switch (c) {
+                case '\\':
+                    escaped = "\\\\";
+                    break;
+                case ';':
+                    escaped = "\\;";
+                    break;
+                case ',':
+                    escaped = "\\,";
+                    break;
+                case '\r':
+                    if (i + 1 < length && in.charAt(i + 1) == '\n') {
+                        // CRLF is a single line break
+                        out.append(in, start, i).append("\\n");
+                        i++;
+                        start = i + 1;
+                        continue;
+                    }
+                    escaped = "\\n";
+                    break;
+                case '\n':
+                    escaped = "\\n";
+                    break;
+                default:
+                    continue;
+            }
+            out.append(in, start, i).append(escaped);
+            start = i + 1;
+        }
+        out.append(in, start, length);
+    }
+
+    /**
+     * Appends a TEXT value with its escapes resolved
+     */
+    public static void unescape(CharSequence in, StringBuilder out) {
+        int length = in.length();
+        int start = 0;
+        for (int i = 0; i < length - 1; i++) {
+            if (in.charAt(i) != '\\') {
+                continue;
+            }
+            char next = in.charAt(i + 1);
+            char unescaped;
+            switch (next) {
+                case 'n':
+                case 'N':
+                    unescaped = '\n';
+                    break;
+                case '\\':
+                case ';':
+                case ',':
+                    unescaped = next;
+                    break;
+                default:
+                    // Not an escape, kept as is
+                    continue;
+            }
+            out.append(in, start, i).append(unescaped);
+            start = ++i + 1;
+        }
+        out.append(in, start, length);
+    }
+
+    /**
+     * Appends a content line folded so that no line is longer than
+     * {@link #MAX_LINE_OCTETS} in UTF-8. Continuation lines start with a space. The line
+     * break after the last line is not appended.
+     */
+    public static void fold(CharSequence line, StringBuilder out) {
+        fold(line, 0, line.length(), out);
+    }
+
+    private static void fold(CharSequence line, int start, int end, StringBuilder out) {
+        int octets = MAX_LINE_OCTETS;
+        while (true) {
+            int next = fitOctets(line, start, end, octets);
+            out.append(line, start, next);
+            if (next >= end) {
+                return;
+            }
+            out.append("\n ");
+            start = next;
+            octets = MAX_LINE_OCTETS - 1;
+        }
+    }
+
+    /**
+     * Appends text made of content lines separated by line breaks, each line folded
+     */
+    public static void foldLines(CharSequence text, StringBuilder out) {
+        int length = text.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(i) == '\n') {
+                fold(text, start, i, out);
+                out.append('\n');
+                start = i + 1;
+            }
+        }
+        fold(text, start, length, out);
+    }
+
+    /**
+     * Returns the end of the longest part of s from start that takes at most the given
+     * number of octets in UTF-8. Surrogate pairs are never split.
+     */
+    public static int fitOctets(CharSequence s, int start, int end, int octets) {
+        int i = start;
+        while (i < end) {
+            char c = s.charAt(i);
+            int size;
+            int chars = 1;
+            if (c < 0x80) {
+                size = 1;
+            } else if (c < 0x800) {
+                size = 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < end
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                size = 4;
+                chars = 2;
+            } else {
+                size = 3;
+            }
+            if (size > octets) {
+                break;
+            }
+            octets -= size;
+            i += chars;
+        }
+        return i;
+    }
+}
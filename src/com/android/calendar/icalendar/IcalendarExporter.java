@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.icalendar;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.CalendarContract.Calendars;
+import android.provider.CalendarContract.Events;
+import android.provider.CalendarContract.Instances;
+import android.text.TextUtils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
+/**
+ * Exports events from the provider as an iCalendar stream. Rows are written as they are
+ * read from the cursor, so exporting a whole calendar takes memory only for the UIDs of
+ * its recurring events.
+ *
+ * Recurring events are written in the local time of their time zone, with a TZID, so
+ * that their occurrences keep their local time across daylight saving changes.
+ * Exceptions to them are written after them with a RECURRENCE-ID, and the VTIMEZONE of
+ * every TZID used is written last.
+ */
+public class IcalendarExporter {
+
+    private static final String VCALENDAR = "VCALENDAR";
+    private static final String VEVENT = "VEVENT";
+    private static final String UID_SUFFIX = "@ws.xsoh.etar";
+    private static final String STATUS_CANCELLED = "CANCELLED";
+
+    private static final String[] EVENTS_PROJECTION = new String[] {
+            Events._ID, // 0
+            Events.TITLE, // 1
+            Events.EVENT_LOCATION, // 2
+            Events.DESCRIPTION, // 3
+            Events.DTSTART, // 4
+            Events.DTEND, // 5
+            Events.ALL_DAY, // 6
+            Events.ORGANIZER, // 7
+            Events.DURATION, // 8
+            Events.RRULE, // 9
+            Events.RDATE, // 10
+            Events.EXDATE, // 11
+            Events.UID_2445, // 12
+            Events.EVENT_TIMEZONE, // 13
+            Events._SYNC_ID, // 14
+            Events.ORIGINAL_ID, // 15
+            Events.ORIGINAL_SYNC_ID, // 16
+            Events.ORIGINAL_INSTANCE_TIME, // 17
+            Events.ORIGINAL_ALL_DAY, // 18
+            Events.STATUS, // 19
+    };
+    private static final String[] INSTANCES_PROJECTION = new String[] {
+            Instances.EVENT_ID, // 0
+            Instances.TITLE, // 1
+            Instances.EVENT_LOCATION, // 2
+            Instances.DESCRIPTION, // 3
+            Instances.BEGIN, // 4
+            Instances.END, // 5
+            Instances.ALL_DAY, // 6
+            Instances.ORGANIZER, // 7
+    };
+    private static final int INDEX_ID = 0;
+    private static final int INDEX_TITLE = 1;
+    private static final int INDEX_LOCATION = 2;
+    private static final int INDEX_DESCRIPTION = 3;
+    private static final int INDEX_START = 4;
+    private static final int INDEX_END = 5;
+    private static final int INDEX_ALL_DAY = 6;
+    private static final int INDEX_ORGANIZER = 7;
+    // Events only
+    private static final int INDEX_DURATION = 8;
+    private static final int INDEX_RRULE = 9;
+    private static final int INDEX_RDATE = 10;
+    private static final int INDEX_EXDATE = 11;
+    private static final int INDEX_UID = 12;
+    private static final int INDEX_TIMEZONE = 13;
+    private static final int INDEX_SYNC_ID = 14;
+    private static final int INDEX_ORIGINAL_ID = 15;
+    private static final int INDEX_ORIGINAL_SYNC_ID = 16;
+    private static final int INDEX_ORIGINAL_INSTANCE_TIME = 17;
+    private static final int INDEX_ORIGINAL_ALL_DAY = 18;
+    private static final int INDEX_STATUS = 19;
+
+    private static final String WHERE_VISIBLE = Calendars.VISIBLE + "=1 AND "
+            + Events.DELETED + "=0";
+    private static final String WHERE_CALENDAR = Events.CALENDAR_ID + "=? AND "
+            + Events.DELETED + "=0";
+
+    private static final String WHERE_NOT_EXCEPTION = " AND " + Events.ORIGINAL_ID
+            + " IS NULL AND " + Events.ORIGINAL_SYNC_ID + " IS NULL";
+    private static final String WHERE_EXCEPTION = " AND (" + Events.ORIGINAL_ID
+            + " IS NOT NULL OR " + Events.ORIGINAL_SYNC_ID + " IS NOT NULL)";
+
+    private final ContentResolver mResolver;
+    // The recurring events written so far by id and by sync id, for their exceptions
+    private final HashMap<Long, Master> mMastersById = new HashMap<Long, Master>();
+    private final HashMap<String, Master> mMastersBySyncId = new HashMap<String, Master>();
+    // The time zones of the TZIDs written so far
+    private final LinkedHashSet<String> mTimeZones = new LinkedHashSet<String>();
+    // The DTSTAMP of every event of the current export
+    private String mTimeStamp;
+    private long mNow;
+
+    /**
+     * What an exception needs to know of the event it modifies
+     */
+    private static class Master {
+        final String mUid;
+        final String mTimeZone;
+
+        Master(String uid, String timeZone) {
+            mUid = uid;
+            mTimeZone = timeZone;
+        }
+    }
+
+    public IcalendarExporter(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Exports the events of a calendar with their recurrence rules.
+     *
+     * @param calendarId the calendar to export, or -1 for every visible calendar
+     * @return the number of events written
+     */
+    public int exportCalendar(long calendarId, Writer out) throws IOException {
+        Cursor events = query(Events.CONTENT_URI, EVENTS_PROJECTION, calendarId,
+                WHERE_NOT_EXCEPTION, Events.DTSTART);
+        if (events == null) {
+            throw new IOException("Could not query events");
+        }
+        IcalendarWriter writer = new IcalendarWriter(out);
+        int count = 0;
+        mMastersById.clear();
+        mMastersBySyncId.clear();
+        mTimeZones.clear();
+        try {
+            beginCalendar(writer);
+            while (events.moveToNext()) {
+                writeEvent(events, writer);
+                count++;
+            }
+        } finally {
+            events.close();
+        }
+
+        // Exceptions go last, once the UIDs of the events they modify are known
+        Cursor exceptions = query(Events.CONTENT_URI, EVENTS_PROJECTION, calendarId,
+                WHERE_EXCEPTION, Events.DTSTART);
+        if (exceptions == null) {
+            throw new IOException("Could not query exceptions");
+        }
+        try {
+            while (exceptions.moveToNext()) {
+                if (writeException(exceptions, writer)) {
+                    count++;
+                }
+            }
+        } finally {
+            exceptions.close();
+        }
+        for (String timeZone : mTimeZones) {
+            IcalendarTimeZone.write(writer, timeZone, mNow);
+        }
+        writer.end(VCALENDAR);
+        writer.flush();
+        return count;
+    }
+
+    /**
+     * Exports the instances of the events of a calendar in a range, each as a separate
+     * event.
+     *
+     * @param calendarId the calendar to export, or -1 for every visible calendar
+     * @return the number of instances written
+     */
+    public int exportInstances(long calendarId, long begin, long end, Writer out)
+            throws IOException {
+        Uri.Builder builder = Instances.CONTENT_URI.buildUpon();
+        builder.appendPath(Long.toString(begin));
+        builder.appendPath(Long.toString(end));
+        Cursor cursor = query(builder.build(), INSTANCES_PROJECTION, calendarId, "",
+                Instances.BEGIN);
+        if (cursor == null) {
+            throw new IOException("Could not query events");
+        }
+        IcalendarWriter writer = new IcalendarWriter(out);
+        int count = 0;
+        try {
+            beginCalendar(writer);
+            while (cursor.moveToNext()) {
+                writeInstance(cursor, writer);
+                count++;
+            }
+            writer.end(VCALENDAR);
+            writer.flush();
+        } finally {
+            cursor.close();
+        }
+        return count;
+    }
+
+    private Cursor query(Uri uri, String[] projection, long calendarId, String where,
+            String sortOrder) {
+        if (calendarId == -1) {
+            return mResolver.query(uri, projection, WHERE_VISIBLE + where, null, sortOrder);
+        }
+        return mResolver.query(uri, projection, WHERE_CALENDAR + where,
+                new String[] { Long.toString(calendarId) }, sortOrder);
+    }
+
+    private void beginCalendar(IcalendarWriter writer) throws IOException {
+        mNow = System.currentTimeMillis();
+        mTimeStamp = IcalendarDateTime.formatUtc(mNow);
+        writer.begin(VCALENDAR);
+        writer.writeProperty(VCalendar.VERSION, "2.0");
+        writer.writeProperty(VCalendar.PRODID, VCalendar.PRODUCT_IDENTIFIER);
+        writer.writeProperty(VCalendar.CALSCALE, "GREGORIAN");
+        writer.writeProperty(VCalendar.METHOD, "PUBLISH");
+    }
+
+    private void writeEvent(Cursor cursor, IcalendarWriter writer) throws IOException {
+        writer.begin(VEVENT);
+        String uid = cursor.getString(INDEX_UID);
+        if (TextUtils.isEmpty(uid)) {
+            uid = cursor.getLong(INDEX_ID) + UID_SUFFIX;
+        }
+        writer.writeProperty(VEvent.UID, uid);
+        writer.writeProperty(VEvent.DTSTAMP, mTimeStamp);
+        writeDetails(cursor, writer);
+        boolean allDay = cursor.getInt(INDEX_ALL_DAY) != 0;
+        String rrule = cursor.getString(INDEX_RRULE);
+        if (!TextUtils.isEmpty(rrule)) {
+            // Occurrences keep their local time, so the rule is expanded in the zone
+            String timeZone = allDay ? null : cursor.getString(INDEX_TIMEZONE);
+            if (timeZone != null && !IcalendarDateTime.UTC.equals(timeZone)) {
+                mTimeZones.add(timeZone);
+            }
+            writeStart(cursor, writer, allDay, timeZone);
+            writer.writeProperty(VEvent.DURATION, cursor.getString(INDEX_DURATION));
+            writer.writeProperty(VEvent.RRULE, rrule);
+            writeDates(writer, VEvent.RDATE, cursor.getString(INDEX_RDATE), allDay, timeZone);
+            writeDates(writer, VEvent.EXDATE, cursor.getString(INDEX_EXDATE), allDay,
+                    timeZone);
+
+            Master master = new Master(uid, timeZone);
+            mMastersById.put(cursor.getLong(INDEX_ID), master);
+            String syncId = cursor.getString(INDEX_SYNC_ID);
+            if (!TextUtils.isEmpty(syncId)) {
+                mMastersBySyncId.put(syncId, master);
+            }
+        } else {
+            writeStart(cursor, writer, allDay, null);
+            if (!cursor.isNull(INDEX_END)) {
+                writer.writeDateTime(VEvent.DTEND, cursor.getLong(INDEX_END), allDay);
+            }
+        }
+        writer.end(VEVENT);
+    }
+
+    /**
+     * Writes an exception to a recurring event, or nothing if that event wasn't written
+     *
+     * @return true if the exception was written
+     */
+    private boolean writeException(Cursor cursor, IcalendarWriter writer) throws IOException {
+        Master master = null;
+        if (!cursor.isNull(INDEX_ORIGINAL_ID)) {
+            master = mMastersById.get(cursor.getLong(INDEX_ORIGINAL_ID));
+        }
+        String originalSyncId = cursor.getString(INDEX_ORIGINAL_SYNC_ID);
+        if (master == null && !TextUtils.isEmpty(originalSyncId)) {
+            master = mMastersBySyncId.get(originalSyncId);
+        }
+        if (master == null || cursor.isNull(INDEX_ORIGINAL_INSTANCE_TIME)) {
+            return false;
+        }
+
+        writer.begin(VEVENT);
+        writer.writeProperty(VEvent.UID, master.mUid);
+        writer.writeProperty(VEvent.DTSTAMP, mTimeStamp);
+        boolean originalAllDay = cursor.getInt(INDEX_ORIGINAL_ALL_DAY) != 0;
+        writer.writeDateTimes(VEvent.RECURRENCE_ID,
+                new long[] { cursor.getLong(INDEX_ORIGINAL_INSTANCE_TIME) }, originalAllDay,
+                master.mTimeZone);
+        if (cursor.getInt(INDEX_STATUS) == Events.STATUS_CANCELED) {
+            // A deleted occurrence
+            writer.writeProperty(VEvent.STATUS, STATUS_CANCELLED);
+        }
+        writeDetails(cursor, writer);
+        boolean allDay = cursor.getInt(INDEX_ALL_DAY) != 0;
+        String timeZone = allDay ? null : master.mTimeZone;
+        writeStart(cursor, writer, allDay, timeZone);
+        if (!cursor.isNull(INDEX_END)) {
+            writer.writeDateTimes(VEvent.DTEND, new long[] { cursor.getLong(INDEX_END) },
+                    allDay, timeZone);
+        } else {
+            writer.writeProperty(VEvent.DURATION, cursor.getString(INDEX_DURATION));
+        }
+        writer.end(VEVENT);
+        return true;
+    }
+
+    private static void writeStart(Cursor cursor, IcalendarWriter writer, boolean allDay,
+            String timeZone) throws IOException {
+        writer.writeDateTimes(VEvent.DTSTART, new long[] { cursor.getLong(INDEX_START) },
+                allDay, timeZone);
+    }
+
+    /**
+     * Writes the RDATE or EXDATE column of an event, [TZID;]DATE-TIME,DATE-TIME, in the
+     * time zone of the event. Values that can't be parsed are written as they are.
+     */
+    private static void writeDates(IcalendarWriter writer, IcalendarProperty property,
+            String value, boolean allDay, String timeZone) throws IOException {
+        if (TextUtils.isEmpty(value)) {
+            return;
+        }
+        long[] dates;
+        try {
+            dates = parseDates(value);
+        } catch (IllegalArgumentException e) {
+            writer.writeProperty(property, value);
+            return;
+        }
+        writer.writeDateTimes(property, dates, allDay, timeZone);
+    }
+
+    /**
+     * Parses the RDATE or EXDATE column of an event into UTC millis
+     *
+     * @throws IllegalArgumentException if a value is malformed
+     */
+    static long[] parseDates(String value) {
+        String timeZone = null;
+        int semicolon = value.indexOf(';');
+        if (semicolon != -1) {
+            timeZone = value.substring(0, semicolon);
+            value = value.substring(semicolon + 1);
+        }
+        String[] values = value.split(",");
+        long[] dates = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            dates[i] = IcalendarDateTime.parse(values[i].trim(), timeZone);
+        }
+        return dates;
+    }
+
+    private void writeInstance(Cursor cursor, IcalendarWriter writer) throws IOException {
+        writer.begin(VEVENT);
+        // Instances of the same event need their own UIDs
+        writer.writeProperty(VEvent.UID, cursor.getLong(INDEX_ID) + "-"
+                + cursor.getLong(INDEX_START) + UID_SUFFIX);
+        writer.writeProperty(VEvent.DTSTAMP, mTimeStamp);
+        writeDetails(cursor, writer);
+        writer.writeDateTime(VEvent.DTSTART, cursor.getLong(INDEX_START),
+                cursor.getInt(INDEX_ALL_DAY) != 0);
+        writer.writeDateTime(VEvent.DTEND, cursor.getLong(INDEX_END),
+                cursor.getInt(INDEX_ALL_DAY) != 0);
+        writer.end(VEVENT);
+    }
+
+    private static void writeDetails(Cursor cursor, IcalendarWriter writer) throws IOException {
+        writer.writeText(VEvent.SUMMARY, cursor.getString(INDEX_TITLE));
+        writer.writeText(VEvent.LOCATION, cursor.getString(INDEX_LOCATION));
+        writer.writeText(VEvent.DESCRIPTION, cursor.getString(INDEX_DESCRIPTION));
+        String organizer = cursor.getString(INDEX_ORGANIZER);
+        if (!TextUtils.isEmpty(organizer)) {
+            writer.writeProperty(VEvent.ORGANIZER, "mailto:" + organizer);
+        }
+    }
+}
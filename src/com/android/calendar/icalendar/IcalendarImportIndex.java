@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.icalendar;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers which provider event each event of an iCalendar source was imported as,
+ * with its SEQUENCE and a hash of its rows, so importing the source again only touches
+ * the events that changed.
+ *
+ * Events are keyed by UID, and by RECURRENCE-ID for overrides of recurring events. The
+ * index is kept in a file as a log of records: changes are appended after every batch,
+ * and the file is rewritten once most of its records are stale.
+ *
+ * The IDs of inserted events are only known once their batch is applied, so the index
+ * is saved after the batch. Importing is at least once: if the process dies between the
+ * two, the events of that batch are not in the index and importing the source again
+ * inserts them a second time.
+ */
+public class IcalendarImportIndex {
+    private static final String TAG = "IcalendarImportIndex";
+
+    private static final int MAGIC = 0x49434958; // ICIX
+    private static final int VERSION = 1;
+    // Event id of a record removing its key
+    private static final long REMOVED = -1;
+
+    static class Entry {
+        final long mEventId;
+        final int mSequence;
+        final long mHash;
+
+        Entry(long eventId, int sequence, long hash) {
+            mEventId = eventId;
+            mSequence = sequence;
+            mHash = hash;
+        }
+    }
+
+    private final File mFile;
+    private final HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+    // Keys put or removed since the last save, in order
+    private final ArrayList<String> mChanged = new ArrayList<String>();
+    // Keys seen during the current import
+    private final HashSet<String> mSeen = new HashSet<String>();
+    private int mRecords;
+    // Whether the file has to be rewritten rather than appended to
+    private boolean mRewrite;
+
+    public IcalendarImportIndex(File file) {
+        mFile = file;
+        mRewrite = true;
+    }
+
+    /**
+     * Returns the key of an event, or null if it has no UID
+     */
+    static String getKey(String uid, String recurrenceId) {
+        if (uid == null) {
+            return null;
+        }
+        return recurrenceId == null ? uid : uid + '/' + recurrenceId;
+    }
+
+    /**
+     * Reads the index from its file. A missing file is an empty index, and a record cut
+     * short by a crash during a save is ignored. An index that is never loaded starts
+     * empty.
+     */
+    public void load() throws IOException {
+        mEntries.clear();
+        mChanged.clear();
+        mRecords = 0;
+        mRewrite = true;
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+        } catch (FileNotFoundException e) {
+            return;
+        }
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "Ignoring unknown index " + mFile);
+                return;
+            }
+            while (true) {
+                in.mark(1);
+                if (in.read() == -1) {
+                    mRewrite = false;
+                    break;
+                }
+                in.reset();
+                String key = in.readUTF();
+                long eventId = in.readLong();
+                int sequence = in.readInt();
+                long hash = in.readLong();
+                if (eventId == REMOVED) {
+                    mEntries.remove(key);
+                } else {
+                    mEntries.put(key, new Entry(eventId, sequence, hash));
+                }
+                mRecords++;
+            }
+        } catch (EOFException e) {
+            Log.w(TAG, "Ignoring incomplete record in " + mFile);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the changes since the last save to the file
+     */
+    public void save() throws IOException {
+        if (mChanged.isEmpty()) {
+            return;
+        }
+        boolean compact = mRewrite || mRecords + mChanged.size() > 2 * mEntries.size() + 100;
+        // A rewrite goes to a new file first, so a crash can't lose the old one
+        File file = compact ? new File(mFile.getPath() + ".tmp") : mFile;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file, !compact)));
+        try {
+            if (compact) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+                    writeRecord(out, entry.getKey(), entry.getValue());
+                }
+            } else {
+                for (String key : mChanged) {
+                    writeRecord(out, key, mEntries.get(key));
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (compact) {
+            if (!file.renameTo(mFile)) {
+                throw new IOException("Could not rename " + file);
+            }
+            mRecords = mEntries.size();
+            mRewrite = false;
+        } else {
+            mRecords += mChanged.size();
+        }
+        mChanged.clear();
+    }
+
+    private static void writeRecord(DataOutputStream out, String key, Entry entry)
+            throws IOException {
+        out.writeUTF(key);
+        if (entry == null) {
+            out.writeLong(REMOVED);
+            out.writeInt(0);
+            out.writeLong(0);
+        } else {
+            out.writeLong(entry.mEventId);
+            out.writeInt(entry.mSequence);
+            out.writeLong(entry.mHash);
+        }
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    Entry get(String key) {
+        return mEntries.get(key);
+    }
+
+    void put(String key, long eventId, int sequence, long hash) {
+        mEntries.put(key, new Entry(eventId, sequence, hash));
+        mChanged.add(key);
+    }
+
+    void remove(String key) {
+        if (mEntries.remove(key) != null) {
+            mChanged.add(key);
+        }
+    }
+
+    /**
+     * Marks a key as seen in the current import
+     *
+     * @return false if it was already seen, i.e. the source has it twice
+     */
+    boolean markSeen(String key) {
+        return mSeen.add(key);
+    }
+
+    /**
+     * Starts a new import, no key is seen
+     */
+    void clearSeen() {
+        mSeen.clear();
+    }
+
+    /**
+     * Returns the keys that are indexed but were not seen in the current import
+     */
+    ArrayList<String> getUnseenKeys() {
+        ArrayList<String> keys = new ArrayList<String>();
+        for (String key : mEntries.keySet()) {
+            if (!mSeen.contains(key)) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Removes the entries of events that are not in the given set, e.g. because they
+     * were deleted by the user since the last import
+     */
+    void retainEvents(Set<Long> eventIds) {
+        Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> entry = it.next();
+            if (!eventIds.contains(entry.getValue().mEventId)) {
+                mChanged.add(entry.getKey());
+                it.remove();
+            }
+        }
+    }
+}
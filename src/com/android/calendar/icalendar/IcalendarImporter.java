@@ -0,0 +1,952 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.icalendar;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.RemoteException;
+import android.provider.CalendarContract;
+import android.provider.CalendarContract.Attendees;
+import android.provider.CalendarContract.Events;
+import android.provider.CalendarContract.Reminders;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.android.calendarcommon2.EventRecurrence;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Imports the events of an iCalendar stream into a calendar. Events are read one at a
+ * time from an {@link IcalendarParser} and inserted with their attendees and reminders
+ * in batches, so memory use does not grow with the size of the file. Events are parsed
+ * on all cores while the previous ones are written.
+ *
+ * Each batch is applied with a single applyBatch call. The provider may yield, and
+ * commit, between the events of a batch so other clients aren't blocked by a long
+ * import, but never within the rows of one event. The number of events handled is
+ * reported after every batch, and an interrupted import can be resumed by passing that
+ * number to {@link #importEvents(IcalendarParser, int)}.
+ *
+ * Overrides of single occurrences, events with a RECURRENCE-ID, are linked to the
+ * recurring event with the same UID. An override read before its recurring event is
+ * held back until the end of its batch, and imported on its own if the recurring event
+ * hasn't been read by then, so the progress reported never has to go back.
+ */
+public class IcalendarImporter {
+    private static final String TAG = "IcalendarImporter";
+    private static final boolean DEBUG = false;
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    // Events parsed ahead of the provider writes, per thread
+    private static final int PENDING_PER_THREAD = 16;
+
+    private static final String VALUE = "VALUE";
+    private static final String VALUE_DATE = "DATE";
+    private static final String TZID = "TZID";
+    private static final String STATUS_TENTATIVE = "TENTATIVE";
+    private static final String STATUS_CONFIRMED = "CONFIRMED";
+    private static final String STATUS_CANCELLED = "CANCELLED";
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // Columns that an update must clear when the new rows don't have them
+    private static final String[] CLEARED_ON_UPDATE = new String[] {
+            Events.DTEND, Events.DURATION, Events.RRULE, Events.RDATE, Events.EXDATE,
+            Events.ORGANIZER, Events.STATUS
+    };
+
+    public interface ProgressListener {
+        /**
+         * Called once a batch is committed, with the number of events of the stream that
+         * have been handled so far
+         */
+        void onProgress(int handled);
+    }
+
+    private final ContentResolver mResolver;
+    private final long mCalendarId;
+    private final String mTimeZone;
+    private int mBatchSize = DEFAULT_BATCH_SIZE;
+    private int mThreads = Runtime.getRuntime().availableProcessors();
+    private ProgressListener mListener;
+
+    private IcalendarImportIndex mIndex;
+    private boolean mDeleteMissing;
+
+    // The batch being built by importEvents
+    private final ArrayList<ContentProviderOperation> mOps =
+            new ArrayList<ContentProviderOperation>();
+    // Events inserted by the batch, to index once their ids are known
+    private final ArrayList<EventRows> mInserts = new ArrayList<EventRows>();
+    // The ids of the recurring events written so far by their UID, and the index of the
+    // inserts of the batch for the ones inserted by it
+    private final HashMap<String, Long> mMasterIds = new HashMap<String, Long>();
+    private final HashMap<String, Integer> mBatchMasters = new HashMap<String, Integer>();
+    // Overrides waiting for their recurring event, in the order of the stream
+    private final ArrayList<EventRows> mOrphans = new ArrayList<EventRows>();
+    private int mBatched;
+    private int mHandled;
+    private int mInserted;
+    private int mUpdated;
+    private int mUnchanged;
+    private int mDeleted;
+
+    /**
+     * @param calendarId the calendar to add the events to
+     * @param timeZone the time zone of floating times
+     */
+    public IcalendarImporter(ContentResolver resolver, long calendarId, String timeZone) {
+        mResolver = resolver;
+        mCalendarId = calendarId;
+        mTimeZone = timeZone;
+    }
+
+    /**
+     * Sets the number of events inserted per applyBatch call
+     */
+    public void setBatchSize(int batchSize) {
+        mBatchSize = Math.max(1, batchSize);
+    }
+
+    public void setProgressListener(ProgressListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Sets the number of threads parsing events while the previous ones are written,
+     * 1 parses them on the calling thread
+     */
+    public void setThreads(int threads) {
+        mThreads = Math.max(1, threads);
+    }
+
+    /**
+     * Sets the index of the events imported from the same source before. Events of the
+     * index that didn't change are skipped and changed ones are updated in place rather
+     * than inserted again. The index is saved after every batch.
+     *
+     * @param deleteMissing whether to delete the events of the index that are no longer
+     *            in the source
+     */
+    public void setIndex(IcalendarImportIndex index, boolean deleteMissing) {
+        mIndex = index;
+        mDeleteMissing = deleteMissing;
+    }
+
+    /**
+     * Returns the number of events inserted by the last import
+     */
+    public int getInsertedCount() {
+        return mInserted;
+    }
+
+    /**
+     * Returns the number of indexed events updated by the last import
+     */
+    public int getUpdatedCount() {
+        return mUpdated;
+    }
+
+    /**
+     * Returns the number of indexed events skipped by the last import as unchanged
+     */
+    public int getUnchangedCount() {
+        return mUnchanged;
+    }
+
+    /**
+     * Returns the number of indexed events deleted by the last import
+     */
+    public int getDeletedCount() {
+        return mDeleted;
+    }
+
+    /**
+     * Imports the events read by the parser. The stream is split into events on the
+     * calling thread, and the events are parsed and mapped to rows on a pool of
+     * threads. The rows are written in the order of the stream, and only a few events
+     * per thread are parsed ahead of the writes, so memory use stays bounded.
+     *
+     * @param resumeFrom the number of events at the start of the stream that were
+     *            imported before, they are skipped
+     * @return the number of events in the stream, including the skipped ones and the
+     *         ones that could not be imported
+     */
+    public int importEvents(IcalendarParser parser, int resumeFrom)
+            throws IOException, RemoteException, OperationApplicationException {
+        mOps.clear();
+        mInserts.clear();
+        mMasterIds.clear();
+        mBatchMasters.clear();
+        mOrphans.clear();
+        mBatched = 0;
+        mHandled = 0;
+        mInserted = 0;
+        mUpdated = 0;
+        mUnchanged = 0;
+        mDeleted = 0;
+        if (mIndex != null) {
+            mIndex.clearSeen();
+            retainIndexedEvents();
+        }
+        ExecutorService executor = mThreads > 1 ? Executors.newFixedThreadPool(mThreads) : null;
+        ArrayDeque<Future<EventRows>> pending = new ArrayDeque<Future<EventRows>>();
+        int maxPending = mThreads * PENDING_PER_THREAD;
+        try {
+            ArrayList<String> lines;
+            while ((lines = parser.nextEventLines()) != null) {
+                if (mHandled < resumeFrom) {
+                    if (mIndex != null) {
+                        // Imported before, but must not be deleted as missing
+                        String key = getKey(lines);
+                        if (key != null) {
+                            mIndex.markSeen(key);
+                        }
+                    }
+                    mHandled++;
+                    continue;
+                }
+                if (executor == null) {
+                    addRows(mapEvent(IcalendarParser.parseEvent(lines)));
+                    continue;
+                }
+                pending.add(executor.submit(new MapTask(lines)));
+                if (pending.size() >= maxPending) {
+                    // Wait for the oldest event, so the parsed events don't pile up
+                    addRows(getRows(pending.remove()));
+                }
+            }
+            while (!pending.isEmpty()) {
+                addRows(getRows(pending.remove()));
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+        // Before the missing events, so the overrides are seen
+        addOrphans();
+        if (mIndex != null && mDeleteMissing) {
+            addMissingDeletes();
+        }
+        applyBatch();
+        return mHandled;
+    }
+
+    /**
+     * Drops the events of the index that are no longer in the calendar, so they are
+     * inserted again rather than updated
+     */
+    private void retainIndexedEvents() {
+        Cursor cursor = mResolver.query(Events.CONTENT_URI, new String[] { Events._ID },
+                Events.CALENDAR_ID + "=? AND " + Events.DELETED + "=0",
+                new String[] { Long.toString(mCalendarId) }, null);
+        if (cursor == null) {
+            return;
+        }
+        HashSet<Long> eventIds = new HashSet<Long>();
+        try {
+            while (cursor.moveToNext()) {
+                eventIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        mIndex.retainEvents(eventIds);
+    }
+
+    private void addMissingDeletes() throws IOException, RemoteException,
+            OperationApplicationException {
+        for (String key : mIndex.getUnseenKeys()) {
+            long eventId = mIndex.get(key).mEventId;
+            mOps.add(ContentProviderOperation.newDelete(
+                    ContentUris.withAppendedId(Events.CONTENT_URI, eventId))
+                    .withYieldAllowed(true)
+                    .build());
+            mIndex.remove(key);
+            mDeleted++;
+            if (++mBatched == mBatchSize) {
+                applyBatch();
+            }
+        }
+    }
+
+    private static EventRows getRows(Future<EventRows> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Adds the rows of the next event of the stream to the batch, null if the event
+     * can't be imported
+     */
+    private void addRows(EventRows rows)
+            throws IOException, RemoteException, OperationApplicationException {
+        mHandled++;
+        if (rows != null) {
+            if (rows.mOriginalUid != null && !linkOverride(rows)) {
+                mOrphans.add(rows);
+            } else {
+                addEventRows(rows);
+            }
+        }
+        if (mBatched >= mBatchSize) {
+            applyBatch();
+        }
+    }
+
+    private void addEventRows(EventRows rows) {
+        if (addIndexedOperations(rows)) {
+            mBatched++;
+        }
+        if (rows.mMasterUid != null && !mOrphans.isEmpty()) {
+            // Overrides read before their recurring event
+            for (int i = 0; i < mOrphans.size(); i++) {
+                EventRows orphan = mOrphans.get(i);
+                if (rows.mMasterUid.equals(orphan.mOriginalUid) && linkOverride(orphan)) {
+                    mOrphans.remove(i--);
+                    if (addIndexedOperations(orphan)) {
+                        mBatched++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the overrides whose recurring event hasn't been read as events of their own
+     */
+    private void addOrphans() {
+        for (EventRows rows : mOrphans) {
+            Log.w(TAG, "Importing override without its recurring event: " + rows.mKey);
+            rows.mEvent.remove(Events.ORIGINAL_INSTANCE_TIME);
+            rows.mEvent.remove(Events.ORIGINAL_ALL_DAY);
+            addEventRows(rows);
+        }
+        mOrphans.clear();
+    }
+
+    /**
+     * Points an override at the recurring event with its UID, by id once the recurring
+     * event is written, else by a back reference to its insert in the batch
+     *
+     * @return false if the recurring event hasn't been read yet
+     */
+    private boolean linkOverride(EventRows rows) {
+        Long eventId = mMasterIds.get(rows.mOriginalUid);
+        if (eventId == null && mIndex != null) {
+            IcalendarImportIndex.Entry entry = mIndex.get(
+                    IcalendarImportIndex.getKey(rows.mOriginalUid, null));
+            if (entry != null) {
+                eventId = entry.mEventId;
+            }
+        }
+        if (eventId != null) {
+            rows.mEvent.put(Events.ORIGINAL_ID, eventId);
+            rows.mOriginalIndex = -1;
+            return true;
+        }
+        Integer index = mBatchMasters.get(rows.mOriginalUid);
+        if (index != null) {
+            rows.mOriginalIndex = index;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remembers where a recurring event is, so its overrides can be linked to it
+     *
+     * @param eventId the id of the event, or -1 if it is inserted by the batch
+     */
+    private void addMaster(EventRows rows, long eventId) {
+        if (rows.mMasterUid == null) {
+            return;
+        }
+        if (eventId != -1) {
+            mMasterIds.put(rows.mMasterUid, eventId);
+        } else {
+            mBatchMasters.put(rows.mMasterUid, rows.mIndex);
+        }
+    }
+
+    /**
+     * Adds the operations importing an event, as told by the index
+     *
+     * @return false if the event is skipped
+     */
+    private boolean addIndexedOperations(EventRows rows) {
+        if (mIndex == null || rows.mKey == null) {
+            rows.mIndex = mOps.size();
+            addOperations(rows, mOps);
+            addMaster(rows, -1);
+            mInserted++;
+            return true;
+        }
+        if (!mIndex.markSeen(rows.mKey)) {
+            Log.w(TAG, "Skipping duplicate event: " + rows.mKey);
+            return false;
+        }
+        IcalendarImportIndex.Entry entry = mIndex.get(rows.mKey);
+        if (entry == null) {
+            rows.mIndex = mOps.size();
+            addOperations(rows, mOps);
+            addMaster(rows, -1);
+            mInserts.add(rows);
+            mInserted++;
+            return true;
+        }
+        addMaster(rows, entry.mEventId);
+        if (rows.mSequence < entry.mSequence
+                || (rows.mSequence == entry.mSequence && rows.mHash == entry.mHash)) {
+            // Older or the same as the imported event
+            mUnchanged++;
+            return false;
+        }
+        addUpdateOperations(entry.mEventId, rows, mOps);
+        mIndex.put(rows.mKey, entry.mEventId, rows.mSequence, rows.mHash);
+        mUpdated++;
+        return true;
+    }
+
+    private void applyBatch() throws IOException, RemoteException,
+            OperationApplicationException {
+        // All events handled so far are in the batch
+        addOrphans();
+        if (!mOps.isEmpty()) {
+            ContentProviderResult[] results = mResolver.applyBatch(CalendarContract.AUTHORITY,
+                    mOps);
+            for (EventRows rows : mInserts) {
+                mIndex.put(rows.mKey, ContentUris.parseId(results[rows.mIndex].uri),
+                        rows.mSequence, rows.mHash);
+            }
+            for (Map.Entry<String, Integer> master : mBatchMasters.entrySet()) {
+                mMasterIds.put(master.getKey(),
+                        ContentUris.parseId(results[master.getValue()].uri));
+            }
+            mOps.clear();
+            mInserts.clear();
+            mBatchMasters.clear();
+        }
+        if (mIndex != null) {
+            // Only now are the inserted IDs known, a crash before this imports the batch
+            // again next time
+            mIndex.save();
+        }
+        mBatched = 0;
+        if (DEBUG) {
+            Log.d(TAG, "Imported " + mHandled + " events");
+        }
+        if (mListener != null) {
+            mListener.onProgress(mHandled);
+        }
+    }
+
+    /**
+     * Parses and maps an event on a thread of the pool
+     */
+    private class MapTask implements Callable<EventRows> {
+        private final ArrayList<String> mLines;
+
+        MapTask(ArrayList<String> lines) {
+            mLines = lines;
+        }
+
+        @Override
+        public EventRows call() {
+            return mapEvent(IcalendarParser.parseEvent(mLines));
+        }
+    }
+
+    /**
+     * The rows of an event, its attendees and its reminders, not yet linked together
+     */
+    static class EventRows {
+        final ContentValues mEvent = new ContentValues();
+        final ArrayList<ContentValues> mAttendees = new ArrayList<ContentValues>();
+        final ArrayList<ContentValues> mReminders = new ArrayList<ContentValues>();
+        // The key of the event in the index, null if it has no UID
+        String mKey;
+        int mSequence;
+        long mHash;
+        // The index of the event insert in its batch
+        int mIndex;
+        // The UID of a recurring event, or of the recurring event of an override
+        String mMasterUid;
+        String mOriginalUid;
+        // The index of the insert of the recurring event of an override in its batch, or
+        // -1 if its id is in the rows
+        int mOriginalIndex = -1;
+    }
+
+    /**
+     * Adds the operations inserting an event, its attendees and its reminders.
+     *
+     * @return false if the event can't be imported
+     */
+    boolean addEventOperations(VEvent event, ArrayList<ContentProviderOperation> ops) {
+        EventRows rows = mapEvent(event);
+        if (rows == null) {
+            return false;
+        }
+        addOperations(rows, ops);
+        return true;
+    }
+
+    /**
+     * Adds the operations inserting the rows of an event. Attendees and reminders refer
+     * to the event by its index in the batch, so this must run in the order of the
+     * batch.
+     */
+    static void addOperations(EventRows rows, ArrayList<ContentProviderOperation> ops) {
+        int eventIndex = ops.size();
+        ContentProviderOperation.Builder builder =
+                ContentProviderOperation.newInsert(Events.CONTENT_URI)
+                .withYieldAllowed(true)
+                .withValues(rows.mEvent);
+        if (rows.mOriginalIndex != -1) {
+            builder.withValueBackReference(Events.ORIGINAL_ID, rows.mOriginalIndex);
+        }
+        ops.add(builder.build());
+        for (ContentValues attendee : rows.mAttendees) {
+            ops.add(ContentProviderOperation.newInsert(Attendees.CONTENT_URI)
+                    .withValues(attendee)
+                    .withValueBackReference(Attendees.EVENT_ID, eventIndex)
+                    .build());
+        }
+        for (ContentValues reminder : rows.mReminders) {
+            ops.add(ContentProviderOperation.newInsert(Reminders.CONTENT_URI)
+                    .withValues(reminder)
+                    .withValueBackReference(Reminders.EVENT_ID, eventIndex)
+                    .build());
+        }
+    }
+
+    /**
+     * Adds the operations replacing an event, its attendees and its reminders with the
+     * given rows
+     */
+    static void addUpdateOperations(long eventId, EventRows rows,
+            ArrayList<ContentProviderOperation> ops) {
+        ContentValues values = new ContentValues(rows.mEvent);
+        for (String column : CLEARED_ON_UPDATE) {
+            if (!values.containsKey(column)) {
+                values.putNull(column);
+            }
+        }
+        String[] args = new String[] { Long.toString(eventId) };
+        ContentProviderOperation.Builder builder = ContentProviderOperation.newUpdate(
+                ContentUris.withAppendedId(Events.CONTENT_URI, eventId))
+                .withYieldAllowed(true)
+                .withValues(values);
+        if (rows.mOriginalIndex != -1) {
+            builder.withValueBackReference(Events.ORIGINAL_ID, rows.mOriginalIndex);
+        }
+        ops.add(builder.build());
+        ops.add(ContentProviderOperation.newDelete(Attendees.CONTENT_URI)
+                .withSelection(Attendees.EVENT_ID + "=?", args)
+                .build());
+        ops.add(ContentProviderOperation.newDelete(Reminders.CONTENT_URI)
+                .withSelection(Reminders.EVENT_ID + "=?", args)
+                .build());
+        for (ContentValues attendee : rows.mAttendees) {
+            ops.add(ContentProviderOperation.newInsert(Attendees.CONTENT_URI)
+                    .withValues(attendee)
+                    .withValue(Attendees.EVENT_ID, eventId)
+                    .build());
+        }
+        for (ContentValues reminder : rows.mReminders) {
+            ops.add(ContentProviderOperation.newInsert(Reminders.CONTENT_URI)
+                    .withValues(reminder)
+                    .withValue(Reminders.EVENT_ID, eventId)
+                    .build());
+        }
+    }
+
+    /**
+     * Maps an event to the rows inserting it. This doesn't touch any state of the
+     * importer, so events can be mapped on several threads at once.
+     *
+     * @return null if the event can't be imported
+     */
+    EventRows mapEvent(VEvent event) {
+        String start = event.getProperty(VEvent.DTSTART);
+        if (start == null) {
+            Log.w(TAG, "Skipping event without start: " + event.getProperty(VEvent.UID));
+            return null;
+        }
+
+        EventRows rows = new EventRows();
+        ContentValues values = rows.mEvent;
+        values.put(Events.CALENDAR_ID, mCalendarId);
+        values.put(Events.TITLE, getText(event, VEvent.SUMMARY));
+        values.put(Events.EVENT_LOCATION, getText(event, VEvent.LOCATION));
+        values.put(Events.DESCRIPTION, getText(event, VEvent.DESCRIPTION));
+        String uid = event.getProperty(VEvent.UID);
+        values.put(Events.UID_2445, uid);
+
+        long startMillis;
+        long endMillis;
+        boolean allDay;
+        String timeZone;
+        String rdate;
+        String exdate;
+        try {
+            allDay = isDate(event, VEvent.DTSTART);
+            timeZone = allDay ? IcalendarDateTime.UTC : getTimeZone(event, VEvent.DTSTART);
+            startMillis = parseDateTime(event, VEvent.DTSTART, allDay);
+            String duration = event.getProperty(VEvent.DURATION);
+            if (event.getProperty(VEvent.DTEND) != null) {
+                endMillis = parseDateTime(event, VEvent.DTEND, allDay);
+            } else if (duration != null) {
+                endMillis = startMillis + IcalendarDateTime.parseDuration(duration);
+            } else {
+                endMillis = allDay ? startMillis + DateUtils.DAY_IN_MILLIS : startMillis;
+            }
+            rdate = getDates(event, VEvent.RDATE, allDay, timeZone);
+            exdate = getDates(event, VEvent.EXDATE, allDay, timeZone);
+            if (uid != null && event.getProperty(VEvent.RECURRENCE_ID) != null) {
+                boolean originalAllDay = isDate(event, VEvent.RECURRENCE_ID);
+                values.put(Events.ORIGINAL_INSTANCE_TIME,
+                        parseDateTime(event, VEvent.RECURRENCE_ID, originalAllDay));
+                values.put(Events.ORIGINAL_ALL_DAY, originalAllDay ? 1 : 0);
+                rows.mOriginalUid = uid;
+            }
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Skipping event with bad time: " + event.getProperty(VEvent.UID), e);
+            return null;
+        }
+        values.put(Events.DTSTART, startMillis);
+        values.put(Events.ALL_DAY, allDay ? 1 : 0);
+        values.put(Events.EVENT_TIMEZONE, timeZone);
+
+        String rrule = event.getProperty(VEvent.RRULE);
+        if (!TextUtils.isEmpty(rrule) && !isValidRule(rrule, startMillis, timeZone, allDay)) {
+            Log.w(TAG, "Skipping event with bad RRULE: " + event.getProperty(VEvent.UID));
+            return null;
+        }
+        if (rows.mOriginalUid != null) {
+            // An override is a single occurrence
+            rrule = null;
+            rdate = null;
+            exdate = null;
+        }
+        if (!TextUtils.isEmpty(rrule) || rdate != null) {
+            // Recurring events have a duration instead of an end
+            if (!TextUtils.isEmpty(rrule)) {
+                values.put(Events.RRULE, rrule);
+            }
+            values.put(Events.RDATE, rdate);
+            values.put(Events.EXDATE, exdate);
+            if (uid != null) {
+                rows.mMasterUid = uid;
+            }
+            long durationMillis = Math.max(0, endMillis - startMillis);
+            StringBuilder duration = new StringBuilder(12);
+            if (allDay) {
+                // Rounded down to whole days
+                durationMillis -= durationMillis % DateUtils.DAY_IN_MILLIS;
+            }
+            IcalendarDateTime.formatDuration(durationMillis, duration);
+            values.put(Events.DURATION, duration.toString());
+        } else {
+            values.put(Events.DTEND, endMillis);
+        }
+
+        if (event.mOrganizer != null) {
+            values.put(Events.ORGANIZER, event.mOrganizer.mEmail);
+        }
+        String status = event.getProperty(VEvent.STATUS);
+        if (STATUS_CANCELLED.equalsIgnoreCase(status)) {
+            values.put(Events.STATUS, Events.STATUS_CANCELED);
+        } else if (STATUS_TENTATIVE.equalsIgnoreCase(status)) {
+            values.put(Events.STATUS, Events.STATUS_TENTATIVE);
+        } else if (STATUS_CONFIRMED.equalsIgnoreCase(status)) {
+            values.put(Events.STATUS, Events.STATUS_CONFIRMED);
+        }
+        values.put(Events.HAS_ATTENDEE_DATA, event.mAttendees.isEmpty() ? 0 : 1);
+
+        for (Attendee attendee : event.mAttendees) {
+            if (TextUtils.isEmpty(attendee.mEmail)) {
+                continue;
+            }
+            ContentValues attendeeValues = new ContentValues();
+            attendeeValues.put(Attendees.ATTENDEE_EMAIL, attendee.mEmail);
+            attendeeValues.put(Attendees.ATTENDEE_RELATIONSHIP, Attendees.RELATIONSHIP_ATTENDEE);
+            attendeeValues.put(Attendees.ATTENDEE_TYPE, Attendees.TYPE_NONE);
+            attendeeValues.put(Attendees.ATTENDEE_STATUS, Attendees.ATTENDEE_STATUS_NONE);
+            rows.mAttendees.add(attendeeValues);
+        }
+        for (String trigger : event.mAlarmTriggers) {
+            int minutes = getReminderMinutes(trigger);
+            if (minutes >= 0) {
+                ContentValues reminderValues = new ContentValues();
+                reminderValues.put(Reminders.MINUTES, minutes);
+                reminderValues.put(Reminders.METHOD, Reminders.METHOD_ALERT);
+                rows.mReminders.add(reminderValues);
+            }
+        }
+        values.put(Events.HAS_ALARM, rows.mReminders.isEmpty() ? 0 : 1);
+
+        rows.mKey = IcalendarImportIndex.getKey(uid, event.getProperty(VEvent.RECURRENCE_ID));
+        try {
+            String sequence = event.getProperty(VEvent.SEQ);
+            rows.mSequence = sequence != null ? Integer.parseInt(sequence.trim()) : 0;
+        } catch (NumberFormatException e) {
+            rows.mSequence = 0;
+        }
+        rows.mHash = hashRows(rows);
+        return rows;
+    }
+
+    /**
+     * Returns the values of all the RDATE or EXDATE properties of an event in the format of
+     * their provider columns: comma separated dates for all-day events, else UTC times.
+     * The end of a PERIOD is dropped.
+     *
+     * @param timeZone the time zone of DATE values of events that aren't all-day
+     * @return null if the event has none
+     * @throws IllegalArgumentException if a value is malformed
+     */
+    private String getDates(VEvent event, IcalendarProperty property, boolean allDay,
+            String timeZone) {
+        int count = event.getPropertyCount(property);
+        if (count == 0) {
+            return null;
+        }
+        StringBuilder dates = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            String value = event.getProperty(property, i);
+            String valueTimeZone = getTimeZone(event.getParameter(property, i, TZID),
+                    mTimeZone);
+            int start = 0;
+            while (start <= value.length()) {
+                int end = value.indexOf(',', start);
+                if (end == -1) {
+                    end = value.length();
+                }
+                int slash = value.indexOf('/', start);
+                String date = value.substring(start, slash != -1 && slash < end ? slash : end)
+                        .trim();
+                start = end + 1;
+                if (date.length() == 0) {
+                    continue;
+                }
+                if (dates.length() > 0) {
+                    dates.append(',');
+                }
+                if (allDay) {
+                    IcalendarDateTime.formatDate(IcalendarDateTime.parse(
+                            date.length() > 8 ? date.substring(0, 8) : date,
+                            IcalendarDateTime.UTC), dates);
+                } else if (IcalendarDateTime.isDate(date)) {
+                    // Midnight in the time zone of the event
+                    IcalendarDateTime.formatUtc(IcalendarDateTime.parse(date + "T000000",
+                            timeZone), dates);
+                } else {
+                    IcalendarDateTime.formatUtc(IcalendarDateTime.parse(date, valueTimeZone),
+                            dates);
+                }
+            }
+        }
+        return dates.length() > 0 ? dates.toString() : null;
+    }
+
+    /**
+     * Returns whether a recurrence rule can be expanded, so a malformed one doesn't fail
+     * the whole batch in the provider
+     */
+    private static boolean isValidRule(String rrule, long start, String timeZone,
+            boolean allDay) {
+        try {
+            RecurrenceExpander.create(rrule, null, null, null, start, timeZone, allDay)
+                    .expand(start, start + 1);
+            return true;
+        } catch (EventRecurrence.InvalidFormatException e) {
+            return false;
+        } catch (IllegalArgumentException e) {
+            // e.g. a malformed UNTIL
+            return false;
+        }
+    }
+
+    /**
+     * Returns the index key of an event from its content lines, without parsing it
+     */
+    static String getKey(List<String> lines) {
+        String uid = null;
+        String recurrenceId = null;
+        for (String line : lines) {
+            IcalendarProperty property = IcalendarProperty.forName(line, 0,
+                    IcalendarParameters.findNameEnd(line));
+            if (property == VEvent.UID || property == VEvent.RECURRENCE_ID) {
+                int valueStart = IcalendarParameters.findValueStart(line);
+                if (valueStart != -1) {
+                    String value = line.substring(valueStart + 1);
+                    if (property == VEvent.UID) {
+                        uid = value;
+                    } else {
+                        recurrenceId = value;
+                    }
+                }
+            }
+        }
+        return IcalendarImportIndex.getKey(uid, recurrenceId);
+    }
+
+    /**
+     * Returns a 64-bit FNV-1a hash of the rows of an event. Columns are hashed in any
+     * order, as ContentValues don't keep one.
+     */
+    static long hashRows(EventRows rows) {
+        long hash = hashValues(rows.mEvent);
+        for (ContentValues attendee : rows.mAttendees) {
+            hash = hash * FNV_PRIME + hashValues(attendee);
+        }
+        hash = hash * FNV_PRIME + rows.mAttendees.size();
+        for (ContentValues reminder : rows.mReminders) {
+            hash = hash * FNV_PRIME + hashValues(reminder);
+        }
+        return hash;
+    }
+
+    private static long hashValues(ContentValues values) {
+        long sum = 0;
+        for (Map.Entry<String, Object> column : values.valueSet()) {
+            long hash = hashString(FNV_OFFSET, column.getKey());
+            hash = (hash ^ '=') * FNV_PRIME;
+            sum += hashString(hash, String.valueOf(column.getValue()));
+        }
+        return sum;
+    }
+
+    private static long hashString(long hash, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            hash = (hash ^ s.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static String getText(VEvent event, IcalendarProperty property) {
+        return IcalendarUtils.uncleanseString(event.getProperty(property));
+    }
+
+    /**
+     * Returns true if a DATE or DATE-TIME property holds a DATE, i.e. the event is all-day
+     */
+    public static boolean isDate(VEvent event, IcalendarProperty property) {
+        return VALUE_DATE.equalsIgnoreCase(event.getParameter(property, VALUE))
+                || event.getProperty(property).length() == 8;
+    }
+
+    /**
+     * Returns the time zone of a DATE-TIME property, from its TZID if the zone is known
+     */
+    private static String getTimeZone(VEvent event, IcalendarProperty property,
+            String defaultTimeZone) {
+        return getTimeZone(event.getParameter(property, TZID), defaultTimeZone);
+    }
+
+    private static String getTimeZone(String tzid, String defaultTimeZone) {
+        if (tzid != null && TimeZone.getTimeZone(tzid).getID().equals(tzid)) {
+            return tzid;
+        }
+        return defaultTimeZone;
+    }
+
+    private String getTimeZone(VEvent event, IcalendarProperty property) {
+        return getTimeZone(event, property, mTimeZone);
+    }
+
+    /**
+     * Parses a DATE or DATE-TIME property into millis, the way the importer stores them:
+     * DATE values at midnight UTC, DATE-TIME values in their TZID, else in
+     * defaultTimeZone.
+     *
+     * @throws IllegalArgumentException if the value is malformed
+     */
+    public static long parseDateTime(VEvent event, IcalendarProperty property, boolean allDay,
+            String defaultTimeZone) {
+        String value = event.getProperty(property);
+        if (allDay) {
+            // All-day events are stored at midnight UTC
+            return IcalendarDateTime.parse(value.length() > 8 ? value.substring(0, 8) : value,
+                    IcalendarDateTime.UTC);
+        }
+        return IcalendarDateTime.parse(value, getTimeZone(event, property, defaultTimeZone));
+    }
+
+    private long parseDateTime(VEvent event, IcalendarProperty property, boolean allDay) {
+        return parseDateTime(event, property, allDay, mTimeZone);
+    }
+
+    /**
+     * Returns the minutes before the start of the event of an alarm, or -1 if it
+     * isn't relative to the start
+     */
+    static int getReminderMinutes(String trigger) {
+        int colon = IcalendarParameters.findValueStart(trigger);
+        if (colon == -1) {
+            return -1;
+        }
+        IcalendarParameters parameters = IcalendarParameters.parse(trigger,
+                IcalendarParameters.findNameEnd(trigger), colon);
+        if (parameters != null && ("END".equalsIgnoreCase(parameters.get("RELATED"))
+                || "DATE-TIME".equalsIgnoreCase(parameters.get(VALUE)))) {
+            return -1;
+        }
+        try {
+            long offset = IcalendarDateTime.parseDuration(trigger.substring(colon + 1));
+            return offset <= 0 ? (int) (-offset / DateUtils.MINUTE_IN_MILLIS) : -1;
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+}
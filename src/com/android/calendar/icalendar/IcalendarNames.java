@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.icalendar;
+
+/**
+ * Interns the names of parameters and of properties without an
+ * {@link IcalendarProperty}, so every component refers to one String per name instead
+ * of allocating a copy per content line.
+ */
+final class IcalendarNames {
+
+    // Names that are not interned once the table is full, so a stream can't fill memory
+    private static final int MAX_NAMES = 4096;
+
+    private static final String[] KNOWN_NAMES = {
+            // Parameters
+            "ALTREP", "CN", "CUTYPE", "DELEGATED-FROM", "DELEGATED-TO", "DIR", "ENCODING",
+            "FMTTYPE", "LANGUAGE", "MEMBER", "PARTSTAT", "RANGE", "RELATED", "RELTYPE",
+            "ROLE", "RSVP", "SENT-BY", "TZID", "VALUE", "X-NUM-GUESTS",
+            // Properties kept by name
+            "X-WR-CALNAME", "X-WR-CALDESC", "X-WR-TIMEZONE", "X-MICROSOFT-CDO-BUSYSTATUS",
+            "X-MICROSOFT-CDO-IMPORTANCE", "X-APPLE-TRAVEL-ADVISORY-BEHAVIOR"
+    };
+
+    private static String[] sTable = new String[256];
+    private static int sSize;
+
+    static {
+        for (String name : KNOWN_NAMES) {
+            intern(name, 0, name.length());
+        }
+    }
+
+    private IcalendarNames() {
+    }
+
+    /**
+     * Returns the interned name equal to a part of a content line
+     */
+    static synchronized String intern(CharSequence s, int start, int end) {
+        int mask = sTable.length - 1;
+        int i = hash(s, start, end) & mask;
+        String name;
+        while ((name = sTable[i]) != null) {
+            if (regionEquals(name, s, start, end)) {
+                return name;
+            }
+            i = (i + 1) & mask;
+        }
+        name = s.subSequence(start, end).toString();
+        if (sSize >= MAX_NAMES) {
+            return name;
+        }
+        sTable[i] = name;
+        if (++sSize * 2 > sTable.length) {
+            rehash();
+        }
+        return name;
+    }
+
+    private static void rehash() {
+        String[] table = new String[sTable.length * 2];
+        int mask = table.length - 1;
+        for (String name : sTable) {
+            if (name != null) {
+                int i = hash(name, 0, name.length()) & mask;
+                while (table[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = name;
+            }
+        }
+        sTable = table;
+    }
+
+    private static int hash(CharSequence s, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + s.charAt(i);
+        }
+        // Spread the bits, the table only uses the low ones
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean regionEquals(String name, CharSequence s, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != s.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int hashIgnoreCase(CharSequence s, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + toUpperCase(s.charAt(i));
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    static boolean regionEqualsIgnoreCase(String name, CharSequence s, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (toUpperCase(name.charAt(i)) != toUpperCase(s.charAt(start + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Names are ASCII
+    private static char toUpperCase(char c) {
+        return c >= 'a' && c <= 'z' ? (char) (c - 'a' + 'A') : c;
+    }
+}
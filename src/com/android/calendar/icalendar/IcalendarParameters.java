@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.icalendar;
+
+/**
+ * The parameters of a property, e.g. the TZID of DTSTART;TZID=Europe/Berlin:20160101T100000,
+ * in the order of the content line. Names are interned, values are unquoted.
+ */
+public class IcalendarParameters {
+
+    // Names and values, alternating
+    private String[] mPairs;
+    private int mSize;
+
+    public IcalendarParameters() {
+        mPairs = new String[4];
+    }
+
+    /**
+     * Returns the number of parameters
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public String getName(int index) {
+        return mPairs[2 * index];
+    }
+
+    public String getValue(int index) {
+        return mPairs[2 * index + 1];
+    }
+
+    /**
+     * Returns the value of a parameter, ignoring the case of its name, or null
+     */
+    public String get(String name) {
+        for (int i = 0; i < 2 * mSize; i += 2) {
+            if (mPairs[i].equalsIgnoreCase(name)) {
+                return mPairs[i + 1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets a parameter, replacing a parameter with the same name
+     */
+    public void put(String name, String value) {
+        for (int i = 0; i < 2 * mSize; i += 2) {
+            if (mPairs[i].equalsIgnoreCase(name)) {
+                mPairs[i + 1] = value;
+                return;
+            }
+        }
+        add(IcalendarNames.intern(name, 0, name.length()), value);
+    }
+
+    private void add(String name, String value) {
+        if (2 * mSize == mPairs.length) {
+            String[] pairs = new String[2 * mPairs.length];
+            System.arraycopy(mPairs, 0, pairs, 0, mPairs.length);
+            mPairs = pairs;
+        }
+        mPairs[2 * mSize] = name;
+        mPairs[2 * mSize + 1] = value;
+        mSize++;
+    }
+
+    /**
+     * Appends the parameters as ;NAME=value, quoting values that need it
+     */
+    void appendTo(StringBuilder out) {
+        for (int i = 0; i < 2 * mSize; i += 2) {
+            out.append(';').append(mPairs[i]).append('=');
+            String value = mPairs[i + 1];
+            if (needsQuotes(value)) {
+                out.append('"').append(value).append('"');
+            } else {
+                out.append(value);
+            }
+        }
+    }
+
+    private static boolean needsQuotes(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ':' || c == ';' || c == ',') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the index of the colon that starts the value of a content line, skipping
+     * colons in quoted parameter values, or -1 if the line has no value
+     */
+    static int findValueStart(String line) {
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ':' && !quoted) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the end of the property name of a content line, the index of the first
+     * semicolon or colon
+     */
+    static int findNameEnd(String line) {
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == ';' || c == ':') {
+                return i;
+            }
+        }
+        return line.length();
+    }
+
+    /**
+     * Parses the parameters of a content line between the end of the property name and the
+     * value colon, e.g. ;TZID=Europe/Berlin;VALUE=DATE-TIME
+     *
+     * @return the parameters, or null if there are none
+     */
+    static IcalendarParameters parse(String line, int start, int end) {
+        IcalendarParameters parameters = null;
+        int i = start;
+        while (i < end) {
+            // Skip the semicolon
+            int nameStart = i + 1;
+            int nameEnd = nameStart;
+            while (nameEnd < end && line.charAt(nameEnd) != '=' && line.charAt(nameEnd) != ';') {
+                nameEnd++;
+            }
+            String value;
+            if (nameEnd < end && line.charAt(nameEnd) == '=') {
+                int valueStart = nameEnd + 1;
+                int valueEnd = valueStart;
+                boolean quoted = false;
+                while (valueEnd < end && (quoted || line.charAt(valueEnd) != ';')) {
+                    if (line.charAt(valueEnd) == '"') {
+                        quoted = !quoted;
+                    }
+                    valueEnd++;
+                }
+                i = valueEnd;
+                if (valueEnd - valueStart >= 2 && line.charAt(valueStart) == '"'
+                        && line.charAt(valueEnd - 1) == '"') {
+                    valueStart++;
+                    valueEnd--;
+                }
+                value = line.substring(valueStart, valueEnd);
+            } else {
+                // A parameter without a value isn't valid, keep it empty rather than fail
+                i = nameEnd;
+                value = "";
+            }
+            if (nameEnd > nameStart) {
+                if (parameters == null) {
+                    parameters = new IcalendarParameters();
+                }
+                parameters.add(IcalendarNames.intern(line, nameStart, nameEnd), value);
+            }
+        }
+        return parameters;
+    }
+}
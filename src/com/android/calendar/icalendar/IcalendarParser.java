@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.icalendar;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pull parser for iCalendar streams. Content lines are unfolded as they are read and
+ * events are returned one at a time by {@link #nextEvent()}, so only the event being
+ * parsed is held in memory, however large the calendar is. Splitting the stream into
+ * events and parsing them can also be done separately, with {@link #nextEventLines()}
+ * and {@link #parseEvent(List)}.
+ *
+ * The properties of the VCALENDAR component are collected in {@link #getCalendar()} as
+ * they are read, its events are not added to it.
+ *
+ * When reading from an {@link IcalendarByteReader}, e.g. over a memory mapped file, lines
+ * are decoded from UTF-8 one component at a time and components that are skipped, such as
+ * VTIMEZONE, are never decoded.
+ */
+public class IcalendarParser implements Closeable {
+
+    private static final String BEGIN = "BEGIN:";
+    private static final String END = "END:";
+    private static final String VCALENDAR = "VCALENDAR";
+    private static final String VEVENT = "VEVENT";
+    private static final String VALARM = "VALARM";
+    private static final String TRIGGER = "TRIGGER";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // One of them is set
+    private final BufferedReader mReader;
+    private final IcalendarByteReader mBytes;
+    private final VCalendar mCalendar = new VCalendar();
+    // Reused to unfold content lines
+    private final StringBuilder mUnfolded = new StringBuilder();
+    // The physical line read after the current content line, to detect folding
+    private String mLookahead;
+    private boolean mStarted;
+    private boolean mEnded;
+
+    public IcalendarParser(Reader reader) {
+        mReader = reader instanceof BufferedReader ? (BufferedReader) reader
+                : new BufferedReader(reader);
+        mBytes = null;
+    }
+
+    IcalendarParser(IcalendarByteReader bytes) {
+        mReader = null;
+        mBytes = bytes;
+    }
+
+    /**
+     * Returns the calendar with the properties read so far
+     */
+    public VCalendar getCalendar() {
+        return mCalendar;
+    }
+
+    /**
+     * Returns the next event of the calendar, or null once there are no more
+     */
+    public VEvent nextEvent() throws IOException {
+        ArrayList<String> lines = nextEventLines();
+        return lines != null ? parseEvent(lines) : null;
+    }
+
+    /**
+     * Returns the content lines of the next event of the calendar without parsing them,
+     * or null once there are no more. Alarms are kept, other nested components are
+     * dropped. The lines can be parsed with {@link #parseEvent(List)} on any thread.
+     */
+    public ArrayList<String> nextEventLines() throws IOException {
+        String line;
+        while (!mEnded && (line = nextLine()) != null) {
+            if (line.startsWith(BEGIN)) {
+                String component = line.substring(BEGIN.length());
+                if (VEVENT.equals(component)) {
+                    return readEventLines();
+                } else if (!VCALENDAR.equals(component)) {
+                    // e.g. VTIMEZONE or VTODO
+                    skipComponent(component);
+                }
+            } else if (line.startsWith(END + VCALENDAR)) {
+                mEnded = true;
+            } else {
+                mCalendar.addEntry(line);
+            }
+        }
+        return null;
+    }
+
+    private ArrayList<String> readEventLines() throws IOException {
+        ArrayList<String> lines = new ArrayList<String>();
+        String line;
+        while ((line = nextLine()) != null) {
+            if (line.startsWith(END + VEVENT)) {
+                break;
+            } else if (line.startsWith(BEGIN)) {
+                String component = line.substring(BEGIN.length());
+                if (VALARM.equals(component)) {
+                    lines.add(line);
+                    readAlarmLines(lines);
+                } else {
+                    skipComponent(component);
+                }
+            } else {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private void readAlarmLines(ArrayList<String> lines) throws IOException {
+        String line;
+        while ((line = nextLine()) != null) {
+            if (line.startsWith(END + VALARM)) {
+                lines.add(line);
+                break;
+            } else if (line.startsWith(TRIGGER)) {
+                lines.add(line);
+            }
+        }
+    }
+
+    /**
+     * Builds an event from the content lines returned by {@link #nextEventLines()}
+     */
+    public static VEvent parseEvent(List<String> lines) {
+        // Only keep a UID if the event has one, so it can be told apart on import
+        VEvent event = new VEvent(false);
+        boolean inAlarm = false;
+        for (String line : lines) {
+            if (inAlarm) {
+                if (line.startsWith(END + VALARM)) {
+                    inAlarm = false;
+                } else {
+                    event.addAlarmTrigger(line);
+                }
+            } else if (line.startsWith(BEGIN + VALARM)) {
+                inAlarm = true;
+            } else {
+                event.addEntry(line);
+            }
+        }
+        return event;
+    }
+
+    private void skipComponent(String component) throws IOException {
+        String end = END + component;
+        if (mBytes != null) {
+            // Find the end of the component without decoding its lines
+            byte[] endBytes = end.getBytes(UTF_8);
+            while (mBytes.hasLine() && !mBytes.startsWith(endBytes)) {
+                mBytes.next();
+            }
+            nextLine();
+            return;
+        }
+        String line;
+        while ((line = nextLine()) != null && !line.startsWith(end)) {
+            // Skip
+        }
+    }
+
+    /**
+     * Returns the next unfolded content line, or null at the end of the stream
+     */
+    public String nextLine() throws IOException {
+        if (mBytes != null) {
+            return nextByteLine();
+        }
+        String line = mLookahead != null ? mLookahead : mReader.readLine();
+        mLookahead = null;
+        if (line == null) {
+            return null;
+        }
+
+        boolean folded = false;
+        String next;
+        while ((next = mReader.readLine()) != null && isContinuation(next)) {
+            if (!folded) {
+                mUnfolded.setLength(0);
+                mUnfolded.append(line);
+                folded = true;
+            }
+            mUnfolded.append(next, 1, next.length());
+        }
+        mLookahead = next;
+        return folded ? mUnfolded.toString() : line;
+    }
+
+    /**
+     * Same as {@link #nextLine()} for a byte reader, whose current line is the lookahead
+     */
+    private String nextByteLine() throws IOException {
+        if (!mStarted) {
+            mStarted = true;
+            mBytes.next();
+        }
+        if (!mBytes.hasLine()) {
+            return null;
+        }
+
+        String line = mBytes.getLine();
+        boolean folded = false;
+        while (mBytes.next() && mBytes.isContinuation()) {
+            if (!folded) {
+                mUnfolded.setLength(0);
+                mUnfolded.append(line);
+                folded = true;
+            }
+            mBytes.appendLine(mUnfolded, 1);
+        }
+        return folded ? mUnfolded.toString() : line;
+    }
+
+    private static boolean isContinuation(String line) {
+        return line.length() > 0 && (line.charAt(0) == ' ' || line.charAt(0) == '\t');
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mBytes != null) {
+            mBytes.close();
+        } else {
+            mReader.close();
+        }
+    }
+}
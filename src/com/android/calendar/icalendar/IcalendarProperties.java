@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.icalendar;
+
+import java.util.ArrayList;
+
+/**
+ * The properties of a component. Properties with an {@link IcalendarProperty} are stored in
+ * an array indexed by it, other properties in a list by their interned name. Values are
+ * kept as they appear in the stream. Later occurrences of repeatable properties, such as
+ * EXDATE, are kept in their own list.
+ */
+class IcalendarProperties {
+
+    private final String[] mValues = new String[IcalendarProperty.COUNT];
+    // Allocated for the first property with parameters
+    private IcalendarParameters[] mParameters;
+
+    // Properties without an IcalendarProperty, rarely present
+    private ArrayList<String> mOtherNames;
+    private ArrayList<String> mOtherValues;
+    private ArrayList<IcalendarParameters> mOtherParameters;
+
+    // Second and later occurrences of repeatable properties, rarely present
+    private ArrayList<IcalendarProperty> mRepeatProperties;
+    private ArrayList<String> mRepeatValues;
+    private ArrayList<IcalendarParameters> mRepeatParameters;
+
+    String get(IcalendarProperty property) {
+        return mValues[property.ordinal()];
+    }
+
+    /**
+     * Returns the parameters of a property, or null if it has none
+     */
+    IcalendarParameters getParameters(IcalendarProperty property) {
+        return mParameters == null ? null : mParameters[property.ordinal()];
+    }
+
+    String getParameter(IcalendarProperty property, String name) {
+        IcalendarParameters parameters = getParameters(property);
+        return parameters == null ? null : parameters.get(name);
+    }
+
+    /**
+     * Returns the number of occurrences of a property, more than one only for repeatable
+     * properties
+     */
+    int count(IcalendarProperty property) {
+        if (get(property) == null) {
+            return 0;
+        }
+        int count = 1;
+        if (mRepeatProperties != null) {
+            for (int i = 0; i < mRepeatProperties.size(); i++) {
+                if (mRepeatProperties.get(i) == property) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the index in the repeat lists of an occurrence after the first one, or -1
+     */
+    private int indexOfRepeat(IcalendarProperty property, int occurrence) {
+        if (mRepeatProperties != null) {
+            for (int i = 0; i < mRepeatProperties.size(); i++) {
+                if (mRepeatProperties.get(i) == property && --occurrence == 0) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the value of an occurrence of a property, 0 being the first one, or null
+     */
+    String get(IcalendarProperty property, int occurrence) {
+        if (occurrence == 0) {
+            return get(property);
+        }
+        int index = indexOfRepeat(property, occurrence);
+        return index == -1 ? null : mRepeatValues.get(index);
+    }
+
+    String getParameter(IcalendarProperty property, int occurrence, String name) {
+        if (occurrence == 0) {
+            return getParameter(property, name);
+        }
+        int index = indexOfRepeat(property, occurrence);
+        IcalendarParameters parameters = index == -1 ? null : mRepeatParameters.get(index);
+        return parameters == null ? null : parameters.get(name);
+    }
+
+    /**
+     * Returns the value of a property by name, ignoring case, or null
+     */
+    String get(String name) {
+        IcalendarProperty property = IcalendarProperty.forName(name);
+        if (property != null) {
+            return get(property);
+        }
+        int index = indexOfOther(name);
+        return index == -1 ? null : mOtherValues.get(index);
+    }
+
+    /**
+     * Sets a property, replacing all its occurrences
+     */
+    void put(IcalendarProperty property, String value, IcalendarParameters parameters) {
+        if (mRepeatProperties != null) {
+            for (int i = mRepeatProperties.size() - 1; i >= 0; i--) {
+                if (mRepeatProperties.get(i) == property) {
+                    mRepeatProperties.remove(i);
+                    mRepeatValues.remove(i);
+                    mRepeatParameters.remove(i);
+                }
+            }
+        }
+        int index = property.ordinal();
+        mValues[index] = value;
+        if (parameters != null && mParameters == null) {
+            mParameters = new IcalendarParameters[IcalendarProperty.COUNT];
+        }
+        if (mParameters != null) {
+            mParameters[index] = parameters;
+        }
+    }
+
+    void remove(IcalendarProperty property) {
+        put(property, null, null);
+    }
+
+    private int indexOfOther(String name) {
+        if (mOtherNames != null) {
+            for (int i = 0; i < mOtherNames.size(); i++) {
+                if (mOtherNames.get(i).equalsIgnoreCase(name)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a property from an unfolded content line, NAME;PARAM=value:value. A later
+     * property with the same name replaces an earlier one, unless it is repeatable.
+     *
+     * @return false if the line is not a property
+     */
+    boolean addEntry(String line) {
+        int valueStart = IcalendarParameters.findValueStart(line);
+        int nameEnd = IcalendarParameters.findNameEnd(line);
+        if (valueStart == -1 || nameEnd == 0 || nameEnd > valueStart) {
+            return false;
+        }
+        IcalendarParameters parameters = IcalendarParameters.parse(line, nameEnd, valueStart);
+        String value = line.substring(valueStart + 1);
+        IcalendarProperty property = IcalendarProperty.forName(line, 0, nameEnd);
+        if (property != null) {
+            if (property.isRepeatable() && get(property) != null) {
+                if (mRepeatProperties == null) {
+                    mRepeatProperties = new ArrayList<IcalendarProperty>(2);
+                    mRepeatValues = new ArrayList<String>(2);
+                    mRepeatParameters = new ArrayList<IcalendarParameters>(2);
+                }
+                mRepeatProperties.add(property);
+                mRepeatValues.add(value);
+                mRepeatParameters.add(parameters);
+            } else {
+                put(property, value, parameters);
+            }
+            return true;
+        }
+        String name = IcalendarNames.intern(line, 0, nameEnd);
+        int index = indexOfOther(name);
+        if (index != -1) {
+            mOtherValues.set(index, value);
+            mOtherParameters.set(index, parameters);
+        } else {
+            if (mOtherNames == null) {
+                mOtherNames = new ArrayList<String>(2);
+                mOtherValues = new ArrayList<String>(2);
+                mOtherParameters = new ArrayList<IcalendarParameters>(2);
+            }
+            mOtherNames.add(name);
+            mOtherValues.add(value);
+            mOtherParameters.add(parameters);
+        }
+        return true;
+    }
+
+    /**
+     * Appends the properties as content lines, without folding them
+     */
+    void appendTo(StringBuilder out) {
+        for (IcalendarProperty property : IcalendarProperty.values()) {
+            String value = get(property);
+            if (value != null) {
+                appendLine(out, property.getName(), getParameters(property), value);
+            }
+        }
+        if (mRepeatProperties != null) {
+            for (int i = 0; i < mRepeatProperties.size(); i++) {
+                appendLine(out, mRepeatProperties.get(i).getName(), mRepeatParameters.get(i),
+                        mRepeatValues.get(i));
+            }
+        }
+        if (mOtherNames != null) {
+            for (int i = 0; i < mOtherNames.size(); i++) {
+                appendLine(out, mOtherNames.get(i), mOtherParameters.get(i),
+                        mOtherValues.get(i));
+            }
+        }
+    }
+
+    private static void appendLine(StringBuilder out, String name,
+            IcalendarParameters parameters, String value) {
+        out.append(name);
+        if (parameters != null) {
+            parameters.appendTo(out);
+        }
+        out.append(':').append(value).append('\n');
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.icalendar;
+
+/**
+ * The properties of calendar and event components that are stored in their own slot.
+ * Other properties are kept by name.
+ */
+public enum IcalendarProperty {
+    // VCALENDAR
+    VERSION,
+    PRODID,
+    CALSCALE,
+    METHOD,
+
+    // VEVENT
+    UID,
+    DTSTAMP,
+    DTSTART,
+    DTEND,
+    DURATION,
+    SUMMARY,
+    DESCRIPTION,
+    LOCATION,
+    ORGANIZER,
+    ATTENDEE,
+    CATEGORIES,
+    CLASS,
+    CREATED,
+    LAST_MODIFIED("LAST-MODIFIED"),
+    PRIORITY,
+    SEQUENCE,
+    STATUS,
+    TRANSP,
+    URL,
+    RRULE,
+    RDATE,
+    EXDATE,
+    RECURRENCE_ID("RECURRENCE-ID");
+
+    static final int COUNT = values().length;
+
+    // Open addressing table of the properties by the hash of their name
+    private static final IcalendarProperty[] sTable = new IcalendarProperty[64];
+
+    static {
+        for (IcalendarProperty property : values()) {
+            String name = property.mName;
+            int i = IcalendarNames.hashIgnoreCase(name, 0, name.length()) & (sTable.length - 1);
+            while (sTable[i] != null) {
+                i = (i + 1) & (sTable.length - 1);
+            }
+            sTable[i] = property;
+        }
+    }
+
+    private final String mName;
+
+    IcalendarProperty() {
+        mName = name();
+    }
+
+    IcalendarProperty(String name) {
+        mName = name;
+    }
+
+    /**
+     * Returns the name of the property in iCalendar streams
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Returns true if the property can appear more than once in a component, each time
+     * with a list of values, such as EXDATE
+     */
+    public boolean isRepeatable() {
+        return this == RDATE || this == EXDATE;
+    }
+
+    /**
+     * Returns the property with a name, ignoring case, or null if it has no slot
+     */
+    public static IcalendarProperty forName(CharSequence s, int start, int end) {
+        int i = IcalendarNames.hashIgnoreCase(s, start, end) & (sTable.length - 1);
+        IcalendarProperty property;
+        while ((property = sTable[i]) != null) {
+            if (IcalendarNames.regionEqualsIgnoreCase(property.mName, s, start, end)) {
+                return property;
+            }
+            i = (i + 1) & (sTable.length - 1);
+        }
+        return null;
+    }
+
+    public static IcalendarProperty forName(String name) {
+        return forName(name, 0, name.length());
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.icalendar;
+
+import java.io.IOException;
+
+/**
+ * The number of events of an iCalendar stream and the days they start on, e.g. to
+ * preview an import. It is read by {@link #scan(IcalendarByteReader)} from the bytes of
+ * the stream, without decoding lines or building events. Only DTSTART lines are
+ * unfolded, as their value may be folded onto the next line after a long TZID.
+ */
+public class IcalendarSummary {
+
+    private static final byte[] BEGIN = ascii("BEGIN:");
+    private static final byte[] END = ascii("END:");
+    private static final byte[] BEGIN_VEVENT = ascii("BEGIN:VEVENT");
+    private static final byte[] DTSTART = ascii("DTSTART");
+
+    private int mEventCount;
+    private int mFirstDay;
+    private int mLastDay;
+
+    private static byte[] ascii(String s) {
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) s.charAt(i);
+        }
+        return bytes;
+    }
+
+    public int getEventCount() {
+        return mEventCount;
+    }
+
+    /**
+     * Returns the first day an event starts on as yyyyMMdd, as written in the event's
+     * time zone, or 0 if no event has a start date
+     */
+    public int getFirstDay() {
+        return mFirstDay;
+    }
+
+    /**
+     * Returns the last day an event starts on as yyyyMMdd, or 0 if no event has a start
+     * date. Later occurrences of recurring events aren't taken into account.
+     */
+    public int getLastDay() {
+        return mLastDay;
+    }
+
+    private void addDay(int day) {
+        if (day == -1) {
+            return;
+        }
+        if (mFirstDay == 0 || day < mFirstDay) {
+            mFirstDay = day;
+        }
+        if (day > mLastDay) {
+            mLastDay = day;
+        }
+    }
+
+    /**
+     * Reads a stream to its end, counting its VEVENTs and the dates of their DTSTART
+     */
+    static IcalendarSummary scan(IcalendarByteReader reader) throws IOException {
+        IcalendarSummary summary = new IcalendarSummary();
+        // 0 outside of events, 1 in an event, more in components nested in it
+        int depth = 0;
+        // The unfolded DTSTART line being read, if its length isn't -1
+        byte[] start = new byte[128];
+        int startLength = -1;
+        while (reader.next()) {
+            if (startLength != -1) {
+                if (reader.isContinuation()) {
+                    start = append(start, startLength, reader, 1);
+                    startLength += reader.length() - 1;
+                    continue;
+                }
+                summary.addDay(parseDay(start, startLength, DTSTART.length));
+                startLength = -1;
+            }
+            if (depth == 0) {
+                if (reader.length() == BEGIN_VEVENT.length && reader.startsWith(BEGIN_VEVENT)) {
+                    summary.mEventCount++;
+                    depth = 1;
+                }
+            } else if (reader.startsWith(BEGIN)) {
+                depth++;
+            } else if (reader.startsWith(END)) {
+                depth--;
+            } else if (depth == 1 && isProperty(reader, DTSTART)) {
+                start = append(start, 0, reader, 0);
+                startLength = reader.length();
+            }
+        }
+        if (startLength != -1) {
+            summary.addDay(parseDay(start, startLength, DTSTART.length));
+        }
+        return summary;
+    }
+
+    /**
+     * Copies the current line from an offset to the end of the first length bytes of a
+     * buffer, growing it if needed
+     */
+    private static byte[] append(byte[] buffer, int length, IcalendarByteReader reader,
+            int offset) {
+        int count = reader.length() - offset;
+        if (length + count > buffer.length) {
+            byte[] grown = new byte[Math.max(length + count, 2 * buffer.length)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+        for (int i = 0; i < count; i++) {
+            buffer[length + i] = reader.byteAt(offset + i);
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns true if the current line is the property with an upper case name, ignoring
+     * case
+     */
+    private static boolean isProperty(IcalendarByteReader reader, byte[] name) {
+        if (reader.length() <= name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            byte b = reader.byteAt(i);
+            if (b != name[i] && b - ('a' - 'A') != name[i]) {
+                return false;
+            }
+        }
+        byte b = reader.byteAt(name.length);
+        return b == ':' || b == ';';
+    }
+
+    /**
+     * Returns the yyyyMMdd date a DATE or DATE-TIME value starts with, or -1 if there is
+     * none on the line
+     */
+    private static int parseDay(byte[] line, int length, int nameEnd) {
+        boolean quoted = false;
+        int i = nameEnd;
+        for (; i < length; i++) {
+            byte b = line[i];
+            if (b == '"') {
+                quoted = !quoted;
+            } else if (b == ':' && !quoted) {
+                break;
+            }
+        }
+        if (length - i <= 8) {
+            return -1;
+        }
+        int day = 0;
+        for (int j = i + 1; j <= i + 8; j++) {
+            int digit = line[j] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            day = 10 * day + digit;
+        }
+        return day;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.icalendar;
+
+import java.io.IOException;
+import java.util.TimeZone;
+
+/**
+ * Writes the VTIMEZONE component of a time zone, which every TZID used in a stream
+ * needs. The daylight saving rules of the zone in a given year are written as yearly
+ * rules from 1970, which is what most zones have followed for years. Readers that
+ * know the TZID use their own rules anyway.
+ */
+class IcalendarTimeZone {
+
+    static final String VTIMEZONE = "VTIMEZONE";
+    private static final String STANDARD = "STANDARD";
+    private static final String DAYLIGHT = "DAYLIGHT";
+
+    private static final long MINUTE = 60 * 1000;
+    private static final long DAY = 24 * 60 * MINUTE;
+    private static final int FIRST_YEAR = 1970;
+    private static final String[] WEEKDAYS = { "SU", "MO", "TU", "WE", "TH", "FR", "SA" };
+
+    private IcalendarTimeZone() {
+    }
+
+    /**
+     * Writes the VTIMEZONE of a time zone with its rules in the year of a time
+     */
+    static void write(IcalendarWriter writer, String timeZone, long now) throws IOException {
+        TimeZone zone = TimeZone.getTimeZone(timeZone);
+        int year = IcalendarDateTime.toYearMonthDay(IcalendarDateTime.floorDiv(now, DAY))
+                / 10000;
+        long yearStart = IcalendarDateTime.daysFromCivil(year, 1, 1) * DAY;
+        long yearEnd = IcalendarDateTime.daysFromCivil(year + 1, 1, 1) * DAY;
+
+        writer.begin(VTIMEZONE);
+        writer.writeProperty("TZID", timeZone);
+        int transitions = 0;
+        for (long day = yearStart; day < yearEnd; day += DAY) {
+            int from = zone.getOffset(day);
+            int to = zone.getOffset(day + DAY);
+            if (from != to) {
+                writeObservance(writer, findTransition(zone, day, from), from, to);
+                transitions++;
+            }
+        }
+        if (transitions == 0) {
+            // No daylight saving time
+            int offset = zone.getOffset(now);
+            writer.begin(STANDARD);
+            writer.writeProperty("DTSTART", FIRST_YEAR + "0101T000000");
+            writer.writeProperty("TZOFFSETFROM", formatOffset(offset));
+            writer.writeProperty("TZOFFSETTO", formatOffset(offset));
+            writer.end(STANDARD);
+        }
+        writer.end(VTIMEZONE);
+    }
+
+    /**
+     * Returns the first minute at which the offset of a zone is no longer from, in a day
+     * where it changes
+     */
+    private static long findTransition(TimeZone zone, long day, int from) {
+        long low = day;
+        long high = day + DAY;
+        while (high - low > MINUTE) {
+            long middle = low + (high - low) / 2 / MINUTE * MINUTE;
+            if (zone.getOffset(middle) == from) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * Writes a transition as a yearly rule on the same weekday of the month, e.g. the
+     * last Sunday of March, starting at the same local time in 1970
+     */
+    private static void writeObservance(IcalendarWriter writer, long transition, int from,
+            int to) throws IOException {
+        // Observances start in the local time before the transition
+        long local = transition + from;
+        long days = IcalendarDateTime.floorDiv(local, DAY);
+        int date = IcalendarDateTime.toYearMonthDay(days);
+        int month = date / 100 % 100;
+        int day = date % 100;
+        int weekday = weekday(days);
+        // The last week of the month is written as -1, e.g. the last Sunday
+        boolean last = day + 7 > daysInMonth(date / 10000, month);
+        int week = last ? -1 : (day - 1) / 7 + 1;
+
+        String component = to > from ? DAYLIGHT : STANDARD;
+        writer.begin(component);
+        StringBuilder start = new StringBuilder(15);
+        long firstDays = IcalendarDateTime.daysFromCivil(FIRST_YEAR, month,
+                dayOfWeek(FIRST_YEAR, month, week, weekday));
+        IcalendarDateTime.formatLocal(firstDays * DAY + (local - days * DAY),
+                IcalendarDateTime.UTC, start);
+        writer.writeProperty("DTSTART", start.toString());
+        writer.writeProperty("RRULE", "FREQ=YEARLY;BYMONTH=" + month + ";BYDAY=" + week
+                + WEEKDAYS[weekday]);
+        writer.writeProperty("TZOFFSETFROM", formatOffset(from));
+        writer.writeProperty("TZOFFSETTO", formatOffset(to));
+        writer.end(component);
+    }
+
+    /**
+     * Returns the day of the month of a weekday in a week of a month, -1 for the last
+     */
+    static int dayOfWeek(int year, int month, int week, int weekday) {
+        if (week == -1) {
+            int lastDay = daysInMonth(year, month);
+            int lastWeekday = weekday(IcalendarDateTime.daysFromCivil(year, month, lastDay));
+            return lastDay - (lastWeekday - weekday + 7) % 7;
+        }
+        int firstWeekday = weekday(IcalendarDateTime.daysFromCivil(year, month, 1));
+        return 1 + (weekday - firstWeekday + 7) % 7 + (week - 1) * 7;
+    }
+
+    /**
+     * Returns the weekday of the days since the epoch, 0 for Sunday
+     */
+    private static int weekday(long days) {
+        // The epoch was a Thursday
+        return (int) ((days % 7 + 11) % 7);
+    }
+
+    private static int daysInMonth(int year, int month) {
+        long first = IcalendarDateTime.daysFromCivil(year, month, 1);
+        long next = month == 12 ? IcalendarDateTime.daysFromCivil(year + 1, 1, 1)
+                : IcalendarDateTime.daysFromCivil(year, month + 1, 1);
+        return (int) (next - first);
+    }
+
+    /**
+     * Formats an offset from UTC as +hhmm or -hhmm
+     */
+    static String formatOffset(int offsetMillis) {
+        StringBuilder out = new StringBuilder(5);
+        out.append(offsetMillis < 0 ? '-' : '+');
+        int minutes = Math.abs(offsetMillis) / 60000;
+        out.append((char) ('0' + minutes / 600)).append((char) ('0' + minutes / 60 % 10));
+        out.append((char) ('0' + minutes % 60 / 10)).append((char) ('0' + minutes % 10));
+        return out.toString();
+    }
+}
@@ -24,19 +24,16 @@ import android.system.ErrnoException;
 import android.system.OsConstants;
 import com.android.calendar.CalendarEventModel;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.TimeZone;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * Helper functions to help adhere to the iCalendar format.
@@ -47,34 +44,22 @@ public class IcalendarUtils {
 
     public static String uncleanseString(CharSequence sequence) {
         if (sequence == null) return null;
-        String input = sequence.toString();
-
-        // reintroduce new lines with the literal '\n'
-        input = input.replaceAll("\\\\n", "\n");
-        // reintroduce semicolons and commas
-        input = input.replaceAll("\\\\;", ";");
-        input = input.replaceAll("\\\\\\,", ",");
-
-        return input;
+        StringBuilder output = new StringBuilder(sequence.length());
+        IcalendarEncoder.unescape(sequence, output);
+        return output.toString();
     }
 
     /**
      * Ensure the string conforms to the iCalendar encoding requirements
-     * Escape line breaks, commas and semicolons
+     * Escape line breaks, backslashes, commas and semicolons
      * @param sequence
      * @return
      */
     public static String cleanseString(CharSequence sequence) {
         if (sequence == null) return null;
-        String input = sequence.toString();
-
-        // Replace new lines with the literal '\n'
-        input = input.replaceAll("\\r|\\n|\\r\\n", "\\\\n");
-        // Escape semicolons and commas
-        input = input.replace(";", "\\;");
-        input = input.replace(",", "\\,");
-
-        return input;
+        StringBuilder output = new StringBuilder(sequence.length() + 16);
+        IcalendarEncoder.escape(sequence, output);
+        return output.toString();
     }
 
     /**
@@ -130,16 +115,96 @@ public class IcalendarUtils {
     }
 
     public static VCalendar readCalendarFromFile(Context context, Uri uri) {
-        ArrayList<String> contents = getStringArrayFromFile(context, uri);
-        if (contents == null || contents.isEmpty()) {
+        IcalendarParser parser = openCalendarParser(context, uri);
+        if (parser == null) {
+            return null;
+        }
+        try {
+            VEvent event;
+            while ((event = parser.nextEvent()) != null) {
+                parser.getCalendar().addEvent(event);
+            }
+            return parser.getCalendar();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            try {
+                parser.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    /**
+     * Returns a parser streaming the events of an iCalendar file, or null if it can't be
+     * opened. The caller closes the parser.
+     */
+    public static IcalendarParser openCalendarParser(Context context, Uri uri) {
+        IcalendarByteReader reader = openByteReader(context, uri);
+        return reader != null ? new IcalendarParser(reader) : null;
+    }
+
+    /**
+     * Counts the events of a local iCalendar file and the days they start on without
+     * parsing them, or returns null if it can't be read. Files from content providers
+     * aren't scanned, as reading their stream twice costs about as much as importing it.
+     */
+    public static IcalendarSummary scanCalendar(Uri uri) {
+        if (!ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+            return null;
+        }
+        ByteBuffer buffer = mapFile(new File(uri.getPath()));
+        if (buffer == null) {
+            return null;
+        }
+        try {
+            return IcalendarSummary.scan(new IcalendarByteReader(buffer));
+        } catch (IOException e) {
+            e.printStackTrace();
             return null;
         }
-        VCalendar calendar = new VCalendar();
-        calendar.populateFromString(contents);
-        return calendar;
     }
 
-    public static ArrayList<String> getStringArrayFromFile(Context context, Uri uri) {
+    /**
+     * Maps local files into memory, other files are streamed
+     */
+    private static IcalendarByteReader openByteReader(Context context, Uri uri) {
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+            ByteBuffer buffer = mapFile(new File(uri.getPath()));
+            if (buffer != null) {
+                return new IcalendarByteReader(buffer);
+            }
+        }
+        InputStream inputStream = openInputStream(context, uri);
+        return inputStream != null ? new IcalendarByteReader(inputStream) : null;
+    }
+
+    private static ByteBuffer mapFile(File file) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            long length = raf.length();
+            if (length > Integer.MAX_VALUE) {
+                return null;
+            }
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    // The mapping stays valid after the channel is closed
+                    raf.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    private static InputStream openInputStream(Context context, Uri uri) {
         String scheme = uri.getScheme();
         InputStream inputStream = null;
         if(ContentResolver.SCHEME_CONTENT.equals(scheme)) {
@@ -156,25 +221,7 @@ public class IcalendarUtils {
                 e.printStackTrace();
             }
         }
-
-        if (inputStream == null) {
-            return null;
-        }
-
-        ArrayList<String> result = new ArrayList<String>();
-
-        try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                result.add(line);
-            }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return result;
+        return inputStream;
     }
 
     /**
@@ -208,37 +255,16 @@ public class IcalendarUtils {
      * @return
      */
     public static StringBuilder enforceICalLineLength(StringBuilder input) {
-        final int sPermittedLineLength = 75; // Line length mandated by iCalendar format
-
         if (input == null) return null;
-        StringBuilder output = new StringBuilder();
-        int length = input.length();
 
-        // Bail if no work needs to be done
-        if (length <= sPermittedLineLength) {
+        // Bail if no work needs to be done, no line can be longer than this in UTF-8
+        int length = input.length();
+        if (length <= IcalendarEncoder.MAX_LINE_OCTETS / 4) {
             return input;
         }
 
-        for (int i = 0, currentLineLength = 0; i < length; i++) {
-            char currentChar = input.charAt(i);
-            if (currentChar == '\n') {          // New line encountered
-                output.append(currentChar);
-                currentLineLength = 0;          // Reset char counter
-
-            } else if (currentChar != '\n' && currentLineLength <= sPermittedLineLength) {
-                // A non-newline char that can be part of the current line
-                output.append(currentChar);
-                currentLineLength++;
-
-            } else if (currentLineLength > sPermittedLineLength) {
-                // Need to branch out to a new line
-                // Add a new line and a space - iCal requirement
-                output.append("\n ");
-                output.append(currentChar);
-                currentLineLength = 2;          // Already has 2 chars: space and currentChar
-            }
-        }
-
+        StringBuilder output = new StringBuilder(length + length / 32);
+        IcalendarEncoder.foldLines(input, output);
         return output;
     }
 
@@ -286,20 +312,8 @@ public class IcalendarUtils {
     public static String getICalFormattedDateTime(long millis, String timeZone) {
         if (millis < 0) return null;
 
-        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone(timeZone));
-        calendar.setTimeInMillis(millis);
-
-        SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyyMMddHHmmss");
-        simpleDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-        String dateTime = simpleDateFormat.format(calendar.getTime());
-        StringBuilder output = new StringBuilder(16);
-
-        // iCal UTC date format: <yyyyMMdd>T<HHmmss>Z
-        return output.append(dateTime.subSequence(0,8))
-                .append("T")
-                .append(dateTime.substring(8))
-                .append("Z")
-                .toString();
+        // The time zone doesn't matter, epoch time is the same instant everywhere
+        return IcalendarDateTime.formatUtc(millis);
     }
 
     /**
@@ -311,8 +325,8 @@ public class IcalendarUtils {
     public static long convertTimeToUtc(long millis, String localTimeZone) {
         if (millis < 0) return 0;
 
-        // Remove the local time zone's UTC offset
-        return millis - TimeZone.getTimeZone(localTimeZone).getRawOffset();
+        // Remove the local time zone's UTC offset at that time
+        return IcalendarDateTime.toUtc(millis, localTimeZone);
     }
 
     /**
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.icalendar;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes iCalendar content lines to a stream, escaping and folding them as they are
+ * written, so components never have to be built in memory.
+ */
+public class IcalendarWriter implements Closeable, Flushable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Writer mWriter;
+    // The content line being written, reused
+    private final StringBuilder mLine = new StringBuilder();
+    private char[] mChars = new char[IcalendarEncoder.MAX_LINE_OCTETS];
+
+    public IcalendarWriter(Writer writer) {
+        mWriter = writer instanceof BufferedWriter ? writer
+                : new BufferedWriter(writer, BUFFER_SIZE);
+    }
+
+    public void begin(String component) throws IOException {
+        writeProperty("BEGIN", component);
+    }
+
+    public void end(String component) throws IOException {
+        writeProperty("END", component);
+    }
+
+    /**
+     * Writes a property with a value that is already encoded, does nothing if the
+     * value is null
+     */
+    public void writeProperty(String name, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        mLine.setLength(0);
+        mLine.append(name).append(':').append(value);
+        writeLine();
+    }
+
+    /**
+     * Writes a property with a text value, escaping it, does nothing if the value is
+     * null
+     */
+    public void writeText(String name, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        mLine.setLength(0);
+        mLine.append(name).append(':');
+        IcalendarEncoder.escape(value, mLine);
+        writeLine();
+    }
+
+    /**
+     * Writes a property with a UTC DATE-TIME value, or a DATE value if date is true
+     */
+    public void writeDateTime(String name, long millis, boolean date) throws IOException {
+        mLine.setLength(0);
+        mLine.append(name);
+        if (date) {
+            mLine.append(";VALUE=DATE:");
+            IcalendarDateTime.formatDate(millis, mLine);
+        } else {
+            mLine.append(':');
+            IcalendarDateTime.formatUtc(millis, mLine);
+        }
+        writeLine();
+    }
+
+    /**
+     * Writes a property with a list of DATE values if date is true, else DATE-TIME values
+     * in the local time of a time zone with its TZID, or in UTC if the time zone is null
+     */
+    public void writeDateTimes(String name, long[] millis, boolean date, String timeZone)
+            throws IOException {
+        mLine.setLength(0);
+        mLine.append(name);
+        boolean local = !date && timeZone != null && !IcalendarDateTime.UTC.equals(timeZone);
+        if (date) {
+            mLine.append(";VALUE=DATE");
+        } else if (local) {
+            mLine.append(";TZID=").append(timeZone);
+        }
+        mLine.append(':');
+        for (int i = 0; i < millis.length; i++) {
+            if (i > 0) {
+                mLine.append(',');
+            }
+            if (date) {
+                IcalendarDateTime.formatDate(millis[i], mLine);
+            } else if (local) {
+                IcalendarDateTime.formatLocal(millis[i], timeZone, mLine);
+            } else {
+                IcalendarDateTime.formatUtc(millis[i], mLine);
+            }
+        }
+        writeLine();
+    }
+
+    public void writeProperty(IcalendarProperty property, String value) throws IOException {
+        writeProperty(property.getName(), value);
+    }
+
+    public void writeText(IcalendarProperty property, String value) throws IOException {
+        writeText(property.getName(), value);
+    }
+
+    public void writeDateTime(IcalendarProperty property, long millis, boolean date)
+            throws IOException {
+        writeDateTime(property.getName(), millis, date);
+    }
+
+    public void writeDateTimes(IcalendarProperty property, long[] millis, boolean date,
+            String timeZone) throws IOException {
+        writeDateTimes(property.getName(), millis, date, timeZone);
+    }
+
+    /**
+     * Writes mLine, folded at {@link IcalendarEncoder#MAX_LINE_OCTETS}
+     */
+    private void writeLine() throws IOException {
+        int length = mLine.length();
+        int start = 0;
+        int octets = IcalendarEncoder.MAX_LINE_OCTETS;
+        while (true) {
+            int end = IcalendarEncoder.fitOctets(mLine, start, length, octets);
+            int count = end - start;
+            mLine.getChars(start, end, mChars, 0);
+            mWriter.write(mChars, 0, count);
+            if (end >= length) {
+                break;
+            }
+            // Continuation lines start with a space
+            mWriter.write("\n ");
+            start = end;
+            octets = IcalendarEncoder.MAX_LINE_OCTETS - 1;
+        }
+        mWriter.write('\n');
+    }
+
+    @Override
+    public void flush() throws IOException {
+        mWriter.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mWriter.close();
+    }
+}
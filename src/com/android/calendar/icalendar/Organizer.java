@@ -22,6 +22,8 @@ package com.android.calendar.icalendar;
  */
 public class Organizer {
 
+    private static final String MAILTO = "mailto:";
+
     public String mName;
     public String mEmail;
 
@@ -52,11 +54,19 @@ public class Organizer {
     }
 
     public static Organizer populateFromICalString(String iCalFormattedString) {
-        // TODO: Add sanity checks
-        String[] organizer = iCalFormattedString.split(";");
-        String[] entries = organizer[1].split(":");
-        String name = entries[0].replace("CN=", "");
-        String email = entries[1].replace("mailto=", "");
+        // ORGANIZER;CN=<name>:mailto:<email>, the name and the parameters are optional
+        int valueStart = IcalendarParameters.findValueStart(iCalFormattedString);
+        if (valueStart == -1) {
+            return new Organizer(null, null);
+        }
+        IcalendarParameters parameters = IcalendarParameters.parse(iCalFormattedString,
+                IcalendarParameters.findNameEnd(iCalFormattedString), valueStart);
+        String name = parameters != null ? parameters.get(Attendee.CN) : null;
+        String email = null;
+        if (iCalFormattedString.regionMatches(true, valueStart + 1, MAILTO, 0,
+                MAILTO.length())) {
+            email = iCalFormattedString.substring(valueStart + 1 + MAILTO.length());
+        }
         return new Organizer(name, email);
     }
 }
@@ -0,0 +1,744 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.icalendar;
+
+import android.text.TextUtils;
+
+import com.android.calendarcommon2.EventRecurrence;
+import com.android.calendarcommon2.RecurrenceSet;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Expands the RRULE, RDATE, EXRULE and EXDATE of an event into the start times of its
+ * occurrences, without the Instances table of the provider.
+ *
+ * Occurrences are computed lazily and in order, one period of each rule at a time
+ * (a year of a YEARLY rule, a week of a WEEKLY rule, ...), so iterating a range doesn't
+ * compute the occurrences after it, nor the ones before it unless a COUNT needs them.
+ * Rules are expanded in the local time of the event and converted to UTC per occurrence.
+ * DTSTART is always the first occurrence, as RFC 5545 has it.
+ */
+public class RecurrenceExpander {
+
+    private static final long SECOND = 1000;
+    private static final long DAY = 24 * 60 * 60 * SECOND;
+    private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+
+    // Rules are not expanded past this year
+    private static final int MAX_YEAR = 9999;
+    private static final long MAX_LOCAL = IcalendarDateTime.daysFromCivil(MAX_YEAR + 1, 1, 1)
+            * DAY;
+
+    private static final EventRecurrence[] NO_RULES = new EventRecurrence[0];
+    private static final long[] NO_DATES = new long[0];
+
+    private final long mStart;
+    private final long mStartLocal;
+    private final String mTimeZone;
+    private final EventRecurrence[] mRules;
+    private final EventRecurrence[] mExceptionRules;
+    private final long[] mDates;
+    private final long[] mExceptionDates;
+
+    /**
+     * @param set the rules and dates of the event
+     * @param start the DTSTART of the event, in UTC millis
+     * @param timeZone the time zone the rules are expanded in
+     * @param allDay whether the event is all-day, its rules are then expanded in UTC
+     */
+    public RecurrenceExpander(RecurrenceSet set, long start, String timeZone, boolean allDay) {
+        mStart = start;
+        mTimeZone = allDay || timeZone == null ? IcalendarDateTime.UTC : timeZone;
+        mStartLocal = IcalendarDateTime.toLocal(start, mTimeZone);
+        mRules = set.rrules != null ? set.rrules : NO_RULES;
+        mExceptionRules = set.exrules != null ? set.exrules : NO_RULES;
+        mDates = sortedCopy(set.rdates);
+        mExceptionDates = sortedCopy(set.exdates);
+    }
+
+    /**
+     * Creates an expander from the RRULE, RDATE, EXRULE and EXDATE columns of an event
+     *
+     * @throws EventRecurrence.InvalidFormatException if a rule or a date is malformed
+     */
+    public static RecurrenceExpander create(String rrule, String rdate, String exrule,
+            String exdate, long start, String timeZone, boolean allDay) {
+        return new RecurrenceExpander(new RecurrenceSet(rrule, rdate, exrule, exdate), start,
+                timeZone, allDay);
+    }
+
+    private static long[] sortedCopy(long[] dates) {
+        if (dates == null || dates.length == 0) {
+            return NO_DATES;
+        }
+        long[] copy = dates.clone();
+        Arrays.sort(copy);
+        return copy;
+    }
+
+    /**
+     * Returns the occurrences starting in [rangeStart, rangeEnd), in UTC millis
+     */
+    public Occurrences expand(long rangeStart, long rangeEnd) {
+        return new Occurrences(rangeStart, rangeEnd);
+    }
+
+    /**
+     * Returns the number of occurrences starting in [rangeStart, rangeEnd)
+     */
+    public int count(long rangeStart, long rangeEnd) {
+        Occurrences occurrences = expand(rangeStart, rangeEnd);
+        int count = 0;
+        while (occurrences.hasNext()) {
+            occurrences.next();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Iterates occurrences in order, without allocating per occurrence
+     */
+    public class Occurrences {
+        private final long mRangeStart;
+        private final long mRangeEnd;
+        private final RuleIterator[] mRuleIterators;
+        private final RuleIterator[] mExceptionIterators;
+        private int mDateIndex;
+        private int mExceptionDateIndex;
+        private boolean mStartPending = true;
+        private boolean mHasNext;
+        private long mNext;
+
+        Occurrences(long rangeStart, long rangeEnd) {
+            mRangeStart = rangeStart;
+            mRangeEnd = rangeEnd;
+            // A period can't have occurrences before its start, so the rules stop a day
+            // after the range, leaving room for any UTC offset
+            long limit = rangeEnd >= MAX_LOCAL ? MAX_LOCAL
+                    : IcalendarDateTime.toLocal(rangeEnd, mTimeZone) + DAY;
+            long seek = rangeStart > mStart && rangeStart < MAX_LOCAL
+                    ? IcalendarDateTime.toLocal(rangeStart, mTimeZone) - DAY : Long.MIN_VALUE;
+            mRuleIterators = new RuleIterator[mRules.length];
+            for (int i = 0; i < mRules.length; i++) {
+                mRuleIterators[i] = new RuleIterator(mRules[i], true, limit, seek);
+            }
+            mExceptionIterators = new RuleIterator[mExceptionRules.length];
+            for (int i = 0; i < mExceptionRules.length; i++) {
+                mExceptionIterators[i] = new RuleIterator(mExceptionRules[i], false, limit,
+                        seek);
+            }
+            advance();
+        }
+
+        public boolean hasNext() {
+            return mHasNext;
+        }
+
+        /**
+         * Returns the start of the next occurrence, in UTC millis
+         */
+        public long next() {
+            if (!mHasNext) {
+                throw new NoSuchElementException();
+            }
+            long next = mNext;
+            advance();
+            return next;
+        }
+
+        private void advance() {
+            while (true) {
+                long next = mStartPending ? mStart : Long.MAX_VALUE;
+                for (RuleIterator iterator : mRuleIterators) {
+                    next = Math.min(next, iterator.peek());
+                }
+                if (mDateIndex < mDates.length) {
+                    next = Math.min(next, mDates[mDateIndex]);
+                }
+                if (next == Long.MAX_VALUE || next >= mRangeEnd) {
+                    mHasNext = false;
+                    return;
+                }
+
+                // Take the occurrence from every source that has it
+                if (next == mStart) {
+                    mStartPending = false;
+                }
+                for (RuleIterator iterator : mRuleIterators) {
+                    while (iterator.peek() == next) {
+                        iterator.advance();
+                    }
+                }
+                while (mDateIndex < mDates.length && mDates[mDateIndex] == next) {
+                    mDateIndex++;
+                }
+                if (next >= mRangeStart && !isException(next)) {
+                    mNext = next;
+                    mHasNext = true;
+                    return;
+                }
+            }
+        }
+
+        private boolean isException(long time) {
+            while (mExceptionDateIndex < mExceptionDates.length
+                    && mExceptionDates[mExceptionDateIndex] < time) {
+                mExceptionDateIndex++;
+            }
+            if (mExceptionDateIndex < mExceptionDates.length
+                    && mExceptionDates[mExceptionDateIndex] == time) {
+                return true;
+            }
+            for (RuleIterator iterator : mExceptionIterators) {
+                while (iterator.peek() < time) {
+                    iterator.advance();
+                }
+                if (iterator.peek() == time) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Iterates the occurrences of one rule. Local times skipped by a daylight saving
+     * change are moved forward, so the UTC times of an HOURLY or finer rule may repeat
+     * or go back around one; the merge drops the repeats.
+     */
+    private class RuleIterator {
+        private final int mFreq;
+        private final int mInterval;
+        private final int mWeekStart;
+        private final int mCount;
+        private final long mUntilUtc;
+        private final long mUntilLocal;
+        private final long mLimit;
+        // Whether DTSTART is the first occurrence, it isn't for exception rules
+        private final boolean mCountsStart;
+
+        // Filters and expansions, null when the rule doesn't have them
+        private final int[] mByMonth;
+        private final int[] mByWeekNo;
+        private final int[] mByYearDay;
+        private final int[] mByMonthDay;
+        private final int[] mByDay;
+        private final int[] mByDayNum;
+        private final int[] mByHour;
+        private final int[] mByMinute;
+        private final int[] mBySecond;
+        private final int[] mBySetPos;
+        // Times of day of the occurrences, for the units coarser than the frequency
+        private final int[] mHours;
+        private final int[] mMinutes;
+        private final int[] mSeconds;
+
+        // The current period: its year and month, or its first day, and for rules finer
+        // than DAILY its second of the day
+        private int mYear;
+        private int mMonth;
+        private long mDay;
+        private int mSecond;
+
+        // The local times of the current period
+        private long[] mCandidates = new long[16];
+        private int mCandidateCount;
+        private int mCandidateIndex;
+
+        private int mEmitted;
+        private long mHead;
+        private boolean mDone;
+
+        RuleIterator(EventRecurrence rule, boolean countsStart, long limit, long seek) {
+            mFreq = rule.freq;
+            mInterval = Math.max(1, rule.interval);
+            mWeekStart = rule.wkst != 0 ? EventRecurrence.day2TimeDay(rule.wkst) : 1;
+            mCount = rule.count;
+            mCountsStart = countsStart;
+            mEmitted = countsStart ? 1 : 0;
+            mLimit = limit;
+
+            long until = Long.MAX_VALUE;
+            long untilLocal = Long.MAX_VALUE;
+            if (!TextUtils.isEmpty(rule.until)) {
+                if (IcalendarDateTime.isDate(rule.until)) {
+                    // The whole day is included
+                    untilLocal = IcalendarDateTime.parse(rule.until, IcalendarDateTime.UTC)
+                            + DAY - 1;
+                } else if (rule.until.endsWith("Z")) {
+                    until = IcalendarDateTime.parse(rule.until, null);
+                } else {
+                    untilLocal = IcalendarDateTime.parse(rule.until, IcalendarDateTime.UTC);
+                }
+            }
+            mUntilUtc = until;
+            mUntilLocal = untilLocal;
+
+            long startDay = IcalendarDateTime.floorDiv(mStartLocal, DAY);
+            int startSecond = (int) ((mStartLocal - startDay * DAY) / SECOND);
+            int startDate = IcalendarDateTime.toYearMonthDay(startDay);
+
+            int[] byMonth = sorted(rule.bymonth, rule.bymonthCount);
+            int[] byMonthDay = sorted(rule.bymonthday, rule.bymonthdayCount);
+            mByWeekNo = sorted(rule.byweekno, rule.byweeknoCount);
+            mByYearDay = sorted(rule.byyearday, rule.byyeardayCount);
+            int[] byDay = null;
+            int[] byDayNum = null;
+            if (rule.bydayCount > 0) {
+                byDay = new int[rule.bydayCount];
+                byDayNum = new int[rule.bydayCount];
+                for (int i = 0; i < rule.bydayCount; i++) {
+                    byDay[i] = EventRecurrence.day2TimeDay(rule.byday[i]);
+                    byDayNum[i] = rule.bydayNum != null ? rule.bydayNum[i] : 0;
+                }
+            }
+            // Without a day rule part, the days follow DTSTART
+            if (mByWeekNo == null && mByYearDay == null && byMonthDay == null
+                    && byDay == null) {
+                if (mFreq == EventRecurrence.YEARLY) {
+                    if (byMonth == null) {
+                        byMonth = new int[] { startDate / 100 % 100 };
+                    }
+                    byMonthDay = new int[] { startDate % 100 };
+                } else if (mFreq == EventRecurrence.MONTHLY) {
+                    byMonthDay = new int[] { startDate % 100 };
+                } else if (mFreq == EventRecurrence.WEEKLY) {
+                    byDay = new int[] { weekDay(startDay) };
+                    byDayNum = new int[] { 0 };
+                }
+            }
+            mByMonth = byMonth;
+            mByMonthDay = byMonthDay;
+            mByDay = byDay;
+            mByDayNum = byDayNum;
+            mByHour = sorted(rule.byhour, rule.byhourCount);
+            mByMinute = sorted(rule.byminute, rule.byminuteCount);
+            mBySecond = sorted(rule.bysecond, rule.bysecondCount);
+            mBySetPos = rule.bysetposCount > 0
+                    ? Arrays.copyOf(rule.bysetpos, rule.bysetposCount) : null;
+            mHours = mByHour != null ? mByHour : new int[] { startSecond / 3600 };
+            mMinutes = mByMinute != null ? mByMinute : new int[] { startSecond / 60 % 60 };
+            mSeconds = mBySecond != null ? mBySecond : new int[] { startSecond % 60 };
+
+            mYear = startDate / 10000;
+            mMonth = startDate / 100 % 100;
+            mDay = mFreq == EventRecurrence.WEEKLY
+                    ? startDay - floorMod(weekDay(startDay) - mWeekStart, 7) : startDay;
+            mSecond = startSecond;
+            if (mCount == 0 && seek > mStartLocal) {
+                seek(seek);
+            }
+            fill();
+        }
+
+        /**
+         * Returns the UTC time of the next occurrence, or Long.MAX_VALUE if there is none
+         */
+        long peek() {
+            return mDone ? Long.MAX_VALUE : mHead;
+        }
+
+        void advance() {
+            if (!mDone) {
+                fill();
+            }
+        }
+
+        /**
+         * Skips to the last period starting before a local time, without computing the
+         * periods in between
+         */
+        private void seek(long local) {
+            long day = IcalendarDateTime.floorDiv(local, DAY);
+            int date = IcalendarDateTime.toYearMonthDay(day);
+            switch (mFreq) {
+                case EventRecurrence.YEARLY:
+                    mYear += (date / 10000 - mYear) / mInterval * mInterval;
+                    break;
+                case EventRecurrence.MONTHLY:
+                    int months = (date / 10000 - mYear) * 12 + date / 100 % 100 - mMonth;
+                    months = months / mInterval * mInterval;
+                    mYear += (mMonth - 1 + months) / 12;
+                    mMonth = (mMonth - 1 + months) % 12 + 1;
+                    break;
+                case EventRecurrence.WEEKLY:
+                    mDay += (day - mDay) / (7 * mInterval) * 7 * mInterval;
+                    break;
+                case EventRecurrence.DAILY:
+                    mDay += (day - mDay) / mInterval * mInterval;
+                    break;
+                default:
+                    long step = (long) getUnitSeconds() * mInterval;
+                    long first = mDay * SECONDS_PER_DAY + mSecond;
+                    long second = first + (local / SECOND - first) / step * step;
+                    mDay = IcalendarDateTime.floorDiv(second, SECONDS_PER_DAY);
+                    mSecond = (int) (second - mDay * SECONDS_PER_DAY);
+                    break;
+            }
+        }
+
+        /**
+         * Moves mHead to the next occurrence, computing periods as needed
+         */
+        private void fill() {
+            while (true) {
+                while (mCandidateIndex < mCandidateCount) {
+                    long local = mCandidates[mCandidateIndex++];
+                    if (local < mStartLocal || (mCountsStart && local == mStartLocal)) {
+                        continue;
+                    }
+                    if (local > mUntilLocal || (mCount > 0 && mEmitted >= mCount)) {
+                        mDone = true;
+                        return;
+                    }
+                    long utc = IcalendarDateTime.toUtc(local, mTimeZone);
+                    if (utc > mUntilUtc) {
+                        mDone = true;
+                        return;
+                    }
+                    mEmitted++;
+                    mHead = utc;
+                    return;
+                }
+                if (!nextPeriod()) {
+                    mDone = true;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Computes the candidates of the current period and moves to the next one
+         *
+         * @return false if the period starts past the limit
+         */
+        private boolean nextPeriod() {
+            mCandidateCount = 0;
+            mCandidateIndex = 0;
+            switch (mFreq) {
+                case EventRecurrence.YEARLY: {
+                    long first = IcalendarDateTime.daysFromCivil(mYear, 1, 1);
+                    if (first * DAY > mLimit) {
+                        return false;
+                    }
+                    addDays(first, IcalendarDateTime.daysFromCivil(mYear + 1, 1, 1));
+                    mYear += mInterval;
+                    break;
+                }
+                case EventRecurrence.MONTHLY: {
+                    long first = IcalendarDateTime.daysFromCivil(mYear, mMonth, 1);
+                    if (first * DAY > mLimit) {
+                        return false;
+                    }
+                    addDays(first, first + daysInMonth(mYear, mMonth));
+                    mYear += (mMonth - 1 + mInterval) / 12;
+                    mMonth = (mMonth - 1 + mInterval) % 12 + 1;
+                    break;
+                }
+                case EventRecurrence.WEEKLY:
+                case EventRecurrence.DAILY: {
+                    if (mDay * DAY > mLimit) {
+                        return false;
+                    }
+                    int days = mFreq == EventRecurrence.WEEKLY ? 7 : 1;
+                    addDays(mDay, mDay + days);
+                    mDay += days * mInterval;
+                    break;
+                }
+                case EventRecurrence.HOURLY:
+                case EventRecurrence.MINUTELY:
+                case EventRecurrence.SECONDLY: {
+                    if (mDay * DAY + mSecond * SECOND > mLimit) {
+                        return false;
+                    }
+                    int step = getUnitSeconds() * mInterval;
+                    int date = IcalendarDateTime.toYearMonthDay(mDay);
+                    int steps = 1;
+                    if (matchesDay(mDay, date / 10000, date / 100 % 100, date % 100)) {
+                        addTimes(mDay, mSecond);
+                    } else {
+                        // Skip to the first period of the next day
+                        steps = (SECONDS_PER_DAY - mSecond + step - 1) / step;
+                    }
+                    long second = mSecond + (long) steps * step;
+                    mDay += second / SECONDS_PER_DAY;
+                    mSecond = (int) (second % SECONDS_PER_DAY);
+                    break;
+                }
+                default:
+                    return false;
+            }
+            if (mBySetPos != null) {
+                selectSetPositions();
+            }
+            return true;
+        }
+
+        private int getUnitSeconds() {
+            switch (mFreq) {
+                case EventRecurrence.HOURLY:
+                    return 3600;
+                case EventRecurrence.MINUTELY:
+                    return 60;
+                default:
+                    return 1;
+            }
+        }
+
+        /**
+         * Adds the candidates of the days in [first, end)
+         */
+        private void addDays(long first, long end) {
+            int date = IcalendarDateTime.toYearMonthDay(first);
+            int year = date / 10000;
+            int month = date / 100 % 100;
+            int dayOfMonth = date % 100;
+            int monthDays = daysInMonth(year, month);
+            for (long day = first; day < end; day++) {
+                if (matchesDay(day, year, month, dayOfMonth)) {
+                    addTimes(day, 0);
+                }
+                if (++dayOfMonth > monthDays) {
+                    dayOfMonth = 1;
+                    if (++month > 12) {
+                        month = 1;
+                        year++;
+                    }
+                    monthDays = daysInMonth(year, month);
+                }
+            }
+        }
+
+        /**
+         * Adds the candidates of a day, for rules finer than DAILY the ones of the period
+         * starting at a second of the day
+         */
+        private void addTimes(long day, int second) {
+            int hour = second / 3600;
+            int minute = second / 60 % 60;
+            second %= 60;
+            long base = day * DAY;
+            switch (mFreq) {
+                case EventRecurrence.SECONDLY:
+                    if (contains(mByHour, hour) && contains(mByMinute, minute)
+                            && contains(mBySecond, second)) {
+                        add(base + ((hour * 60 + minute) * 60 + second) * SECOND);
+                    }
+                    break;
+                case EventRecurrence.MINUTELY:
+                    if (contains(mByHour, hour) && contains(mByMinute, minute)) {
+                        for (int s : mSeconds) {
+                            add(base + ((hour * 60 + minute) * 60 + s) * SECOND);
+                        }
+                    }
+                    break;
+                case EventRecurrence.HOURLY:
+                    if (contains(mByHour, hour)) {
+                        for (int m : mMinutes) {
+                            for (int s : mSeconds) {
+                                add(base + ((hour * 60 + m) * 60 + s) * SECOND);
+                            }
+                        }
+                    }
+                    break;
+                default:
+                    for (int h : mHours) {
+                        for (int m : mMinutes) {
+                            for (int s : mSeconds) {
+                                add(base + ((h * 60 + m) * 60 + s) * SECOND);
+                            }
+                        }
+                    }
+                    break;
+            }
+        }
+
+        private void add(long local) {
+            if (mCandidateCount == mCandidates.length) {
+                mCandidates = Arrays.copyOf(mCandidates, 2 * mCandidateCount);
+            }
+            mCandidates[mCandidateCount++] = local;
+        }
+
+        /**
+         * Keeps the candidates at the BYSETPOS positions of the period, in order
+         */
+        private void selectSetPositions() {
+            int count = mCandidateCount;
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                for (int position : mBySetPos) {
+                    if (position == i + 1 || position == i - count) {
+                        mCandidates[kept++] = mCandidates[i];
+                        break;
+                    }
+                }
+            }
+            mCandidateCount = kept;
+        }
+
+        private boolean matchesDay(long day, int year, int month, int dayOfMonth) {
+            if (mByMonth != null && !contains(mByMonth, month)) {
+                return false;
+            }
+            if (mByWeekNo != null && !matchesWeekNo(day, year)) {
+                return false;
+            }
+            if (mByYearDay != null) {
+                long first = IcalendarDateTime.daysFromCivil(year, 1, 1);
+                int dayOfYear = (int) (day - first) + 1;
+                if (!matchesOrdinal(mByYearDay, dayOfYear, daysInYear(year))) {
+                    return false;
+                }
+            }
+            if (mByMonthDay != null
+                    && !matchesOrdinal(mByMonthDay, dayOfMonth, daysInMonth(year, month))) {
+                return false;
+            }
+            return mByDay == null || matchesWeekDay(day, year, month, dayOfMonth);
+        }
+
+        private boolean matchesWeekDay(long day, int year, int month, int dayOfMonth) {
+            int weekDay = weekDay(day);
+            for (int i = 0; i < mByDay.length; i++) {
+                if (mByDay[i] != weekDay) {
+                    continue;
+                }
+                int num = mByDayNum[i];
+                if (num == 0) {
+                    return true;
+                }
+                // The nth weekday of the month, or of the year for YEARLY rules without
+                // BYMONTH; other rules can't have one
+                if (mFreq == EventRecurrence.MONTHLY
+                        || (mFreq == EventRecurrence.YEARLY && mByMonth != null)) {
+                    if (matchesNth(num, dayOfMonth, daysInMonth(year, month))) {
+                        return true;
+                    }
+                } else if (mFreq == EventRecurrence.YEARLY) {
+                    long first = IcalendarDateTime.daysFromCivil(year, 1, 1);
+                    if (matchesNth(num, (int) (day - first) + 1, daysInYear(year))) {
+                        return true;
+                    }
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean matchesWeekNo(long day, int year) {
+            // Week 1 is the first week with at least four days of the year
+            long start = getFirstWeekStart(year);
+            if (day < start) {
+                year--;
+                start = getFirstWeekStart(year);
+            } else if (day >= getFirstWeekStart(year + 1)) {
+                year++;
+                start = getFirstWeekStart(year);
+            }
+            int weeks = (int) ((getFirstWeekStart(year + 1) - start) / 7);
+            return matchesOrdinal(mByWeekNo, (int) ((day - start) / 7) + 1, weeks);
+        }
+
+        private long getFirstWeekStart(int year) {
+            long first = IcalendarDateTime.daysFromCivil(year, 1, 1);
+            int offset = floorMod(weekDay(first) - mWeekStart, 7);
+            return offset <= 3 ? first - offset : first + 7 - offset;
+        }
+    }
+
+    /**
+     * Returns whether an ordinal of a period with the given length is in a list of
+     * ordinals counted from its start, or from its end when negative
+     */
+    private static boolean matchesOrdinal(int[] ordinals, int ordinal, int length) {
+        for (int value : ordinals) {
+            if (value == ordinal || value == ordinal - length - 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the weekday on an ordinal of a period is its nth weekday
+     */
+    private static boolean matchesNth(int nth, int ordinal, int length) {
+        return nth > 0 ? (ordinal - 1) / 7 + 1 == nth : -((length - ordinal) / 7 + 1) == nth;
+    }
+
+    private static boolean contains(int[] values, int value) {
+        if (values == null) {
+            return true;
+        }
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] sorted(int[] values, int count) {
+        if (values == null || count == 0) {
+            return null;
+        }
+        int[] copy = Arrays.copyOf(values, count);
+        Arrays.sort(copy);
+        return copy;
+    }
+
+    /**
+     * Returns the day of the week of days since the epoch, Sunday is 0 like in
+     * {@link android.text.format.Time}
+     */
+    private static int weekDay(long day) {
+        // The epoch was a Thursday
+        return floorMod(day + 4, 7);
+    }
+
+    private static int floorMod(long x, int y) {
+        int mod = (int) (x % y);
+        return mod < 0 ? mod + y : mod;
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+
+    private static int daysInYear(int year) {
+        return isLeapYear(year) ? 366 : 365;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+}
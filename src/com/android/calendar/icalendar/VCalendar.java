@@ -16,47 +16,30 @@
 
 package com.android.calendar.icalendar;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.List;
-import java.util.ListIterator;
 
 /**
  * Models the Calendar/VCalendar component of the iCalendar format
  */
 public class VCalendar {
 
-    // Valid property identifiers of the component
-    // TODO: only a partial list of attributes have been implemented, implement the rest
-    public static String VERSION = "VERSION";
-    public static String PRODID = "PRODID";
-    public static String CALSCALE = "CALSCALE";
-    public static String METHOD = "METHOD";
+    // Property identifiers of the component, the ones without a constant are kept by name
+    public static final IcalendarProperty VERSION = IcalendarProperty.VERSION;
+    public static final IcalendarProperty PRODID = IcalendarProperty.PRODID;
+    public static final IcalendarProperty CALSCALE = IcalendarProperty.CALSCALE;
+    public static final IcalendarProperty METHOD = IcalendarProperty.METHOD;
 
     public final static String PRODUCT_IDENTIFIER = "-//Etar//ws.xsoh.etar";
 
-    // Stores the -arity of the attributes that this component can have
-    private final static HashMap<String, Integer> sPropertyList = new HashMap<String, Integer>();
-
-    // Initialize approved list of iCal Calendar properties
-    static {
-        sPropertyList.put(VERSION, 1);
-        sPropertyList.put(PRODID, 1);
-        sPropertyList.put(CALSCALE, 1);
-        sPropertyList.put(METHOD, 1);
-    }
-
     // Stores attributes and their corresponding values belonging to the Calendar object
-    public HashMap<String, String> mProperties;
+    final IcalendarProperties mProperties;
     public LinkedList<VEvent> mEvents;      // Events that belong to this Calendar object
 
     /**
      * Constructor
      */
     public VCalendar() {
-        mProperties = new HashMap<String, String>();
+        mProperties = new IcalendarProperties();
         mEvents = new LinkedList<VEvent>();
     }
 
@@ -66,16 +49,23 @@ public class VCalendar {
      * @param value
      * @return
      */
-    public boolean addProperty(String property, String value) {
+    public boolean addProperty(IcalendarProperty property, String value) {
         // Since all the required mProperties are unary (only one can exist), take a shortcut here
         // when multiples of a property can exist, enforce that here .. cleverly
-        if (sPropertyList.containsKey(property) && value != null) {
-            mProperties.put(property, IcalendarUtils.cleanseString(value));
+        if (value != null) {
+            mProperties.put(property, IcalendarUtils.cleanseString(value), null);
             return true;
         }
         return false;
     }
 
+    /**
+     * Adds a property of the calendar from an unfolded content line
+     */
+    void addEntry(String entry) {
+        mProperties.addEntry(entry);
+    }
+
     /**
      * Add Event to calendar
      * @param event
@@ -102,9 +92,7 @@ public class VCalendar {
         // Add Event properties
         // TODO: add the ability to specify the order in which to compose the properties
         output.append("BEGIN:VCALENDAR\n");
-        for (String property : mProperties.keySet() ) {
-            output.append(property + ":" + mProperties.get(property) + "\n");
-        }
+        mProperties.appendTo(output);
 
         // Enforce line length requirements
         output = IcalendarUtils.enforceICalLineLength(output);
@@ -118,27 +106,15 @@ public class VCalendar {
         return output.toString();
     }
 
-    public void populateFromString(ArrayList<String> input) {
-        ListIterator<String> iter = input.listIterator();
-
-        while (iter.hasNext()) {
-            String line = iter.next();
-            if (line.contains("BEGIN:VEVENT")) {
-                // Go one previous, so VEvent, parses current line
-                iter.previous();
-
-                // Offload to vevent for parsing
-                VEvent event = new VEvent();
-                event.populateFromEntries(iter);
-                mEvents.add(event);
-            } else if (line.contains("END:VCALENDAR")) {
-                break;
-            }
-        }
+    public String getProperty(IcalendarProperty property) {
+        return mProperties.get(property);
     }
 
-    public String getProperty(String key) {
-        return mProperties.get(key);
+    /**
+     * Returns the value of a property by name, e.g. X-WR-CALNAME, or null
+     */
+    public String getProperty(String name) {
+        return mProperties.get(name);
     }
 
     /**
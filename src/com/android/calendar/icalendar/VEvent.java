@@ -16,9 +16,7 @@
 
 package com.android.calendar.icalendar;
 
-import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.ListIterator;
 import java.util.UUID;
 
 /**
@@ -26,68 +24,59 @@ import java.util.UUID;
  */
 public class VEvent {
 
-    // Valid property identifiers for an event component
-    // TODO: only a partial list of attributes has been implemented, implement the rest
-    public static String CLASS = "CLASS";
-    public static String CREATED = "CREATED";
-    public static String LOCATION = "LOCATION";
-    public static String ORGANIZER = "ORGANIZER";
-    public static String PRIORITY = "PRIORITY";
-    public static String SEQ = "SEQ";
-    public static String STATUS = "STATUS";
-    public static String UID = "UID";
-    public static String URL = "URL";
-    public static String DTSTART = "DTSTART";
-    public static String DTEND = "DTEND";
-    public static String DURATION = "DURATION";
-    public static String DTSTAMP = "DTSTAMP";
-    public static String SUMMARY = "SUMMARY";
-    public static String DESCRIPTION = "DESCRIPTION";
-    public static String ATTENDEE = "ATTENDEE";
-    public static String CATEGORIES = "CATEGORIES";
-
-    // Stores the -arity of the attributes that this component can have
-    private static HashMap<String, Integer> sPropertyList = new HashMap<String, Integer>();
-
-    // Initialize the approved list of mProperties for a calendar event
-    static {
-        sPropertyList.put(CLASS,1);
-        sPropertyList.put(CREATED,1);
-        sPropertyList.put(LOCATION,1);
-        sPropertyList.put(ORGANIZER,1);
-        sPropertyList.put(PRIORITY,1);
-        sPropertyList.put(SEQ,1);
-        sPropertyList.put(STATUS,1);
-        sPropertyList.put(UID,1);
-        sPropertyList.put(URL,1);
-        sPropertyList.put(DTSTART,1);
-        sPropertyList.put(DTEND,1);
-        sPropertyList.put(DURATION, 1);
-        sPropertyList.put(DTSTAMP,1);
-        sPropertyList.put(SUMMARY,1);
-        sPropertyList.put(DESCRIPTION,1);
-
-        sPropertyList.put(ATTENDEE, Integer.MAX_VALUE);
-        sPropertyList.put(CATEGORIES, Integer.MAX_VALUE);
-        sPropertyList.put(CATEGORIES, Integer.MAX_VALUE);
-    }
+    // Property identifiers of an event component, the ones without a constant are
+    // kept by name
+    public static final IcalendarProperty CLASS = IcalendarProperty.CLASS;
+    public static final IcalendarProperty CREATED = IcalendarProperty.CREATED;
+    public static final IcalendarProperty LOCATION = IcalendarProperty.LOCATION;
+    public static final IcalendarProperty ORGANIZER = IcalendarProperty.ORGANIZER;
+    public static final IcalendarProperty PRIORITY = IcalendarProperty.PRIORITY;
+    public static final IcalendarProperty SEQ = IcalendarProperty.SEQUENCE;
+    public static final IcalendarProperty STATUS = IcalendarProperty.STATUS;
+    public static final IcalendarProperty UID = IcalendarProperty.UID;
+    public static final IcalendarProperty URL = IcalendarProperty.URL;
+    public static final IcalendarProperty DTSTART = IcalendarProperty.DTSTART;
+    public static final IcalendarProperty DTEND = IcalendarProperty.DTEND;
+    public static final IcalendarProperty DURATION = IcalendarProperty.DURATION;
+    public static final IcalendarProperty DTSTAMP = IcalendarProperty.DTSTAMP;
+    public static final IcalendarProperty SUMMARY = IcalendarProperty.SUMMARY;
+    public static final IcalendarProperty DESCRIPTION = IcalendarProperty.DESCRIPTION;
+    public static final IcalendarProperty ATTENDEE = IcalendarProperty.ATTENDEE;
+    public static final IcalendarProperty CATEGORIES = IcalendarProperty.CATEGORIES;
+    public static final IcalendarProperty RRULE = IcalendarProperty.RRULE;
+    public static final IcalendarProperty RDATE = IcalendarProperty.RDATE;
+    public static final IcalendarProperty EXDATE = IcalendarProperty.EXDATE;
+    public static final IcalendarProperty RECURRENCE_ID = IcalendarProperty.RECURRENCE_ID;
 
     // Stores attributes and their corresponding values belonging to the Event component
-    public HashMap<String, String> mProperties;
+    final IcalendarProperties mProperties;
 
     public LinkedList<Attendee> mAttendees;
     public Organizer mOrganizer;
+    // The TRIGGER content lines of the alarms of the event
+    public LinkedList<String> mAlarmTriggers;
 
     /**
      * Constructor
      */
     public VEvent() {
-        mProperties = new HashMap<String, String>();
+        this(true);
+    }
+
+    /**
+     * @param generateUid whether to add a unique identifier and a timestamp, which events
+     *                    read from a stream bring along
+     */
+    VEvent(boolean generateUid) {
+        mProperties = new IcalendarProperties();
         mAttendees = new LinkedList<Attendee>();
+        mAlarmTriggers = new LinkedList<String>();
 
-        // Generate and add a unique identifier to this event - iCal requisite
-        addProperty(UID , UUID.randomUUID().toString() + "@ws.xsoh.etar");
-        addTimeStamp();
+        if (generateUid) {
+            // Generate and add a unique identifier to this event - iCal requisite
+            addProperty(UID, UUID.randomUUID().toString() + "@ws.xsoh.etar");
+            addTimeStamp();
+        }
     }
 
     /**
@@ -97,11 +86,10 @@ public class VEvent {
      * @param value
      * @return
      */
-    public boolean addProperty(String property, String value) {
-        // Only unary-properties for now
-        if (sPropertyList.containsKey(property) && sPropertyList.get(property) == 1 &&
-                value != null) {
-            mProperties.put(property, IcalendarUtils.cleanseString(value));
+    public boolean addProperty(IcalendarProperty property, String value) {
+        // Attendees and the organizer are components of their own
+        if (property != ATTENDEE && property != ORGANIZER && value != null) {
+            mProperties.put(property, IcalendarUtils.cleanseString(value), null);
             return true;
         }
         return false;
@@ -110,10 +98,44 @@ public class VEvent {
     /**
      * Returns the value of the requested event property or null if there isn't one
      */
-    public String getProperty(String property) {
+    public String getProperty(IcalendarProperty property) {
         return mProperties.get(property);
     }
 
+    /**
+     * Returns the value of a property by name, e.g. of an X- property, or null
+     */
+    public String getProperty(String name) {
+        return mProperties.get(name);
+    }
+
+    /**
+     * Returns the value of a parameter of an event property, e.g. the TZID of DTSTART, or
+     * null if there isn't one
+     */
+    public String getParameter(IcalendarProperty property, String parameter) {
+        return mProperties.getParameter(property, parameter);
+    }
+
+    /**
+     * Returns the number of occurrences of a property, which can be more than one for
+     * repeatable properties such as EXDATE
+     */
+    public int getPropertyCount(IcalendarProperty property) {
+        return mProperties.count(property);
+    }
+
+    /**
+     * Returns the value of an occurrence of a property, 0 being the first one
+     */
+    public String getProperty(IcalendarProperty property, int occurrence) {
+        return mProperties.get(property, occurrence);
+    }
+
+    public String getParameter(IcalendarProperty property, int occurrence, String parameter) {
+        return mProperties.getParameter(property, occurrence, parameter);
+    }
+
     /**
      * Add attendees to the event
      * @param attendee
@@ -122,6 +144,13 @@ public class VEvent {
         if(attendee != null) mAttendees.add(attendee);
     }
 
+    /**
+     * Add the TRIGGER content line of an alarm of the event
+     */
+    public void addAlarmTrigger(String trigger) {
+        if (trigger != null) mAlarmTriggers.add(trigger);
+    }
+
     /**
      * Add an Organizer to the Event
      * @param organizer
@@ -167,9 +196,7 @@ public class VEvent {
 
         // Add Event properties
         sb.append("BEGIN:VEVENT\n");
-        for (String property : mProperties.keySet() ) {
-            sb.append(property + ":" + mProperties.get(property) + "\n");
-        }
+        mProperties.appendTo(sb);
 
         // Enforce line length requirements
         sb = IcalendarUtils.enforceICalLineLength(sb);
@@ -186,47 +213,21 @@ public class VEvent {
         return sb.toString();
     }
 
-    public void populateFromEntries(ListIterator<String> iter) {
-        while (iter.hasNext()) {
-            String line = iter.next();
-            if (line.contains("BEGIN:VEVENT")) {
-                // Continue
-            } else if (line.startsWith("END:EVENT")) {
-                break;
-            } else if (line.startsWith("ORGANIZER")) {
-                String entry = parseTillNextAttribute(iter, line);
-                mOrganizer = Organizer.populateFromICalString(entry);
-            } else if (line.startsWith("ATTENDEE")) {
-                // Go one previous, so VEvent, parses current line
-                iter.previous();
-
-                // Offload to Attendee for parsing
-                Attendee attendee = new Attendee();
-                attendee.populateFromEntries(iter);
-                mAttendees.add(attendee);
-            } else if (line.contains(":")) {
-                String entry = parseTillNextAttribute(iter, line);
-                int indexOfFirstColon = entry.indexOf(":");
-                String key = entry.substring(0, indexOfFirstColon);
-                String value = entry.substring(indexOfFirstColon + 1);
-                mProperties.put(key, value);
-            }
-        }
-    }
-
-    public static String parseTillNextAttribute(ListIterator<String> iter, String currentLine) {
-        StringBuilder parse = new StringBuilder();
-        parse.append(currentLine);
-        while (iter.hasNext()) {
-            String line = iter.next();
-            if (line.startsWith(" ")) {
-                parse.append(line.replaceFirst(" ", ""));
-            } else {
-                iter.previous();
-                break;
-            }
+    /**
+     * Adds a property of the event from an unfolded content line
+     */
+    void addEntry(String entry) {
+        IcalendarProperty property = IcalendarProperty.forName(entry, 0,
+                IcalendarParameters.findNameEnd(entry));
+        if (property == ORGANIZER) {
+            mOrganizer = Organizer.populateFromICalString(entry);
+        } else if (property == ATTENDEE) {
+            Attendee attendee = new Attendee();
+            attendee.populateFromEntry(entry);
+            mAttendees.add(attendee);
+        } else {
+            mProperties.addEntry(entry);
         }
-        return parse.toString();
     }
 
 }
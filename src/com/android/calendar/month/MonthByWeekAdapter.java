@@ -108,10 +108,12 @@ public class MonthByWeekAdapter extends SimpleWeeksAdapter {
     private boolean mAnimateToday = false;
     private long mAnimateTime = 0;
     private Handler mEventDialogHandler;
+    private final MonthWeekViewPool mViewPool;
 
     public MonthByWeekAdapter(Context context, HashMap<String, Integer> params, Handler handler) {
         super(context, params);
         mEventDialogHandler = handler;
+        mViewPool = MonthWeekViewPool.get(context);
         if (params.containsKey(WEEK_PARAMS_IS_MINI)) {
             mIsMiniMonth = params.get(WEEK_PARAMS_IS_MINI) != 0;
         }
@@ -212,16 +214,12 @@ public class MonthByWeekAdapter extends SimpleWeeksAdapter {
         refresh();
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
         if (mIsMiniMonth) {
             return super.getView(position, convertView, parent);
         }
-        MonthWeekEventsView v;
-        LayoutParams params = new LayoutParams(
-                LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT);
-        HashMap<String, Integer> drawingParams = null;
+        MonthWeekEventsView v = null;
         boolean isAnimatingToday = false;
         if (convertView != null) {
             v = (MonthWeekEventsView) convertView;
@@ -239,21 +237,19 @@ public class MonthByWeekAdapter extends SimpleWeeksAdapter {
                     isAnimatingToday = true;
                     // There is a bug that causes invalidates to not work some
                     // of the time unless we recreate the view.
-                    v = new MonthWeekEventsView(mContext);
+                    v = null;
                }
-            } else {
-                drawingParams = (HashMap<String, Integer>) v.getTag();
             }
-        } else {
-            v = new MonthWeekEventsView(mContext);
+        } else if (!mAnimateToday) {
+            // Rows kept from before the fragment was last torn down
+            v = mViewPool.obtain(position);
         }
-        if (drawingParams == null) {
-            drawingParams = new HashMap<String, Integer>();
+        if (v == null) {
+            v = new MonthWeekEventsView(mContext);
+            v.setLayoutParams(new LayoutParams(
+                    LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT));
+            v.setClickable(true);
         }
-        drawingParams.clear();
-
-        v.setLayoutParams(params);
-        v.setClickable(true);
         v.setOnTouchListener(this);
 
         int selectedDay = -1;
@@ -261,17 +257,17 @@ public class MonthByWeekAdapter extends SimpleWeeksAdapter {
             selectedDay = mSelectedDay.weekDay;
         }
 
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_HEIGHT, parent.getHeight() / mNumWeeks);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_SELECTED_DAY, selectedDay);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_SHOW_WK_NUM, mShowWeekNumber ? 1 : 0);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_WEEK_START, mFirstDayOfWeek);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_NUM_DAYS, mDaysPerWeek);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_WEEK, position);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_FOCUS_MONTH, mFocusMonth);
-        drawingParams.put(MonthWeekEventsView.VIEW_PARAMS_ORIENTATION, mOrientation);
-
+        WeekParams drawingParams = mWeekParams;
+        drawingParams.height = parent.getHeight() / mNumWeeks;
+        drawingParams.selectedDay = selectedDay;
+        drawingParams.showWeekNumber = mShowWeekNumber;
+        drawingParams.weekStart = mFirstDayOfWeek;
+        drawingParams.numDays = mDaysPerWeek;
+        drawingParams.week = position;
+        drawingParams.focusMonth = mFocusMonth;
+        drawingParams.orientation = mOrientation;
+        drawingParams.animateToday = isAnimatingToday;
         if (isAnimatingToday) {
-            drawingParams.put(MonthWeekEventsView.VIEW_PARAMS_ANIMATE_TODAY, 1);
             mAnimateToday = false;
         }
 
@@ -258,6 +258,15 @@ public class MonthByWeekFragment extends SimpleDayPickerFragment implements
         }
     }
 
+    @Override
+    public void onDestroyView() {
+        if (!mIsMiniMonth && mListView != null) {
+            // Keep the bound rows for when this view is shown again
+            MonthWeekViewPool.get(getActivity()).recycle(mListView);
+        }
+        super.onDestroyView();
+    }
+
     @Override
     protected void setUpAdapter() {
         mFirstDayOfWeek = Utils.getFirstDayOfWeek(mContext);
@@ -56,8 +56,6 @@ import ws.xsoh.etar.R;
 
 public class MonthWeekEventsView extends SimpleWeekView {
 
-    public static final String VIEW_PARAMS_ORIENTATION = "orientation";
-    public static final String VIEW_PARAMS_ANIMATE_TODAY = "animate_today";
     private static final String TAG = "MonthView";
     private static final boolean DEBUG_LAYOUT = false;
     private static final int mClickedAlpha = 128;
@@ -428,17 +426,17 @@ public class MonthWeekEventsView extends SimpleWeekView {
     }
 
     @Override
-    public void setWeekParams(HashMap<String, Integer> params, String tz) {
-        super.setWeekParams(params, tz);
-
-        if (params.containsKey(VIEW_PARAMS_ORIENTATION)) {
-            mOrientation = params.get(VIEW_PARAMS_ORIENTATION);
+    public boolean setWeekParams(WeekParams params, String tz) {
+        if (!super.setWeekParams(params, tz)) {
+            return false;
         }
 
+        mOrientation = params.orientation;
+
         updateToday(tz);
         mNumCells = mNumDays + 1;
 
-        if (params.containsKey(VIEW_PARAMS_ANIMATE_TODAY) && mHasToday) {
+        if (params.animateToday && mHasToday) {
             synchronized (mAnimatorListener) {
                 if (mTodayAnimator != null) {
                     mTodayAnimator.removeAllListeners();
@@ -454,6 +452,7 @@ public class MonthWeekEventsView extends SimpleWeekView {
                 mTodayAnimator.start();
             }
         }
+        return true;
     }
 
     /**
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.month;
+
+import android.content.Context;
+import android.util.SparseArray;
+import android.view.View;
+import android.widget.ListView;
+
+import java.util.HashMap;
+
+/**
+ * Keeps the week rows of the full month view alive while {@link MonthByWeekFragment}
+ * is torn down, e.g. while another view is shown in AllInOneActivity. Returning to
+ * the month view hands these rows back to the adapter, and a row that is handed
+ * back for the week it already shows doesn't need to be bound again.
+ *
+ * The rows reference their activity, so the activity must call
+ * {@link #release(Context)} when it is destroyed.
+ */
+public class MonthWeekViewPool {
+    // A bit more than the most weeks that are visible at once
+    private static final int MAX_POOLED_VIEWS = 12;
+
+    private static final HashMap<Context, MonthWeekViewPool> sPools =
+            new HashMap<Context, MonthWeekViewPool>();
+
+    // Pooled views, keyed by the week they were last bound to
+    private final SparseArray<MonthWeekEventsView> mViews =
+            new SparseArray<MonthWeekEventsView>();
+
+    private MonthWeekViewPool() {
+    }
+
+    /**
+     * Returns the pool for the given activity, creating it if needed.
+     */
+    public static MonthWeekViewPool get(Context context) {
+        synchronized (sPools) {
+            MonthWeekViewPool pool = sPools.get(context);
+            if (pool == null) {
+                pool = new MonthWeekViewPool();
+                sPools.put(context, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Drops the pool for the given activity. This should be called in the
+     * activity's onDestroy method.
+     */
+    public static void release(Context context) {
+        synchronized (sPools) {
+            sPools.remove(context);
+        }
+    }
+
+    /**
+     * Takes over the week rows currently attached to the list. Call this before the
+     * list is discarded, e.g. from the fragment's onDestroyView.
+     */
+    public void recycle(ListView listView) {
+        int count = listView.getChildCount();
+        for (int i = 0; i < count && mViews.size() < MAX_POOLED_VIEWS; i++) {
+            View child = listView.getChildAt(i);
+            if (child instanceof MonthWeekEventsView) {
+                MonthWeekEventsView view = (MonthWeekEventsView) child;
+                mViews.put(view.mWeek, view);
+            }
+        }
+        // The rows can't be attached to the next list while they still have a parent
+        listView.removeAllViewsInLayout();
+    }
+
+    /**
+     * Returns a pooled row, preferring one that was last bound to the given week, or
+     * null if the pool is empty.
+     */
+    public MonthWeekEventsView obtain(int week) {
+        int index = mViews.indexOfKey(week);
+        if (index < 0) {
+            if (mViews.size() == 0) {
+                return null;
+            }
+            index = 0;
+        }
+        MonthWeekEventsView view = mViews.valueAt(index);
+        mViews.removeAt(index);
+        return view;
+    }
+}
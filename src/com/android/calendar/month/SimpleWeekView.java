@@ -37,7 +37,6 @@ import com.android.calendar.Utils;
 
 import java.security.InvalidParameterException;
 import java.text.NumberFormat;
-import java.util.HashMap;
 
 import ws.xsoh.etar.R;
 
@@ -50,45 +49,6 @@ import ws.xsoh.etar.R;
  * </p>
  */
 public class SimpleWeekView extends View {
-    /**
-     * This sets the height of this week in pixels
-     */
-    public static final String VIEW_PARAMS_HEIGHT = "height";
-
-    /**
-     * These params can be passed into the view to control how it appears.
-     * {@link #VIEW_PARAMS_WEEK} is the only required field, though the default
-     * values are unlikely to fit most layouts correctly.
-     */
-    /**
-     * This specifies the position (or weeks since the epoch) of this week,
-     * calculated using {@link Utils#getWeeksSinceEpochFromJulianDay}
-     */
-    public static final String VIEW_PARAMS_WEEK = "week";
-    /**
-     * This sets one of the days in this view as selected {@link Time#SUNDAY}
-     * through {@link Time#SATURDAY}.
-     */
-    public static final String VIEW_PARAMS_SELECTED_DAY = "selected_day";
-    /**
-     * Which day the week should start on. {@link Time#SUNDAY} through
-     * {@link Time#SATURDAY}.
-     */
-    public static final String VIEW_PARAMS_WEEK_START = "week_start";
-    /**
-     * How many days to display at a time. Days will be displayed starting with
-     * {@link #mWeekStart}.
-     */
-    public static final String VIEW_PARAMS_NUM_DAYS = "num_days";
-    /**
-     * Which month is currently in focus, as defined by {@link Time#month}
-     * [0-11].
-     */
-    public static final String VIEW_PARAMS_FOCUS_MONTH = "focus_month";
-    /**
-     * If this month should display week numbers. false if 0, true otherwise.
-     */
-    public static final String VIEW_PARAMS_SHOW_WK_NUM = "show_wk_num";
     protected static final int DEFAULT_SELECTED_DAY = -1;
     protected static final int DEFAULT_WEEK_START = Time.SUNDAY;
     protected static final int DEFAULT_NUM_DAYS = 7;
@@ -158,6 +118,12 @@ public class SimpleWeekView extends View {
     // The timezone to display times/dates in (used for determining when Today
     // is)
     protected String mTimeZone = Time.getCurrentTimezone();
+    // The parameters this view was last bound with
+    protected final WeekParams mParams = new WeekParams();
+    // The Julian day that was today when this view was last bound
+    private int mBoundJulianToday = -1;
+    // Reused to find out what day today is on every bind
+    private final Time mTodayTime = new Time();
 
     protected int mBGColor;
     protected int mSelectedWeekBGColor;
@@ -213,50 +179,44 @@ public class SimpleWeekView extends View {
     }
 
     /**
-     * Sets all the parameters for displaying this week. The only required
-     * parameter is the week number. Other parameters have a default value and
-     * will only update if a new value is included, except for focus month,
-     * which will always default to no focus month if no value is passed in. See
-     * {@link #VIEW_PARAMS_HEIGHT} for more info on parameters.
+     * Sets all the parameters for displaying this week. The week must be set,
+     * the other parameters have usable defaults though they are unlikely to
+     * fit most layouts correctly. Rebinding a view with the parameters and
+     * time zone it already shows is a no-op as long as today hasn't changed.
      *
-     * @param params A map of the new parameters, see
-     *            {@link #VIEW_PARAMS_HEIGHT}
+     * @param params The new parameters, see {@link WeekParams}
      * @param tz The time zone this view should reference times in
+     * @return true if the view was rebound, false if nothing changed
      */
-    public void setWeekParams(HashMap<String, Integer> params, String tz) {
-        if (!params.containsKey(VIEW_PARAMS_WEEK)) {
+    public boolean setWeekParams(WeekParams params, String tz) {
+        if (params.week < 0) {
             throw new InvalidParameterException("You must specify the week number for this view");
         }
-        setTag(params);
-        mTimeZone = tz;
-        // We keep the current value for any params not present
-        if (params.containsKey(VIEW_PARAMS_HEIGHT)) {
-            mHeight = params.get(VIEW_PARAMS_HEIGHT);
-            if (mHeight < MIN_HEIGHT) {
-                mHeight = MIN_HEIGHT;
-            }
+        mTodayTime.timezone = tz;
+        mTodayTime.setToNow();
+        int julianToday = Time.getJulianDay(mTodayTime.toMillis(false), mTodayTime.gmtoff);
+        if (julianToday == mBoundJulianToday && tz.equals(mTimeZone)
+                && params.equals(mParams)) {
+            return false;
         }
-        if (params.containsKey(VIEW_PARAMS_SELECTED_DAY)) {
-            mSelectedDay = params.get(VIEW_PARAMS_SELECTED_DAY);
+        mParams.set(params);
+        mBoundJulianToday = julianToday;
+        mTimeZone = tz;
+        mHeight = params.height;
+        if (mHeight < MIN_HEIGHT) {
+            mHeight = MIN_HEIGHT;
         }
+        mSelectedDay = params.selectedDay;
         mHasSelectedDay = mSelectedDay != -1;
-        if (params.containsKey(VIEW_PARAMS_NUM_DAYS)) {
-            mNumDays = params.get(VIEW_PARAMS_NUM_DAYS);
-        }
-        if (params.containsKey(VIEW_PARAMS_SHOW_WK_NUM)) {
-            if (params.get(VIEW_PARAMS_SHOW_WK_NUM) != 0) {
-                mShowWeekNum = true;
-            } else {
-                mShowWeekNum = false;
-            }
-        }
+        mNumDays = params.numDays;
+        mShowWeekNum = params.showWeekNumber;
         mNumCells = mShowWeekNum ? mNumDays + 1 : mNumDays;
 
         // Allocate space for caching the day numbers and focus values
         mDayNumbers = new String[mNumCells];
         mFocusDay = new boolean[mNumCells];
         mOddMonth = new boolean[mNumCells];
-        mWeek = params.get(VIEW_PARAMS_WEEK);
+        mWeek = params.week;
         int julianMonday = Utils.getJulianMondayFromWeeksSinceEpoch(mWeek);
         Time time = new Time(tz);
         time.setJulianDay(julianMonday);
@@ -268,9 +228,7 @@ public class SimpleWeekView extends View {
             i++;
         }
 
-        if (params.containsKey(VIEW_PARAMS_WEEK_START)) {
-            mWeekStart = params.get(VIEW_PARAMS_WEEK_START);
-        }
+        mWeekStart = params.weekStart;
 
         // Now adjust our starting day based on the start day of the week
         // If the week is set to start on a Saturday the first week will be
@@ -288,14 +246,11 @@ public class SimpleWeekView extends View {
         mFirstMonth = time.month;
 
         // Figure out what day today is
-        Time today = new Time(tz);
-        today.setToNow();
+        Time today = mTodayTime;
         mHasToday = false;
         mToday = -1;
 
-        int focusMonth = params.containsKey(VIEW_PARAMS_FOCUS_MONTH) ? params.get(
-                VIEW_PARAMS_FOCUS_MONTH)
-                : DEFAULT_FOCUS_MONTH;
+        int focusMonth = params.focusMonth;
 
         for (; i < mNumCells; i++) {
             if (time.monthDay == 1) {
@@ -323,6 +278,7 @@ public class SimpleWeekView extends View {
         mLastMonth = time.month;
 
         updateSelectionPositions();
+        return true;
     }
 
     /**
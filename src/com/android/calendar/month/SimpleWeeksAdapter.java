@@ -96,6 +96,8 @@ public class SimpleWeeksAdapter extends BaseAdapter implements OnTouchListener {
     protected int mNumWeeks = DEFAULT_NUM_WEEKS;
     protected int mDaysPerWeek = DEFAULT_DAYS_PER_WEEK;
     protected int mFocusMonth = DEFAULT_MONTH_FOCUS;
+    // Reused for binding every row
+    protected final WeekParams mWeekParams = new WeekParams();
 
     public SimpleWeeksAdapter(Context context, HashMap<String, Integer> params) {
         mContext = context;
@@ -201,15 +203,11 @@ public class SimpleWeeksAdapter extends BaseAdapter implements OnTouchListener {
         return position;
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
         SimpleWeekView v;
-        HashMap<String, Integer> drawingParams = null;
         if (convertView != null) {
             v = (SimpleWeekView) convertView;
-            // We store the drawing parameters in the view so it can be recycled
-            drawingParams = (HashMap<String, Integer>) v.getTag();
         } else {
             v = new SimpleWeekView(mContext);
             // Set up the new view
@@ -219,10 +217,6 @@ public class SimpleWeeksAdapter extends BaseAdapter implements OnTouchListener {
             v.setClickable(true);
             v.setOnTouchListener(this);
         }
-        if (drawingParams == null) {
-            drawingParams = new HashMap<String, Integer>();
-        }
-        drawingParams.clear();
 
         int selectedDay = -1;
         if (mSelectedWeek == position) {
@@ -230,14 +224,14 @@ public class SimpleWeeksAdapter extends BaseAdapter implements OnTouchListener {
         }
 
         // pass in all the view parameters
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_HEIGHT,
-                (parent.getHeight() - WEEK_7_OVERHANG_HEIGHT) / mNumWeeks);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_SELECTED_DAY, selectedDay);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_SHOW_WK_NUM, mShowWeekNumber ? 1 : 0);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_WEEK_START, mFirstDayOfWeek);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_NUM_DAYS, mDaysPerWeek);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_WEEK, position);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_FOCUS_MONTH, mFocusMonth);
+        WeekParams drawingParams = mWeekParams;
+        drawingParams.height = (parent.getHeight() - WEEK_7_OVERHANG_HEIGHT) / mNumWeeks;
+        drawingParams.selectedDay = selectedDay;
+        drawingParams.showWeekNumber = mShowWeekNumber;
+        drawingParams.weekStart = mFirstDayOfWeek;
+        drawingParams.numDays = mDaysPerWeek;
+        drawingParams.week = position;
+        drawingParams.focusMonth = mFocusMonth;
         v.setWeekParams(drawingParams, mSelectedDay.timezone);
         v.invalidate();
 
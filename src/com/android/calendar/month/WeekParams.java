@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.month;
+
+import android.content.res.Configuration;
+import android.text.format.Time;
+
+/**
+ * The parameters for binding a single week row, see
+ * {@link SimpleWeekView#setWeekParams(WeekParams, String)}. Adapters keep one
+ * instance around and refill it for every row instead of building a map.
+ */
+public class WeekParams {
+    /**
+     * The height of this week in pixels
+     */
+    public int height;
+    /**
+     * The position (or weeks since the epoch) of this week, calculated using
+     * {@link com.android.calendar.Utils#getWeeksSinceEpochFromJulianDay}. This is
+     * the only required field.
+     */
+    public int week = -1;
+    /**
+     * Which day of this week is selected, {@link Time#SUNDAY} through
+     * {@link Time#SATURDAY}, or -1 if none is.
+     */
+    public int selectedDay = -1;
+    /**
+     * Which day the week should start on, {@link Time#SUNDAY} through
+     * {@link Time#SATURDAY}.
+     */
+    public int weekStart = Time.SUNDAY;
+    /**
+     * How many days to display at a time, starting with {@link #weekStart}.
+     */
+    public int numDays = 7;
+    /**
+     * Which month is currently in focus, as defined by {@link Time#month} [0-11],
+     * or -1 for none.
+     */
+    public int focusMonth = -1;
+    /**
+     * Whether this week should display its week number.
+     */
+    public boolean showWeekNumber;
+    /**
+     * The screen orientation, only used by {@link MonthWeekEventsView}.
+     */
+    public int orientation = Configuration.ORIENTATION_LANDSCAPE;
+    /**
+     * Whether today should be animated when this week is bound, only used by
+     * {@link MonthWeekEventsView}.
+     */
+    public boolean animateToday;
+
+    public void set(WeekParams other) {
+        height = other.height;
+        week = other.week;
+        selectedDay = other.selectedDay;
+        weekStart = other.weekStart;
+        numDays = other.numDays;
+        focusMonth = other.focusMonth;
+        showWeekNumber = other.showWeekNumber;
+        orientation = other.orientation;
+        animateToday = other.animateToday;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof WeekParams)) {
+            return false;
+        }
+        WeekParams other = (WeekParams) obj;
+        return height == other.height
+                && week == other.week
+                && selectedDay == other.selectedDay
+                && weekStart == other.weekStart
+                && numDays == other.numDays
+                && focusMonth == other.focusMonth
+                && showWeekNumber == other.showWeekNumber
+                && orientation == other.orientation
+                && animateToday == other.animateToday;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = height;
+        result = 31 * result + week;
+        result = 31 * result + selectedDay;
+        result = 31 * result + weekStart;
+        result = 31 * result + numDays;
+        result = 31 * result + focusMonth;
+        result = 31 * result + (showWeekNumber ? 1 : 0);
+        result = 31 * result + orientation;
+        result = 31 * result + (animateToday ? 1 : 0);
+        return result;
+    }
+}
@@ -28,8 +28,10 @@ import android.view.View;
 import com.android.calendar.Utils;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.TimeZone;
 
 import ws.xsoh.etar.R;
@@ -46,6 +48,9 @@ class CalendarAppWidgetModel {
     final int mMaxJulianDay;
     private String mHomeTZName;
     private boolean mShowTZ;
+    // The settings the formatted strings depend on. Rows of a model built with the same
+    // key are reused rather than formatted again.
+    private String mFormatKey;
 
     public CalendarAppWidgetModel(Context context, String timeZone) {
         mNow = System.currentTimeMillis();
@@ -60,6 +65,17 @@ class CalendarAppWidgetModel {
     }
 
     public void buildFromCursor(Cursor cursor, String timeZone) {
+        buildFromCursor(cursor, timeZone, null);
+    }
+
+    /**
+     * Builds the rows from the cursor, reusing the event and day infos of the previous
+     * model for the rows that did not change.
+     *
+     * @param previous the model this one replaces, or null
+     */
+    public void buildFromCursor(Cursor cursor, String timeZone,
+            CalendarAppWidgetModel previous) {
         final Time recycle = new Time(timeZone);
         final ArrayList<LinkedList<RowInfo>> mBuckets =
                 new ArrayList<LinkedList<RowInfo>>(CalendarAppWidgetService.MAX_DAYS);
@@ -72,6 +88,23 @@ class CalendarAppWidgetModel {
             mHomeTZName = TimeZone.getTimeZone(timeZone).getDisplayName(recycle.isDst != 0,
                     TimeZone.SHORT);
         }
+        mFormatKey = timeZone + '|' + Time.getCurrentTimezone() + '|' + recycle.isDst + '|'
+                + mTodayJulianDay + '|' + DateFormat.is24HourFormat(mContext) + '|'
+                + Locale.getDefault();
+
+        HashMap<Long, EventInfo> previousEvents = null;
+        HashMap<Integer, DayInfo> previousDays = null;
+        if (previous != null && mFormatKey.equals(previous.mFormatKey)) {
+            previousEvents = new HashMap<Long, EventInfo>(previous.mEventInfos.size());
+            for (EventInfo eventInfo : previous.mEventInfos) {
+                previousEvents.put(eventKey(eventInfo.id, eventInfo.start), eventInfo);
+            }
+            previousDays = new HashMap<Integer, DayInfo>(previous.mDayInfos.size());
+            for (DayInfo dayInfo : previous.mDayInfos) {
+                previousDays.put(dayInfo.mJulianDay, dayInfo);
+            }
+        }
+        final String noTitleLabel = mContext.getString(R.string.no_title_label);
 
         cursor.moveToPosition(-1);
         String tz = Utils.getTimeZone(mContext, null);
@@ -110,8 +143,20 @@ class CalendarAppWidgetModel {
             }
 
             int i = mEventInfos.size();
-            mEventInfos.add(populateEventInfo(eventId, allDay, start, end, startDay, endDay, title,
-                    location, color, selfStatus));
+            EventInfo eventInfo = null;
+            if (previousEvents != null) {
+                eventInfo = previousEvents.get(eventKey(eventId, start));
+                if (eventInfo != null && !eventInfo.matches(eventId, allDay, start, end,
+                        startDay, endDay, TextUtils.isEmpty(title) ? noTitleLabel : title,
+                        location, color, selfStatus)) {
+                    eventInfo = null;
+                }
+            }
+            if (eventInfo == null) {
+                eventInfo = populateEventInfo(eventId, allDay, start, end, startDay, endDay,
+                        title, location, color, selfStatus);
+            }
+            mEventInfos.add(eventInfo);
             // populate the day buckets that this event falls into
             int from = Math.max(startDay, mTodayJulianDay);
             int to = Math.min(endDay, mMaxJulianDay);
@@ -132,7 +177,10 @@ class CalendarAppWidgetModel {
             if (!bucket.isEmpty()) {
                 // We don't show day header in today
                 if (day != mTodayJulianDay) {
-                    final DayInfo dayInfo = populateDayInfo(day, recycle);
+                    DayInfo dayInfo = previousDays != null ? previousDays.get(day) : null;
+                    if (dayInfo == null) {
+                        dayInfo = populateDayInfo(day, recycle);
+                    }
                     // Add the day header
                     final int dayIndex = mDayInfos.size();
                     mDayInfos.add(dayInfo);
@@ -150,6 +198,48 @@ class CalendarAppWidgetModel {
         }
     }
 
+    private static long eventKey(long eventId, long start) {
+        return eventId * 31 + start;
+    }
+
+    /**
+     * Returns whether the event is in progress at the time the model was built, which
+     * changes how its row is drawn.
+     */
+    boolean isInProgress(EventInfo eventInfo) {
+        return !eventInfo.allDay && eventInfo.start <= mNow && mNow <= eventInfo.end;
+    }
+
+    /**
+     * Returns whether this model shows the same rows as the other one, so the widget
+     * doesn't need to be redrawn when switching between them.
+     */
+    boolean hasSameRows(CalendarAppWidgetModel other) {
+        if (mRowInfos.size() != other.mRowInfos.size()) {
+            return false;
+        }
+        for (int i = 0; i < mRowInfos.size(); i++) {
+            RowInfo row = mRowInfos.get(i);
+            RowInfo otherRow = other.mRowInfos.get(i);
+            if (row.mType != otherRow.mType) {
+                return false;
+            }
+            if (row.mType == RowInfo.TYPE_DAY) {
+                if (!mDayInfos.get(row.mIndex).equals(other.mDayInfos.get(otherRow.mIndex))) {
+                    return false;
+                }
+            } else {
+                EventInfo eventInfo = mEventInfos.get(row.mIndex);
+                EventInfo otherEventInfo = other.mEventInfos.get(otherRow.mIndex);
+                if (!eventInfo.equals(otherEventInfo)
+                        || isInProgress(eventInfo) != other.isInProgress(otherEventInfo)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     private EventInfo populateEventInfo(long eventId, boolean allDay, long start, long end,
                                         int startDay, int endDay, String title, String location, int color, int selfStatus) {
         EventInfo eventInfo = new EventInfo();
@@ -180,6 +270,8 @@ class CalendarAppWidgetModel {
         eventInfo.start = start;
         eventInfo.end = end;
         eventInfo.allDay = allDay;
+        eventInfo.startDay = startDay;
+        eventInfo.endDay = endDay;
         eventInfo.when = whenString.toString();
         eventInfo.visibWhen = visibWhen;
         eventInfo.color = color;
@@ -274,6 +366,9 @@ class CalendarAppWidgetModel {
         long end;
         boolean allDay;
         int color;
+        // The Julian days the event was queried for, 'when' depends on them
+        int startDay;
+        int endDay;
 
         public EventInfo() {
             visibWhen = View.GONE;
@@ -281,6 +376,24 @@ class CalendarAppWidgetModel {
             visibTitle = View.GONE;
         }
 
+        /**
+         * Returns whether this info was built from an instance with the given values, so
+         * it can be shown for it without formatting it again.
+         */
+        boolean matches(long id, boolean allDay, long start, long end, int startDay,
+                int endDay, String title, String location, int color, int selfStatus) {
+            if (this.id != id || this.allDay != allDay || this.start != start
+                    || this.end != end || this.startDay != startDay || this.endDay != endDay
+                    || this.color != color || selfAttendeeStatus != selfStatus
+                    || !TextUtils.equals(this.title, title)) {
+                return false;
+            }
+            if (TextUtils.isEmpty(location)) {
+                return visibWhere == View.GONE;
+            }
+            return visibWhere == View.VISIBLE && location.equals(where);
+        }
+
         @Override
         public String toString() {
             StringBuilder builder = new StringBuilder();
@@ -29,6 +29,7 @@ import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.Looper;
 import android.provider.CalendarContract.Attendees;
 import android.provider.CalendarContract.Calendars;
 import android.provider.CalendarContract.Instances;
@@ -44,6 +45,8 @@ import com.android.calendar.widget.CalendarAppWidgetModel.DayInfo;
 import com.android.calendar.widget.CalendarAppWidgetModel.EventInfo;
 import com.android.calendar.widget.CalendarAppWidgetModel.RowInfo;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -138,14 +141,30 @@ public class CalendarAppWidgetService extends RemoteViewsService {
         private static long sLastUpdateTime = UPDATE_TIME_NO_EVENTS;
         private static CalendarAppWidgetModel mModel;
         private static Object mLock = new Object();
+        // The views built for the rows of mModel, for events by whether they are in
+        // progress. Rows that are unchanged in a new model keep their views. Both maps are
+        // guarded by sEventViews.
+        private static final HashMap<EventInfo, RemoteViews[]> sEventViews =
+                new HashMap<EventInfo, RemoteViews[]>();
+        private static final HashMap<DayInfo, RemoteViews> sDayViews =
+                new HashMap<DayInfo, RemoteViews>();
+        // The declined, standard and all day colors sEventViews were built with. Guarded
+        // by sEventViews.
+        private static int[] sEventViewColors;
         private static volatile int mSerialNum = 0;
-        private final Handler mHandler = new Handler();
+        // The loader shared by the factories of all widgets and the factories using it.
+        // The first factory receives its results. Only used on the main thread, which
+        // onDestroy(), called on a binder thread, posts to.
+        private static CursorLoader sSharedLoader;
+        private static final ArrayList<CalendarFactory> sSharedClients =
+                new ArrayList<CalendarFactory>();
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
         private final ExecutorService executor = Executors.newSingleThreadExecutor();
         private Context mContext;
         private Resources mResources;
         private int mLastSerialNum = -1;
         private CursorLoader mLoader;
-        private final Runnable mTimezoneChanged = new Runnable() {
+        private final Runnable mForceLoad = new Runnable() {
             @Override
             public void run() {
                 if (mLoader != null) {
@@ -153,6 +172,12 @@ public class CalendarAppWidgetService extends RemoteViewsService {
                 }
             }
         };
+        private final Runnable mTimezoneChanged = new Runnable() {
+            @Override
+            public void run() {
+                WidgetRefreshScheduler.getInstance().requestRefresh(mAppWidgetId, mForceLoad);
+            }
+        };
         private int mAppWidgetId;
         private int mDeclinedColor;
         private int mStandardColor;
@@ -177,11 +202,67 @@ public class CalendarAppWidgetService extends RemoteViewsService {
         /* @VisibleForTesting */
         protected static CalendarAppWidgetModel buildAppWidgetModel(
                 Context context, Cursor cursor, String timeZone) {
+            return buildAppWidgetModel(context, cursor, timeZone, null);
+        }
+
+        /* @VisibleForTesting */
+        protected static CalendarAppWidgetModel buildAppWidgetModel(
+                Context context, Cursor cursor, String timeZone,
+                CalendarAppWidgetModel previous) {
             CalendarAppWidgetModel model = new CalendarAppWidgetModel(context, timeZone);
-            model.buildFromCursor(cursor, timeZone);
+            model.buildFromCursor(cursor, timeZone, previous);
             return model;
         }
 
+        /**
+         * Drops the cached views of rows that are not in the model.
+         */
+        private static void retainViews(CalendarAppWidgetModel model) {
+            synchronized (sEventViews) {
+                HashMap<EventInfo, RemoteViews[]> eventViews =
+                        new HashMap<EventInfo, RemoteViews[]>();
+                for (EventInfo eventInfo : model.mEventInfos) {
+                    RemoteViews[] views = sEventViews.get(eventInfo);
+                    if (views != null) {
+                        eventViews.put(eventInfo, views);
+                    }
+                }
+                sEventViews.clear();
+                sEventViews.putAll(eventViews);
+
+                HashMap<DayInfo, RemoteViews> dayViews = new HashMap<DayInfo, RemoteViews>();
+                for (DayInfo dayInfo : model.mDayInfos) {
+                    RemoteViews views = sDayViews.get(dayInfo);
+                    if (views != null) {
+                        dayViews.put(dayInfo, views);
+                    }
+                }
+                sDayViews.clear();
+                sDayViews.putAll(dayViews);
+            }
+        }
+
+        /**
+         * Drops the cached event views if they were built with other colors, such as
+         * before a configuration change.
+         *
+         * @return true if the cached views were dropped
+         */
+        /* @VisibleForTesting */
+        static boolean useEventViewColors(int declinedColor, int standardColor,
+                int allDayColor) {
+            synchronized (sEventViews) {
+                if (sEventViewColors != null && sEventViewColors[0] == declinedColor
+                        && sEventViewColors[1] == standardColor
+                        && sEventViewColors[2] == allDayColor) {
+                    return false;
+                }
+                sEventViewColors = new int[] { declinedColor, standardColor, allDayColor };
+                sEventViews.clear();
+                return true;
+            }
+        }
+
         private static long getNextMidnightTimeMillis(String timezone) {
             Time time = new Time();
             time.setToNow();
@@ -214,25 +295,43 @@ public class CalendarAppWidgetService extends RemoteViewsService {
             return new Runnable() {
                 @Override
                 public void run() {
-                    // If there is a newer load request in the queue, skip loading.
-                    if (mLoader != null && version >= currentVersion.get()) {
-                        Uri uri = createLoaderUri();
-                        mLoader.setUri(uri);
-                        mLoader.setSelection(selection);
-                        synchronized (mLock) {
-                            mLastSerialNum = ++mSerialNum;
-                        }
-                        mLoader.forceLoad();
-                    }
+                    updateLoader(selection, version);
                     result.finish();
                 }
             };
         }
 
+        private void updateLoader(String selection, int version) {
+            // If there is a newer load request in the queue, skip loading.
+            if (mLoader != null && version >= currentVersion.get()) {
+                Uri uri = createLoaderUri();
+                mLoader.setUri(uri);
+                mLoader.setSelection(selection);
+                synchronized (mLock) {
+                    mLastSerialNum = ++mSerialNum;
+                }
+                mLoader.forceLoad();
+            }
+        }
+
+        /**
+         * Reloads the shared loader through the factory receiving its results.
+         *
+         * @return false if no widget is using the shared loader
+         */
+        /* @VisibleForTesting */
+        static boolean reloadSharedLoader(String selection, int version) {
+            if (sSharedClients.isEmpty()) {
+                return false;
+            }
+            sSharedClients.get(0).updateLoader(selection, version);
+            return true;
+        }
+
         @Override
         public void onCreate() {
             String selection = queryForSelection();
-            initLoader(selection);
+            acquireSharedLoader(selection);
         }
 
         @Override
@@ -241,11 +340,55 @@ public class CalendarAppWidgetService extends RemoteViewsService {
 
         @Override
         public void onDestroy() {
-            if (mLoader != null) {
-                mLoader.reset();
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    releaseSharedLoader();
+                }
+            });
+        }
+
+        /**
+         * Starts loading the events through the loader shared by all widgets. The first
+         * widget creates it, the others show the model it builds.
+         */
+        /* @VisibleForTesting */
+        void acquireSharedLoader(String selection) {
+            sSharedClients.add(this);
+            if (sSharedLoader == null) {
+                initLoader(selection);
+                sSharedLoader = mLoader;
+            } else {
+                mLoader = sSharedLoader;
             }
         }
 
+        /**
+         * Stops using the shared loader, and stops the loader once no widget uses it.
+         */
+        /* @VisibleForTesting */
+        void releaseSharedLoader() {
+            int index = sSharedClients.indexOf(this);
+            if (index == -1) {
+                if (mLoader != null) {
+                    mLoader.reset();
+                }
+                return;
+            }
+            sSharedClients.remove(index);
+            if (sSharedClients.isEmpty()) {
+                sSharedLoader.reset();
+                sSharedLoader = null;
+            } else if (index == 0) {
+                // Hand the results over to the next widget
+                CalendarFactory next = sSharedClients.get(0);
+                sSharedLoader.unregisterListener(this);
+                next.mLastSerialNum = mLastSerialNum;
+                sSharedLoader.registerListener(next.mAppWidgetId, next);
+            }
+            mLoader = null;
+        }
+
         @Override
         public RemoteViews getLoadingView() {
             RemoteViews views = new RemoteViews(mContext.getPackageName(),
@@ -280,96 +423,120 @@ public class CalendarAppWidgetService extends RemoteViewsService {
 
             RowInfo rowInfo = mModel.mRowInfos.get(position);
             if (rowInfo.mType == RowInfo.TYPE_DAY) {
-                RemoteViews views = new RemoteViews(mContext.getPackageName(),
-                        R.layout.appwidget_day);
                 DayInfo dayInfo = mModel.mDayInfos.get(rowInfo.mIndex);
-                updateTextView(views, R.id.date, View.VISIBLE, dayInfo.mDayLabel);
-                return views;
+                synchronized (sEventViews) {
+                    RemoteViews views = sDayViews.get(dayInfo);
+                    if (views == null) {
+                        views = new RemoteViews(mContext.getPackageName(),
+                                R.layout.appwidget_day);
+                        updateTextView(views, R.id.date, View.VISIBLE, dayInfo.mDayLabel);
+                        sDayViews.put(dayInfo, views);
+                    }
+                    return views;
+                }
             } else {
-                RemoteViews views;
                 final EventInfo eventInfo = mModel.mEventInfos.get(rowInfo.mIndex);
-                if (eventInfo.allDay) {
-                    views = new RemoteViews(mContext.getPackageName(),
-                            R.layout.widget_all_day_item);
-                } else {
-                    views = new RemoteViews(mContext.getPackageName(), R.layout.widget_item);
-                }
-                int displayColor = Utils.getDisplayColorFromColor(eventInfo.color);
-
                 final long now = System.currentTimeMillis();
-                if (!eventInfo.allDay && eventInfo.start <= now && now <= eventInfo.end) {
-                    views.setInt(R.id.widget_row, "setBackgroundResource",
-                            R.drawable.agenda_item_bg_secondary);
-                } else {
-                    views.setInt(R.id.widget_row, "setBackgroundResource",
-                            R.drawable.agenda_item_bg_primary);
-                }
-
-                if (!eventInfo.allDay) {
-                    updateTextView(views, R.id.when, eventInfo.visibWhen, eventInfo.when);
-                    updateTextView(views, R.id.where, eventInfo.visibWhere, eventInfo.where);
-                }
-                updateTextView(views, R.id.title, eventInfo.visibTitle, eventInfo.title);
-
-                views.setViewVisibility(R.id.agenda_item_color, View.VISIBLE);
-
-                int selfAttendeeStatus = eventInfo.selfAttendeeStatus;
-                if (eventInfo.allDay) {
-                    if (selfAttendeeStatus == Attendees.ATTENDEE_STATUS_INVITED) {
-                        views.setInt(R.id.agenda_item_color, "setImageResource",
-                                R.drawable.widget_chip_not_responded_bg);
-                        views.setInt(R.id.title, "setTextColor", displayColor);
-                    } else {
-                        views.setInt(R.id.agenda_item_color, "setImageResource",
-                                R.drawable.widget_chip_responded_bg);
-                        views.setInt(R.id.title, "setTextColor", mAllDayColor);
+                final boolean inProgress = !eventInfo.allDay && eventInfo.start <= now
+                        && now <= eventInfo.end;
+                synchronized (sEventViews) {
+                    useEventViewColors(mDeclinedColor, mStandardColor, mAllDayColor);
+                    RemoteViews[] cached = sEventViews.get(eventInfo);
+                    if (cached == null) {
+                        cached = new RemoteViews[2];
+                        sEventViews.put(eventInfo, cached);
                     }
-                    if (selfAttendeeStatus == Attendees.ATTENDEE_STATUS_DECLINED) {
-                        // 40% opacity
-                        views.setInt(R.id.agenda_item_color, "setColorFilter",
-                                Utils.getDeclinedColorFromColor(displayColor));
-                    } else {
-                        views.setInt(R.id.agenda_item_color, "setColorFilter", displayColor);
+                    int index = inProgress ? 1 : 0;
+                    if (cached[index] == null) {
+                        cached[index] = buildEventViews(eventInfo, inProgress);
                     }
-                } else if (selfAttendeeStatus == Attendees.ATTENDEE_STATUS_DECLINED) {
-                    views.setInt(R.id.title, "setTextColor", mDeclinedColor);
-                    views.setInt(R.id.when, "setTextColor", mDeclinedColor);
-                    views.setInt(R.id.where, "setTextColor", mDeclinedColor);
-                    // views.setInt(R.id.agenda_item_color, "setDrawStyle",
-                    // ColorChipView.DRAW_CROSS_HATCHED);
+                    return cached[index];
+                }
+            }
+        }
+
+        private RemoteViews buildEventViews(EventInfo eventInfo, boolean inProgress) {
+            RemoteViews views;
+            if (eventInfo.allDay) {
+                views = new RemoteViews(mContext.getPackageName(),
+                        R.layout.widget_all_day_item);
+            } else {
+                views = new RemoteViews(mContext.getPackageName(), R.layout.widget_item);
+            }
+            int displayColor = Utils.getDisplayColorFromColor(eventInfo.color);
+
+            if (inProgress) {
+                views.setInt(R.id.widget_row, "setBackgroundResource",
+                        R.drawable.agenda_item_bg_secondary);
+            } else {
+                views.setInt(R.id.widget_row, "setBackgroundResource",
+                        R.drawable.agenda_item_bg_primary);
+            }
+
+            if (!eventInfo.allDay) {
+                updateTextView(views, R.id.when, eventInfo.visibWhen, eventInfo.when);
+                updateTextView(views, R.id.where, eventInfo.visibWhere, eventInfo.where);
+            }
+            updateTextView(views, R.id.title, eventInfo.visibTitle, eventInfo.title);
+
+            views.setViewVisibility(R.id.agenda_item_color, View.VISIBLE);
+
+            int selfAttendeeStatus = eventInfo.selfAttendeeStatus;
+            if (eventInfo.allDay) {
+                if (selfAttendeeStatus == Attendees.ATTENDEE_STATUS_INVITED) {
+                    views.setInt(R.id.agenda_item_color, "setImageResource",
+                            R.drawable.widget_chip_not_responded_bg);
+                    views.setInt(R.id.title, "setTextColor", displayColor);
+                } else {
                     views.setInt(R.id.agenda_item_color, "setImageResource",
                             R.drawable.widget_chip_responded_bg);
+                    views.setInt(R.id.title, "setTextColor", mAllDayColor);
+                }
+                if (selfAttendeeStatus == Attendees.ATTENDEE_STATUS_DECLINED) {
                     // 40% opacity
                     views.setInt(R.id.agenda_item_color, "setColorFilter",
                             Utils.getDeclinedColorFromColor(displayColor));
                 } else {
-                    views.setInt(R.id.title, "setTextColor", mStandardColor);
-                    views.setInt(R.id.when, "setTextColor", mStandardColor);
-                    views.setInt(R.id.where, "setTextColor", mStandardColor);
-                    if (selfAttendeeStatus == Attendees.ATTENDEE_STATUS_INVITED) {
-                        views.setInt(R.id.agenda_item_color, "setImageResource",
-                                R.drawable.widget_chip_not_responded_bg);
-                    } else {
-                        views.setInt(R.id.agenda_item_color, "setImageResource",
-                                R.drawable.widget_chip_responded_bg);
-                    }
                     views.setInt(R.id.agenda_item_color, "setColorFilter", displayColor);
                 }
-
-                long start = eventInfo.start;
-                long end = eventInfo.end;
-                // An element in ListView.
-                if (eventInfo.allDay) {
-                    String tz = Utils.getTimeZone(mContext, null);
-                    Time recycle = new Time();
-                    start = Utils.convertAlldayLocalToUTC(recycle, start, tz);
-                    end = Utils.convertAlldayLocalToUTC(recycle, end, tz);
+            } else if (selfAttendeeStatus == Attendees.ATTENDEE_STATUS_DECLINED) {
+                views.setInt(R.id.title, "setTextColor", mDeclinedColor);
+                views.setInt(R.id.when, "setTextColor", mDeclinedColor);
+                views.setInt(R.id.where, "setTextColor", mDeclinedColor);
+                // views.setInt(R.id.agenda_item_color, "setDrawStyle",
+                // ColorChipView.DRAW_CROSS_HATCHED);
+                views.setInt(R.id.agenda_item_color, "setImageResource",
+                        R.drawable.widget_chip_responded_bg);
+                // 40% opacity
+                views.setInt(R.id.agenda_item_color, "setColorFilter",
+                        Utils.getDeclinedColorFromColor(displayColor));
+            } else {
+                views.setInt(R.id.title, "setTextColor", mStandardColor);
+                views.setInt(R.id.when, "setTextColor", mStandardColor);
+                views.setInt(R.id.where, "setTextColor", mStandardColor);
+                if (selfAttendeeStatus == Attendees.ATTENDEE_STATUS_INVITED) {
+                    views.setInt(R.id.agenda_item_color, "setImageResource",
+                            R.drawable.widget_chip_not_responded_bg);
+                } else {
+                    views.setInt(R.id.agenda_item_color, "setImageResource",
+                            R.drawable.widget_chip_responded_bg);
                 }
-                final Intent fillInIntent = CalendarAppWidgetProvider.getLaunchFillInIntent(
-                        mContext, eventInfo.id, start, end, eventInfo.allDay);
-                views.setOnClickFillInIntent(R.id.widget_row, fillInIntent);
-                return views;
+                views.setInt(R.id.agenda_item_color, "setColorFilter", displayColor);
             }
+
+            long start = eventInfo.start;
+            long end = eventInfo.end;
+            // An element in ListView.
+            if (eventInfo.allDay) {
+                String tz = Utils.getTimeZone(mContext, null);
+                Time recycle = new Time();
+                start = Utils.convertAlldayLocalToUTC(recycle, start, tz);
+                end = Utils.convertAlldayLocalToUTC(recycle, end, tz);
+            }
+            final Intent fillInIntent = CalendarAppWidgetProvider.getLaunchFillInIntent(
+                    mContext, eventInfo.id, start, end, eventInfo.allDay);
+            views.setOnClickFillInIntent(R.id.widget_row, fillInIntent);
+            return views;
         }
 
         @Override
@@ -425,8 +592,7 @@ public class CalendarAppWidgetService extends RemoteViewsService {
 
             // Search for events from now until some time in the future
             Uri uri = createLoaderUri();
-            mLoader = new CursorLoader(mContext, uri, EVENT_PROJECTION, selection, null,
-                    EVENT_SORT_ORDER);
+            mLoader = createLoader(uri, selection);
             mLoader.setUpdateThrottle(WIDGET_UPDATE_THROTTLE);
             synchronized (mLock) {
                 mLastSerialNum = ++mSerialNum;
@@ -440,6 +606,12 @@ public class CalendarAppWidgetService extends RemoteViewsService {
          * This gets the selection string for the loader.  This ends up doing a query in the
          * shared preferences.
          */
+        /* @VisibleForTesting */
+        CursorLoader createLoader(Uri uri, String selection) {
+            return new CursorLoader(mContext, uri, EVENT_PROJECTION, selection, null,
+                    EVENT_SORT_ORDER);
+        }
+
         private String queryForSelection() {
             return Utils.getHideDeclinedEvents(mContext) ? EVENT_SELECTION_HIDE_DECLINED
                     : EVENT_SELECTION;
@@ -508,8 +680,9 @@ public class CalendarAppWidgetService extends RemoteViewsService {
 
                 // Copy it to a local static cursor.
                 MatrixCursor matrixCursor = Utils.matrixCursorFromCursor(cursor);
+                final CalendarAppWidgetModel previous = mModel;
                 try {
-                    mModel = buildAppWidgetModel(mContext, matrixCursor, tz);
+                    mModel = buildAppWidgetModel(mContext, matrixCursor, tz, previous);
                 } finally {
                     if (matrixCursor != null) {
                         matrixCursor.close();
@@ -539,6 +712,10 @@ public class CalendarAppWidgetService extends RemoteViewsService {
                 final PendingIntent pendingUpdate = CalendarAppWidgetProvider
                         .getUpdateIntent(mContext);
 
+                // The model of the shared loader is shown by every widget
+                final int widgetId = mLoader == sSharedLoader ? -1 : mAppWidgetId;
+                WidgetRefreshScheduler.getInstance().setNextUpdate(widgetId, triggerTime - now);
+
                 alertManager.cancel(pendingUpdate);
                 alertManager.set(AlarmManager.RTC, triggerTime, pendingUpdate);
                 Time time = new Time(Utils.getTimeZone(mContext, null));
@@ -557,8 +734,18 @@ public class CalendarAppWidgetService extends RemoteViewsService {
                     sLastUpdateTime = time.toMillis(true);
                 }
 
+                // Only redraw when a row changed, provider changes often don't affect the
+                // events shown
+                retainViews(mModel);
+                if (previous != null && mModel.hasSameRows(previous)) {
+                    if (LOGD) {
+                        Log.d(TAG, "Widget rows unchanged, skipping redraw");
+                    }
+                    return;
+                }
+
                 AppWidgetManager widgetManager = AppWidgetManager.getInstance(mContext);
-                if (mAppWidgetId == -1) {
+                if (widgetId == -1) {
                     int[] ids = widgetManager.getAppWidgetIds(CalendarAppWidgetProvider
                             .getComponentName(mContext));
 
@@ -586,8 +773,11 @@ public class CalendarAppWidgetService extends RemoteViewsService {
             // TODO: Remove use of mHandler and CursorLoader, and do all the work synchronously
             // in the background thread.  All the handshaking going on here between the UI and
             // background thread with using goAsync, mHandler, and CursorLoader is confusing.
+            //
+            // Broadcasts often come in bursts during a sync, so they go through the refresh
+            // scheduler and only one load is started per burst.
             final PendingResult result = goAsync();
-            executor.submit(new Runnable() {
+            final Runnable load = new Runnable() {
                 @Override
                 public void run() {
                     // We always complete queryForSelection() even if the load task ends up being
@@ -596,21 +786,36 @@ public class CalendarAppWidgetService extends RemoteViewsService {
                     // (from goAsync) to abort them.  Defer this until it becomes a problem.
                     final String selection = queryForSelection();
 
-                    if (mLoader == null) {
-                        mAppWidgetId = -1;
-                        mHandler.post(new Runnable() {
-                            @Override
-                            public void run() {
+                    final int version = currentVersion.incrementAndGet();
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (reloadSharedLoader(selection, version)) {
+                                // Widgets are showing, their loader was reloaded instead
+                                // of running another query
+                                result.finish();
+                            } else if (mLoader == null) {
+                                mAppWidgetId = -1;
                                 initLoader(selection);
                                 result.finish();
+                            } else {
+                                createUpdateLoaderRunnable(selection, result, version).run();
                             }
-                        });
-                    } else {
-                        mHandler.post(createUpdateLoaderRunnable(selection, result,
-                                currentVersion.incrementAndGet()));
-                    }
+                        }
+                    });
                 }
-            });
+            };
+            boolean scheduled = WidgetRefreshScheduler.getInstance().requestRefresh(
+                    WidgetRefreshScheduler.ALL_WIDGETS, new Runnable() {
+                        @Override
+                        public void run() {
+                            executor.submit(load);
+                        }
+                    });
+            if (!scheduled) {
+                // A pending refresh picks up this change
+                result.finish();
+            }
         }
     }
 }
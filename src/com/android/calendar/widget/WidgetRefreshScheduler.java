@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.widget;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+/**
+ * Schedules widget refreshes so that bursts of requests, e.g. the provider change
+ * broadcasts sent during a sync, result in a single refresh.
+ *
+ * Requests for the same widget are coalesced: while a refresh is pending, further
+ * requests push it back by a debounce delay that doubles while the requests keep
+ * coming, up to {@link #MAX_DEBOUNCE_MS} after the first one. A pending refresh of all
+ * widgets also serves the requests of single widgets. Refreshes of a widget are at
+ * least {@link #MIN_REFRESH_INTERVAL_MS} apart, unless its content is due to change
+ * sooner than that, see {@link #setNextUpdate(int, long)}.
+ */
+class WidgetRefreshScheduler {
+    private static final String TAG = "WidgetRefreshScheduler";
+    private static final boolean DEBUG = false;
+
+    /** The id used for requests that refresh every widget. */
+    static final int ALL_WIDGETS = -1;
+
+    static final long MIN_DEBOUNCE_MS = 250;
+    // Also bounds how long a broadcast waits for its refresh
+    static final long MAX_DEBOUNCE_MS = 4000;
+    static final long MIN_REFRESH_INTERVAL_MS = 2000;
+    // Requests closer together than this are treated as a burst
+    static final long BURST_WINDOW_MS = 1000;
+
+    private static WidgetRefreshScheduler sInstance;
+
+    private final Handler mHandler;
+    private final SparseArray<WidgetState> mStates = new SparseArray<WidgetState>();
+
+    private int mRequests;
+    private int mSuppressed;
+    private int mRefreshes;
+
+    private class WidgetState implements Runnable {
+        final int widgetId;
+        long debounce = MIN_DEBOUNCE_MS;
+        long lastRequest;
+        long lastRefresh;
+        long firstPendingRequest;
+        long nextUpdate = Long.MAX_VALUE;
+        Runnable pending;
+
+        WidgetState(int widgetId) {
+            this.widgetId = widgetId;
+        }
+
+        @Override
+        public void run() {
+            runRefresh(this);
+        }
+    }
+
+    WidgetRefreshScheduler(Handler handler) {
+        mHandler = handler;
+    }
+
+    static synchronized WidgetRefreshScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new WidgetRefreshScheduler(new Handler(Looper.getMainLooper()));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Requests a refresh of a widget, or of all widgets for {@link #ALL_WIDGETS}.
+     *
+     * @param refresh runs on the scheduler's handler if the request starts a new
+     *            refresh
+     * @return false if the request was served by a pending refresh, in which case
+     *         refresh will not run
+     */
+    boolean requestRefresh(int widgetId, Runnable refresh) {
+        return requestRefresh(widgetId, refresh, SystemClock.uptimeMillis());
+    }
+
+    /* @VisibleForTesting */
+    synchronized boolean requestRefresh(int widgetId, Runnable refresh, long now) {
+        mRequests++;
+        WidgetState state = getState(widgetId);
+        if (state.lastRequest != 0 && now - state.lastRequest < BURST_WINDOW_MS) {
+            state.debounce = Math.min(state.debounce * 2, MAX_DEBOUNCE_MS);
+        } else {
+            state.debounce = MIN_DEBOUNCE_MS;
+        }
+        state.lastRequest = now;
+
+        WidgetState all = getState(ALL_WIDGETS);
+        if (state.pending != null || (state != all && all.pending != null)) {
+            mSuppressed++;
+            if (state.pending != null) {
+                // Push the pending refresh back, the burst may not be over yet
+                mHandler.removeCallbacks(state);
+                mHandler.postAtTime(state, getRefreshTime(state, now));
+            }
+            if (DEBUG) {
+                Log.d(TAG, "Coalesced refresh of widget " + widgetId + ", " + this);
+            }
+            return false;
+        }
+
+        state.pending = refresh;
+        state.firstPendingRequest = now;
+        mHandler.postAtTime(state, getRefreshTime(state, now));
+        return true;
+    }
+
+    /**
+     * Sets how long until the content of a widget changes on its own, e.g. when the
+     * next event starts. Refreshes are not held back past that time.
+     */
+    synchronized void setNextUpdate(int widgetId, long delayMs) {
+        getState(widgetId).nextUpdate = SystemClock.uptimeMillis() + Math.max(0, delayMs);
+    }
+
+    /* @VisibleForTesting */
+    synchronized long getRefreshTime(int widgetId, long now) {
+        return getRefreshTime(getState(widgetId), now);
+    }
+
+    private long getRefreshTime(WidgetState state, long now) {
+        long time = Math.min(now + state.debounce, state.firstPendingRequest + MAX_DEBOUNCE_MS);
+        if (state.lastRefresh != 0) {
+            long minInterval = Math.min(MIN_REFRESH_INTERVAL_MS,
+                    Math.max(0, state.nextUpdate - now));
+            time = Math.max(time, state.lastRefresh + minInterval);
+        }
+        return time;
+    }
+
+    private void runRefresh(WidgetState state) {
+        Runnable refresh;
+        synchronized (this) {
+            refresh = state.pending;
+            state.pending = null;
+            state.lastRefresh = SystemClock.uptimeMillis();
+            mRefreshes++;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Refreshing widget " + state.widgetId + ", " + this);
+        }
+        if (refresh != null) {
+            refresh.run();
+        }
+    }
+
+    private WidgetState getState(int widgetId) {
+        WidgetState state = mStates.get(widgetId);
+        if (state == null) {
+            state = new WidgetState(widgetId);
+            mStates.put(widgetId, state);
+        }
+        return state;
+    }
+
+    /** Returns the number of refresh requests made. */
+    synchronized int getRequestCount() {
+        return mRequests;
+    }
+
+    /** Returns the number of requests that were served by a pending refresh. */
+    synchronized int getSuppressedCount() {
+        return mSuppressed;
+    }
+
+    /** Returns the number of refreshes run. */
+    synchronized int getRefreshCount() {
+        return mRefreshes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "requests=" + mRequests + " suppressed=" + mSuppressed
+                + " refreshes=" + mRefreshes;
+    }
+}
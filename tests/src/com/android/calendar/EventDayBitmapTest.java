@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.nio.LongBuffer;
+
+@SmallTest
+public class EventDayBitmapTest extends TestCase {
+
+    public void testWindowStart() {
+        // Aligned to a word, with today twelve to thirteen words in
+        int start = EventDayBitmap.windowStart(2457000);
+        assertEquals(0, start & 63);
+        assertTrue(2457000 - start >= 12 * 64);
+        assertTrue(2457000 - start < 13 * 64);
+        // Only moves once today reaches the next word
+        assertEquals(start, EventDayBitmap.windowStart((2457000 & ~63) + 63));
+        assertEquals(start + 64, EventDayBitmap.windowStart((2457000 & ~63) + 64));
+    }
+
+    public void testWordMask() {
+        assertEquals(0x1, EventDayBitmap.wordMask(0, 0));
+        assertEquals(0x6, EventDayBitmap.wordMask(1, 2));
+        assertEquals(0x800000, EventDayBitmap.wordMask(23, 23));
+        assertEquals(0xffffff, EventDayBitmap.wordMask(0, 23));
+    }
+
+    public void testRequestMask() {
+        // A month within a word, and one across two
+        assertEquals(0x1, EventDayBitmap.requestMask(0, 31));
+        assertEquals(0x6, EventDayBitmap.requestMask(100, 42));
+        assertEquals(0x800000, EventDayBitmap.requestMask(EventDayBitmap.WINDOW_DAYS - 1, 1));
+        // Outside the window
+        assertEquals(0, EventDayBitmap.requestMask(-1, 31));
+        assertEquals(0, EventDayBitmap.requestMask(EventDayBitmap.WINDOW_DAYS - 30, 31));
+        assertEquals(0, EventDayBitmap.requestMask(10, 0));
+    }
+
+    public void testStaleAfterQuery() {
+        // The queried words are fresh, others stay stale
+        assertEquals(0x9, EventDayBitmap.staleAfterQuery(0xf, 0x6, false));
+        assertEquals(0, EventDayBitmap.staleAfterQuery(0xffffff, 0xffffff, false));
+        // Unless a change arrived during the query
+        assertEquals(0xffffff, EventDayBitmap.staleAfterQuery(0xffffff, 0x6, true));
+    }
+
+    public void testPatchWords() {
+        LongBuffer bits = LongBuffer.allocate(4);
+        bits.put(1, 5L);
+        bits.put(2, 7L);
+
+        // Only the words that differ are written
+        assertEquals(1, EventDayBitmap.patchWords(bits, new long[] { 5L, 8L }, 1, false));
+        assertEquals(5L, bits.get(1));
+        assertEquals(8L, bits.get(2));
+        assertEquals(0, bits.get(0));
+        assertEquals(0, bits.get(3));
+
+        // A moved window rewrites every word
+        assertEquals(2, EventDayBitmap.patchWords(bits, new long[] { 5L, 8L }, 1, true));
+        assertEquals(0, EventDayBitmap.patchWords(bits, new long[] { 5L, 8L }, 1, false));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.content.Intent;
+import android.provider.CalendarContract;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.calendar.icalendar.IcalendarParser;
+import com.android.calendar.icalendar.VEvent;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+@SmallTest
+public class ImportActivityTest extends TestCase {
+
+    private static final String DEFAULT_TIME_ZONE = "Europe/Berlin";
+
+    private static Intent buildIntent(String... lines) {
+        VEvent event = IcalendarParser.parseEvent(Arrays.asList(lines));
+        return ImportActivity.buildInsertIntent(event, DEFAULT_TIME_ZONE);
+    }
+
+    public void testBuildInsertIntent_TimeZone() {
+        Intent intent = buildIntent(
+                "SUMMARY:Meeting\\, again",
+                "DTSTART;TZID=America/New_York:20160101T100000",
+                "DTEND;TZID=America/New_York:20160101T110000",
+                "ORGANIZER;CN=Organizer:mailto:organizer@test",
+                "ATTENDEE;CN=Attendee:mailto:attendee@test");
+
+        assertEquals("Meeting, again", intent.getStringExtra(CalendarContract.Events.TITLE));
+        assertEquals("organizer@test",
+                intent.getStringExtra(CalendarContract.Events.ORGANIZER));
+        assertEquals("attendee@test,", intent.getStringExtra(Intent.EXTRA_EMAIL));
+        assertFalse(intent.getBooleanExtra(CalendarContract.EXTRA_EVENT_ALL_DAY, true));
+        // 15:00 and 16:00 UTC
+        assertEquals(1451660400000L,
+                intent.getLongExtra(CalendarContract.EXTRA_EVENT_BEGIN_TIME, -1));
+        assertEquals(1451664000000L,
+                intent.getLongExtra(CalendarContract.EXTRA_EVENT_END_TIME, -1));
+    }
+
+    public void testBuildInsertIntent_Floating() {
+        Intent intent = buildIntent(
+                "DTSTART:20160101T100000",
+                "DURATION:PT1H");
+
+        // 10:00 in the default time zone
+        assertEquals(1451638800000L,
+                intent.getLongExtra(CalendarContract.EXTRA_EVENT_BEGIN_TIME, -1));
+        assertEquals(1451642400000L,
+                intent.getLongExtra(CalendarContract.EXTRA_EVENT_END_TIME, -1));
+        assertNull(intent.getStringExtra(CalendarContract.Events.ORGANIZER));
+    }
+
+    public void testBuildInsertIntent_AllDay() {
+        Intent intent = buildIntent(
+                "DTSTART;VALUE=DATE:20160101",
+                "DTEND;VALUE=DATE:20160102");
+
+        assertTrue(intent.getBooleanExtra(CalendarContract.EXTRA_EVENT_ALL_DAY, false));
+        // Midnight UTC, like all-day events in the provider
+        assertEquals(1451606400000L,
+                intent.getLongExtra(CalendarContract.EXTRA_EVENT_BEGIN_TIME, -1));
+        assertEquals(1451692800000L,
+                intent.getLongExtra(CalendarContract.EXTRA_EVENT_END_TIME, -1));
+    }
+
+    public void testBuildInsertIntent_BadTime() {
+        Intent intent = buildIntent("DTSTART:2016");
+
+        assertEquals(-1, intent.getLongExtra(CalendarContract.EXTRA_EVENT_BEGIN_TIME, -1));
+        assertEquals(-1, intent.getLongExtra(CalendarContract.EXTRA_EVENT_END_TIME, -1));
+    }
+}
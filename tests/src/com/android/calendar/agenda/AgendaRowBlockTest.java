@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.agenda;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+@SmallTest
+public class AgendaRowBlockTest extends TestCase {
+
+    private static final int COLUMNS = AgendaWindowAdapter.INDEX_TIME_ZONE + 1;
+
+    /**
+     * Returns a cursor with the given number of rows on each day from startDay
+     */
+    private static Cursor buildCursor(int startDay, int... rowsPerDay) {
+        String[] names = new String[COLUMNS];
+        for (int i = 0; i < COLUMNS; i++) {
+            names[i] = "column" + i;
+        }
+        MatrixCursor cursor = new MatrixCursor(names);
+        long id = 0;
+        for (int i = 0; i < rowsPerDay.length; i++) {
+            for (int j = 0; j < rowsPerDay[i]; j++) {
+                Object[] row = new Object[COLUMNS];
+                for (int k = 0; k < COLUMNS; k++) {
+                    row[k] = 0;
+                }
+                row[AgendaWindowAdapter.INDEX_INSTANCE_ID] = id++;
+                row[AgendaWindowAdapter.INDEX_TITLE] = "Event";
+                row[AgendaWindowAdapter.INDEX_START_DAY] = startDay + i;
+                row[AgendaWindowAdapter.INDEX_END_DAY] = startDay + i;
+                cursor.addRow(row);
+            }
+        }
+        return cursor;
+    }
+
+    public void testCopyOf_Fits() {
+        AgendaRowBlock block = AgendaRowBlock.copyOf(buildCursor(100, 2, 3), 100, 101, 10,
+                false);
+        assertEquals(5, block.getCount());
+        assertEquals(100, block.firstCompleteDay);
+        assertEquals(101, block.lastCompleteDay);
+    }
+
+    public void testCopyOf_DropsWholeDays() {
+        AgendaRowBlock block = AgendaRowBlock.copyOf(buildCursor(100, 3, 3, 3), 100, 102, 7,
+                false);
+        assertEquals(6, block.getCount());
+        assertEquals(100, block.firstCompleteDay);
+        assertEquals(101, block.lastCompleteDay);
+
+        block = AgendaRowBlock.copyOf(buildCursor(100, 3, 3, 3), 100, 102, 7, true);
+        assertEquals(6, block.getCount());
+        assertEquals(101, block.firstCompleteDay);
+        assertEquals(102, block.lastCompleteDay);
+        Cursor cursor = block.newCursor();
+        cursor.moveToFirst();
+        assertEquals(3, cursor.getLong(AgendaWindowAdapter.INDEX_INSTANCE_ID));
+    }
+
+    public void testCopyOf_KeepsWholeLargeDay() {
+        // The first day has more rows than fit, all of them are kept
+        AgendaRowBlock block = AgendaRowBlock.copyOf(buildCursor(100, 8, 2), 100, 101, 5,
+                false);
+        assertEquals(8, block.getCount());
+        assertEquals(100, block.firstCompleteDay);
+        assertEquals(100, block.lastCompleteDay);
+
+        block = AgendaRowBlock.copyOf(buildCursor(100, 2, 8), 100, 101, 5, true);
+        assertEquals(8, block.getCount());
+        assertEquals(101, block.firstCompleteDay);
+        assertEquals(101, block.lastCompleteDay);
+        Cursor cursor = block.newCursor();
+        cursor.moveToFirst();
+        assertEquals(2, cursor.getLong(AgendaWindowAdapter.INDEX_INSTANCE_ID));
+    }
+}
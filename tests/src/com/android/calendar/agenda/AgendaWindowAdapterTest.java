@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.agenda;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+@SmallTest
+public class AgendaWindowAdapterTest extends TestCase {
+
+    private static final int MAX = AgendaWindowAdapter.MAX_CACHED_ROWS;
+
+    public void testPrune_Fits() {
+        int[] sizes = {100, 100, 100};
+        assertEquals(0, AgendaWindowAdapter.countAdaptersToPrune(sizes, true, 200, 150, MAX));
+        assertEquals(0, AgendaWindowAdapter.countAdaptersToPrune(sizes, false, 200, 150, MAX));
+    }
+
+    public void testPrune_FarEnd() {
+        int[] sizes = {100, 100, 100, 100};
+        // Scrolled to the last adapter, newer rows drop the first ones
+        assertEquals(1, AgendaWindowAdapter.countAdaptersToPrune(sizes, true, 200, 350, MAX));
+        assertEquals(2, AgendaWindowAdapter.countAdaptersToPrune(sizes, true, 300, 350, MAX));
+        // Scrolled to the first adapter, older rows drop the last ones
+        assertEquals(1, AgendaWindowAdapter.countAdaptersToPrune(sizes, false, 200, 50, MAX));
+        assertEquals(2, AgendaWindowAdapter.countAdaptersToPrune(sizes, false, 300, 50, MAX));
+    }
+
+    public void testPrune_FullPageKeepsVisibleAdapter() {
+        int[] sizes = {100, 100, 100, 100};
+        for (int position = 0; position < 400; position += 25) {
+            int visible = position / 100;
+
+            int prune = AgendaWindowAdapter.countAdaptersToPrune(sizes, true, MAX, position,
+                    MAX);
+            // The adapter on screen and the one before it survive
+            assertTrue("position " + position, prune <= Math.max(0, visible - 1));
+
+            prune = AgendaWindowAdapter.countAdaptersToPrune(sizes, false, MAX, position, MAX);
+            // The adapter on screen and the one after it survive
+            assertTrue("position " + position, sizes.length - prune >= Math.min(sizes.length,
+                    visible + 2));
+        }
+    }
+
+    public void testPrune_NothingToKeep() {
+        int[] sizes = {100, 100, 100};
+        assertEquals(3, AgendaWindowAdapter.countAdaptersToPrune(sizes, true, MAX, -1, MAX));
+        assertEquals(0, AgendaWindowAdapter.countAdaptersToPrune(new int[0], true, MAX, 0,
+                MAX));
+    }
+
+    public void testPrune_PastTheEnd() {
+        // On the footer the last adapter is on screen
+        int[] sizes = {100, 100, 100};
+        assertEquals(1, AgendaWindowAdapter.countAdaptersToPrune(sizes, true, MAX, 300, MAX));
+        assertEquals(0, AgendaWindowAdapter.countAdaptersToPrune(sizes, false, MAX, 300, MAX));
+    }
+}
@@ -52,6 +52,7 @@ public class AlarmSchedulerTest extends AndroidTestCase {
         private ArrayList<EventInfo> mEvents = new ArrayList<EventInfo>();
         private ArrayList<String> mExpectedRemindersQueries = new ArrayList<String>();
         private int mCurrentReminderQueryIndex = 0;
+        private int mQueryCount = 0;
 
         /**
          * Contains info for a test event and its reminder.
@@ -114,6 +115,7 @@ public class AlarmSchedulerTest extends AndroidTestCase {
         @Override
         public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                 String sortOrder) {
+            mQueryCount++;
             if (uri.toString().startsWith(Instances.CONTENT_URI.toString())) {
                 return getInstancesCursor();
             } else if (Reminders.CONTENT_URI.equals(uri)) {
@@ -142,6 +144,13 @@ public class AlarmSchedulerTest extends AndroidTestCase {
         public void addExpectedRemindersQuery(String expectedRemindersQuery) {
             this.mExpectedRemindersQueries.add(expectedRemindersQuery);
         }
+
+        /**
+         * Returns the number of queries made so far.
+         */
+        public int getQueryCount() {
+            return mQueryCount;
+        }
     }
 
     /**
@@ -316,4 +325,55 @@ public class AlarmSchedulerTest extends AndroidTestCase {
         AlarmScheduler.scheduleNextAlarm(mIsolatedContext, mMockAlarmManager, batchSize,
                 currentMillis);
     }
+
+    public void testTimelineReused() {
+        // Set up two events with reminders 15 minutes apart.
+        long currentMillis = System.currentTimeMillis();
+        mMockProvider.addEventInfo(1, false, currentMillis + DateUtils.HOUR_IN_MILLIS, 30);
+        mMockProvider.addEventInfo(2, false, currentMillis + DateUtils.HOUR_IN_MILLIS, 15);
+        ReminderTimeline timeline = new ReminderTimeline();
+
+        // The first call queries the provider and schedules the earlier reminder.
+        expectAlarmAt(currentMillis + DateUtils.MINUTE_IN_MILLIS * 30);
+        AlarmScheduler.scheduleNextAlarm(mIsolatedContext, mMockAlarmManager, BATCH_SIZE,
+                currentMillis, timeline);
+        assertTrue(mMockAlarmManager.isAlarmSet());
+        int queryCount = mMockProvider.getQueryCount();
+
+        // Once that reminder fired, the next one comes from the timeline without a query.
+        long firedMillis = currentMillis + DateUtils.MINUTE_IN_MILLIS * 30;
+        expectAlarmAt(currentMillis + DateUtils.MINUTE_IN_MILLIS * 45);
+        AlarmScheduler.scheduleNextAlarm(mIsolatedContext, mMockAlarmManager, BATCH_SIZE,
+                firedMillis, timeline);
+        assertEquals(queryCount, mMockProvider.getQueryCount());
+
+        // An invalidated timeline is rebuilt from the provider.
+        timeline.invalidate();
+        AlarmScheduler.scheduleNextAlarm(mIsolatedContext, mMockAlarmManager, BATCH_SIZE,
+                firedMillis, timeline);
+        assertTrue(mMockProvider.getQueryCount() > queryCount);
+    }
+
+    public void testTimelineOrder() {
+        ReminderTimeline timeline = new ReminderTimeline();
+        long[] alarmTimes = {50, 10, 40, 30, 20, 60, 12, 70, 5, 45, 35, 25, 15, 55, 65, 75, 1};
+        for (int i = 0; i < alarmTimes.length; i++) {
+            timeline.add(alarmTimes[i], i);
+        }
+        long[] sorted = alarmTimes.clone();
+        Arrays.sort(sorted);
+        for (long alarmTime : sorted) {
+            assertFalse(timeline.isEmpty());
+            assertEquals(alarmTime, timeline.peekAlarmTime());
+            timeline.removeUntil(timeline.peekAlarmTime() - 1);
+            assertEquals(alarmTime, timeline.peekAlarmTime());
+            int size = timeline.size();
+            timeline.removeUntil(alarmTime);
+            assertTrue(timeline.size() < size);
+            if (!timeline.isEmpty()) {
+                assertTrue(timeline.peekAlarmTime() >= alarmTime);
+            }
+        }
+        assertTrue(timeline.isEmpty());
+    }
 }
@@ -515,6 +515,50 @@ public class AlertServiceTest extends AndroidTestCase {
         ntm.validateNotificationsAndReset();
     }
 
+    @SmallTest
+    public void testGenerateAlerts_postsOnlyChanges() {
+        MockSharedPreferences prefs = new MockSharedPreferences();
+        MockAlarmManager alarmMgr = new MockAlarmManager(mContext);
+        AlertsTable at = new AlertsTable();
+        final int[] notifyCount = new int[1];
+        final boolean[] cancelled = new boolean[AlertService.MAX_NOTIFICATIONS + 1];
+        NotificationMgr nm = new NotificationMgr() {
+            @Override
+            public void notify(int id, NotificationWrapper nw) {
+                notifyCount[0]++;
+            }
+
+            @Override
+            public void cancel(int id) {
+                cancelled[id] = true;
+            }
+        };
+        AlertService.PostedNotifications posted = new AlertService.PostedNotifications();
+
+        // Two alerts that already fired, so refreshing them makes no noise.
+        long currentTime = createTimeInMillis(5, 0);
+        at.addAlertRow(2, FIRED, ACCEPTED, 0, createTimeInMillis(7, 0),
+                createTimeInMillis(8, 0), 0);
+        at.addAlertRow(1, FIRED, ACCEPTED, 0, createTimeInMillis(6, 0),
+                createTimeInMillis(7, 0), 0);
+
+        // The first refresh posts both and cancels every other id.
+        AlertService.generateAlerts(mContext, nm, alarmMgr, prefs, at.getAlertCursor(),
+                currentTime, AlertService.MAX_NOTIFICATIONS, posted);
+        assertEquals(2, notifyCount[0]);
+        assertTrue(cancelled[AlertService.MAX_NOTIFICATIONS]);
+
+        // Refreshing again without changes posts and cancels nothing.
+        notifyCount[0] = 0;
+        Arrays.fill(cancelled, false);
+        AlertService.generateAlerts(mContext, nm, alarmMgr, prefs, at.getAlertCursor(),
+                currentTime, AlertService.MAX_NOTIFICATIONS, posted);
+        assertEquals(0, notifyCount[0]);
+        for (boolean c : cancelled) {
+            assertFalse(c);
+        }
+    }
+
     @SmallTest
     public void testGenerateAlerts_maxAlerts() {
         MockSharedPreferences prefs = new MockSharedPreferences();
@@ -1030,4 +1074,53 @@ public class AlertServiceTest extends AndroidTestCase {
         assertEquals(2, low.get(3).eventId);
         assertEquals(1, low.get(4).eventId);
     }
+
+    @SmallTest
+    public void testRedistributeBuckets_keepsExistingLowPriority() throws Exception {
+        ArrayList<NotificationInfo> high = new ArrayList<NotificationInfo>();
+        ArrayList<NotificationInfo> medium = new ArrayList<NotificationInfo>();
+        ArrayList<NotificationInfo> low = new ArrayList<NotificationInfo>();
+        high.add(createNotificationInfo(6));
+        high.add(createNotificationInfo(5));
+        medium.add(createNotificationInfo(4));
+        medium.add(createNotificationInfo(3));
+        for (int i = 0; i < 300; i++) {
+            low.add(createNotificationInfo(-i));
+        }
+
+        AlertService.redistributeBuckets(high, medium, low, 3);
+
+        assertEquals(2, high.size());
+        assertEquals(1, medium.size());
+        assertEquals(4, medium.get(0).eventId);
+
+        // The bumped event goes ahead of the expired ones, which keep their order.
+        assertEquals(301, low.size());
+        assertEquals(3, low.get(0).eventId);
+        assertEquals(0, low.get(1).eventId);
+        assertEquals(-299, low.get(300).eventId);
+    }
+
+    @SmallTest
+    public void testDigest() throws Exception {
+        AlertService.Digest digest = new AlertService.Digest();
+        AlertService.Digest same = new AlertService.Digest();
+        for (int i = 0; i < 500; i++) {
+            digest.add(createNotificationInfo(i));
+            same.add(createNotificationInfo(i));
+        }
+        assertEquals(digest.getKey("format"), same.getKey("format"));
+        assertTrue(digest.getTitle().startsWith("eventName, eventName"));
+        assertTrue(digest.getTitle().length() < AlertService.Digest.MAX_TITLE_LENGTH
+                + "eventName, ".length());
+
+        // Any change to a listed event changes the key
+        AlertService.Digest changed = new AlertService.Digest();
+        for (int i = 0; i < 500; i++) {
+            changed.add(i == 250 ? new NotificationInfo("renamed", "location", "description",
+                    100L, 200L, i, false, false) : createNotificationInfo(i));
+        }
+        assertFalse(digest.getKey("format").equals(changed.getKey("format")));
+        assertFalse(digest.getKey("format").equals(digest.getKey("other")));
+    }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.alerts;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SmallTest
+public class AlertWorkExecutorTest extends TestCase {
+
+    public void testSameEventRunsInOrder() throws Exception {
+        AlertWorkExecutor executor = new AlertWorkExecutor(4);
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            final int index = i;
+            executor.execute(42, new Runnable() {
+                @Override
+                public void run() {
+                    order.add(index);
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+    }
+
+    public void testDifferentEventsRunInParallel() throws Exception {
+        AlertWorkExecutor executor = new AlertWorkExecutor(4);
+        long first = 1;
+        long second = 2;
+        while (executor.stripeOf(second) == executor.stripeOf(first)) {
+            second++;
+        }
+
+        // The first event blocks until the second one has run
+        final CountDownLatch secondRan = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        executor.execute(first, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (secondRan.await(5, TimeUnit.SECONDS)) {
+                        done.countDown();
+                    }
+                } catch (InterruptedException e) {
+                    // Fails below
+                }
+            }
+        });
+        executor.execute(second, new Runnable() {
+            @Override
+            public void run() {
+                secondRan.countDown();
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    public void testExclusiveWaitsForEventWork() throws Exception {
+        AlertWorkExecutor executor = new AlertWorkExecutor(4);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(41);
+        for (int i = 0; i < 40; i++) {
+            executor.execute(i, new Runnable() {
+                @Override
+                public void run() {
+                    running.incrementAndGet();
+                    try {
+                        Thread.sleep(2);
+                    } catch (InterruptedException e) {
+                        // Ignore
+                    }
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            });
+            if (i == 20) {
+                executor.executeExclusive(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (running.get() != 0) {
+                            overlaps.incrementAndGet();
+                        }
+                        done.countDown();
+                    }
+                });
+            }
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, overlaps.get());
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.alerts;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+@SmallTest
+public class FiredAlertLedgerTest extends TestCase {
+
+    // Three longs per record, and a header record holding the last compaction time
+    private static final int RECORD_BYTES = 24;
+    private static final int HEADER_BYTES = RECORD_BYTES;
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = File.createTempFile("fired-alerts", null);
+        assertTrue(mFile.delete());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        new File(mFile.getPath() + ".tmp").delete();
+        super.tearDown();
+    }
+
+    public void testAdd() {
+        FiredAlertLedger ledger = FiredAlertLedger.open(mFile);
+        assertFalse(ledger.contains(1, 1000, 900));
+
+        ledger.add(1, 1000, 900);
+        assertTrue(ledger.contains(1, 1000, 900));
+        // Each part of a record counts
+        assertFalse(ledger.contains(2, 1000, 900));
+        assertFalse(ledger.contains(1, 2000, 900));
+        assertFalse(ledger.contains(1, 1000, 800));
+        assertEquals(HEADER_BYTES + RECORD_BYTES, mFile.length());
+
+        // Recording an alert again doesn't append it
+        ledger.add(1, 1000, 900);
+        assertEquals(HEADER_BYTES + RECORD_BYTES, mFile.length());
+    }
+
+    public void testAdd_ManyAlerts() {
+        FiredAlertLedger ledger = FiredAlertLedger.open(mFile);
+        for (int i = 0; i < 1000; i++) {
+            ledger.add(i, i * 1000L, i * 1000L - 600);
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(ledger.contains(i, i * 1000L, i * 1000L - 600));
+            assertFalse(ledger.contains(i, i * 1000L, i * 1000L - 300));
+        }
+        // Including a record that packs to the empty slot marker
+        ledger.add(0, 0, 0);
+        assertTrue(ledger.contains(0, 0, 0));
+    }
+
+    public void testCompact() {
+        FiredAlertLedger ledger = FiredAlertLedger.open(mFile);
+        ledger.add(1, 1000, 100);
+        ledger.add(2, 2000, 200);
+        ledger.add(3, 3000, 300);
+
+        ledger.compact(200, 5000);
+        assertFalse(ledger.contains(1, 1000, 100));
+        assertTrue(ledger.contains(2, 2000, 200));
+        assertTrue(ledger.contains(3, 3000, 300));
+        assertEquals(HEADER_BYTES + 2 * RECORD_BYTES, mFile.length());
+        assertEquals(5000, ledger.getLastCompactTime());
+
+        // Nothing to drop, only the compaction time is updated
+        ledger.compact(200, 6000);
+        assertEquals(HEADER_BYTES + 2 * RECORD_BYTES, mFile.length());
+        assertEquals(6000, ledger.getLastCompactTime());
+        assertTrue(ledger.contains(2, 2000, 200));
+
+        // Alerts recorded after compacting are appended to the rewritten file
+        ledger.add(4, 4000, 400);
+        assertEquals(HEADER_BYTES + 3 * RECORD_BYTES, mFile.length());
+    }
+
+    public void testReopen() {
+        FiredAlertLedger ledger = FiredAlertLedger.open(mFile);
+        ledger.add(1, 1000, 100);
+        ledger.add(2, 2000, 200);
+        ledger.add(3, 3000, 300);
+        ledger.compact(200, 5000);
+
+        FiredAlertLedger reopened = FiredAlertLedger.open(mFile);
+        // A new process doesn't compact again right away
+        assertEquals(5000, reopened.getLastCompactTime());
+        assertFalse(reopened.contains(1, 1000, 100));
+        assertTrue(reopened.contains(2, 2000, 200));
+        assertTrue(reopened.contains(3, 3000, 300));
+
+        reopened.add(4, 4000, 400);
+        assertTrue(FiredAlertLedger.open(mFile).contains(4, 4000, 400));
+    }
+
+    public void testReopen_PartialRecord() throws IOException {
+        FiredAlertLedger ledger = FiredAlertLedger.open(mFile);
+        ledger.add(1, 1000, 100);
+        // A write cut short by the process dying
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        try {
+            out.write(new byte[RECORD_BYTES / 2]);
+        } finally {
+            out.close();
+        }
+
+        FiredAlertLedger reopened = FiredAlertLedger.open(mFile);
+        assertTrue(reopened.contains(1, 1000, 100));
+        assertEquals(HEADER_BYTES + RECORD_BYTES, mFile.length());
+        reopened.add(2, 2000, 200);
+        assertTrue(FiredAlertLedger.open(mFile).contains(2, 2000, 200));
+    }
+
+    public void testReopen_CompactTime() {
+        FiredAlertLedger ledger = FiredAlertLedger.open(mFile);
+        assertEquals(0, ledger.getLastCompactTime());
+        ledger.add(1, 1000, 100);
+        ledger.compact(0, 5000);
+        assertEquals(5000, FiredAlertLedger.open(mFile).getLastCompactTime());
+
+        ledger.compact(0, 7000);
+        FiredAlertLedger reopened = FiredAlertLedger.open(mFile);
+        assertEquals(7000, reopened.getLastCompactTime());
+        assertTrue(reopened.contains(1, 1000, 100));
+    }
+
+    public void testReopen_WithoutHeader() throws IOException {
+        // A file written before the header was added
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(mFile));
+        try {
+            out.writeLong(1);
+            out.writeLong(1000);
+            out.writeLong(100);
+        } finally {
+            out.close();
+        }
+
+        FiredAlertLedger ledger = FiredAlertLedger.open(mFile);
+        assertTrue(ledger.contains(1, 1000, 100));
+        assertEquals(0, ledger.getLastCompactTime());
+
+        // Compacting adds the header even when nothing is dropped
+        ledger.compact(0, 5000);
+        assertEquals(HEADER_BYTES + RECORD_BYTES, mFile.length());
+        FiredAlertLedger reopened = FiredAlertLedger.open(mFile);
+        assertEquals(5000, reopened.getLastCompactTime());
+        assertTrue(reopened.contains(1, 1000, 100));
+    }
+}
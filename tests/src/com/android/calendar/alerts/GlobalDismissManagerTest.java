@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.alerts;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.CalendarContract;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.test.mock.MockContext;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Pair;
+
+import com.android.calendar.alerts.GlobalDismissManager.AlarmId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class GlobalDismissManagerTest extends AndroidTestCase {
+
+    @SmallTest
+    public void testTakeQueuedDismissals_dedupes() {
+        GlobalDismissManager.takeQueuedDismissals();
+        GlobalDismissManager.queueDismissals(Arrays.asList(
+                new AlarmId(1, 100), new AlarmId(2, 200), new AlarmId(1, 100)));
+        // A second dismissal of the same burst
+        GlobalDismissManager.queueDismissals(Arrays.asList(
+                new AlarmId(2, 200), new AlarmId(2, 300)));
+
+        Set<AlarmId> alarmIds = GlobalDismissManager.takeQueuedDismissals();
+        assertEquals(3, alarmIds.size());
+        Iterator<AlarmId> iterator = alarmIds.iterator();
+        assertEquals(new AlarmId(1, 100), iterator.next());
+        assertEquals(new AlarmId(2, 200), iterator.next());
+        assertEquals(new AlarmId(2, 300), iterator.next());
+
+        // The next burst starts empty
+        assertTrue(GlobalDismissManager.takeQueuedDismissals().isEmpty());
+    }
+
+    @SmallTest
+    public void testGroupEventsByAccount() {
+        Map<Long, Long> eventsToCalendars = new HashMap<Long, Long>();
+        eventsToCalendars.put(1L, 10L);
+        eventsToCalendars.put(2L, 10L);
+        eventsToCalendars.put(3L, 20L);
+        eventsToCalendars.put(4L, 30L);
+        // A calendar without a known account
+        eventsToCalendars.put(5L, 40L);
+        Map<Long, Pair<String, String>> calendarsToAccounts =
+                new HashMap<Long, Pair<String, String>>();
+        calendarsToAccounts.put(10L, new Pair<String, String>("com.google", "a@test"));
+        calendarsToAccounts.put(20L, new Pair<String, String>("com.google", "b@test"));
+        calendarsToAccounts.put(30L, new Pair<String, String>("LOCAL", "a@test"));
+
+        Map<String, Set<Long>> accountToEvents = GlobalDismissManager.groupEventsByAccount(
+                eventsToCalendars, calendarsToAccounts);
+        assertEquals(2, accountToEvents.size());
+        assertEquals(new HashSet<Long>(Arrays.asList(1L, 2L)), accountToEvents.get("a@test"));
+        assertEquals(new HashSet<Long>(Arrays.asList(3L)), accountToEvents.get("b@test"));
+    }
+
+    @SmallTest
+    public void testBuildDismissOperations() {
+        List<String[]> received = new ArrayList<String[]>();
+        received.add(new String[] { "a@test", "sync-1", "100" });
+        received.add(new String[] { "b@test", "sync-2", "200" });
+        // Received twice, updated once
+        received.add(new String[] { "a@test", "sync-1", "100" });
+        // Another instance of the same event
+        received.add(new String[] { "a@test", "sync-1", "300" });
+        // The same sync id in an account without that event
+        received.add(new String[] { "c@test", "sync-1", "100" });
+        received.add(new String[] { "a@test", "sync-1", "not a time" });
+
+        Map<String, Set<String>> accountToSyncIds =
+                GlobalDismissManager.groupSyncIdsByAccount(received);
+        assertEquals(3, accountToSyncIds.size());
+        assertEquals(new HashSet<String>(Arrays.asList("sync-1")),
+                accountToSyncIds.get("a@test"));
+
+        Map<String, Long> syncIdToEventId = new HashMap<String, Long>();
+        syncIdToEventId.put("a@test\nsync-1", 1L);
+        syncIdToEventId.put("b@test\nsync-2", 2L);
+        ArrayList<ContentProviderOperation> ops =
+                GlobalDismissManager.buildDismissOperations(received, syncIdToEventId);
+        assertEquals(3, ops.size());
+        for (ContentProviderOperation op : ops) {
+            assertEquals(CalendarContract.CalendarAlerts.CONTENT_URI, op.getUri());
+        }
+    }
+
+    /**
+     * Answers event to calendar queries, with calendar = event * 10, and counts them
+     */
+    private static class EventsProvider extends MockContentProvider {
+        int mQueries;
+        final Set<Long> mQueried = new HashSet<Long>();
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            mQueries++;
+            MatrixCursor cursor = new MatrixCursor(projection);
+            for (String clause : selection.split(" OR ")) {
+                long id = Long.parseLong(clause.substring(clause.indexOf('=') + 1).trim());
+                mQueried.add(id);
+                cursor.addRow(new Object[] { id, id * 10 });
+            }
+            return cursor;
+        }
+    }
+
+    @SmallTest
+    public void testLookupEventToCalendarMap_cached() {
+        final MockContentResolver resolver = new MockContentResolver();
+        EventsProvider provider = new EventsProvider();
+        resolver.addProvider(CalendarContract.AUTHORITY, provider);
+        MockContext context = new MockContext() {
+            @Override
+            public ContentResolver getContentResolver() {
+                return resolver;
+            }
+        };
+
+        // Ids no other test uses, as the cache is process wide
+        Set<Long> eventIds = new HashSet<Long>(Arrays.asList(7001L, 7002L));
+        Map<Long, Long> calendars = GlobalDismissManager.lookupEventToCalendarMap(context,
+                eventIds);
+        assertEquals(Long.valueOf(70010), calendars.get(7001L));
+        assertEquals(Long.valueOf(70020), calendars.get(7002L));
+        assertEquals(1, provider.mQueries);
+
+        // Only the event missing from the cache is queried
+        provider.mQueried.clear();
+        eventIds.add(7003L);
+        calendars = GlobalDismissManager.lookupEventToCalendarMap(context, eventIds);
+        assertEquals(3, calendars.size());
+        assertEquals(Long.valueOf(70030), calendars.get(7003L));
+        assertEquals(2, provider.mQueries);
+        assertEquals(new HashSet<Long>(Arrays.asList(7003L)), provider.mQueried);
+
+        // All cached, no query
+        GlobalDismissManager.lookupEventToCalendarMap(context, eventIds);
+        assertEquals(2, provider.mQueries);
+    }
+}
@@ -0,0 +1,473 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.alerts;
+
+import android.app.PendingIntent;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Debug;
+import android.provider.CalendarContract;
+import android.provider.CalendarContract.Attendees;
+import android.provider.CalendarContract.CalendarAlerts;
+import android.provider.CalendarContract.Instances;
+import android.provider.CalendarContract.Reminders;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.text.format.DateUtils;
+
+import com.android.calendar.GeneralPreferences;
+import com.android.calendar.alerts.AlertService.NotificationWrapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Replays a synthetic calendar through {@link AlarmScheduler#scheduleNextAlarm} and
+ * {@link AlertService#generateAlerts} on a simulated clock.
+ *
+ * The calendar provider, alarm manager and notification manager are faked. Instead of
+ * waiting for alarms, the clock jumps to the earliest alarm that was set, reminders
+ * that are due are added to the alerts table the way the provider does, and the app is
+ * woken up as if the alarm had fired. Every wakeup is accounted to the simulated day it
+ * happened on, so runs over thousands of events show how the scheduling cost grows.
+ *
+ * Runs are deterministic for a given calendar: nothing depends on the wall clock,
+ * except the CPU time that is measured.
+ */
+public class ReminderSimulator {
+    private static final int BATCH_SIZE = 50;
+    // Alerts are dismissed by the simulated user this long after the event ended
+    private static final long DISMISS_AFTER_END_MS = DateUtils.HOUR_IN_MILLIS;
+
+    /**
+     * The counters for one simulated day.
+     */
+    public static class DayStats {
+        public int wakeups;
+        public int instancesQueries;
+        public int remindersQueries;
+        public int alertsQueries;
+        public int alertsUpdates;
+        public int alarmsSet;
+        public int notificationsPosted;
+        public int notificationsCancelled;
+        public int remindersDue;
+        public int remindersFired;
+        public long maxLatenessMs;
+        public long cpuNanos;
+
+        void add(DayStats other) {
+            wakeups += other.wakeups;
+            instancesQueries += other.instancesQueries;
+            remindersQueries += other.remindersQueries;
+            alertsQueries += other.alertsQueries;
+            alertsUpdates += other.alertsUpdates;
+            alarmsSet += other.alarmsSet;
+            notificationsPosted += other.notificationsPosted;
+            notificationsCancelled += other.notificationsCancelled;
+            remindersDue += other.remindersDue;
+            remindersFired += other.remindersFired;
+            maxLatenessMs = Math.max(maxLatenessMs, other.maxLatenessMs);
+            cpuNanos += other.cpuNanos;
+        }
+    }
+
+    private static class Event {
+        long id;
+        long firstBegin;
+        long period;
+        long duration;
+        int[] reminderMinutes;
+        int maxReminderMinutes;
+    }
+
+    private static class AlertRow {
+        long id;
+        long eventId;
+        long begin;
+        long end;
+        long alarmTime;
+        int minutes;
+        int state;
+    }
+
+    private final long mStartMillis;
+    private final ArrayList<Event> mEvents = new ArrayList<Event>();
+    private final ArrayList<AlertRow> mActiveAlerts = new ArrayList<AlertRow>();
+    private final HashMap<Long, AlertRow> mAlertsById = new HashMap<Long, AlertRow>();
+    private final HashMap<PendingIntent, Long> mAlarms = new HashMap<PendingIntent, Long>();
+    private final Context mContext;
+    private final AlarmManagerInterface mAlarmManager;
+    private final NotificationMgr mNotificationMgr;
+    private final ReminderTimeline mTimeline = new ReminderTimeline();
+    private final AlertService.PostedNotifications mPosted =
+            new AlertService.PostedNotifications();
+
+    private long mNow;
+    private long mMaterializedUntil;
+    private long mNextAlertId = 1;
+    private DayStats mCurrent = new DayStats();
+
+    /**
+     * @param context the test context, used for resources and preferences
+     * @param startMillis when the simulation starts
+     */
+    public ReminderSimulator(Context context, long startMillis) {
+        mStartMillis = startMillis;
+        mNow = startMillis;
+        mMaterializedUntil = startMillis;
+
+        final MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(CalendarContract.AUTHORITY, new SimulatedProvider());
+        mContext = new ContextWrapper(context) {
+            @Override
+            public ContentResolver getContentResolver() {
+                return resolver;
+            }
+        };
+        mAlarmManager = new AlarmManagerInterface() {
+            @Override
+            public void set(int type, long triggerAtMillis, PendingIntent operation) {
+                mCurrent.alarmsSet++;
+                mAlarms.put(operation, triggerAtMillis);
+            }
+        };
+        mNotificationMgr = new NotificationMgr() {
+            @Override
+            public void notify(int id, NotificationWrapper notification) {
+                mCurrent.notificationsPosted++;
+            }
+
+            @Override
+            public void cancel(int id) {
+                mCurrent.notificationsCancelled++;
+            }
+        };
+    }
+
+    /**
+     * Adds a recurring event.
+     *
+     * @param firstBegin the start of the first instance
+     * @param period the time between instances
+     * @param duration the length of each instance
+     * @param reminderMinutes the reminders, in minutes before the start
+     * @return the event id
+     */
+    public long addEvent(long firstBegin, long period, long duration, int... reminderMinutes) {
+        Event event = new Event();
+        event.id = mEvents.size() + 1;
+        event.firstBegin = firstBegin;
+        event.period = period;
+        event.duration = duration;
+        event.reminderMinutes = reminderMinutes;
+        for (int minutes : reminderMinutes) {
+            event.maxReminderMinutes = Math.max(event.maxReminderMinutes, minutes);
+        }
+        mEvents.add(event);
+        return event.id;
+    }
+
+    /**
+     * Adds events that repeat daily or weekly, starting on the quarter hour during
+     * office hours, with up to maxReminders reminders each.
+     */
+    public void addRandomEvents(Random random, int count, int maxReminders) {
+        final int[] reminderChoices = {0, 5, 10, 15, 30, 60};
+        long day = mStartMillis - mStartMillis % DateUtils.DAY_IN_MILLIS;
+        for (int i = 0; i < count; i++) {
+            long period = random.nextInt(10) < 7 ? DateUtils.DAY_IN_MILLIS
+                    : DateUtils.WEEK_IN_MILLIS;
+            long firstBegin = day + random.nextInt(7) * DateUtils.DAY_IN_MILLIS
+                    + 8 * DateUtils.HOUR_IN_MILLIS
+                    + random.nextInt(48) * 15 * DateUtils.MINUTE_IN_MILLIS;
+            long duration = (1 + random.nextInt(4)) * 15 * DateUtils.MINUTE_IN_MILLIS;
+            int numReminders = 1 + random.nextInt(maxReminders);
+            int[] reminders = new int[numReminders];
+            for (int r = 0; r < numReminders; r++) {
+                // Duplicates are harmless, the provider allows them too
+                reminders[r] = reminderChoices[random.nextInt(reminderChoices.length)];
+            }
+            addEvent(firstBegin, period, duration, reminders);
+        }
+    }
+
+    /**
+     * Runs the simulation for the given number of days, returning the counters of each.
+     */
+    public DayStats[] run(int days) {
+        DayStats[] stats = new DayStats[days];
+        for (int i = 0; i < days; i++) {
+            stats[i] = new DayStats();
+        }
+        long endMillis = mStartMillis + days * DateUtils.DAY_IN_MILLIS;
+        boolean wasBypassingDb = AlertUtils.BYPASS_DB;
+        // Fired alerts are tracked by the simulated alerts table only
+        AlertUtils.BYPASS_DB = false;
+        try {
+            while (mNow < endMillis) {
+                mCurrent = stats[(int) ((mNow - mStartMillis) / DateUtils.DAY_IN_MILLIS)];
+                wakeUp();
+                long next = Long.MAX_VALUE;
+                for (long alarmTime : mAlarms.values()) {
+                    next = Math.min(next, alarmTime);
+                }
+                if (next == Long.MAX_VALUE) {
+                    break;
+                }
+                // Alarms in the past go off right away
+                mNow = Math.max(mNow + 1, next);
+                Iterator<Long> it = mAlarms.values().iterator();
+                while (it.hasNext()) {
+                    if (it.next() <= mNow) {
+                        it.remove();
+                    }
+                }
+            }
+        } finally {
+            AlertUtils.BYPASS_DB = wasBypassingDb;
+        }
+        return stats;
+    }
+
+    /**
+     * Formats the counters as a table with a row per day and a total.
+     */
+    public static String report(DayStats[] stats) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%5s %7s %9s %9s %7s %8s %6s %7s %7s %6s %6s %8s %8s%n",
+                "day", "wakeups", "instances", "reminders", "alerts", "updates", "alarms",
+                "posted", "cancels", "due", "fired", "late ms", "cpu ms"));
+        DayStats total = new DayStats();
+        for (int i = 0; i < stats.length; i++) {
+            appendRow(sb, Integer.toString(i + 1), stats[i]);
+            total.add(stats[i]);
+        }
+        appendRow(sb, "total", total);
+        return sb.toString();
+    }
+
+    private static void appendRow(StringBuilder sb, String label, DayStats s) {
+        sb.append(String.format("%5s %7d %9d %9d %7d %8d %6d %7d %7d %6d %6d %8d %8d%n",
+                label, s.wakeups, s.instancesQueries, s.remindersQueries, s.alertsQueries,
+                s.alertsUpdates, s.alarmsSet, s.notificationsPosted, s.notificationsCancelled,
+                s.remindersDue, s.remindersFired, s.maxLatenessMs, s.cpuNanos / 1000000));
+    }
+
+    /**
+     * Does what the app does when a reminder alarm goes off: refreshes the
+     * notifications and schedules the next alarm.
+     */
+    private void wakeUp() {
+        mCurrent.wakeups++;
+        materializeAlerts();
+        dismissEndedAlerts();
+
+        long cpuStart = Debug.threadCpuTimeNanos();
+        Cursor alertCursor = mContext.getContentResolver().query(CalendarAlerts.CONTENT_URI,
+                AlertService.ALERT_PROJECTION, null, null, null);
+        if (alertCursor.getCount() == 0) {
+            alertCursor.close();
+            mPosted.cancel(mNotificationMgr, 0, AlertService.MAX_NOTIFICATIONS);
+        } else {
+            AlertService.generateAlerts(mContext, mNotificationMgr, mAlarmManager,
+                    GeneralPreferences.getSharedPreferences(mContext), alertCursor, mNow,
+                    AlertService.MAX_NOTIFICATIONS, mPosted);
+        }
+        AlarmScheduler.scheduleNextAlarm(mContext, mAlarmManager, BATCH_SIZE, mNow,
+                mTimeline);
+        mCurrent.cpuNanos += Debug.threadCpuTimeNanos() - cpuStart;
+    }
+
+    /**
+     * Adds the reminders that came due since the last wakeup to the alerts table, as
+     * the provider does.
+     */
+    private void materializeAlerts() {
+        for (Event event : mEvents) {
+            long from = mMaterializedUntil;
+            // Instances that start later can't have a reminder due yet
+            long lastBegin = mNow + event.maxReminderMinutes * DateUtils.MINUTE_IN_MILLIS;
+            long begin = firstInstanceAfter(event, from);
+            for (; begin <= lastBegin; begin += event.period) {
+                for (int minutes : event.reminderMinutes) {
+                    long alarmTime = begin - minutes * DateUtils.MINUTE_IN_MILLIS;
+                    if (alarmTime > from && alarmTime <= mNow) {
+                        AlertRow row = new AlertRow();
+                        row.id = mNextAlertId++;
+                        row.eventId = event.id;
+                        row.begin = begin;
+                        row.end = begin + event.duration;
+                        row.alarmTime = alarmTime;
+                        row.minutes = minutes;
+                        row.state = CalendarAlerts.STATE_SCHEDULED;
+                        mActiveAlerts.add(row);
+                        mAlertsById.put(row.id, row);
+                        mCurrent.remindersDue++;
+                    }
+                }
+            }
+        }
+        mMaterializedUntil = mNow;
+    }
+
+    private void dismissEndedAlerts() {
+        Iterator<AlertRow> it = mActiveAlerts.iterator();
+        while (it.hasNext()) {
+            AlertRow row = it.next();
+            if (row.state == CalendarAlerts.STATE_FIRED
+                    && row.end + DISMISS_AFTER_END_MS <= mNow) {
+                row.state = CalendarAlerts.STATE_DISMISSED;
+                it.remove();
+                mAlertsById.remove(row.id);
+            }
+        }
+    }
+
+    /**
+     * Returns the begin of the first instance of the event with a reminder after the
+     * given time.
+     */
+    private static long firstInstanceAfter(Event event, long millis) {
+        if (event.firstBegin > millis) {
+            return event.firstBegin;
+        }
+        long periods = (millis - event.firstBegin) / event.period;
+        return event.firstBegin + periods * event.period;
+    }
+
+    /**
+     * Serves the instances, reminders and alerts of the simulated calendar.
+     */
+    private class SimulatedProvider extends MockContentProvider {
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            if (uri.toString().startsWith(Instances.CONTENT_URI.toString())) {
+                mCurrent.instancesQueries++;
+                // The non all-day part of AlarmScheduler's selection bounds the begin time
+                return queryInstances(Long.parseLong(selectionArgs[5]),
+                        Long.parseLong(selectionArgs[6]));
+            } else if (Reminders.CONTENT_URI.equals(uri)) {
+                mCurrent.remindersQueries++;
+                return queryReminders(selection);
+            } else if (CalendarAlerts.CONTENT_URI.equals(uri)) {
+                mCurrent.alertsQueries++;
+                return queryAlerts();
+            }
+            return null;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection,
+                String[] selectionArgs) {
+            mCurrent.alertsUpdates++;
+            AlertRow row = mAlertsById.get(Long.parseLong(uri.getLastPathSegment()));
+            Integer state = values.getAsInteger(CalendarAlerts.STATE);
+            if (row == null || state == null) {
+                return row == null ? 0 : 1;
+            }
+            if (row.state == CalendarAlerts.STATE_SCHEDULED
+                    && state == CalendarAlerts.STATE_FIRED) {
+                mCurrent.remindersFired++;
+                mCurrent.maxLatenessMs = Math.max(mCurrent.maxLatenessMs,
+                        mNow - row.alarmTime);
+            }
+            row.state = state;
+            return 1;
+        }
+
+        private Cursor queryInstances(long beginMin, long beginMax) {
+            MatrixCursor cursor = new MatrixCursor(AlarmScheduler.INSTANCES_PROJECTION);
+            for (Event event : mEvents) {
+                long begin = firstInstanceAfter(event, beginMin);
+                if (begin < beginMin) {
+                    begin += event.period;
+                }
+                for (; begin <= beginMax; begin += event.period) {
+                    cursor.addRow(new Object[] {event.id, begin, 0});
+                }
+            }
+            return cursor;
+        }
+
+        private Cursor queryReminders(String selection) {
+            MatrixCursor cursor = new MatrixCursor(AlarmScheduler.REMINDERS_PROJECTION);
+            String ids = selection.substring(selection.indexOf('(') + 1,
+                    selection.lastIndexOf(')'));
+            if (ids.length() == 0) {
+                return cursor;
+            }
+            for (String id : ids.split(",")) {
+                Event event = mEvents.get(Integer.parseInt(id) - 1);
+                for (int minutes : event.reminderMinutes) {
+                    cursor.addRow(new Object[] {event.id, minutes, Reminders.METHOD_ALERT});
+                }
+            }
+            return cursor;
+        }
+
+        private Cursor queryAlerts() {
+            List<AlertRow> rows = new ArrayList<AlertRow>();
+            for (AlertRow row : mActiveAlerts) {
+                if ((row.state == CalendarAlerts.STATE_FIRED
+                        || row.state == CalendarAlerts.STATE_SCHEDULED)
+                        && row.alarmTime <= mNow) {
+                    rows.add(row);
+                }
+            }
+            // Sorted like AlertService's query, by begin and end descending
+            Collections.sort(rows, new Comparator<AlertRow>() {
+                @Override
+                public int compare(AlertRow lhs, AlertRow rhs) {
+                    if (lhs.begin != rhs.begin) {
+                        return lhs.begin < rhs.begin ? 1 : -1;
+                    }
+                    return lhs.end < rhs.end ? 1 : (lhs.end == rhs.end ? 0 : -1);
+                }
+            });
+            MatrixCursor cursor = new MatrixCursor(AlertService.ALERT_PROJECTION);
+            for (AlertRow row : rows) {
+                cursor.addRow(new Object[] {
+                        row.id,
+                        row.eventId,
+                        row.state,
+                        "Event " + row.eventId,
+                        "Room " + row.eventId % 10,
+                        Attendees.ATTENDEE_STATUS_ACCEPTED,
+                        0,
+                        row.alarmTime,
+                        row.minutes,
+                        row.begin,
+                        row.end,
+                        ""
+                });
+            }
+            return cursor;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.alerts;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.text.format.DateUtils;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.android.calendar.alerts.ReminderSimulator.DayStats;
+
+import java.util.Random;
+
+/**
+ * Runs synthetic calendars through the reminder scheduling and notification code and
+ * logs the cost per simulated day, see {@link ReminderSimulator}.
+ */
+public class ReminderSimulatorTest extends AndroidTestCase {
+    private static final String TAG = "ReminderSimulatorTest";
+    private static final long SEED = 20120501;
+
+    private long mStartMillis;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mStartMillis = Utils.createTimeInMillis(0, 0, 0, 1, 5, 2012, Time.getCurrentTimezone());
+    }
+
+    @SmallTest
+    public void testSingleEvent() {
+        ReminderSimulator simulator = new ReminderSimulator(mContext, mStartMillis);
+        simulator.addEvent(mStartMillis + 10 * DateUtils.HOUR_IN_MILLIS,
+                DateUtils.DAY_IN_MILLIS, DateUtils.HOUR_IN_MILLIS, 10, 30);
+
+        DayStats[] days = simulator.run(3);
+        Log.i(TAG, "Single event\n" + ReminderSimulator.report(days));
+        for (DayStats day : days) {
+            assertEquals(2, day.remindersDue);
+            assertEquals(2, day.remindersFired);
+            assertTrue(day.maxLatenessMs <= AlarmScheduler.ALARM_DELAY_MS);
+        }
+    }
+
+    @LargeTest
+    public void testThousandsOfRecurringEvents() {
+        ReminderSimulator simulator = new ReminderSimulator(mContext, mStartMillis);
+        simulator.addRandomEvents(new Random(SEED), 2000, 3);
+
+        int numDays = 3;
+        DayStats[] days = simulator.run(numDays);
+        Log.i(TAG, "2000 recurring events\n" + ReminderSimulator.report(days));
+
+        int instancesQueries = 0;
+        for (DayStats day : days) {
+            // Every reminder fires, on time
+            assertTrue(day.remindersDue > 0);
+            assertEquals(day.remindersDue, day.remindersFired);
+            assertTrue(day.maxLatenessMs <= AlarmScheduler.ALARM_DELAY_MS);
+            instancesQueries += day.instancesQueries;
+        }
+        // The upcoming reminders are looked up about once a day, not on every wakeup
+        assertTrue(instancesQueries <= numDays + 1);
+    }
+}
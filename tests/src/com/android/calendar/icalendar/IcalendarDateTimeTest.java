@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.icalendar;
+
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+public class IcalendarDateTimeTest extends TestCase {
+    private static final String TAG = "IcalendarDateTimeTest";
+    private static final long SEED = 20160101;
+
+    private static final long MINUTE = 60 * 1000;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+
+    private static final String[] ZONES = {
+            "UTC", "Europe/Berlin", "America/New_York", "Australia/Sydney", "Asia/Kolkata",
+            "America/Sao_Paulo"
+    };
+
+    private static SimpleDateFormat newFormat(String pattern, String timeZone) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern);
+        format.setTimeZone(TimeZone.getTimeZone(timeZone));
+        return format;
+    }
+
+    @SmallTest
+    public void testParse() {
+        assertEquals(1416484800000L, IcalendarDateTime.parse("20141120T120000Z", null));
+        assertEquals(1416484800000L, IcalendarDateTime.parse("20141120T120000", "UTC"));
+        // Winter and summer time
+        assertEquals(1416484800000L - HOUR,
+                IcalendarDateTime.parse("20141120T120000", "Europe/Berlin"));
+        assertEquals(1435665600000L - 2 * HOUR,
+                IcalendarDateTime.parse("20150630T120000", "Europe/Berlin"));
+        // Dates are at midnight UTC whatever the time zone
+        assertEquals(1416441600000L, IcalendarDateTime.parse("20141120", "Europe/Berlin"));
+        assertEquals(0, IcalendarDateTime.parse("19700101T000000Z", null));
+        assertEquals(-DAY, IcalendarDateTime.parse("19691231", null));
+        // Leap days
+        assertEquals(1330473600000L, IcalendarDateTime.parse("20120229", null));
+        assertEquals(951782400000L, IcalendarDateTime.parse("20000229", null));
+    }
+
+    @SmallTest
+    public void testParse_Malformed() {
+        String[] values = {
+                "", "2014112", "20141120T", "20141120T1200", "20141120X120000",
+                "20141120T120000X", "2014-11-20", "20141320", "20141100", "20141120T250000",
+                "20141120T126000", "2014112OT120000Z", "20140231", "20140229T120000Z",
+                "19000229", "20140431", "20141132"
+        };
+        for (String value : values) {
+            try {
+                IcalendarDateTime.parse(value, null);
+                fail("Parsed " + value);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    @SmallTest
+    public void testFormat() {
+        assertEquals("20141120T120000Z", IcalendarDateTime.formatUtc(1416484800000L));
+        assertEquals("19700101T000000Z", IcalendarDateTime.formatUtc(0));
+        assertEquals("19691231T235959Z", IcalendarDateTime.formatUtc(-1000));
+        assertEquals("20141120", IcalendarDateTime.formatDate(1416484800000L));
+        assertEquals("20000229", IcalendarDateTime.formatDate(951782400000L));
+    }
+
+    @SmallTest
+    public void testFormat_MatchesSimpleDateFormat() {
+        SimpleDateFormat format = newFormat("yyyyMMdd'T'HHmmss'Z'", "UTC");
+        Random random = new Random(SEED);
+        for (int i = 0; i < 10000; i++) {
+            // Between 1900 and 2100, whole seconds
+            long millis = (long) ((random.nextDouble() * 200 - 70) * 365.25 * DAY) / 1000 * 1000;
+            String expected = format.format(millis);
+            assertEquals(expected, IcalendarDateTime.formatUtc(millis));
+            assertEquals(millis, IcalendarDateTime.parse(expected, null));
+        }
+    }
+
+    @SmallTest
+    public void testParse_MatchesCalendar() throws ParseException {
+        Random random = new Random(SEED);
+        for (String zone : ZONES) {
+            SimpleDateFormat format = newFormat("yyyyMMdd'T'HHmmss", zone);
+            for (int i = 0; i < 2000; i++) {
+                long millis = (long) ((random.nextDouble() * 60 + 10) * 365.25 * DAY)
+                        / 1000 * 1000;
+                String local = format.format(millis);
+                assertEquals(zone + " " + local, format.parse(local).getTime(),
+                        IcalendarDateTime.parse(local, zone));
+            }
+        }
+    }
+
+    @SmallTest
+    public void testToUtc_Transitions() {
+        // Every local quarter hour around the transitions of 2016 must match Calendar
+        for (String zone : ZONES) {
+            Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone(zone));
+            for (long local = 1451606400000L; local < 1483228800000L; local += 15 * MINUTE) {
+                long localDay = local / DAY;
+                calendar.clear();
+                calendar.setLenient(true);
+                long t = local - localDay * DAY;
+                calendar.set(1970, Calendar.JANUARY, 1 + (int) localDay, (int) (t / HOUR),
+                        (int) (t % HOUR / MINUTE));
+                assertEquals(zone + " " + IcalendarDateTime.formatUtc(local),
+                        calendar.getTimeInMillis(), IcalendarDateTime.toUtc(local, zone));
+            }
+        }
+    }
+
+    @SmallTest
+    public void testToLocal() {
+        for (String zone : ZONES) {
+            TimeZone timeZone = TimeZone.getTimeZone(zone);
+            for (long utc = 1451606400000L; utc < 1483228800000L; utc += 7 * MINUTE) {
+                assertEquals(utc + timeZone.getOffset(utc),
+                        IcalendarDateTime.toLocal(utc, zone));
+            }
+        }
+    }
+
+    @SmallTest
+    public void testParseDuration() {
+        assertEquals(15 * MINUTE, IcalendarDateTime.parseDuration("PT15M"));
+        assertEquals(-15 * MINUTE, IcalendarDateTime.parseDuration("-PT15M"));
+        assertEquals(DAY + 90 * MINUTE, IcalendarDateTime.parseDuration("P1DT1H30M"));
+        assertEquals(14 * DAY, IcalendarDateTime.parseDuration("+P2W"));
+        assertEquals(3600 * 1000, IcalendarDateTime.parseDuration("P3600S"));
+        String[] malformed = { "15M", "P", "PT", "PT15", "P1X", "-", "PTM" };
+        for (String duration : malformed) {
+            try {
+                IcalendarDateTime.parseDuration(duration);
+                fail("Parsed " + duration);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    @SmallTest
+    public void testFormatDuration() {
+        StringBuilder out = new StringBuilder();
+        IcalendarDateTime.formatDuration(2 * DAY, out);
+        out.append(' ');
+        IcalendarDateTime.formatDuration(90 * MINUTE, out);
+        out.append(' ');
+        IcalendarDateTime.formatDuration(-15 * MINUTE, out);
+        assertEquals("P2D PT5400S -PT900S", out.toString());
+        assertEquals(2 * DAY, IcalendarDateTime.parseDuration("P2D"));
+    }
+
+    /**
+     * Compares the time of parsing and formatting with SimpleDateFormat, as the import and
+     * export used to do, and with the codec. Run with: adb shell am instrument -e class
+     * com.android.calendar.icalendar.IcalendarDateTimeTest ...
+     */
+    @LargeTest
+    public void testBenchmark() throws ParseException {
+        int count = 100000;
+        String[] values = new String[count];
+        SimpleDateFormat utc = newFormat("yyyyMMdd'T'HHmmss", "UTC");
+        Random random = new Random(SEED);
+        for (int i = 0; i < count; i++) {
+            values[i] = utc.format((long) ((random.nextDouble() * 30 + 30) * 365.25 * DAY));
+        }
+
+        long start = System.nanoTime();
+        long legacySum = 0;
+        for (String value : values) {
+            // A format per value, like ImportActivity did
+            legacySum += newFormat("yyyyMMdd'T'HHmmss", "Europe/Berlin").parse(value).getTime();
+        }
+        long legacyNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long sum = 0;
+        for (String value : values) {
+            sum += IcalendarDateTime.parse(value, "Europe/Berlin");
+        }
+        long parseNanos = System.nanoTime() - start;
+        assertEquals(legacySum, sum);
+
+        StringBuilder out = new StringBuilder(16);
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            out.setLength(0);
+            IcalendarDateTime.formatUtc(i * 1000L * 3607, out);
+        }
+        long formatNanos = System.nanoTime() - start;
+
+        Log.i(TAG, "Parsing " + count + " date-times: SimpleDateFormat "
+                + legacyNanos / 1000000 + " ms, codec " + parseNanos / 1000000
+                + " ms. Formatting: " + formatNanos / 1000000 + " ms");
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.icalendar;
+
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Random;
+
+public class IcalendarEncoderTest extends TestCase {
+    private static final String TAG = "IcalendarEncoderTest";
+    private static final long SEED = 20160101;
+    private static final String ALPHABET = "abc XYZ 123,;:\néß€😀";
+
+    /** The escaping done before the encoder, kept to check it is equivalent */
+    private static String legacyCleanse(String input) {
+        input = input.replaceAll("\\r|\\n|\\r\\n", "\\\\n");
+        input = input.replace(";", "\\;");
+        input = input.replace(",", "\\,");
+        return input;
+    }
+
+    private static String legacyUncleanse(String input) {
+        input = input.replaceAll("\\\\n", "\n");
+        input = input.replaceAll("\\\\;", ";");
+        input = input.replaceAll("\\\\\\,", ",");
+        return input;
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            int i = random.nextInt(ALPHABET.length());
+            char c = ALPHABET.charAt(i);
+            if (Character.isHighSurrogate(c)) {
+                text.append(c).append(ALPHABET.charAt(i + 1));
+            } else if (!Character.isLowSurrogate(c)) {
+                text.append(c);
+            }
+        }
+        return text.toString();
+    }
+
+    private static String escape(String text) {
+        StringBuilder out = new StringBuilder();
+        IcalendarEncoder.escape(text, out);
+        return out.toString();
+    }
+
+    private static String unescape(String text) {
+        StringBuilder out = new StringBuilder();
+        IcalendarEncoder.unescape(text, out);
+        return out.toString();
+    }
+
+    @SmallTest
+    public void testEscapeMatchesLegacy() {
+        Random random = new Random(SEED);
+        for (int i = 0; i < 200; i++) {
+            // Without backslashes and CR, which the old code did not handle
+            String text = randomText(random, random.nextInt(200));
+            assertEquals(legacyCleanse(text), escape(text));
+            assertEquals(legacyUncleanse(legacyCleanse(text)), unescape(escape(text)));
+        }
+    }
+
+    @SmallTest
+    public void testEscapeRoundTrip() {
+        assertEquals("a\\\\b\\;c\\,d\\ne\\nf", escape("a\\b;c,d\r\ne\rf"));
+        assertEquals("a\\b;c,d\ne\nf", unescape("a\\\\b\\;c\\,d\\ne\\Nf"));
+        // Unknown escapes and a trailing backslash are kept
+        assertEquals("a\\tb\\", unescape("a\\tb\\"));
+
+        Random random = new Random(SEED);
+        for (int i = 0; i < 200; i++) {
+            String text = randomText(random, random.nextInt(200)) + "\\";
+            assertEquals(text, unescape(escape(text)));
+        }
+    }
+
+    @SmallTest
+    public void testFoldByOctets() throws UnsupportedEncodingException {
+        Random random = new Random(SEED);
+        for (int i = 0; i < 200; i++) {
+            String line = escape(randomText(random, random.nextInt(500)));
+            StringBuilder folded = new StringBuilder();
+            IcalendarEncoder.fold(line, folded);
+
+            String[] lines = folded.toString().split("\n", -1);
+            for (int j = 0; j < lines.length; j++) {
+                assertTrue(lines[j].getBytes("UTF-8").length <= 75);
+                if (j > 0) {
+                    assertEquals(' ', lines[j].charAt(0));
+                }
+                // Surrogate pairs stay on one line
+                assertFalse(lines[j].length() > 0 && Character.isHighSurrogate(
+                        lines[j].charAt(lines[j].length() - 1)));
+            }
+            assertEquals(line, folded.toString().replace("\n ", ""));
+        }
+    }
+
+    @SmallTest
+    public void testEnforceICalLineLength() {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            input.append('é');
+        }
+        input.append("\nSHORT:1\n");
+        StringBuilder output = IcalendarUtils.enforceICalLineLength(input);
+        String[] lines = output.toString().split("\n");
+        // 200 octets take three lines
+        assertEquals(37, lines[0].length());
+        assertEquals(" ", lines[1].substring(0, 1));
+        assertEquals("SHORT:1", lines[3]);
+    }
+
+    @LargeTest
+    public void testBenchmarkOneMegabyteDescription() {
+        String description = randomText(new Random(SEED), 1024 * 1024);
+
+        long start = System.nanoTime();
+        String legacy = legacyCleanse(description);
+        long legacyEscapeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        legacyUncleanse(legacy);
+        long legacyUnescapeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        StringBuilder escaped = new StringBuilder(description.length() + 1024);
+        IcalendarEncoder.escape(description, escaped);
+        long escapeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        StringBuilder unescaped = new StringBuilder(description.length());
+        IcalendarEncoder.unescape(escaped, unescaped);
+        long unescapeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        StringBuilder folded = new StringBuilder(escaped.length() + escaped.length() / 32);
+        IcalendarEncoder.fold(escaped, folded);
+        long foldNanos = System.nanoTime() - start;
+
+        Log.i(TAG, "1 MB description: escape " + escapeNanos / 1000000 + "ms (regex "
+                + legacyEscapeNanos / 1000000 + "ms), unescape " + unescapeNanos / 1000000
+                + "ms (regex " + legacyUnescapeNanos / 1000000 + "ms), fold "
+                + foldNanos / 1000000 + "ms");
+        assertEquals(legacy, escaped.toString());
+        assertEquals(description, unescaped.toString());
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.icalendar;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.CalendarContract;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+@SmallTest
+public class IcalendarExporterTest extends TestCase {
+
+    private static final String LONG_DESCRIPTION;
+
+    static {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            description.append("Line ").append(i).append(", with a comma; and a semicolon\n");
+        }
+        LONG_DESCRIPTION = description.toString();
+    }
+
+    private static class EventsProvider extends MockContentProvider {
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            MatrixCursor cursor = new MatrixCursor(projection);
+            if (selection.contains("NOT NULL")) {
+                // No exceptions
+                return cursor;
+            }
+            // 2016-01-01 10:00 to 11:00 UTC
+            cursor.addRow(new Object[] {
+                    1L, "Meeting", "Room 1", LONG_DESCRIPTION, 1451642400000L, 1451646000000L, 0,
+                    "organizer@test", null, null, null, null, "meeting@test", "Europe/Berlin",
+                    null, null, null, null, null, 1 });
+            // Weekly all-day event from 2016-01-04
+            cursor.addRow(new Object[] {
+                    2L, "Holiday", null, null, 1451865600000L, null, 1, null, "P1D",
+                    "FREQ=WEEKLY", null, "20160111", null, "UTC", null, null, null, null, null,
+                    1 });
+            return cursor;
+        }
+    }
+
+    /**
+     * A weekly event at 09:00 in New York from January, with a deleted occurrence in
+     * January and one moved to 10:00 in July, after the change to daylight saving time
+     */
+    private static class RecurringProvider extends MockContentProvider {
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            MatrixCursor cursor = new MatrixCursor(projection);
+            if (selection.contains("NOT NULL")) {
+                cursor.addRow(new Object[] {
+                        4L, "Moved", null, null, 1468245600000L, 1468249200000L, 0, null, null,
+                        null, null, null, null, "America/New_York", null, 3L, null,
+                        1468242000000L, 0, 1 });
+                // An exception of an event that isn't exported
+                cursor.addRow(new Object[] {
+                        5L, "Orphan", null, null, 1468245600000L, 1468249200000L, 0, null, null,
+                        null, null, null, null, "America/New_York", null, 99L, null,
+                        1468242000000L, 0, 1 });
+            } else {
+                cursor.addRow(new Object[] {
+                        3L, "Weekly", null, null, 1451916000000L, null, 0, null, "PT1H",
+                        "FREQ=WEEKLY", null, "20160111T140000Z", "weekly@test",
+                        "America/New_York", "sync-3", null, null, null, null, 1 });
+            }
+            return cursor;
+        }
+    }
+
+    public void testExportCalendar() throws IOException {
+        MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(CalendarContract.AUTHORITY, new EventsProvider());
+
+        StringWriter out = new StringWriter();
+        int count = new IcalendarExporter(resolver).exportCalendar(-1, out);
+        assertEquals(2, count);
+
+        for (String line : out.toString().split("\n")) {
+            assertTrue(line, line.length() <= 75);
+        }
+
+        IcalendarParser parser = new IcalendarParser(new StringReader(out.toString()));
+        VEvent meeting = parser.nextEvent();
+        assertEquals("meeting@test", meeting.getProperty(VEvent.UID));
+        assertEquals("Meeting", meeting.getProperty(VEvent.SUMMARY));
+        assertEquals(LONG_DESCRIPTION, IcalendarUtils.uncleanseString(
+                meeting.getProperty(VEvent.DESCRIPTION)));
+        assertEquals("20160101T100000Z", meeting.getProperty(VEvent.DTSTART));
+        assertEquals("20160101T110000Z", meeting.getProperty(VEvent.DTEND));
+        assertEquals("organizer@test", meeting.mOrganizer.mEmail);
+        String timeStamp = meeting.getProperty(VEvent.DTSTAMP);
+        assertNotNull(timeStamp);
+        IcalendarDateTime.parse(timeStamp, null);
+
+        VEvent holiday = parser.nextEvent();
+        assertEquals("2@ws.xsoh.etar", holiday.getProperty(VEvent.UID));
+        assertEquals("20160104", holiday.getProperty(VEvent.DTSTART));
+        assertEquals("DATE", holiday.getParameter(VEvent.DTSTART, "VALUE"));
+        assertEquals("P1D", holiday.getProperty(VEvent.DURATION));
+        assertEquals("FREQ=WEEKLY", holiday.getProperty(VEvent.RRULE));
+        assertEquals("20160111", holiday.getProperty(VEvent.EXDATE));
+        assertEquals("DATE", holiday.getParameter(VEvent.EXDATE, "VALUE"));
+        assertNull(holiday.getProperty(VEvent.DTEND));
+        assertEquals(timeStamp, holiday.getProperty(VEvent.DTSTAMP));
+
+        assertNull(parser.nextEvent());
+        // All-day and UTC events need no VTIMEZONE
+        assertFalse(out.toString().contains("BEGIN:VTIMEZONE"));
+        assertEquals("2.0", parser.getCalendar().getProperty(VCalendar.VERSION));
+    }
+
+    public void testWriteTimeZone() throws IOException {
+        StringWriter out = new StringWriter();
+        IcalendarWriter writer = new IcalendarWriter(out);
+        // In 2016
+        IcalendarTimeZone.write(writer, "America/New_York", 1468242000000L);
+        IcalendarTimeZone.write(writer, "Asia/Tokyo", 1468242000000L);
+        writer.flush();
+        assertEquals("BEGIN:VTIMEZONE\n"
+                + "TZID:America/New_York\n"
+                + "BEGIN:DAYLIGHT\n"
+                + "DTSTART:19700308T020000\n"
+                + "RRULE:FREQ=YEARLY;BYMONTH=3;BYDAY=2SU\n"
+                + "TZOFFSETFROM:-0500\n"
+                + "TZOFFSETTO:-0400\n"
+                + "END:DAYLIGHT\n"
+                + "BEGIN:STANDARD\n"
+                + "DTSTART:19701101T020000\n"
+                + "RRULE:FREQ=YEARLY;BYMONTH=11;BYDAY=1SU\n"
+                + "TZOFFSETFROM:-0400\n"
+                + "TZOFFSETTO:-0500\n"
+                + "END:STANDARD\n"
+                + "END:VTIMEZONE\n"
+                + "BEGIN:VTIMEZONE\n"
+                + "TZID:Asia/Tokyo\n"
+                + "BEGIN:STANDARD\n"
+                + "DTSTART:19700101T000000\n"
+                + "TZOFFSETFROM:+0900\n"
+                + "TZOFFSETTO:+0900\n"
+                + "END:STANDARD\n"
+                + "END:VTIMEZONE\n", out.toString());
+    }
+
+    public void testDayOfWeek() {
+        // The last Sunday of March and October 2016
+        assertEquals(27, IcalendarTimeZone.dayOfWeek(2016, 3, -1, 0));
+        assertEquals(30, IcalendarTimeZone.dayOfWeek(2016, 10, -1, 0));
+        // The second Sunday of March 2016, the first Sunday of November 1970
+        assertEquals(13, IcalendarTimeZone.dayOfWeek(2016, 3, 2, 0));
+        assertEquals(1, IcalendarTimeZone.dayOfWeek(1970, 11, 1, 0));
+    }
+
+    public void testExportRecurring_DaylightSaving() throws IOException {
+        MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(CalendarContract.AUTHORITY, new RecurringProvider());
+
+        StringWriter out = new StringWriter();
+        assertEquals(2, new IcalendarExporter(resolver).exportCalendar(-1, out));
+
+        IcalendarParser parser = new IcalendarParser(new StringReader(out.toString()));
+        VEvent weekly = parser.nextEvent();
+        assertEquals("20160104T090000", weekly.getProperty(VEvent.DTSTART));
+        assertEquals("America/New_York", weekly.getParameter(VEvent.DTSTART, "TZID"));
+        assertEquals("20160111T090000", weekly.getProperty(VEvent.EXDATE));
+        assertEquals("America/New_York", weekly.getParameter(VEvent.EXDATE, "TZID"));
+
+        VEvent moved = parser.nextEvent();
+        assertEquals("weekly@test", moved.getProperty(VEvent.UID));
+        assertEquals("20160711T090000", moved.getProperty(VEvent.RECURRENCE_ID));
+        assertEquals("America/New_York", moved.getParameter(VEvent.RECURRENCE_ID, "TZID"));
+        assertEquals("20160711T100000", moved.getProperty(VEvent.DTSTART));
+        assertNotNull(moved.getProperty(VEvent.DTSTAMP));
+        assertNull(parser.nextEvent());
+
+        // One VTIMEZONE for the TZID used by both
+        String ics = out.toString();
+        int vtimezone = ics.indexOf("BEGIN:VTIMEZONE\nTZID:America/New_York\n");
+        assertTrue(vtimezone != -1);
+        assertEquals(vtimezone, ics.lastIndexOf("BEGIN:VTIMEZONE"));
+        assertTrue(ics.indexOf("END:VEVENT") < vtimezone);
+
+        // Imported again, the occurrences after the change are still at 09:00
+        IcalendarImporter importer = new IcalendarImporter(null, 1, "UTC");
+        ContentValues values = importer.mapEvent(weekly).mEvent;
+        assertEquals("America/New_York",
+                values.getAsString(CalendarContract.Events.EVENT_TIMEZONE));
+        assertEquals("20160111T140000Z", values.getAsString(CalendarContract.Events.EXDATE));
+        RecurrenceExpander.Occurrences occurrences = RecurrenceExpander.create(
+                values.getAsString(CalendarContract.Events.RRULE), null, null,
+                values.getAsString(CalendarContract.Events.EXDATE),
+                values.getAsLong(CalendarContract.Events.DTSTART), "America/New_York", false)
+                .expand(1451606400000L, 1468281600000L);
+        assertEquals(1451916000000L, occurrences.next());
+        // 2016-01-11 is deleted
+        assertEquals(1453125600000L, occurrences.next());
+        long last = 0;
+        while (occurrences.hasNext()) {
+            last = occurrences.next();
+        }
+        // 2016-07-11 09:00 EDT
+        assertEquals(1468242000000L, last);
+
+        // The moved occurrence replaces the one at 09:00
+        ContentValues movedValues = importer.mapEvent(moved).mEvent;
+        assertEquals(1468242000000L, (long) movedValues.getAsLong(
+                CalendarContract.Events.ORIGINAL_INSTANCE_TIME));
+        assertEquals(1468245600000L, (long) movedValues.getAsLong(
+                CalendarContract.Events.DTSTART));
+        assertNull(movedValues.getAsString(CalendarContract.Events.RRULE));
+    }
+}
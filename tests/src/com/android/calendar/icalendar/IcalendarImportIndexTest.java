@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.icalendar;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+@SmallTest
+public class IcalendarImportIndexTest extends TestCase {
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = File.createTempFile("import-index", null);
+        assertTrue(mFile.delete());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    private IcalendarImportIndex load() throws IOException {
+        IcalendarImportIndex index = new IcalendarImportIndex(mFile);
+        index.load();
+        return index;
+    }
+
+    public void testGetKey() {
+        assertNull(IcalendarImportIndex.getKey(null, "20160101T100000Z"));
+        assertEquals("a@test", IcalendarImportIndex.getKey("a@test", null));
+        assertEquals("a@test/20160101T100000Z",
+                IcalendarImportIndex.getKey("a@test", "20160101T100000Z"));
+    }
+
+    public void testLoad_MissingFile() throws IOException {
+        assertEquals(0, load().size());
+    }
+
+    public void testSaveAndLoad() throws IOException {
+        IcalendarImportIndex index = load();
+        index.put("a@test", 1, 0, 11);
+        index.put("b@test", 2, 3, 22);
+        index.save();
+
+        // Appended to the log
+        index.put("a@test", 1, 1, 12);
+        index.remove("b@test");
+        index.put("c@test", 3, 0, 33);
+        index.save();
+
+        IcalendarImportIndex loaded = load();
+        assertEquals(2, loaded.size());
+        IcalendarImportIndex.Entry a = loaded.get("a@test");
+        assertEquals(1, a.mEventId);
+        assertEquals(1, a.mSequence);
+        assertEquals(12, a.mHash);
+        assertNull(loaded.get("b@test"));
+        assertEquals(3, loaded.get("c@test").mEventId);
+    }
+
+    public void testSave_Compacts() throws IOException {
+        IcalendarImportIndex index = load();
+        for (int i = 0; i < 1000; i++) {
+            index.put("event@test", 1, i, i);
+            index.save();
+        }
+        // Rewrites keep the log from growing with every save. Records vary in length with
+        // their key; this one takes 32 bytes, 12 for the key and 20 for the entry.
+        assertTrue(mFile.length() < 200 * 32);
+        assertEquals(999, load().get("event@test").mSequence);
+    }
+
+    public void testLoad_IgnoresIncompleteRecord() throws IOException {
+        IcalendarImportIndex index = load();
+        index.put("a@test", 1, 0, 11);
+        index.put("b@test", 2, 0, 22);
+        index.save();
+        // Cut the last record short, like a crash during a save
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        raf.setLength(raf.length() - 4);
+        raf.close();
+
+        IcalendarImportIndex loaded = load();
+        assertEquals(1, loaded.size());
+        // The next save rewrites the file rather than appending after the broken record
+        loaded.put("c@test", 3, 0, 33);
+        loaded.save();
+        assertEquals(2, load().size());
+    }
+
+    public void testSeenKeys() throws IOException {
+        IcalendarImportIndex index = load();
+        index.put("a@test", 1, 0, 11);
+        index.put("b@test", 2, 0, 22);
+        assertTrue(index.markSeen("a@test"));
+        assertFalse(index.markSeen("a@test"));
+
+        ArrayList<String> unseen = index.getUnseenKeys();
+        assertEquals(1, unseen.size());
+        assertEquals("b@test", unseen.get(0));
+
+        index.clearSeen();
+        assertEquals(2, index.getUnseenKeys().size());
+    }
+
+    public void testRetainEvents() throws IOException {
+        IcalendarImportIndex index = load();
+        index.put("a@test", 1, 0, 11);
+        index.put("b@test", 2, 0, 22);
+        index.save();
+
+        HashSet<Long> eventIds = new HashSet<Long>();
+        eventIds.add(2L);
+        index.retainEvents(eventIds);
+        index.save();
+
+        IcalendarImportIndex loaded = load();
+        assertNull(loaded.get("a@test"));
+        assertEquals(2, loaded.get("b@test").mEventId);
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.icalendar;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.CalendarContract;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+@SmallTest
+public class IcalendarImporterTest extends TestCase {
+
+    public void testGetReminderMinutes() {
+        assertEquals(15, IcalendarImporter.getReminderMinutes("TRIGGER:-PT15M"));
+        assertEquals(1440, IcalendarImporter.getReminderMinutes("TRIGGER;RELATED=START:-P1D"));
+        assertEquals(0, IcalendarImporter.getReminderMinutes("TRIGGER:PT0S"));
+        assertEquals(-1, IcalendarImporter.getReminderMinutes("TRIGGER:PT15M"));
+        assertEquals(-1, IcalendarImporter.getReminderMinutes("TRIGGER;RELATED=END:-PT5M"));
+        assertEquals(-1, IcalendarImporter.getReminderMinutes(
+                "TRIGGER;VALUE=DATE-TIME:20160101T100000Z"));
+    }
+
+    /**
+     * Records the tables written by each batch
+     */
+    private static class BatchProvider extends MockContentProvider {
+        final ArrayList<ArrayList<Uri>> mBatches = new ArrayList<ArrayList<Uri>>();
+
+        @Override
+        public ContentProviderResult[] applyBatch(
+                ArrayList<ContentProviderOperation> operations) {
+            ArrayList<Uri> uris = new ArrayList<Uri>();
+            for (ContentProviderOperation operation : operations) {
+                uris.add(operation.getUri());
+            }
+            mBatches.add(uris);
+            return new ContentProviderResult[operations.size()];
+        }
+    }
+
+    private static String buildCalendar(int count) {
+        StringBuilder ics = new StringBuilder("BEGIN:VCALENDAR\nVERSION:2.0\n");
+        for (int i = 0; i < count; i++) {
+            ics.append("BEGIN:VEVENT\nUID:").append(i).append("@test\n");
+            if (i % 7 != 6) {
+                // Every seventh event has no start and is skipped
+                ics.append("DTSTART:20160101T100000Z\n");
+            }
+            // A different number of attendees per event, to check the order of the rows
+            for (int j = 0; j < i % 3; j++) {
+                ics.append("ATTENDEE;CN=A:mailto:a").append(j).append("@test\n");
+            }
+            if (i % 2 == 0) {
+                ics.append("BEGIN:VALARM\nTRIGGER:-PT15M\nEND:VALARM\n");
+            }
+            ics.append("END:VEVENT\n");
+        }
+        return ics.append("END:VCALENDAR\n").toString();
+    }
+
+    private static BatchProvider importCalendar(String ics, int threads, int resumeFrom,
+            final ArrayList<Integer> progress) throws Exception {
+        BatchProvider provider = new BatchProvider();
+        MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(CalendarContract.AUTHORITY, provider);
+        IcalendarImporter importer = new IcalendarImporter(resolver, 1, "UTC");
+        importer.setBatchSize(10);
+        importer.setThreads(threads);
+        importer.setProgressListener(new IcalendarImporter.ProgressListener() {
+            @Override
+            public void onProgress(int handled) {
+                progress.add(handled);
+            }
+        });
+        IcalendarParser parser = new IcalendarParser(new StringReader(ics));
+        assertEquals(100, importer.importEvents(parser, resumeFrom));
+        return provider;
+    }
+
+    public void testImportEvents_ParallelMatchesSerial() throws Exception {
+        String ics = buildCalendar(100);
+        ArrayList<Integer> serialProgress = new ArrayList<Integer>();
+        BatchProvider serial = importCalendar(ics, 1, 0, serialProgress);
+        ArrayList<Integer> parallelProgress = new ArrayList<Integer>();
+        BatchProvider parallel = importCalendar(ics, 4, 0, parallelProgress);
+
+        assertEquals(serial.mBatches, parallel.mBatches);
+        assertEquals(serialProgress, parallelProgress);
+        // 86 events have a start, in batches of 10
+        assertEquals(9, serial.mBatches.size());
+        assertEquals(Integer.valueOf(100), serialProgress.get(serialProgress.size() - 1));
+    }
+
+    public void testImportEvents_Resume() throws Exception {
+        String ics = buildCalendar(100);
+        ArrayList<Integer> progress = new ArrayList<Integer>();
+        BatchProvider provider = importCalendar(ics, 4, 95, progress);
+
+        // Events 95 to 99, 97 has no start
+        assertEquals(1, provider.mBatches.size());
+        int events = 0;
+        for (Uri uri : provider.mBatches.get(0)) {
+            if (uri.equals(CalendarContract.Events.CONTENT_URI)) {
+                events++;
+            }
+        }
+        assertEquals(4, events);
+        assertEquals(Integer.valueOf(100), progress.get(0));
+    }
+
+    /**
+     * Keeps the ids of the events inserted, and counts the operations by type
+     */
+    private static class EventsProvider extends MockContentProvider {
+        final HashSet<Long> mEventIds = new HashSet<Long>();
+        long mNextId = 1;
+        int mInserts;
+        int mUpdates;
+        int mDeletes;
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            MatrixCursor cursor = new MatrixCursor(projection);
+            for (long id : mEventIds) {
+                cursor.addRow(new Object[] { id });
+            }
+            return cursor;
+        }
+
+        @Override
+        public ContentProviderResult[] applyBatch(
+                ArrayList<ContentProviderOperation> operations)
+                throws OperationApplicationException {
+            ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+            for (int i = 0; i < operations.size(); i++) {
+                results[i] = operations.get(i).apply(this, results, i);
+            }
+            return results;
+        }
+
+        static boolean isEvent(Uri uri) {
+            return uri.toString().startsWith(CalendarContract.Events.CONTENT_URI.toString());
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            if (!isEvent(uri)) {
+                return ContentUris.withAppendedId(uri, 1);
+            }
+            long id = mNextId++;
+            mEventIds.add(id);
+            mInserts++;
+            return ContentUris.withAppendedId(uri, id);
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection,
+                String[] selectionArgs) {
+            if (isEvent(uri)) {
+                mUpdates++;
+            }
+            return 1;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            if (isEvent(uri)) {
+                mEventIds.remove(ContentUris.parseId(uri));
+                mDeletes++;
+            }
+            return 1;
+        }
+    }
+
+    private static String buildFeed(int count, int changed, int sequence) {
+        StringBuilder ics = new StringBuilder("BEGIN:VCALENDAR\nVERSION:2.0\n");
+        for (int i = 0; i < count; i++) {
+            ics.append("BEGIN:VEVENT\nUID:").append(i).append("@feed\n");
+            // DTSTAMP changes with every download of a feed
+            ics.append("DTSTAMP:2016010").append(sequence + 1).append("T000000Z\n");
+            ics.append("DTSTART:20160101T100000Z\n");
+            if (i == changed) {
+                ics.append("SEQUENCE:").append(sequence).append("\n");
+                ics.append("SUMMARY:Moved ").append(sequence).append("\n");
+            } else {
+                ics.append("SUMMARY:Event ").append(i).append("\n");
+            }
+            ics.append("END:VEVENT\n");
+        }
+        return ics.append("END:VCALENDAR\n").toString();
+    }
+
+    private static IcalendarImporter reimport(EventsProvider provider, File indexFile,
+            String ics, boolean deleteMissing) throws Exception {
+        provider.mInserts = 0;
+        provider.mUpdates = 0;
+        provider.mDeletes = 0;
+        MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(CalendarContract.AUTHORITY, provider);
+        IcalendarImporter importer = new IcalendarImporter(resolver, 1, "UTC");
+        importer.setBatchSize(10);
+        IcalendarImportIndex index = new IcalendarImportIndex(indexFile);
+        index.load();
+        importer.setIndex(index, deleteMissing);
+        importer.importEvents(new IcalendarParser(new StringReader(ics)), 0);
+        return importer;
+    }
+
+    public void testImportEvents_Reimport() throws Exception {
+        File indexFile = File.createTempFile("import-index", null);
+        assertTrue(indexFile.delete());
+        try {
+            EventsProvider provider = new EventsProvider();
+            IcalendarImporter importer = reimport(provider, indexFile, buildFeed(50, 7, 0),
+                    false);
+            assertEquals(50, importer.getInsertedCount());
+            assertEquals(50, provider.mInserts);
+
+            // Nothing changed but the time stamps
+            importer = reimport(provider, indexFile, buildFeed(50, 7, 0), false);
+            assertEquals(50, importer.getUnchangedCount());
+            assertEquals(0, provider.mInserts + provider.mUpdates + provider.mDeletes);
+
+            // One event changed, with a new sequence
+            importer = reimport(provider, indexFile, buildFeed(50, 7, 1), false);
+            assertEquals(1, importer.getUpdatedCount());
+            assertEquals(49, importer.getUnchangedCount());
+            assertEquals(1, provider.mUpdates);
+            assertEquals(0, provider.mInserts);
+
+            // An older sequence is ignored
+            importer = reimport(provider, indexFile, buildFeed(50, 7, 0), false);
+            assertEquals(0, provider.mUpdates);
+
+            // Events missing from the feed are only deleted if asked to
+            importer = reimport(provider, indexFile, buildFeed(40, 7, 1), false);
+            assertEquals(0, importer.getDeletedCount());
+            importer = reimport(provider, indexFile, buildFeed(40, 7, 1), true);
+            assertEquals(10, importer.getDeletedCount());
+            assertEquals(10, provider.mDeletes);
+            assertEquals(40, provider.mEventIds.size());
+
+            // Events deleted by the user are inserted again
+            provider.mEventIds.remove(provider.mEventIds.iterator().next());
+            importer = reimport(provider, indexFile, buildFeed(40, 7, 1), true);
+            assertEquals(1, importer.getInsertedCount());
+            assertEquals(0, importer.getDeletedCount());
+            assertEquals(40, provider.mEventIds.size());
+        } finally {
+            indexFile.delete();
+        }
+    }
+
+    /**
+     * An override read before its recurring event, a recurring event with two EXDATE
+     * properties, and a cancelled override read after it
+     */
+    private static final String RECURRING_CALENDAR = "BEGIN:VCALENDAR\n"
+            + "BEGIN:VEVENT\nUID:weekly@test\n"
+            + "RECURRENCE-ID;TZID=Europe/Berlin:20160118T100000\n"
+            + "DTSTART;TZID=Europe/Berlin:20160118T120000\nSUMMARY:Moved\nEND:VEVENT\n"
+            + "BEGIN:VEVENT\nUID:other@test\nDTSTART:20160101T100000Z\nEND:VEVENT\n"
+            + "BEGIN:VEVENT\nUID:weekly@test\n"
+            + "DTSTART;TZID=Europe/Berlin:20160104T100000\nRRULE:FREQ=WEEKLY\n"
+            + "EXDATE;TZID=Europe/Berlin:20160111T100000\n"
+            + "EXDATE:20160201T090000Z,20160208T090000Z\nEND:VEVENT\n"
+            + "BEGIN:VEVENT\nUID:weekly@test\nRECURRENCE-ID:20160125T090000Z\n"
+            + "DTSTART:20160125T090000Z\nSTATUS:CANCELLED\nEND:VEVENT\n"
+            + "END:VCALENDAR\n";
+
+    /**
+     * Keeps the values of the events inserted, by id
+     */
+    private static class ValuesProvider extends EventsProvider {
+        final ArrayList<ContentValues> mEvents = new ArrayList<ContentValues>();
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            Uri inserted = super.insert(uri, values);
+            if (isEvent(uri)) {
+                mEvents.add(values);
+            }
+            return inserted;
+        }
+    }
+
+    public void testImportEvents_Recurring() throws Exception {
+        ValuesProvider provider = new ValuesProvider();
+        MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(CalendarContract.AUTHORITY, provider);
+        IcalendarImporter importer = new IcalendarImporter(resolver, 1, "UTC");
+        final ArrayList<Integer> progress = new ArrayList<Integer>();
+        importer.setBatchSize(3);
+        importer.setProgressListener(new IcalendarImporter.ProgressListener() {
+            @Override
+            public void onProgress(int handled) {
+                progress.add(handled);
+            }
+        });
+        assertEquals(4, importer.importEvents(
+                new IcalendarParser(new StringReader(RECURRING_CALENDAR)), 0));
+
+        // The first override waits for the recurring event in the same batch
+        assertEquals(Integer.valueOf(3), progress.get(0));
+        assertEquals(4, provider.mEvents.size());
+        ContentValues other = provider.mEvents.get(0);
+        assertNull(other.get(CalendarContract.Events.ORIGINAL_ID));
+
+        ContentValues weekly = provider.mEvents.get(1);
+        assertEquals("FREQ=WEEKLY", weekly.getAsString(CalendarContract.Events.RRULE));
+        assertEquals("20160111T090000Z,20160201T090000Z,20160208T090000Z",
+                weekly.getAsString(CalendarContract.Events.EXDATE));
+
+        // Both overrides point at the recurring event, inserted with id 2
+        ContentValues moved = provider.mEvents.get(2);
+        assertEquals("Moved", moved.getAsString(CalendarContract.Events.TITLE));
+        assertEquals(Long.valueOf(2), moved.getAsLong(CalendarContract.Events.ORIGINAL_ID));
+        assertEquals(Long.valueOf(1453107600000L),
+                moved.getAsLong(CalendarContract.Events.ORIGINAL_INSTANCE_TIME));
+        assertNull(moved.get(CalendarContract.Events.RRULE));
+
+        ContentValues cancelled = provider.mEvents.get(3);
+        assertEquals(Long.valueOf(2), cancelled.getAsLong(CalendarContract.Events.ORIGINAL_ID));
+        assertEquals(Integer.valueOf(CalendarContract.Events.STATUS_CANCELED),
+                cancelled.getAsInteger(CalendarContract.Events.STATUS));
+    }
+
+    public void testImportEvents_OverrideBeforeBatch() throws Exception {
+        ValuesProvider provider = new ValuesProvider();
+        MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(CalendarContract.AUTHORITY, provider);
+        IcalendarImporter importer = new IcalendarImporter(resolver, 1, "UTC");
+        final ArrayList<Integer> progress = new ArrayList<Integer>();
+        importer.setBatchSize(1);
+        importer.setProgressListener(new IcalendarImporter.ProgressListener() {
+            @Override
+            public void onProgress(int handled) {
+                progress.add(handled);
+            }
+        });
+        assertEquals(4, importer.importEvents(
+                new IcalendarParser(new StringReader(RECURRING_CALENDAR)), 0));
+
+        // The recurring event is in a later batch, so the first override is imported on
+        // its own rather than holding the progress back
+        assertEquals(Integer.valueOf(2), progress.get(0));
+        assertEquals(4, provider.mEvents.size());
+        // Written at the end of the batch of the next event
+        ContentValues moved = provider.mEvents.get(1);
+        assertEquals("Moved", moved.getAsString(CalendarContract.Events.TITLE));
+        assertNull(moved.get(CalendarContract.Events.ORIGINAL_ID));
+        assertNull(moved.get(CalendarContract.Events.ORIGINAL_INSTANCE_TIME));
+
+        ContentValues cancelled = provider.mEvents.get(3);
+        assertEquals(Long.valueOf(3), cancelled.getAsLong(CalendarContract.Events.ORIGINAL_ID));
+    }
+
+    public void testGetKey() {
+        ArrayList<String> lines = new ArrayList<String>();
+        lines.add("SUMMARY:Override");
+        assertNull(IcalendarImporter.getKey(lines));
+        lines.add("UID:a@test");
+        assertEquals("a@test", IcalendarImporter.getKey(lines));
+        lines.add("RECURRENCE-ID;TZID=Europe/Berlin:20160101T100000");
+        assertEquals("a@test/20160101T100000", IcalendarImporter.getKey(lines));
+
+        VEvent event = IcalendarParser.parseEvent(lines);
+        IcalendarImporter importer = new IcalendarImporter(null, 1, "UTC");
+        event.addEntry("DTSTART:20160101T100000Z");
+        assertEquals("a@test/20160101T100000", importer.mapEvent(event).mKey);
+    }
+
+    public void testMapEvent_ValidatesRule() {
+        IcalendarImporter importer = new IcalendarImporter(null, 1, "UTC");
+        VEvent event = new VEvent(false);
+        event.addEntry("UID:a@test");
+        event.addEntry("DTSTART:20160101T100000Z");
+        event.addEntry("RRULE:FREQ=WEEKLY;COUNT=3");
+        assertEquals("FREQ=WEEKLY;COUNT=3",
+                importer.mapEvent(event).mEvent.getAsString(CalendarContract.Events.RRULE));
+
+        event.addEntry("RRULE:FREQ=SOMETIMES");
+        assertNull(importer.mapEvent(event));
+        event.addEntry("RRULE:FREQ=DAILY;UNTIL=2016");
+        assertNull(importer.mapEvent(event));
+    }
+}
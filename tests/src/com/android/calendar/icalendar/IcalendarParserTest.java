@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.icalendar;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+@SmallTest
+public class IcalendarParserTest extends TestCase {
+
+    private static final String CALENDAR = "BEGIN:VCALENDAR\r\n"
+            + "VERSION:2.0\r\n"
+            + "PRODID:-//Test//Test\r\n"
+            + "BEGIN:VTIMEZONE\r\n"
+            + "TZID:Europe/Berlin\r\n"
+            + "END:VTIMEZONE\r\n"
+            + "BEGIN:VEVENT\r\n"
+            + "UID:first@test\r\n"
+            + "SUMMARY:A summary that is long enough to be folded over more than one\r\n"
+            + "  line\r\n"
+            + "DTSTART;TZID=Europe/Berlin:20160101T100000\r\n"
+            + "ORGANIZER;CN=Organizer:mailto:organizer@test\r\n"
+            + "ATTENDEE;CN=Attendee;PARTSTAT=ACCEPTED:mailto:attendee@test\r\n"
+            + "BEGIN:VALARM\r\n"
+            + "DESCRIPTION:Alarm\r\n"
+            + "END:VALARM\r\n"
+            + "END:VEVENT\r\n"
+            + "BEGIN:VEVENT\r\n"
+            + "UID:second@test\r\n"
+            + "DESCRIPTION:Folded\r\n"
+            + "\twith a tab\r\n"
+            + "END:VEVENT\r\n"
+            + "END:VCALENDAR\r\n";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public void testEventsAreStreamed() throws IOException {
+        assertCalendar(new IcalendarParser(new StringReader(CALENDAR)));
+    }
+
+    public void testEventsAreReadFromBuffer() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CALENDAR.length());
+        buffer.put(CALENDAR.getBytes(UTF_8)).flip();
+        assertCalendar(new IcalendarParser(new IcalendarByteReader(buffer)));
+    }
+
+    public void testEventsAreReadFromBytes() throws IOException {
+        // Chunks smaller than a line, so lines and CRLF span reads
+        for (int chunk = 4; chunk <= 16; chunk++) {
+            assertCalendar(new IcalendarParser(new IcalendarByteReader(
+                    new ByteArrayInputStream(CALENDAR.getBytes(UTF_8)), chunk)));
+        }
+    }
+
+    private static void assertCalendar(IcalendarParser parser) throws IOException {
+        VEvent first = parser.nextEvent();
+        assertEquals("first@test", first.getProperty(VEvent.UID));
+        assertEquals("A summary that is long enough to be folded over more than one line",
+                first.getProperty(VEvent.SUMMARY));
+        assertEquals("20160101T100000", first.getProperty(VEvent.DTSTART));
+        assertEquals("Europe/Berlin", first.getParameter(VEvent.DTSTART, "TZID"));
+        assertNull(first.getProperty(VEvent.DESCRIPTION));
+        assertEquals("Organizer", first.mOrganizer.mName);
+        assertEquals("organizer@test", first.mOrganizer.mEmail);
+        assertEquals(1, first.mAttendees.size());
+        assertEquals("attendee@test", first.mAttendees.getFirst().mEmail);
+
+        VEvent second = parser.nextEvent();
+        assertEquals("second@test", second.getProperty(VEvent.UID));
+        assertEquals("Foldedwith a tab", second.getProperty(VEvent.DESCRIPTION));
+
+        assertNull(parser.nextEvent());
+        assertEquals("2.0", parser.getCalendar().getProperty(VCalendar.VERSION));
+        assertTrue(parser.getCalendar().getAllEvents().isEmpty());
+    }
+
+    public void testUnfoldsLines() throws IOException {
+        IcalendarParser parser = new IcalendarParser(new StringReader("A:1\n 2\n 3\nB:4\n"));
+        assertEquals("A:123", parser.nextLine());
+        assertEquals("B:4", parser.nextLine());
+        assertNull(parser.nextLine());
+
+        parser = new IcalendarParser(new IcalendarByteReader(
+                ByteBuffer.wrap("A:1\n 2\n 3\nB:4\n".getBytes(UTF_8))));
+        assertEquals("A:123", parser.nextLine());
+        assertEquals("B:4", parser.nextLine());
+        assertNull(parser.nextLine());
+    }
+
+    public void testDecodesBytes() throws IOException {
+        // A byte order mark, multi-byte characters spanning reads, CR line breaks and no
+        // final line break
+        byte[] bytes = "\ufeffA:\u00e4\u20ac\r\n \u00fc\rB:\ud83d\ude00\n\nC".getBytes(UTF_8);
+        IcalendarParser parser = new IcalendarParser(new IcalendarByteReader(
+                new ByteArrayInputStream(bytes), 3));
+        assertEquals("A:\u00e4\u20ac\u00fc", parser.nextLine());
+        assertEquals("B:\ud83d\ude00", parser.nextLine());
+        assertEquals("", parser.nextLine());
+        assertEquals("C", parser.nextLine());
+        assertNull(parser.nextLine());
+    }
+
+    public void testManyEvents() throws IOException {
+        StringBuilder calendar = new StringBuilder("BEGIN:VCALENDAR\n");
+        for (int i = 0; i < 1000; i++) {
+            calendar.append("BEGIN:VEVENT\nUID:").append(i).append("\nEND:VEVENT\n");
+        }
+        calendar.append("END:VCALENDAR\n");
+
+        IcalendarParser parser = new IcalendarParser(new StringReader(calendar.toString()));
+        int count = 0;
+        VEvent event;
+        while ((event = parser.nextEvent()) != null) {
+            assertEquals(Integer.toString(count), event.getProperty(VEvent.UID));
+            count++;
+        }
+        assertEquals(1000, count);
+    }
+}
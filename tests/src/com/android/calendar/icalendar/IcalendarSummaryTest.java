@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.icalendar;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+@SmallTest
+public class IcalendarSummaryTest extends TestCase {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String CALENDAR = "BEGIN:VCALENDAR\r\n"
+            + "VERSION:2.0\r\n"
+            + "BEGIN:VTIMEZONE\r\n"
+            + "TZID:Europe/Berlin\r\n"
+            + "BEGIN:STANDARD\r\n"
+            + "DTSTART:19701025T030000\r\n"
+            + "END:STANDARD\r\n"
+            + "END:VTIMEZONE\r\n"
+            + "BEGIN:VEVENT\r\n"
+            + "UID:first@test\r\n"
+            + "DTSTART;TZID=\"Europe/Berlin\":20160301T100000\r\n"
+            + "BEGIN:VALARM\r\n"
+            + "TRIGGER:-PT15M\r\n"
+            + "END:VALARM\r\n"
+            + "END:VEVENT\r\n"
+            + "BEGIN:VEVENT\r\n"
+            + "UID:second@test\r\n"
+            + "dtstart;VALUE=DATE:20151224\r\n"
+            + "DTSTAMP:20170101T000000Z\r\n"
+            + "END:VEVENT\r\n"
+            + "BEGIN:VTODO\r\n"
+            + "DTSTART:20200101\r\n"
+            + "END:VTODO\r\n"
+            + "BEGIN:VEVENT\r\n"
+            + "UID:third@test\r\n"
+            + "DTSTART:20160102T100000Z\r\n"
+            + "END:VEVENT\r\n"
+            + "BEGIN:VEVENT\r\n"
+            + "UID:no-start@test\r\n"
+            + "DTSTART:\r\n"
+            + "END:VEVENT\r\n"
+            + "END:VCALENDAR\r\n";
+
+    public void testScan() throws IOException {
+        assertSummary(IcalendarSummary.scan(new IcalendarByteReader(
+                ByteBuffer.wrap(CALENDAR.getBytes(UTF_8)))));
+        assertSummary(IcalendarSummary.scan(new IcalendarByteReader(
+                new ByteArrayInputStream(CALENDAR.getBytes(UTF_8)), 16)));
+    }
+
+    private static void assertSummary(IcalendarSummary summary) {
+        assertEquals(4, summary.getEventCount());
+        assertEquals(20151224, summary.getFirstDay());
+        assertEquals(20160301, summary.getLastDay());
+    }
+
+    public void testScan_Empty() throws IOException {
+        IcalendarSummary summary = IcalendarSummary.scan(new IcalendarByteReader(
+                ByteBuffer.wrap("BEGIN:VCALENDAR\nEND:VCALENDAR\n".getBytes(UTF_8))));
+        assertEquals(0, summary.getEventCount());
+        assertEquals(0, summary.getFirstDay());
+        assertEquals(0, summary.getLastDay());
+    }
+
+    public void testScan_FoldedStart() throws IOException {
+        String calendar = "BEGIN:VCALENDAR\r\n"
+                + "BEGIN:VEVENT\r\n"
+                + "DTSTART;TZID=\"/softwarestudio.org/Olson_20011030_5/America/Argentina/Buen\r\n"
+                + " os_Aires\":\r\n"
+                + " 20140301T100000\r\n"
+                + "END:VEVENT\r\n"
+                + "BEGIN:VEVENT\r\n"
+                + "DTSTART:201\r\n"
+                + "\t50101\r\n"
+                + "END:VEVENT\r\n"
+                + "BEGIN:VEVENT\r\n"
+                + "DTSTART:20160101\r\n"
+                // An empty continuation line
+                + " \r\n"
+                + "END:VEVENT\r\n"
+                + "BEGIN:VEVENT\r\n"
+                + "DTSTART:2013\r\n"
+                + " 0101";
+        byte[] bytes = calendar.getBytes(UTF_8);
+        for (int chunk = 4; chunk <= 64; chunk *= 2) {
+            IcalendarSummary summary = IcalendarSummary.scan(new IcalendarByteReader(
+                    new ByteArrayInputStream(bytes), chunk));
+            assertEquals(4, summary.getEventCount());
+            // The last start is folded at the end of the stream
+            assertEquals(20130101, summary.getFirstDay());
+            assertEquals(20160101, summary.getLastDay());
+        }
+        IcalendarSummary summary = IcalendarSummary.scan(new IcalendarByteReader(
+                ByteBuffer.wrap(bytes)));
+        assertEquals(20130101, summary.getFirstDay());
+    }
+
+    public void testScan_MatchesParser() throws IOException {
+        StringBuilder calendar = new StringBuilder("BEGIN:VCALENDAR\n");
+        for (int i = 0; i < 500; i++) {
+            calendar.append("BEGIN:VEVENT\nUID:").append(i)
+                    .append("\nDTSTART:2016").append(String.format("%02d", 1 + i % 12))
+                    .append("15T100000Z\nEND:VEVENT\n");
+        }
+        calendar.append("END:VCALENDAR\n");
+        byte[] bytes = calendar.toString().getBytes(UTF_8);
+
+        IcalendarSummary summary = IcalendarSummary.scan(new IcalendarByteReader(
+                ByteBuffer.wrap(bytes)));
+        IcalendarParser parser = new IcalendarParser(new IcalendarByteReader(
+                ByteBuffer.wrap(bytes)));
+        int count = 0;
+        while (parser.nextEvent() != null) {
+            count++;
+        }
+        assertEquals(count, summary.getEventCount());
+        assertEquals(20160115, summary.getFirstDay());
+        assertEquals(20161215, summary.getLastDay());
+    }
+}
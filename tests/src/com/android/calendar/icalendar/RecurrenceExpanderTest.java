@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.icalendar;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.calendarcommon2.EventRecurrence;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+
+/**
+ * Conformance tests of the expander, mostly the examples of RFC 5545 section 3.8.5.3
+ */
+@SmallTest
+public class RecurrenceExpanderTest extends TestCase {
+
+    private static final String ZONE = "America/New_York";
+    private static final long DAY = 24 * 60 * 60 * 1000;
+
+    /**
+     * DTSTART, RRULE and the first occurrences, in local time. Dates without a time have
+     * the time of DTSTART.
+     */
+    private static final String[][] RFC_EXAMPLES = {
+            // Daily for 10 occurrences
+            { "19970902T090000", "FREQ=DAILY;COUNT=10",
+                    "19970902,19970903,19970904,19970905,19970906,19970907,19970908,"
+                    + "19970909,19970910,19970911" },
+            // Every other day, forever
+            { "19970902T090000", "FREQ=DAILY;INTERVAL=2",
+                    "19970902,19970904,19970906,19970908,19970910" },
+            // Every 10 days, 5 occurrences
+            { "19970902T090000", "FREQ=DAILY;INTERVAL=10;COUNT=5",
+                    "19970902,19970912,19970922,19971002,19971012" },
+            // Weekly for 10 occurrences
+            { "19970902T090000", "FREQ=WEEKLY;COUNT=10",
+                    "19970902,19970909,19970916,19970923,19970930,19971007,19971014,"
+                    + "19971021,19971028,19971104" },
+            // Every other week, forever
+            { "19970902T090000", "FREQ=WEEKLY;INTERVAL=2;WKST=SU",
+                    "19970902,19970916,19970930,19971014,19971028,19971111,19971125,"
+                    + "19971209,19971223,19980106" },
+            // Weekly on Tuesday and Thursday for five weeks
+            { "19970902T090000", "FREQ=WEEKLY;UNTIL=19971007T000000Z;WKST=SU;BYDAY=TU,TH",
+                    "19970902,19970904,19970909,19970911,19970916,19970918,19970923,"
+                    + "19970925,19970930,19971002" },
+            { "19970902T090000", "FREQ=WEEKLY;COUNT=10;WKST=SU;BYDAY=TU,TH",
+                    "19970902,19970904,19970909,19970911,19970916,19970918,19970923,"
+                    + "19970925,19970930,19971002" },
+            // Every other week on Monday, Wednesday and Friday until December 24, 1997
+            { "19970901T090000",
+                    "FREQ=WEEKLY;INTERVAL=2;UNTIL=19971224T000000Z;WKST=SU;BYDAY=MO,WE,FR",
+                    "19970901,19970903,19970905,19970915,19970917,19970919,19970929,"
+                    + "19971001,19971003,19971013,19971015,19971017,19971027,19971029,"
+                    + "19971031,19971110,19971112,19971114,19971124,19971126,19971128,"
+                    + "19971208,19971210,19971212,19971222" },
+            // Every other week on Tuesday and Thursday, for 8 occurrences
+            { "19970902T090000", "FREQ=WEEKLY;INTERVAL=2;COUNT=8;WKST=SU;BYDAY=TU,TH",
+                    "19970902,19970904,19970916,19970918,19970930,19971002,19971014,"
+                    + "19971016" },
+            // Monthly on the first Friday for 10 occurrences
+            { "19970905T090000", "FREQ=MONTHLY;COUNT=10;BYDAY=1FR",
+                    "19970905,19971003,19971107,19971205,19980102,19980206,19980306,"
+                    + "19980403,19980501,19980605" },
+            // Monthly on the first Friday until December 24, 1997
+            { "19970905T090000", "FREQ=MONTHLY;UNTIL=19971224T000000Z;BYDAY=1FR",
+                    "19970905,19971003,19971107,19971205" },
+            // Every other month on the first and last Sunday, for 10 occurrences
+            { "19970907T090000", "FREQ=MONTHLY;INTERVAL=2;COUNT=10;BYDAY=1SU,-1SU",
+                    "19970907,19970928,19971102,19971130,19980104,19980125,19980301,"
+                    + "19980329,19980503,19980531" },
+            // Monthly on the second-to-last Monday for 6 months
+            { "19970922T090000", "FREQ=MONTHLY;COUNT=6;BYDAY=-2MO",
+                    "19970922,19971020,19971117,19971222,19980119,19980216" },
+            // Monthly on the third-to-last day, forever
+            { "19970928T090000", "FREQ=MONTHLY;BYMONTHDAY=-3",
+                    "19970928,19971029,19971128,19971229,19980129,19980226" },
+            // Monthly on the 2nd and 15th for 10 occurrences
+            { "19970902T090000", "FREQ=MONTHLY;COUNT=10;BYMONTHDAY=2,15",
+                    "19970902,19970915,19971002,19971015,19971102,19971115,19971202,"
+                    + "19971215,19980102,19980115" },
+            // Monthly on the first and last day for 10 occurrences
+            { "19970930T090000", "FREQ=MONTHLY;COUNT=10;BYMONTHDAY=1,-1",
+                    "19970930,19971001,19971031,19971101,19971130,19971201,19971231,"
+                    + "19980101,19980131,19980201" },
+            // Every 18 months on the 10th to the 15th, for 10 occurrences
+            { "19970910T090000",
+                    "FREQ=MONTHLY;INTERVAL=18;COUNT=10;BYMONTHDAY=10,11,12,13,14,15",
+                    "19970910,19970911,19970912,19970913,19970914,19970915,19990310,"
+                    + "19990311,19990312,19990313" },
+            // Every Tuesday, every other month
+            { "19970902T090000", "FREQ=MONTHLY;INTERVAL=2;BYDAY=TU",
+                    "19970902,19970909,19970916,19970923,19970930,19971104,19971111,"
+                    + "19971118,19971125,19980106,19980113,19980120,19980127,19980303" },
+            // Yearly in June and July for 10 occurrences
+            { "19970610T090000", "FREQ=YEARLY;COUNT=10;BYMONTH=6,7",
+                    "19970610,19970710,19980610,19980710,19990610,19990710,20000610,"
+                    + "20000710,20010610,20010710" },
+            // Every other year in January, February and March for 10 occurrences
+            { "19970310T090000", "FREQ=YEARLY;INTERVAL=2;COUNT=10;BYMONTH=1,2,3",
+                    "19970310,19990110,19990210,19990310,20010110,20010210,20010310,"
+                    + "20030110,20030210,20030310" },
+            // Every third year on the 1st, 100th and 200th day for 10 occurrences
+            { "19970101T090000", "FREQ=YEARLY;INTERVAL=3;COUNT=10;BYYEARDAY=1,100,200",
+                    "19970101,19970410,19970719,20000101,20000409,20000718,20030101,"
+                    + "20030410,20030719,20060101" },
+            // Every 20th Monday of the year, forever
+            { "19970519T090000", "FREQ=YEARLY;BYDAY=20MO",
+                    "19970519,19980518,19990517" },
+            // Monday of week number 20, forever
+            { "19970512T090000", "FREQ=YEARLY;BYWEEKNO=20;BYDAY=MO",
+                    "19970512,19980511,19990517" },
+            // Every Thursday in March, forever
+            { "19970313T090000", "FREQ=YEARLY;BYMONTH=3;BYDAY=TH",
+                    "19970313,19970320,19970327,19980305,19980312,19980319,19980326,"
+                    + "19990304,19990311,19990318,19990325" },
+            // Every Thursday, but only during June, July and August, forever
+            { "19970605T090000", "FREQ=YEARLY;BYDAY=TH;BYMONTH=6,7,8",
+                    "19970605,19970612,19970619,19970626,19970703,19970710,19970717,"
+                    + "19970724,19970731,19970807,19970814,19970821,19970828,19980604" },
+            // The first Saturday that follows the first Sunday of the month, forever
+            { "19970913T090000", "FREQ=MONTHLY;BYDAY=SA;BYMONTHDAY=7,8,9,10,11,12,13",
+                    "19970913,19971011,19971108,19971213,19980110,19980207,19980307,"
+                    + "19980411,19980509,19980613" },
+            // Every 4 years, the first Tuesday after a Monday in November, forever
+            { "19961105T090000",
+                    "FREQ=YEARLY;INTERVAL=4;BYMONTH=11;BYDAY=TU;BYMONTHDAY=2,3,4,5,6,7,8",
+                    "19961105,20001107,20041102" },
+            // The third instance of a Tuesday, Wednesday or Thursday of the month, for the
+            // next 3 months
+            { "19970904T090000", "FREQ=MONTHLY;COUNT=3;BYDAY=TU,WE,TH;BYSETPOS=3",
+                    "19970904,19971007,19971106" },
+            // The second-to-last weekday of the month
+            { "19970929T090000", "FREQ=MONTHLY;BYDAY=MO,TU,WE,TH,FR;BYSETPOS=-2",
+                    "19970929,19971030,19971127,19971230,19980129,19980226,19980330" },
+            // Every 3 hours from 09:00 to 17:00 on a day
+            { "19970902T090000", "FREQ=HOURLY;INTERVAL=3;UNTIL=19970902T210000Z",
+                    "19970902T090000,19970902T120000,19970902T150000" },
+            // Every 15 minutes for 6 occurrences
+            { "19970902T090000", "FREQ=MINUTELY;INTERVAL=15;COUNT=6",
+                    "19970902T090000,19970902T091500,19970902T093000,19970902T094500,"
+                    + "19970902T100000,19970902T101500" },
+            // Every hour and a half for 4 occurrences
+            { "19970902T090000", "FREQ=MINUTELY;INTERVAL=90;COUNT=4",
+                    "19970902T090000,19970902T103000,19970902T120000,19970902T133000" },
+            // Every 20 minutes from 09:00 to 16:40 every day
+            { "19970902T090000", "FREQ=DAILY;BYHOUR=9,10,11,12,13,14,15,16;BYMINUTE=0,20,40",
+                    "19970902T090000,19970902T092000,19970902T094000,19970902T100000" },
+            { "19970902T090000", "FREQ=MINUTELY;INTERVAL=20;BYHOUR=9,10,11,12,13,14,15,16",
+                    "19970902T090000,19970902T092000,19970902T094000,19970902T100000" },
+            // WKST changes the weeks of an INTERVAL
+            { "19970805T090000", "FREQ=WEEKLY;INTERVAL=2;COUNT=4;BYDAY=TU,SU;WKST=MO",
+                    "19970805,19970810,19970819,19970824" },
+            { "19970805T090000", "FREQ=WEEKLY;INTERVAL=2;COUNT=4;BYDAY=TU,SU;WKST=SU",
+                    "19970805,19970817,19970819,19970831" },
+            // Invalid dates, like February 30, are ignored
+            { "20070115T090000", "FREQ=MONTHLY;BYMONTHDAY=15,30;COUNT=5",
+                    "20070115,20070130,20070215,20070315,20070330" },
+    };
+
+    private static long local(String value, String defaultTime) {
+        if (value.length() == 8) {
+            value += defaultTime;
+        }
+        return IcalendarDateTime.parse(value, ZONE);
+    }
+
+    private static RecurrenceExpander create(String start, String rrule, String rdate,
+            String exrule, String exdate) {
+        return RecurrenceExpander.create(rrule, rdate, exrule, exdate, local(start, ""), ZONE,
+                false);
+    }
+
+    private static ArrayList<Long> expand(RecurrenceExpander expander, long rangeStart,
+            long rangeEnd, int max) {
+        ArrayList<Long> times = new ArrayList<Long>();
+        RecurrenceExpander.Occurrences occurrences = expander.expand(rangeStart, rangeEnd);
+        while (occurrences.hasNext() && times.size() < max) {
+            times.add(occurrences.next());
+        }
+        return times;
+    }
+
+    private static ArrayList<Long> expected(String start, String dates) {
+        ArrayList<Long> times = new ArrayList<Long>();
+        for (String date : dates.split(",")) {
+            times.add(local(date, start.substring(8)));
+        }
+        return times;
+    }
+
+    private static String format(ArrayList<Long> times) {
+        StringBuilder out = new StringBuilder();
+        for (long time : times) {
+            out.append(IcalendarDateTime.formatUtc(time)).append(' ');
+        }
+        return out.toString();
+    }
+
+    public void testRfcExamples() {
+        for (String[] example : RFC_EXAMPLES) {
+            ArrayList<Long> expected = expected(example[0], example[2]);
+            RecurrenceExpander expander = create(example[0], example[1], null, null, null);
+            ArrayList<Long> actual = expand(expander, Long.MIN_VALUE, Long.MAX_VALUE,
+                    expected.size());
+            assertEquals(example[1], format(expected), format(actual));
+        }
+    }
+
+    public void testCountAndUntil_End() {
+        RecurrenceExpander expander = create("19970902T090000", "FREQ=DAILY;COUNT=10", null,
+                null, null);
+        assertEquals(10, expander.count(Long.MIN_VALUE, Long.MAX_VALUE));
+
+        // Daily until December 24, 1997
+        expander = create("19970902T090000", "FREQ=DAILY;UNTIL=19971224T000000Z", null, null,
+                null);
+        ArrayList<Long> times = expand(expander, Long.MIN_VALUE, Long.MAX_VALUE, 1000);
+        assertEquals(113, times.size());
+        assertEquals(local("19971223T090000", ""), (long) times.get(112));
+
+        // Every day in January, for 3 years
+        expander = create("19980101T090000", "FREQ=YEARLY;UNTIL=20000131T140000Z;BYMONTH=1;"
+                + "BYDAY=SU,MO,TU,WE,TH,FR,SA", null, null, null);
+        assertEquals(93, expander.count(Long.MIN_VALUE, Long.MAX_VALUE));
+        expander = create("19980101T090000", "FREQ=DAILY;UNTIL=20000131T140000Z;BYMONTH=1",
+                null, null, null);
+        assertEquals(93, expander.count(Long.MIN_VALUE, Long.MAX_VALUE));
+
+        // An UNTIL date includes the whole day
+        expander = create("19970902T090000", "FREQ=DAILY;UNTIL=19970905", null, null, null);
+        assertEquals(4, expander.count(Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    public void testExdate() {
+        // Every Friday the 13th, forever, without DTSTART
+        RecurrenceExpander expander = create("19970902T090000",
+                "FREQ=MONTHLY;BYDAY=FR;BYMONTHDAY=13", null, null,
+                ZONE + ";19970902T090000");
+        assertEquals(format(expected("19970902T090000",
+                "19980213,19980313,19981113,19990813,20001013")),
+                format(expand(expander, Long.MIN_VALUE, Long.MAX_VALUE, 5)));
+    }
+
+    public void testRdateAndExrule() {
+        RecurrenceExpander expander = create("20160104T100000", "FREQ=DAILY;COUNT=5",
+                ZONE + ";20160110T080000,20160103T080000,20160105T100000",
+                "FREQ=WEEKLY;BYDAY=WE", null);
+        // The RDATEs are merged in order, a repeated occurrence only once, and the
+        // Wednesday is excluded
+        assertEquals(format(expected("20160104T100000", "20160103T080000,20160104,20160105,"
+                + "20160107,20160108,20160110T080000")),
+                format(expand(expander, Long.MIN_VALUE, Long.MAX_VALUE, 100)));
+    }
+
+    public void testStartNotMatchingRule() {
+        // DTSTART is a Wednesday but the rule is on Mondays, it still is the first one
+        // and counts towards COUNT
+        RecurrenceExpander expander = create("20160106T100000",
+                "FREQ=WEEKLY;BYDAY=MO;COUNT=3", null, null, null);
+        assertEquals(format(expected("20160106T100000", "20160106,20160111,20160118")),
+                format(expand(expander, Long.MIN_VALUE, Long.MAX_VALUE, 100)));
+    }
+
+    public void testWithoutRule() {
+        RecurrenceExpander expander = create("20160106T100000", null, null, null, null);
+        assertEquals(1, expander.count(Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    public void testDaylightSaving() {
+        // 09:00 local on both sides of the change in March 2016
+        RecurrenceExpander expander = create("20160312T090000", "FREQ=DAILY;COUNT=3", null,
+                null, null);
+        ArrayList<Long> times = expand(expander, Long.MIN_VALUE, Long.MAX_VALUE, 3);
+        assertEquals(DAY - 60 * 60 * 1000, times.get(1) - times.get(0));
+        assertEquals(DAY, times.get(2) - times.get(1));
+    }
+
+    public void testAllDay() {
+        long start = IcalendarDateTime.parse("20160229", null);
+        RecurrenceExpander expander = RecurrenceExpander.create("FREQ=YEARLY;COUNT=3", null,
+                null, null, start, ZONE, true);
+        ArrayList<Long> times = expand(expander, Long.MIN_VALUE, Long.MAX_VALUE, 10);
+        // Years without a February 29 have no occurrence
+        assertEquals(3, times.size());
+        assertEquals(IcalendarDateTime.parse("20200229", null), (long) times.get(1));
+        expander = RecurrenceExpander.create("FREQ=MONTHLY;BYMONTHDAY=-1;COUNT=3", null,
+                null, null, start, ZONE, true);
+        times = expand(expander, Long.MIN_VALUE, Long.MAX_VALUE, 10);
+        assertEquals(IcalendarDateTime.parse("20160331", null), (long) times.get(1));
+        assertEquals(IcalendarDateTime.parse("20160430", null), (long) times.get(2));
+    }
+
+    public void testRanges() {
+        // Expanding a range gives the occurrences of the whole expansion in that range,
+        // whether or not the start is skipped to
+        String[] rules = {
+                "FREQ=DAILY;INTERVAL=3", "FREQ=WEEKLY;INTERVAL=2;BYDAY=MO,TH",
+                "FREQ=MONTHLY;BYDAY=-1FR", "FREQ=MONTHLY;INTERVAL=5;BYMONTHDAY=31",
+                "FREQ=YEARLY;BYMONTH=2;BYMONTHDAY=29", "FREQ=HOURLY;INTERVAL=7;BYHOUR=1,8,15",
+                "FREQ=MINUTELY;INTERVAL=97;BYMONTH=3,11", "FREQ=YEARLY;BYWEEKNO=1,-1;BYDAY=SU",
+                "FREQ=DAILY;COUNT=500;BYDAY=SA,SU",
+        };
+        long start = local("20000101T083000", "");
+        for (String rule : rules) {
+            RecurrenceExpander expander = RecurrenceExpander.create(rule, null, null, null,
+                    start, ZONE, false);
+            ArrayList<Long> all = expand(expander, Long.MIN_VALUE, local("20210101", "T000000"),
+                    Integer.MAX_VALUE);
+            for (long rangeStart = start; rangeStart < local("20200101", "T000000");
+                    rangeStart += 397 * DAY + 3600 * 1000) {
+                long rangeEnd = rangeStart + 200 * DAY;
+                ArrayList<Long> expected = new ArrayList<Long>();
+                for (long time : all) {
+                    if (time >= rangeStart && time < rangeEnd) {
+                        expected.add(time);
+                    }
+                }
+                assertEquals(rule + " " + IcalendarDateTime.formatUtc(rangeStart),
+                        format(expected), format(expand(expander, rangeStart, rangeEnd,
+                        Integer.MAX_VALUE)));
+            }
+        }
+    }
+
+    public void testFarRange() {
+        // Skips to the range rather than expanding the centuries before it
+        RecurrenceExpander expander = create("20000101T090000", "FREQ=SECONDLY;INTERVAL=7",
+                null, null, null);
+        long rangeStart = local("21000101T000000", "");
+        ArrayList<Long> times = expand(expander, rangeStart, rangeStart + 60 * 1000, 100);
+        assertTrue(times.size() >= 8 && times.size() <= 9);
+        for (long time : times) {
+            assertEquals(0, (time - local("20000101T090000", "")) % 7000);
+        }
+    }
+
+    public void testInvalidRule() {
+        try {
+            create("20160106T100000", "FREQ=SOMETIMES", null, null, null);
+            fail();
+        } catch (EventRecurrence.InvalidFormatException e) {
+            // Expected
+        }
+    }
+}
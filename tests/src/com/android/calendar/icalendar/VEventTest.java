@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.icalendar;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+@SmallTest
+public class VEventTest extends TestCase {
+
+    public void testForName() {
+        assertSame(IcalendarProperty.DTSTART, IcalendarProperty.forName("DTSTART"));
+        assertSame(IcalendarProperty.DTSTART, IcalendarProperty.forName("dtStart"));
+        assertSame(IcalendarProperty.RECURRENCE_ID, IcalendarProperty.forName("RECURRENCE-ID"));
+        assertSame(IcalendarProperty.UID, IcalendarProperty.forName("xUIDx", 1, 4));
+        assertNull(IcalendarProperty.forName("DTSTAR"));
+        assertNull(IcalendarProperty.forName("X-WR-CALNAME"));
+        for (IcalendarProperty property : IcalendarProperty.values()) {
+            assertSame(property, IcalendarProperty.forName(property.getName()));
+        }
+    }
+
+    public void testAddEntry_Parameters() {
+        VEvent event = new VEvent(false);
+        event.addEntry("DTSTART;TZID=\"Europe/Berlin\";VALUE=DATE-TIME:20160101T100000");
+        event.addEntry("DTSTAMP:20160101T090000Z");
+
+        assertEquals("20160101T100000", event.getProperty(VEvent.DTSTART));
+        assertEquals("Europe/Berlin", event.getParameter(VEvent.DTSTART, "TZID"));
+        assertEquals("DATE-TIME", event.getParameter(VEvent.DTSTART, "value"));
+        assertNull(event.getParameter(VEvent.DTSTART, "CN"));
+        assertNull(event.getParameter(VEvent.DTSTAMP, "TZID"));
+        assertNull(event.getProperty(VEvent.DTEND));
+        assertNull(event.getProperty(VEvent.UID));
+    }
+
+    public void testAddEntry_QuotedColon() {
+        VEvent event = new VEvent(false);
+        event.addEntry("LOCATION;ALTREP=\"http://example.com/a;b\":Room 1");
+        event.addEntry("ATTENDEE;CN=\"Doe: Jane\";PARTSTAT=ACCEPTED:mailto:jane@test");
+        event.addEntry("ORGANIZER;CN=\"Doe: John\":MAILTO:john@test");
+
+        assertEquals("Room 1", event.getProperty(VEvent.LOCATION));
+        assertEquals("http://example.com/a;b", event.getParameter(VEvent.LOCATION, "ALTREP"));
+        Attendee attendee = event.mAttendees.getFirst();
+        assertEquals("jane@test", attendee.mEmail);
+        assertEquals("Doe: Jane", attendee.getProperty(Attendee.CN));
+        assertEquals("ACCEPTED", attendee.getProperty(Attendee.PARTSTAT));
+        assertEquals("Doe: John", event.mOrganizer.mName);
+        assertEquals("john@test", event.mOrganizer.mEmail);
+    }
+
+    public void testAddEntry_OtherProperties() {
+        VEvent event = new VEvent(false);
+        event.addEntry("X-MICROSOFT-CDO-BUSYSTATUS:BUSY");
+        event.addEntry("X-Custom;X-PARAM=1:first");
+        event.addEntry("X-CUSTOM:second");
+
+        assertEquals("BUSY", event.getProperty("X-MICROSOFT-CDO-BUSYSTATUS"));
+        // A later property replaces an earlier one with the same name
+        assertEquals("second", event.getProperty("x-custom"));
+        assertNull(event.getProperty("X-OTHER"));
+        // Properties with a slot can be read by name as well
+        event.addEntry("RRULE:FREQ=DAILY");
+        assertEquals("FREQ=DAILY", event.getProperty("RRULE"));
+    }
+
+    public void testAddEntry_RepeatedProperties() {
+        VEvent event = new VEvent(false);
+        event.addEntry("EXDATE;TZID=Europe/Berlin:20160111T100000");
+        event.addEntry("EXDATE:20160201T090000Z,20160208T090000Z");
+        event.addEntry("SUMMARY:First");
+        event.addEntry("SUMMARY:Second");
+
+        assertEquals(2, event.getPropertyCount(VEvent.EXDATE));
+        assertEquals("20160111T100000", event.getProperty(VEvent.EXDATE, 0));
+        assertEquals("Europe/Berlin", event.getParameter(VEvent.EXDATE, 0, "TZID"));
+        assertEquals("20160201T090000Z,20160208T090000Z", event.getProperty(VEvent.EXDATE, 1));
+        assertNull(event.getParameter(VEvent.EXDATE, 1, "TZID"));
+        assertEquals(1, event.getPropertyCount(VEvent.SUMMARY));
+        assertEquals("Second", event.getProperty(VEvent.SUMMARY));
+        event.addOrganizer(new Organizer("Organizer", "organizer@test"));
+        assertTrue(event.getICalFormattedString().contains(
+                "EXDATE:20160201T090000Z,20160208T090000Z"));
+
+        // Setting a property replaces all its occurrences
+        event.addProperty(VEvent.EXDATE, "20160111T090000Z");
+        assertEquals(1, event.getPropertyCount(VEvent.EXDATE));
+    }
+
+    public void testNamesAreInterned() {
+        VEvent first = new VEvent(false);
+        VEvent second = new VEvent(false);
+        first.addEntry(new StringBuilder("DTSTART;TZID=Europe/Berlin:20160101T100000")
+                .toString());
+        second.addEntry(new StringBuilder("DTSTART;TZID=Europe/Berlin:20160102T100000")
+                .toString());
+        assertSame(first.mProperties.getParameters(VEvent.DTSTART).getName(0),
+                second.mProperties.getParameters(VEvent.DTSTART).getName(0));
+    }
+
+    public void testGetICalFormattedString() {
+        VEvent event = new VEvent(false);
+        event.addEntry("UID:a@test");
+        event.addEntry("DTSTART;TZID=Europe/Berlin:20160101T100000");
+        event.addEntry("X-CUSTOM;X-PARAM=\"a:b\":value");
+        event.addOrganizer(new Organizer("Organizer", "organizer@test"));
+
+        String formatted = event.getICalFormattedString();
+        assertTrue(formatted, formatted.contains("UID:a@test\n"));
+        assertTrue(formatted, formatted.contains("DTSTART;TZID=Europe/Berlin:20160101T100000\n"));
+        assertTrue(formatted, formatted.contains("X-CUSTOM;X-PARAM=\"a:b\":value\n"));
+    }
+
+    public void testGeneratedUid() {
+        VEvent event = new VEvent();
+        assertNotNull(event.getProperty(VEvent.UID));
+        assertNotNull(event.getProperty(VEvent.DTSTAMP));
+        assertFalse(event.addProperty(VEvent.ATTENDEE, "mailto:a@test"));
+        assertTrue(event.addProperty(VEvent.SUMMARY, "Summary"));
+        assertEquals("Summary", event.getProperty(VEvent.SUMMARY));
+    }
+}
@@ -21,8 +21,14 @@ import com.android.calendar.widget.CalendarAppWidgetModel.EventInfo;
 import com.android.calendar.widget.CalendarAppWidgetService.CalendarFactory;
 import com.android.calendar.Utils;
 
+import android.appwidget.AppWidgetManager;
 import android.content.Context;
+import android.content.CursorLoader;
+import android.content.Intent;
+import android.content.Loader;
+import android.database.Cursor;
 import android.database.MatrixCursor;
+import android.net.Uri;
 import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.SmallTest;
 import android.test.suitebuilder.annotation.Suppress;
@@ -173,6 +179,176 @@ public class CalendarAppWidgetServiceTest extends AndroidTestCase {
         assertEquals(expected.toString(), actual.toString());
     }
 
+    @SmallTest
+    public void testGetAppWidgetModel_ReusesUnchangedEvents() throws Exception {
+        Context context = getContext();
+        String tz = Time.getCurrentTimezone();
+        MatrixCursor cursor = new MatrixCursor(CalendarAppWidgetService.EVENT_PROJECTION, 0);
+        cursor.addRow(getRow(0, now + ONE_HOUR, now + TWO_HOURS, title + 0, location + 0, 1));
+        cursor.addRow(getRow(0, now + TWO_HOURS, now + TWO_HOURS + ONE_HOUR, title + 1,
+                location + 1, 2));
+        CalendarAppWidgetModel previous = CalendarFactory.buildAppWidgetModel(context, cursor, tz);
+
+        // Same rows
+        CalendarAppWidgetModel actual = CalendarFactory.buildAppWidgetModel(context, cursor, tz,
+                previous);
+        assertEquals(previous.toString(), actual.toString());
+        assertSame(previous.mEventInfos.get(0), actual.mEventInfos.get(0));
+        assertSame(previous.mEventInfos.get(1), actual.mEventInfos.get(1));
+        assertTrue(actual.hasSameRows(previous));
+
+        // One event renamed
+        cursor = new MatrixCursor(CalendarAppWidgetService.EVENT_PROJECTION, 0);
+        cursor.addRow(getRow(0, now + ONE_HOUR, now + TWO_HOURS, title + 0, location + 0, 1));
+        cursor.addRow(getRow(0, now + TWO_HOURS, now + TWO_HOURS + ONE_HOUR, title + 2,
+                location + 1, 2));
+        actual = CalendarFactory.buildAppWidgetModel(context, cursor, tz, previous);
+        assertSame(previous.mEventInfos.get(0), actual.mEventInfos.get(0));
+        assertNotSame(previous.mEventInfos.get(1), actual.mEventInfos.get(1));
+        assertEquals(title + 2, actual.mEventInfos.get(1).title);
+        assertFalse(actual.hasSameRows(previous));
+    }
+
+    @SmallTest
+    public void testUseEventViewColors() throws Exception {
+        CalendarFactory.useEventViewColors(1, 2, 3);
+        assertFalse(CalendarFactory.useEventViewColors(1, 2, 3));
+        // Each color counts, e.g. after switching to a night theme
+        assertTrue(CalendarFactory.useEventViewColors(4, 2, 3));
+        assertTrue(CalendarFactory.useEventViewColors(4, 5, 3));
+        assertTrue(CalendarFactory.useEventViewColors(4, 5, 6));
+        assertFalse(CalendarFactory.useEventViewColors(4, 5, 6));
+    }
+
+    /**
+     * Records how the factories use it instead of querying the provider
+     */
+    private static class RecordingLoader extends CursorLoader {
+        int mForcedLoads;
+        int mResets;
+        int mListenerId;
+        Loader.OnLoadCompleteListener<Cursor> mListener;
+
+        RecordingLoader(Context context, Uri uri, String selection) {
+            super(context, uri, CalendarAppWidgetService.EVENT_PROJECTION, selection, null,
+                    null);
+        }
+
+        @Override
+        public void registerListener(int id, Loader.OnLoadCompleteListener<Cursor> listener) {
+            super.registerListener(id, listener);
+            mListenerId = id;
+            mListener = listener;
+        }
+
+        @Override
+        public void unregisterListener(Loader.OnLoadCompleteListener<Cursor> listener) {
+            super.unregisterListener(listener);
+            mListener = null;
+        }
+
+        @Override
+        public void forceLoad() {
+            mForcedLoads++;
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            mResets++;
+        }
+    }
+
+    /**
+     * A factory whose loaders are RecordingLoaders, the last one in mCreated
+     */
+    private static class TestFactory extends CalendarFactory {
+        private final Context mTestContext;
+        RecordingLoader mCreated;
+
+        TestFactory(Context context, int appWidgetId) {
+            super(context, new Intent().putExtra(AppWidgetManager.EXTRA_APPWIDGET_ID,
+                    appWidgetId));
+            mTestContext = context;
+        }
+
+        @Override
+        CursorLoader createLoader(Uri uri, String selection) {
+            mCreated = new RecordingLoader(mTestContext, uri, selection);
+            return mCreated;
+        }
+    }
+
+    @SmallTest
+    public void testSharedLoader_AcquireRelease() throws Exception {
+        TestFactory first = new TestFactory(getContext(), 1);
+        TestFactory second = new TestFactory(getContext(), 2);
+        try {
+            first.acquireSharedLoader("selection");
+            RecordingLoader loader = first.mCreated;
+            assertNotNull(loader);
+            assertSame(first, loader.mListener);
+            assertEquals(1, loader.mListenerId);
+            assertEquals(1, loader.mForcedLoads);
+
+            // The second widget shows the results of the first one's loader
+            second.acquireSharedLoader("selection");
+            assertNull(second.mCreated);
+            assertSame(first, loader.mListener);
+            assertEquals(1, loader.mForcedLoads);
+
+            second.releaseSharedLoader();
+            assertSame(first, loader.mListener);
+            assertEquals(0, loader.mResets);
+
+            // The loader stops with its last widget
+            first.releaseSharedLoader();
+            assertEquals(1, loader.mResets);
+            assertFalse(CalendarFactory.reloadSharedLoader("selection", Integer.MAX_VALUE));
+        } finally {
+            second.releaseSharedLoader();
+            first.releaseSharedLoader();
+        }
+    }
+
+    @SmallTest
+    public void testSharedLoader_Handover() throws Exception {
+        TestFactory first = new TestFactory(getContext(), 1);
+        TestFactory second = new TestFactory(getContext(), 2);
+        TestFactory third = new TestFactory(getContext(), 3);
+        try {
+            first.acquireSharedLoader("selection");
+            second.acquireSharedLoader("selection");
+            third.acquireSharedLoader("selection");
+            RecordingLoader loader = first.mCreated;
+
+            // The results go to the next widget when the receiving one goes away
+            first.releaseSharedLoader();
+            assertSame(second, loader.mListener);
+            assertEquals(2, loader.mListenerId);
+            assertEquals(0, loader.mResets);
+
+            // A provider change reloads the same loader through the new receiver. The version
+            // is newer than any queued load.
+            assertTrue(CalendarFactory.reloadSharedLoader("changed", Integer.MAX_VALUE));
+            assertEquals(2, loader.mForcedLoads);
+            assertEquals("changed", loader.getSelection());
+            assertNull(second.mCreated);
+            assertNull(third.mCreated);
+
+            // A widget that isn't receiving leaves the receiver alone
+            third.releaseSharedLoader();
+            assertSame(second, loader.mListener);
+
+            second.releaseSharedLoader();
+            assertEquals(1, loader.mResets);
+        } finally {
+            third.releaseSharedLoader();
+            second.releaseSharedLoader();
+            first.releaseSharedLoader();
+        }
+    }
+
     private Object[] getRow(int allDay, long begin, long end, String title, String location,
             long eventId) {
         Object[] row = new Object[CalendarAppWidgetService.EVENT_PROJECTION.length];
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2016 The Etar Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.widget;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SmallTest
+public class WidgetRefreshSchedulerTest extends TestCase {
+    // Far enough in the future that nothing scheduled runs during the test
+    private static final long LATER = SystemClock.uptimeMillis() + 1000000;
+
+    private HandlerThread mThread;
+    private WidgetRefreshScheduler mScheduler;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread("WidgetRefreshSchedulerTest");
+        mThread.start();
+        mScheduler = new WidgetRefreshScheduler(new Handler(mThread.getLooper()));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mThread.quit();
+        super.tearDown();
+    }
+
+    public void testBurstIsCoalesced() {
+        Runnable refresh = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        assertTrue(mScheduler.requestRefresh(1, refresh, LATER));
+        for (int i = 1; i <= 20; i++) {
+            assertFalse(mScheduler.requestRefresh(1, refresh, LATER + i * 100));
+        }
+        // Another widget is refreshed separately
+        assertTrue(mScheduler.requestRefresh(2, refresh, LATER));
+
+        assertEquals(22, mScheduler.getRequestCount());
+        assertEquals(20, mScheduler.getSuppressedCount());
+    }
+
+    public void testDebounceGrowsDuringBurst() {
+        Runnable refresh = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        mScheduler.requestRefresh(1, refresh, LATER);
+        assertEquals(LATER + WidgetRefreshScheduler.MIN_DEBOUNCE_MS,
+                mScheduler.getRefreshTime(1, LATER));
+
+        mScheduler.requestRefresh(1, refresh, LATER + 100);
+        assertEquals(LATER + 100 + 2 * WidgetRefreshScheduler.MIN_DEBOUNCE_MS,
+                mScheduler.getRefreshTime(1, LATER + 100));
+
+        // Never pushed back further than the maximum debounce after the first request
+        for (int i = 2; i < 50; i++) {
+            mScheduler.requestRefresh(1, refresh, LATER + i * 100);
+        }
+        assertEquals(LATER + WidgetRefreshScheduler.MAX_DEBOUNCE_MS,
+                mScheduler.getRefreshTime(1, LATER + 4900));
+    }
+
+    public void testRefreshOfAllWidgetsServesSingleWidgets() {
+        Runnable refresh = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        assertTrue(mScheduler.requestRefresh(WidgetRefreshScheduler.ALL_WIDGETS, refresh, LATER));
+        assertFalse(mScheduler.requestRefresh(1, refresh, LATER));
+        assertEquals(1, mScheduler.getSuppressedCount());
+    }
+
+    public void testRefreshRuns() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        Runnable refresh = new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+                done.countDown();
+            }
+        };
+        assertTrue(mScheduler.requestRefresh(1, refresh));
+        assertFalse(mScheduler.requestRefresh(1, refresh));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, runs.get());
+        assertEquals(1, mScheduler.getRefreshCount());
+
+        // The next request starts a new refresh
+        assertTrue(mScheduler.requestRefresh(1, refresh));
+    }
+}